@@ -23,6 +23,9 @@
  */
 package com.cinnober.ciguan;
 
+import java.util.Collection;
+import java.util.Set;
+
 /**
  * Defines authorization functionality.
  */
@@ -45,6 +48,61 @@ public interface AsAuthorizationHandlerIf {
      */
     void addAccess(String pUserId, Object pServiceRef);
 
+    /**
+     * Adds access for the specified user to all of the provided services in one operation.
+     * The default implementation adds the services one by one through {@link #addAccess(String, Object)}.
+     *
+     * @param pUserId The user id.
+     * @param pServiceRefs The service refs.
+     * @throws IllegalArgumentException if the user id is null.
+     */
+    default void grantAccess(String pUserId, Collection<?> pServiceRefs) {
+        if (pUserId == null) {
+            throw new IllegalArgumentException("Access rights cannot be registered for a null user id");
+        }
+        for (Object tServiceRef : pServiceRefs) {
+            addAccess(pUserId, tServiceRef);
+        }
+    }
+
+    /**
+     * Removes access for the specified user to all of the provided services in one operation.
+     * Not supported by default, since access rights cannot be removed through the other methods.
+     *
+     * @param pUserId The user id.
+     * @param pServiceRefs The service refs.
+     * @throws IllegalArgumentException if the user id is null.
+     * @throws UnsupportedOperationException if not implemented.
+     */
+    default void revokeAccess(String pUserId, Collection<?> pServiceRefs) {
+        throw new UnsupportedOperationException("revokeAccess is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Replaces all access rights of the specified user with the provided services.
+     * Not supported by default, since access rights cannot be removed through the other methods.
+     *
+     * @param pUserId The user id.
+     * @param pServiceRefs The service refs, an empty collection removes all access.
+     * @throws IllegalArgumentException if the user id is null.
+     * @throws UnsupportedOperationException if not implemented.
+     */
+    default void setAccess(String pUserId, Collection<?> pServiceRefs) {
+        throw new UnsupportedOperationException("setAccess is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Get the services which the specified user currently has access to.
+     * Not supported by default, since access rights cannot be listed through the other methods.
+     *
+     * @param pUserId The user id.
+     * @return an immutable snapshot of the access rights, never {@code null}.
+     * @throws UnsupportedOperationException if not implemented.
+     */
+    default Set<Object> getAccess(String pUserId) {
+        throw new UnsupportedOperationException("getAccess is not supported by " + getClass().getName());
+    }
+
     /**
      * Get the initialized status
      * @return true if the authorization handler has been initialized with authorization data, otherwise false
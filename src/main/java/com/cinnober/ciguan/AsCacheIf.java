@@ -56,6 +56,9 @@ public interface AsCacheIf {
     /**
      * Fetch all objects of type pFrom where the pFieldName attribute matches the pToKey value
      * Example: getReferencingObjects(User.class, "memberId", "AAA");
+     * <p>
+     * The returned collection is a read-only view of the reference index, which can be iterated
+     * while the index is updated. Callers needing a stable copy must make one themselves.
      *
      * @param <From> The generic type.
      * @param pFrom The from class.
@@ -50,7 +50,7 @@ public interface AsMetaDataHandlerIf {
     /**
      * Gets the type name from the given type
      * @param pClass
-     * @return the full name of the class, including a possible namespace prefix
+     * @return the full name of the class, including a possible namespace prefix, or null if the class is null
      */
     <T> String getTypeName(Class<T> pClass);
     
@@ -125,7 +125,7 @@ public interface AsMetaDataHandlerIf {
      *
      * @param <T> the type
      * @param pClass the class
-     * @return the meta data
+     * @return the meta data, or null if the class is null
      */
     <T> AsMetaObject<T> getMetaData(Class<T> pClass);
  
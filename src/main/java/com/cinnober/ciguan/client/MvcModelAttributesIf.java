@@ -45,6 +45,7 @@ public interface MvcModelAttributesIf {
     String ATTR_AXIS = "axis";
     String ATTR_BUSINESS_TYPE = "businessType";
     String ATTR_CANCEL = "cancel";
+    String ATTR_CHANGED = "changed";
     String ATTR_CLASSNAME = "className";
     String ATTR_CLEAR_DISABLED = "clearDisabled";
     String ATTR_CLIENT_USER_SETTINGS = "clientUserSettings";
@@ -172,6 +173,7 @@ public interface MvcModelAttributesIf {
     String ATTR_PRICE = "price";
     String ATTR_PROCESSOR = "processor";
     String ATTR_QUERY = "query";
+    String ATTR_QUERY_CACHE_TTL = "queryCacheTtl";
     String ATTR_READ_MESSAGES = "readMessages";
     String ATTR_READ_ONLY = "readOnly";
     String ATTR_REF = "ref";
@@ -189,6 +191,7 @@ public interface MvcModelAttributesIf {
     String ATTR_SCREEN_ORIENTATION = "screenOrientation";
     String ATTR_SEGMENT_NO = "segmentNo";
     String ATTR_SEGMENT_COUNT = "segmentCount";
+    String ATTR_SELECT_ALL = "selectAll";
     String ATTR_SELECTED_COUNT = "selectedCount";
     String ATTR_SELECTED_INDEX = "selectedIndex";
     String ATTR_SELECTED_KEYS = "selectedKeys";
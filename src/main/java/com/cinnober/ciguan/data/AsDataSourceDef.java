@@ -221,6 +221,21 @@ public class AsDataSourceDef<T> extends AsXmlRefData implements MvcModelAttribut
         return Boolean.valueOf(get(ATTR_QUERY));
     }
 
+    /**
+     * Gets the time to live in milliseconds of shared query results, see
+     * {@link com.cinnober.ciguan.datasource.impl.AsQueryResultCache}.
+     *
+     * @return the time to live, or zero if query results are not shared
+     */
+    public int getQueryCacheTtl() {
+        try {
+            return has(ATTR_QUERY_CACHE_TTL) ? Math.max(0, Integer.parseInt(get(ATTR_QUERY_CACHE_TTL))) : 0;
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     /**
      * Checks for.
      *
@@ -31,7 +31,7 @@ import com.cinnober.ciguan.datasource.AsDataSourceIf;
 import com.cinnober.ciguan.datasource.AsFilterIf;
 import com.cinnober.ciguan.datasource.AsListIf;
 import com.cinnober.ciguan.datasource.CwfGlobalDataSources;
-import com.cinnober.ciguan.datasource.filter.AsAttributeValueFilter;
+import com.cinnober.ciguan.datasource.filter.AsFilterCache;
 import com.cinnober.ciguan.datasource.impl.AsXmlRefData;
 import com.cinnober.ciguan.datasource.listtree.AsListTreeNode;
 import com.cinnober.ciguan.datasource.tree.AsTreeNode;
@@ -209,13 +209,22 @@ public class AsMenuItem extends AsXmlRefData {
         if (getValues().getObjectList(TAG_MENUITEM).isEmpty()) {
             AsDataSourceIf<AsXmlRefData> tMenuItems = pConnection.
                     getDataSourceService().getDataSource(CwfGlobalDataSources.MENUITEMS_ALL, null);
-            // If the menu item is not found, the user does not have access to it
-            AsXmlRefData tMenuItem = ((AsListIf<AsXmlRefData>) tMenuItems).get(getId());
-            return tMenuItem != null;
+            return isAccessAllowed((AsListIf<AsXmlRefData>) tMenuItems);
         }
         return true;
     }
 
+    /**
+     * Check access to a specific menu item, given the menu items available to the user.
+     *
+     * @param pMenuItems the menu items available to the user
+     * @return {@code true}, if is access allowed
+     */
+    public boolean isAccessAllowed(AsListIf<AsXmlRefData> pMenuItems) {
+        // If the menu item is not found, the user does not have access to it
+        return !getValues().getObjectList(TAG_MENUITEM).isEmpty() || pMenuItems.get(getId()) != null;
+    }
+
     /**
      * Checks if is for perspective.
      *
@@ -235,29 +244,22 @@ public class AsMenuItem extends AsXmlRefData {
      * @param pFilterExpression the filter expression
      * @return the as filter if
      */
-    @SuppressWarnings("rawtypes")
     protected AsFilterIf<?> createFilter(AsConnectionIf pConnection, Object pItem, String pFilterExpression) {
         // Attempt to create a class filter first
         String tFilterClass = pFilterExpression.indexOf('.') >= 0 ? pFilterExpression :
             "com.cinnober.ciguan.datasource.filter." + pFilterExpression;
         try {
-            Class<?> tClass = Class.forName(tFilterClass);
-            if (!AsFilterIf.class.isAssignableFrom(tClass)) {
-                throw new RuntimeException("Menu filter class '" + tFilterClass + "' is not a filter implementation");
+            Constructor<? extends AsFilterIf<?>> tConstructor = AsFilterCache.getConstructor(tFilterClass, AsConnectionIf.class);
+            if (tConstructor != null) {
+                return tConstructor.newInstance(pConnection);
             }
-            Constructor tConstructor = tClass.getConstructor(AsConnectionIf.class);
-            AsFilterIf tFilter = (AsFilterIf) tConstructor.newInstance(pConnection);
-            return tFilter;
-        }
-        catch (ClassNotFoundException e) {
-            // Not a class based filter, proceed
         }
         catch (Exception e) {
             throw new RuntimeException("Could not instantiate menu filter of type '" + tFilterClass + "'", e);
         }
 
         // Default: Use a getter based filter
-        return AsAttributeValueFilter.create(pItem.getClass(), pFilterExpression);
+        return AsFilterCache.getAttributeValueFilter(pItem.getClass(), pFilterExpression);
     }
 
 }
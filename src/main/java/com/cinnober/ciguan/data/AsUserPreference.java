@@ -213,6 +213,32 @@ public class AsUserPreference extends AsRefDataObject implements MvcUserPreferen
         return tBuffer.toString();
     }
 
+    /**
+     * Construct the common key prefix of all preferences of a user, optionally narrowed down to
+     * a perspective, slot and view. Since preferences are kept in key order, all preferences with
+     * the same prefix form a contiguous range in the preference list.
+     *
+     * @param pUserId the user id
+     * @param pPerspectiveId the perspective id, or {@code null} for all perspectives
+     * @param pSlotId the slot id, or {@code null} for all slots
+     * @param pViewId the view id, or {@code null} for all views
+     * @return the key prefix
+     */
+    public static String keyPrefix(String pUserId, String pPerspectiveId, String pSlotId, String pViewId) {
+        StringBuilder tBuffer = new StringBuilder();
+        tBuffer.append(pUserId).append("+");
+        if (pPerspectiveId != null) {
+            tBuffer.append(pPerspectiveId).append("+");
+            if (pSlotId != null) {
+                tBuffer.append(pSlotId).append("+");
+                if (pViewId != null) {
+                    tBuffer.append(pViewId).append("+");
+                }
+            }
+        }
+        return tBuffer.toString();
+    }
+
     /**
      * Construct a medium key with user, item and preference.
      *
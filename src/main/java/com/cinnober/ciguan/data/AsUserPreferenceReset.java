@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.data;
+
+/**
+ * Event removing all preferences of a user, optionally limited to a perspective, slot and view.
+ * The preferences are removed from the preference list in one operation, instead of broadcasting
+ * one deleted preference per item.
+ * <p>
+ * The scope is narrowed by the components in order, a component is only considered if all
+ * components before it are set.
+ */
+public class AsUserPreferenceReset {
+
+    /** The user id. */
+    public String userId;
+
+    /** The perspective id, or {@code null} for all perspectives. */
+    public String perspectiveId;
+
+    /** The slot id, or {@code null} for all slots. */
+    public String slotId;
+
+    /** The view id, or {@code null} for all views. */
+    public String viewId;
+
+    /**
+     * Instantiates a new user preference reset.
+     */
+    public AsUserPreferenceReset() {
+    }
+
+    /**
+     * Instantiates a new user preference reset.
+     *
+     * @param pUserId the user id
+     * @param pPerspectiveId the perspective id, or {@code null} for all perspectives
+     * @param pSlotId the slot id, or {@code null} for all slots
+     * @param pViewId the view id, or {@code null} for all views
+     */
+    public AsUserPreferenceReset(String pUserId, String pPerspectiveId, String pSlotId, String pViewId) {
+        userId = pUserId;
+        perspectiveId = pPerspectiveId;
+        slotId = pSlotId;
+        viewId = pViewId;
+    }
+
+    /**
+     * Get the common key prefix of all preferences within the scope of the reset.
+     *
+     * @return the key prefix
+     */
+    public String getKeyPrefix() {
+        return AsUserPreference.keyPrefix(userId, perspectiveId, slotId, viewId);
+    }
+
+    /**
+     * Check whether the given preference is within the scope of the reset.
+     *
+     * @param pPreference the preference
+     * @return {@code true} if the preference is to be removed
+     */
+    public boolean matches(AsUserPreference pPreference) {
+        if (userId == null || !userId.equals(pPreference.getUserId())) {
+            return false;
+        }
+        if (perspectiveId == null) {
+            return true;
+        }
+        if (!perspectiveId.equals(pPreference.getPerspectiveId())) {
+            return false;
+        }
+        if (slotId == null) {
+            return true;
+        }
+        if (!slotId.equals(pPreference.getSlotId())) {
+            return false;
+        }
+        return viewId == null || viewId.equals(pPreference.getViewId());
+    }
+
+}
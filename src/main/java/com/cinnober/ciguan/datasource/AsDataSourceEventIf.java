@@ -69,6 +69,18 @@ public interface AsDataSourceEventIf<T> {
      * @return the index
      */
     public int getIndex();
+
+    /**
+     * Get the index that the item had in the list before an update. It differs from {@link #getIndex()}
+     * only when the update moved the item within a sorted list.
+     * <p>
+     * The default implementation returns {@link #getIndex()}, for events which never move an item.
+     *
+     * @return the index before the update
+     */
+    public default int getOldIndex() {
+        return getIndex();
+    }
     
     /**
      * Get the new value.
@@ -63,6 +63,25 @@ public interface AsDataSourceViewportListenerIf<T> extends AsDataSourceListenerI
      */
     void moveViewportSelection(Integer pSelectedObjectMovement, boolean pControlKeyDown, boolean pShiftKeyDown);
 
+    /**
+     * Select all rows of the current viewport, only applicable to multi select viewports.
+     * <p>
+     * The default implementation selects the first row of the list, and then the last row with the
+     * shift key pressed, through {@link #setViewportSelection(String, Integer, boolean, boolean)}.
+     */
+    default void selectAll() {
+        if (!(getDataSource() instanceof AsListIf)) {
+            return;
+        }
+        AsListIf<T> tList = (AsListIf<T>) getDataSource();
+        int tSize = tList.size();
+        if (tSize == 0) {
+            return;
+        }
+        setViewportSelection(tList.getKey(tList.get(0)), null, false, false);
+        setViewportSelection(tList.getKey(tList.get(tSize - 1)), null, false, true);
+    }
+
     /**
      * Set the position of the current viewport.
      *
@@ -24,6 +24,7 @@
 package com.cinnober.ciguan.datasource;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 /**
  * Interface defining operations on lists.
@@ -91,7 +92,28 @@ public interface AsListIf<T> extends AsDataSourceIf<T> {
      * @return the t
      */
     T get(String pKey);
-    
+
+    /**
+     * Get a read-only cursor over the items in list order, starting at the given index. Walking a
+     * range of rows with the cursor costs one lookup for the first row only, as opposed to one lookup
+     * per row when calling {@link #get(int)}. The cursor is not synchronized with modifications of the
+     * list, a concurrent modification may cause it to throw a
+     * {@link java.util.ConcurrentModificationException}.
+     * <p>
+     * The default implementation skips ahead to the given index in an iterator over {@link #values()},
+     * override to locate the first item directly.
+     *
+     * @param pIndex the index of the first item, clamped to the bounds of the list
+     * @return the iterator
+     */
+    default Iterator<T> iterator(int pIndex) {
+        Iterator<T> tIterator = values().iterator();
+        for (int i = 0; i < pIndex && tIterator.hasNext(); i++) {
+            tIterator.next();
+        }
+        return tIterator;
+    }
+
     /**
      * Get the size of the list.
      *
@@ -99,6 +121,21 @@ public interface AsListIf<T> extends AsDataSourceIf<T> {
      */
     int size();
     
+    /**
+     * Add a listener to the list, optionally without the initial snapshot of the list contents. A listener
+     * added without a snapshot only receives the changes made from now on, and is expected to read the
+     * items it needs through {@link #get(int)} and {@link #size()}.
+     * <p>
+     * The default implementation always sends the snapshot, through {@link #addListener(AsDataSourceListenerIf)},
+     * so listeners must accept a snapshot even when they asked for none.
+     *
+     * @param pListener the listener
+     * @param pSnapshot {@code true} to send an initial snapshot to the listener
+     */
+    default void addListener(AsDataSourceListenerIf<T> pListener, boolean pSnapshot) {
+        addListener(pListener);
+    }
+
     /**
      * Get a read-only copy of the contained values.
      *
@@ -25,9 +25,11 @@ package com.cinnober.ciguan.datasource.filter;
 
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import com.cinnober.ciguan.CwfBusinessTypeIf;
 import com.cinnober.ciguan.client.util.StringEscape;
@@ -77,12 +79,17 @@ public abstract class AsAttributeValueFilter<T> extends AsFilter<T> {
         return mHidden ? "" : mToString;
     }
     
-    private static <T> AsFilterIf<T> falseFilter() {
+    private static <T> AsFilterIf<T> falseFilter(final String pFilterExpression) {
         return new AsFilterIf<T>() {
             @Override
             public boolean include(Object pObject) {
                 return false;
             }
+
+            @Override
+            public String toString() {
+                return pFilterExpression;
+            }
         };
     }
 
@@ -101,11 +108,152 @@ public abstract class AsAttributeValueFilter<T> extends AsFilter<T> {
         return tFilter;
     }
     
+    /**
+     * Create a filter from a filter expression. The expression is canonicalized first, see
+     * {@link #canonicalize(Class, String)}, so that equivalent expressions yield filters with the
+     * same string representation, and hence the same data source key.
+     *
+     * @param <T> the item type
+     * @param pClass the item class
+     * @param pFilterExpression the filter expression
+     * @return the filter
+     */
     public static <T> AsFilterIf<T> create(Class<T> pClass, String pFilterExpression) {
-        if (pFilterExpression.contains(",")) {
-            return new AsArrayFilter<T>(pClass, pFilterExpression);
+        String tFilterExpression = canonicalize(pClass, pFilterExpression);
+        if (tFilterExpression.contains(",")) {
+            return new AsArrayFilter<T>(pClass, tFilterExpression);
         }
-        
+        return createCriteriaFilter(pClass, tFilterExpression);
+    }
+
+    /**
+     * Check if a filter created by this class is at least as narrow as another one, i.e. if every
+     * item accepted by the first filter is also accepted by the second. This is the case when the
+     * criteria of the second filter are a subset of the criteria of the first, since the criteria
+     * are combined with a logical and. The criteria are compared on attribute name, operator and
+     * value. Filters of other types, and filters with criteria that never match, are never
+     * considered narrower.
+     *
+     * @param pFilter the filter
+     * @param pOther the other filter
+     * @return {@code true} if the filter is known to be at least as narrow as the other filter
+     */
+    public static boolean isNarrowerThan(AsFilterIf<?> pFilter, AsFilterIf<?> pOther) {
+        Set<List<Object>> tCriteria = getCriteria(pFilter);
+        Set<List<Object>> tOtherCriteria = getCriteria(pOther);
+        return tCriteria != null && tOtherCriteria != null && tCriteria.containsAll(tOtherCriteria);
+    }
+
+    /**
+     * Get the criteria of a visible filter created by this class, each criteria as the list of its
+     * attribute name, operator and value.
+     *
+     * @param pFilter the filter
+     * @return the criteria, or {@code null} if the filter is not a visible criteria filter
+     */
+    private static Set<List<Object>> getCriteria(AsFilterIf<?> pFilter) {
+        if (pFilter == null || pFilter.toString().isEmpty()) {
+            return null;
+        }
+        AsFilterIf<?>[] tFilters;
+        if (pFilter instanceof AsArrayFilter<?>) {
+            tFilters = ((AsArrayFilter<?>) pFilter).mFilters;
+        }
+        else {
+            tFilters = new AsFilterIf<?>[] {pFilter};
+        }
+        Set<List<Object>> tCriteria = new HashSet<List<Object>>();
+        for (AsFilterIf<?> tFilter : tFilters) {
+            if (!(tFilter instanceof AsAttributeValueFilter<?>)) {
+                return null;
+            }
+            RpcFilterCriteriaIf tFilterCriteria = ((AsAttributeValueFilter<?>) tFilter).getFilterCriteria();
+            tCriteria.add(Arrays.<Object>asList(
+                tFilterCriteria.getAttributeName(), tFilterCriteria.getOperator(), tFilterCriteria.getValue()));
+        }
+        return tCriteria;
+    }
+
+    /**
+     * Bring a filter expression on canonical form: attribute names are trimmed, the comma separated
+     * criteria are sorted with duplicates and empty criteria removed, and the alternatives of
+     * constant equality criteria ({@code attribute=A|B}) are sorted with duplicates removed.
+     *
+     * @param pClass the item class
+     * @param pFilterExpression the filter expression
+     * @return the canonical filter expression
+     */
+    public static String canonicalize(Class<?> pClass, String pFilterExpression) {
+        Set<String> tCriteria = new TreeSet<String>();
+        for (String tPart : pFilterExpression.split(",")) {
+            String tCanonical = canonicalizeCriteria(pClass, tPart);
+            if (!tCanonical.isEmpty()) {
+                tCriteria.add(tCanonical);
+            }
+        }
+        if (tCriteria.size() == 1) {
+            return tCriteria.iterator().next();
+        }
+        StringBuilder tExpression = new StringBuilder(pFilterExpression.length());
+        for (String tCanonical : tCriteria) {
+            tExpression.append(tExpression.length() > 0 ? "," : "").append(tCanonical);
+        }
+        return tExpression.toString();
+    }
+
+    /**
+     * Bring a single filter criteria on canonical form.
+     *
+     * @param pClass the item class
+     * @param pCriteria the filter criteria
+     * @return the canonical filter criteria
+     */
+    private static String canonicalizeCriteria(Class<?> pClass, String pCriteria) {
+        String[] tParts = RpcFilterOperator.split(pCriteria);
+        if (tParts == null) {
+            return pCriteria.trim();
+        }
+        String tAttributeName = tParts[0].trim();
+        String tValue = tParts[2];
+        if (tValue.indexOf('|') >= 0 && RpcFilterOperator.get(tParts[1]) == RpcFilterOperator.Equals &&
+            isConstant(pClass, tAttributeName)) {
+            Set<String> tValues = new TreeSet<String>(Arrays.asList(tValue.split("\\|")));
+            StringBuilder tBuilder = new StringBuilder(tValue.length());
+            for (String tPart : tValues) {
+                tBuilder.append(tBuilder.length() > 0 ? "|" : "").append(tPart);
+            }
+            tValue = tBuilder.toString();
+        }
+        return tAttributeName + tParts[1] + tValue;
+    }
+
+    /**
+     * Check if an attribute is of the constant business type, whose equality criteria may hold a set
+     * of alternatives.
+     *
+     * @param pClass the item class
+     * @param pAttributeName the attribute name
+     * @return {@code true}, if the attribute is a constant
+     */
+    private static boolean isConstant(Class<?> pClass, String pAttributeName) {
+        try {
+            return AsFilterCache.getGetMethod(pClass, pAttributeName).getBusinessType() == CwfBusinessTypes.Constant;
+        }
+        catch (RuntimeException e) {
+            // Unknown attribute, reported when the filter is created
+            return false;
+        }
+    }
+
+    /**
+     * Create a filter from a single, canonical, filter criteria.
+     *
+     * @param <T> the item type
+     * @param pClass the item class
+     * @param pFilterExpression the filter criteria
+     * @return the filter
+     */
+    private static <T> AsFilterIf<T> createCriteriaFilter(Class<T> pClass, String pFilterExpression) {
         RpcFilterCriteriaIf tFilterCriteria = RpcAttributeFilterCriteria.fromString(pFilterExpression);
         RpcFilterOperator tOperator = tFilterCriteria.getOperator();
         AsGetMethodIf<T> tMethod = AsGetMethod.create(pClass, tFilterCriteria.getAttributeName());
@@ -158,7 +306,7 @@ public abstract class AsAttributeValueFilter<T> extends AsFilter<T> {
                         }
                     };
                 default:
-                    return falseFilter();
+                    return falseFilter(pFilterExpression);
             }
         }
         if (tBusinessType.getUnderlyingType() == String.class) {
@@ -221,7 +369,7 @@ public abstract class AsAttributeValueFilter<T> extends AsFilter<T> {
                         }
                     };
                 default:
-                    return falseFilter();
+                    return falseFilter(pFilterExpression);
             }
         }
         
@@ -258,7 +406,7 @@ public abstract class AsAttributeValueFilter<T> extends AsFilter<T> {
                         }
                     };
                 default:
-                    return falseFilter();
+                    return falseFilter(pFilterExpression);
             }
         }
 
@@ -294,7 +442,7 @@ public abstract class AsAttributeValueFilter<T> extends AsFilter<T> {
                         }
                     };
                 default:
-                    return falseFilter();
+                    return falseFilter(pFilterExpression);
             }
         }
         if (tBusinessType.getUnderlyingType() == Boolean.class) {
@@ -315,7 +463,7 @@ public abstract class AsAttributeValueFilter<T> extends AsFilter<T> {
                         }
                     };
                 default:
-                    return falseFilter();
+                    return falseFilter(pFilterExpression);
             }
         }
         if (tBusinessType.getUnderlyingType() == Object.class) {
@@ -337,7 +485,7 @@ public abstract class AsAttributeValueFilter<T> extends AsFilter<T> {
                             }
                         };
                     default:
-                        return falseFilter();
+                        return falseFilter(pFilterExpression);
                 }
             }
             if ("Map".equals(tMethod.getBusinessSubtype())) {
@@ -357,10 +505,10 @@ public abstract class AsAttributeValueFilter<T> extends AsFilter<T> {
                             }
                         };
                     default:
-                        return falseFilter();
+                        return falseFilter(pFilterExpression);
                 }
             }
-            return falseFilter();
+            return falseFilter(pFilterExpression);
         }
         
         throw new RuntimeException("Filter (" + tOperator + ") not implemented");
@@ -381,7 +529,7 @@ public abstract class AsAttributeValueFilter<T> extends AsFilter<T> {
             String[] tParts = pFilterExpression.split(",");
             mFilters = new AsFilterIf[tParts.length];
             for (int i = 0; i < tParts.length; i++) {
-                mFilters[i] = create(pClass, tParts[i]);
+                mFilters[i] = createCriteriaFilter(pClass, tParts[i]);
             }
         }
      
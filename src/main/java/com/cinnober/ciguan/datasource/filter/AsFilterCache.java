@@ -0,0 +1,200 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.filter;
+
+import java.lang.reflect.Constructor;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cinnober.ciguan.datasource.AsFilterIf;
+import com.cinnober.ciguan.datasource.AsGetMethodIf;
+import com.cinnober.ciguan.datasource.getter.AsGetMethod;
+
+/**
+ * Cache of compiled filter building blocks: attribute value filters, filter templates, getters and filter
+ * class constructors. Each is resolved once per expression and item class, and shared from then on.
+ * Attribute value filters, filter templates and getters are stateless once created, so they can be shared
+ * freely between threads and sessions.
+ * <p>
+ * Filter expressions and attribute names may come from clients, so every cache is a least recently used
+ * cache per class, bounded by the {@code cwf.filterCacheSize} system property.
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public abstract class AsFilterCache {
+
+    /** System property holding the maximum number of cached entries of each kind per class. */
+    public static final String CWF_FILTER_CACHE_SIZE_PROPERTY = "cwf.filterCacheSize";
+
+    /** The default maximum number of cached entries of each kind per class. */
+    public static final int DEFAULT_FILTER_CACHE_SIZE = 1000;
+
+    /** The maximum number of cached entries of each kind per class. */
+    private static final int cFilterCacheSize =
+        Math.max(1, Integer.getInteger(CWF_FILTER_CACHE_SIZE_PROPERTY, DEFAULT_FILTER_CACHE_SIZE));
+
+    /** Marker for a class name which does not resolve to a class. */
+    private static final Object NO_CLASS = new Object();
+
+    /** The attribute value filters, keyed by item class and filter expression. */
+    private static final ConcurrentHashMap<Class<?>, Map<String, AsFilterIf<?>>> cFilters =
+        new ConcurrentHashMap<Class<?>, Map<String, AsFilterIf<?>>>();
+
+    /** The filter templates, keyed by item class and filter expression. */
+    private static final ConcurrentHashMap<Class<?>, Map<String, AsFilterTemplate>> cFilterTemplates =
+        new ConcurrentHashMap<Class<?>, Map<String, AsFilterTemplate>>();
+
+    /** The getters, keyed by item class and attribute name. */
+    private static final ConcurrentHashMap<Class<?>, Map<String, AsGetMethodIf<?>>> cGetMethods =
+        new ConcurrentHashMap<Class<?>, Map<String, AsGetMethodIf<?>>>();
+
+    /** The filter constructors (or {@link #NO_CLASS}), keyed by parameter type and filter class name. */
+    private static final ConcurrentHashMap<Class<?>, Map<String, Object>> cConstructors =
+        new ConcurrentHashMap<Class<?>, Map<String, Object>>();
+
+    /**
+     * Get the attribute value filter for the given class and expression,
+     * see {@link AsAttributeValueFilter#create(Class, String)}.
+     *
+     * @param <T> the item type
+     * @param pClass the item class
+     * @param pFilterExpression the filter expression
+     * @return the shared filter
+     */
+    public static <T> AsFilterIf<T> getAttributeValueFilter(Class<T> pClass, String pFilterExpression) {
+        Map<String, AsFilterIf<?>> tFilters = getMap(cFilters, pClass);
+        AsFilterIf<?> tFilter = tFilters.get(pFilterExpression);
+        if (tFilter == null) {
+            tFilter = AsAttributeValueFilter.create(pClass, pFilterExpression);
+            tFilters.put(pFilterExpression, tFilter);
+        }
+        return (AsFilterIf<T>) tFilter;
+    }
+
+    /**
+     * Get the filter template for the given class and expression, see {@link AsFilterTemplate}.
+     *
+     * @param pClass the item class
+     * @param pFilterExpression the filter expression
+     * @return the shared filter template
+     */
+    public static AsFilterTemplate getFilterTemplate(Class<?> pClass, String pFilterExpression) {
+        Map<String, AsFilterTemplate> tTemplates = getMap(cFilterTemplates, pClass);
+        AsFilterTemplate tTemplate = tTemplates.get(pFilterExpression);
+        if (tTemplate == null) {
+            tTemplate = new AsFilterTemplate(pClass, pFilterExpression);
+            tTemplates.put(pFilterExpression, tTemplate);
+        }
+        return tTemplate;
+    }
+
+    /**
+     * Get the getter for the given class and attribute, see {@link AsGetMethod#create(Class, String)}.
+     *
+     * @param <T> the item type
+     * @param pClass the item class
+     * @param pAttributeName the attribute name
+     * @return the shared getter
+     */
+    public static <T> AsGetMethodIf<T> getGetMethod(Class<T> pClass, String pAttributeName) {
+        Map<String, AsGetMethodIf<?>> tGetMethods = getMap(cGetMethods, pClass);
+        AsGetMethodIf<?> tGetMethod = tGetMethods.get(pAttributeName);
+        if (tGetMethod == null) {
+            tGetMethod = AsGetMethod.create(pClass, pAttributeName);
+            tGetMethods.put(pAttributeName, tGetMethod);
+        }
+        return (AsGetMethodIf<T>) tGetMethod;
+    }
+
+    /**
+     * Get the constructor of a filter class taking a single parameter of the given type.
+     *
+     * @param pClassName the filter class name
+     * @param pParameterType the constructor parameter type
+     * @return the constructor, or {@code null} if there is no class with the given name
+     * @throws RuntimeException if the class is not a filter or lacks the constructor
+     */
+    public static Constructor<? extends AsFilterIf<?>> getConstructor(String pClassName, Class<?> pParameterType) {
+        Map<String, Object> tConstructors = getMap(cConstructors, pParameterType);
+        Object tConstructor = tConstructors.get(pClassName);
+        if (tConstructor == null) {
+            try {
+                Class<?> tClass = Class.forName(pClassName);
+                if (!AsFilterIf.class.isAssignableFrom(tClass)) {
+                    throw new RuntimeException("Filter class '" + pClassName + "' is not a filter implementation");
+                }
+                tConstructor = tClass.getConstructor(pParameterType);
+            }
+            catch (ClassNotFoundException e) {
+                tConstructor = NO_CLASS;
+            }
+            catch (NoSuchMethodException e) {
+                throw new RuntimeException("Filter class '" + pClassName + "' has no constructor taking " +
+                    pParameterType.getName(), e);
+            }
+            tConstructors.put(pClassName, tConstructor);
+        }
+        return tConstructor == NO_CLASS ? null : (Constructor<? extends AsFilterIf<?>>) tConstructor;
+    }
+
+    /**
+     * Get or create the inner map for a given class.
+     *
+     * @param <V> the value type
+     * @param pMaps the outer map
+     * @param pClass the class
+     * @return the inner map
+     */
+    private static <V> Map<String, V> getMap(ConcurrentHashMap<Class<?>, Map<String, V>> pMaps, Class<?> pClass) {
+        Map<String, V> tMap = pMaps.get(pClass);
+        if (tMap == null) {
+            tMap = createLruMap(cFilterCacheSize);
+            Map<String, V> tExisting = pMaps.putIfAbsent(pClass, tMap);
+            if (tExisting != null) {
+                tMap = tExisting;
+            }
+        }
+        return tMap;
+    }
+
+    /**
+     * Create a synchronized map which evicts its least recently used entry when it exceeds the given size.
+     *
+     * @param <V> the value type
+     * @param pMaxSize the maximum size
+     * @return the map
+     */
+    static <V> Map<String, V> createLruMap(final int pMaxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> pEldest) {
+                return size() > pMaxSize;
+            }
+        });
+    }
+
+}
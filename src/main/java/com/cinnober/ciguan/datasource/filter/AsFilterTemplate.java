@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.filter;
+
+import com.cinnober.ciguan.datasource.AsGetMethodIf;
+
+/**
+ * Compiled filter expression with parameters bound to the attribute values of an item.
+ * <p>
+ * The expression consists of comma separated parts. A part containing {@code "../"} is a parameter: the
+ * text after {@code "../"} names an attribute of the item, whose value replaces it when the template is
+ * bound. The expression is parsed and the getters are resolved once, when the template is created, so
+ * binding only reads the attribute values of the item.
+ */
+public class AsFilterTemplate {
+
+    /** The parent reference which marks a parameter. */
+    private static final String PARENT_REFERENCE = "../";
+
+    /** The text of each part, up to the parent reference if the part is a parameter. */
+    private final String[] mTexts;
+
+    /** The getter of each part, {@code null} for constant parts. */
+    private final AsGetMethodIf<Object>[] mGetters;
+
+    /** The expression, returned as is when there are no parameters. */
+    private final String mExpression;
+
+    /** The parameterized flag. */
+    private final boolean mParameterized;
+
+    /**
+     * Compile a filter expression for items of the given class.
+     *
+     * @param pClass the item class
+     * @param pFilterExpression the filter expression
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public AsFilterTemplate(Class<?> pClass, String pFilterExpression) {
+        String[] tParts = pFilterExpression.split(",");
+        mExpression = pFilterExpression;
+        mTexts = new String[tParts.length];
+        mGetters = new AsGetMethodIf[tParts.length];
+        boolean tParameterized = false;
+        for (int i = 0; i < tParts.length; i++) {
+            int tIndex = tParts[i].indexOf(PARENT_REFERENCE);
+            if (tIndex >= 0) {
+                mTexts[i] = tParts[i].substring(0, tIndex);
+                mGetters[i] = (AsGetMethodIf<Object>) AsFilterCache.getGetMethod(pClass,
+                    tParts[i].substring(tIndex + PARENT_REFERENCE.length()));
+                tParameterized = true;
+            }
+            else {
+                mTexts[i] = tParts[i];
+            }
+        }
+        mParameterized = tParameterized;
+    }
+
+    /**
+     * Check if the template has any parameters.
+     *
+     * @return {@code true} if the template has parameters
+     */
+    public boolean isParameterized() {
+        return mParameterized;
+    }
+
+    /**
+     * Bind the parameters to the attribute values of the given item.
+     *
+     * @param pItem the item
+     * @return the filter expression
+     */
+    public String bind(Object pItem) {
+        if (!mParameterized) {
+            return mExpression;
+        }
+        StringBuilder tBuilder = new StringBuilder(mExpression.length() + 16 * mTexts.length);
+        for (int i = 0; i < mTexts.length; i++) {
+            if (i > 0) {
+                tBuilder.append(',');
+            }
+            tBuilder.append(mTexts[i]);
+            if (mGetters[i] != null) {
+                tBuilder.append(mGetters[i].getValue(pItem));
+            }
+        }
+        return tBuilder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return mExpression;
+    }
+
+}
@@ -29,10 +29,14 @@ import java.text.DecimalFormatSymbols;
 import java.text.Format;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
+import com.cinnober.ciguan.AsConfigXmlParserIf;
+import com.cinnober.ciguan.AsDictionaryHandlerIf;
 import com.cinnober.ciguan.AsFormatIf;
 import com.cinnober.ciguan.AsInitializationException;
 import com.cinnober.ciguan.CwfBusinessTypeIf;
@@ -111,6 +115,11 @@ public class AsFormat extends AsComponent implements AsFormatIf {
         return 1;
     }
 
+    @Override
+    public Collection<Class<?>> getStartDependencies() {
+        return Arrays.<Class<?>>asList(AsConfigXmlParserIf.class, AsDictionaryHandlerIf.class);
+    }
+
     @Override
     public void startComponent() throws AsInitializationException {
         for (AsDictionaryLanguage tLanguage : As.getDictionaryHandler()
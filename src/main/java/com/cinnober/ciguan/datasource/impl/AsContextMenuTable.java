@@ -0,0 +1,381 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.data.AsContextMenu;
+import com.cinnober.ciguan.data.AsMenuItem;
+import com.cinnober.ciguan.data.CwfDataFactory;
+import com.cinnober.ciguan.datasource.AsDataSourceEventIf;
+import com.cinnober.ciguan.datasource.AsDataSourceIf;
+import com.cinnober.ciguan.datasource.AsDataSourceListenerIf;
+import com.cinnober.ciguan.datasource.AsListIf;
+
+/**
+ * Lookup table for the static part of context menu resolution.
+ * <p>
+ * Which menu definition applies to a given perspective, view and item class, and which of its
+ * items and sub menus apply to a given perspective, only depends on the configuration. The table
+ * resolves each combination once and keeps the result until the context menu list changes, which
+ * leaves only the item dependent filters to be evaluated when a context menu is requested.
+ * <p>
+ * The ids in a request come from the client. Ids which are not used by any context menu definition
+ * are resolved as the wildcard they can only match, so the table only holds combinations of ids known
+ * from the configuration.
+ */
+public class AsContextMenuTable implements AsDataSourceListenerIf<AsContextMenu>, MvcModelAttributesIf {
+
+    /** Marker for combinations which do not have any context menu. */
+    private static final Object NO_MENU = new Object();
+
+    /** The key used for ids which are not used by any context menu definition. */
+    private static final String WILDCARD = "*";
+
+    /** The context menu list. */
+    private final AsListIf<AsContextMenu> mContextMenus;
+
+    /** The resolved combinations of the current configuration, {@code null} when not yet built. */
+    private volatile State mState;
+
+    /** The generation of the configuration, incremented on every change of the context menu list. */
+    private int mGeneration;
+
+    /**
+     * Instantiates a new context menu table for the given context menu list.
+     *
+     * @param pContextMenus the context menu list
+     */
+    public AsContextMenuTable(AsListIf<AsContextMenu> pContextMenus) {
+        mContextMenus = pContextMenus;
+        mContextMenus.addListener(this, false);
+    }
+
+    /**
+     * Stop tracking the context menu list.
+     */
+    public void dispose() {
+        mContextMenus.removeListener(this);
+    }
+
+    @Override
+    public AsDataSourceIf<AsContextMenu> getDataSource() {
+        return mContextMenus;
+    }
+
+    @Override
+    public void onDataSourceEvent(AsDataSourceEventIf<AsContextMenu> pEvent) {
+        // Any change to the configuration invalidates the resolved combinations
+        synchronized (this) {
+            mGeneration++;
+            mState = null;
+        }
+    }
+
+    /**
+     * Get the context menu for the given keys, using a most to least significant match scheme.
+     *
+     * @param pPerspectiveId the perspective id
+     * @param pViewId the view id
+     * @param pItemClassName the item class name
+     * @return the context menu, or {@code null} if none is defined
+     */
+    public AsContextMenu getContextMenu(String pPerspectiveId, String pViewId, String pItemClassName) {
+        State tState = getState();
+        if (!tState.mTypes.contains(pItemClassName)) {
+            return null;
+        }
+        String tPerspectiveId = tState.mPerspectives.contains(pPerspectiveId) ? pPerspectiveId : WILDCARD;
+        String tViewId = tState.mViews.contains(pViewId) ? pViewId : WILDCARD;
+        String tKey = tPerspectiveId + "." + tViewId + "." + pItemClassName;
+        Object tMenu = tState.mMenus.get(tKey);
+        if (tMenu == null) {
+            tMenu = resolve(tPerspectiveId, tViewId, pItemClassName);
+            tState.mMenus.put(tKey, tMenu == null ? NO_MENU : tMenu);
+        }
+        return tMenu == NO_MENU ? null : (AsContextMenu) tMenu;
+    }
+
+    /**
+     * Get the layout of the given menu in the given perspective.
+     *
+     * @param pMenu the menu
+     * @param pPerspective the perspective
+     * @return the layout
+     */
+    public Layout getLayout(AsContextMenu pMenu, String pPerspective) {
+        State tState = getState();
+        Map<String, Layout> tLayouts = tState.mLayouts.get(pMenu);
+        if (tLayouts == null) {
+            tLayouts = new ConcurrentHashMap<String, Layout>();
+            Map<String, Layout> tExisting = tState.mLayouts.putIfAbsent(pMenu, tLayouts);
+            if (tExisting != null) {
+                tLayouts = tExisting;
+            }
+        }
+        // All perspectives which are not mentioned by any menu have the same layout
+        String tKey = tState.mLayoutPerspectives.contains(pPerspective) ? pPerspective : WILDCARD;
+        Layout tLayout = tLayouts.get(tKey);
+        if (tLayout == null) {
+            tLayout = new Layout(pMenu, pPerspective);
+            tLayouts.put(tKey, tLayout);
+        }
+        return tLayout;
+    }
+
+    /**
+     * Get the number of resolved combinations of perspective, view and item class.
+     *
+     * @return the number of resolved combinations
+     */
+    int size() {
+        return getState().mMenus.size();
+    }
+
+    /**
+     * Get the resolved combinations of the current configuration, building them if needed. A state built
+     * while the configuration changes is used by the current request only, and is never installed.
+     *
+     * @return the state
+     */
+    private State getState() {
+        State tState = mState;
+        if (tState != null) {
+            return tState;
+        }
+        int tGeneration;
+        synchronized (this) {
+            tGeneration = mGeneration;
+        }
+        tState = new State(mContextMenus.values());
+        synchronized (this) {
+            if (mGeneration == tGeneration) {
+                mState = tState;
+            }
+        }
+        return tState;
+    }
+
+    /**
+     * Resolve the context menu for the given keys.
+     *
+     * @param pPerspectiveId the perspective id
+     * @param pViewId the view id
+     * @param pItemClassName the item class name
+     * @return the context menu, or {@code null} if none is defined
+     */
+    private AsContextMenu resolve(String pPerspectiveId, String pViewId, String pItemClassName) {
+        String[] tKeysToTest = new String[] {
+            pPerspectiveId + "." + pViewId + "." + pItemClassName,
+            pPerspectiveId + ".*." + pItemClassName,
+            "*." + pViewId + "." + pItemClassName,
+            "*.*." + pItemClassName,
+            pItemClassName
+        };
+        for (String tKey : tKeysToTest) {
+            AsContextMenu tMenu = mContextMenus.get(tKey);
+            if (tMenu != null) {
+                return tMenu;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Filter the items of a menu on perspective.
+     *
+     * @param pMenu the menu
+     * @param pPerspective the perspective
+     * @return the items applicable to the perspective
+     */
+    static List<AsMenuItem> filterMenuItems(AsContextMenu pMenu, String pPerspective) {
+        List<AsMenuItem> tItems = new ArrayList<AsMenuItem>();
+        for (AsMenuItem tMenuItem : pMenu.getMenuItems()) {
+            if (tMenuItem.isForPerspective(pPerspective)) {
+                tItems.add(tMenuItem);
+            }
+        }
+        return Collections.unmodifiableList(tItems);
+    }
+
+    /**
+     * The perspective specific layout of a context menu.
+     */
+    public static class Layout {
+
+        /** The top level menu items. */
+        private final List<AsMenuItem> mMenuItems;
+
+        /** The sub menus. */
+        private final List<SubMenu> mSubMenus;
+
+        /**
+         * Instantiates a new layout.
+         *
+         * @param pMenu the menu
+         * @param pPerspective the perspective
+         */
+        Layout(AsContextMenu pMenu, String pPerspective) {
+            mMenuItems = filterMenuItems(pMenu, pPerspective);
+            List<SubMenu> tSubMenus = new ArrayList<SubMenu>();
+            for (AsContextMenu tSubMenu : pMenu.getSubMenus(pPerspective)) {
+                tSubMenus.add(new SubMenu(tSubMenu, pPerspective));
+            }
+            mSubMenus = Collections.unmodifiableList(tSubMenus);
+        }
+
+        /**
+         * Gets the top level menu items.
+         *
+         * @return the menu items
+         */
+        public List<AsMenuItem> getMenuItems() {
+            return mMenuItems;
+        }
+
+        /**
+         * Gets the sub menus.
+         *
+         * @return the sub menus
+         */
+        public List<SubMenu> getSubMenus() {
+            return mSubMenus;
+        }
+
+    }
+
+    /**
+     * The perspective specific layout of a sub menu.
+     */
+    public static class SubMenu {
+
+        /** The sub menu data without any menu items. */
+        private final CwfDataIf mTemplate;
+
+        /** The menu items. */
+        private final List<AsMenuItem> mMenuItems;
+
+        /**
+         * Instantiates a new sub menu.
+         *
+         * @param pMenu the menu
+         * @param pPerspective the perspective
+         */
+        SubMenu(AsContextMenu pMenu, String pPerspective) {
+            mTemplate = CwfDataFactory.copy(pMenu.getValues());
+            while (mTemplate.getObjectList(TAG_MENUITEM).size() > 0) {
+                mTemplate.removeObject(TAG_MENUITEM, 0);
+            }
+            mMenuItems = filterMenuItems(pMenu, pPerspective);
+        }
+
+        /**
+         * Create a new, empty sub menu data object to populate the filtered menu items in.
+         *
+         * @return the sub menu data
+         */
+        public CwfDataIf createData() {
+            return CwfDataFactory.copy(mTemplate);
+        }
+
+        /**
+         * Gets the menu items.
+         *
+         * @return the menu items
+         */
+        public List<AsMenuItem> getMenuItems() {
+            return mMenuItems;
+        }
+
+    }
+
+    /**
+     * The resolved combinations of one generation of the configuration, along with the ids used by it.
+     */
+    private static class State {
+
+        /** The resolved menus, keyed by perspective, view and item class name. */
+        private final Map<String, Object> mMenus = new ConcurrentHashMap<String, Object>();
+
+        /** The menu layouts, keyed by menu and perspective. */
+        private final ConcurrentHashMap<AsContextMenu, Map<String, Layout>> mLayouts =
+            new ConcurrentHashMap<AsContextMenu, Map<String, Layout>>();
+
+        /** The perspective ids used in the context menu keys. */
+        private final Set<String> mPerspectives = new HashSet<String>();
+
+        /** The view ids used in the context menu keys. */
+        private final Set<String> mViews = new HashSet<String>();
+
+        /** The item types used in the context menu keys. */
+        private final Set<String> mTypes = new HashSet<String>();
+
+        /** The perspectives which decide whether a menu item or sub menu applies. */
+        private final Set<String> mLayoutPerspectives = new HashSet<String>();
+
+        /**
+         * Collect the ids used by the given context menus.
+         *
+         * @param pMenus the context menus
+         */
+        State(Collection<AsContextMenu> pMenus) {
+            for (AsContextMenu tMenu : pMenus) {
+                mPerspectives.add(tMenu.getValues().getProperty(ATTR_PERSPECTIVE));
+                mViews.add(tMenu.getValues().getProperty(ATTR_VIEW));
+                mTypes.add(tMenu.getValues().getProperty(ATTR_TYPE));
+                addLayoutPerspectives(tMenu);
+            }
+        }
+
+        /**
+         * Collect the perspectives of the items and sub menus of the given menu.
+         *
+         * @param pMenu the menu
+         */
+        private void addLayoutPerspectives(AsContextMenu pMenu) {
+            for (AsMenuItem tMenuItem : pMenu.getMenuItems()) {
+                mLayoutPerspectives.add(tMenuItem.getValues().getProperty(ATTR_PERSPECTIVE));
+            }
+            for (AsContextMenu tSubMenu : pMenu.getSubMenus()) {
+                String tPerspectives = tSubMenu.getValues().getProperty(ATTR_PERSPECTIVE);
+                if (tPerspectives != null) {
+                    mLayoutPerspectives.addAll(Arrays.asList(tPerspectives.split(",")));
+                }
+                addLayoutPerspectives(tSubMenu);
+            }
+        }
+
+    }
+
+}
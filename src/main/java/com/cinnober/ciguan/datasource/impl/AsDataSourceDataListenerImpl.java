@@ -23,8 +23,12 @@
  */
 package com.cinnober.ciguan.datasource.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.cinnober.ciguan.CwfDataIf;
 import com.cinnober.ciguan.client.impl.MvcEventEnum;
@@ -56,6 +60,22 @@ public class AsDataSourceDataListenerImpl<T> extends AsDataSourceListenerImpl<T>
      */
     protected AsGetMethodIf<T>[] mGetMethods;
 
+    /**
+     * System property enabling sparse updates, where only the attributes whose text has changed are
+     * sent for an updated item. The grid data then holds, per key of such an item, the indexes of the
+     * changed attributes as {@code changed}, and the values of the item are the texts of these
+     * attributes in the same order. Items not listed carry all attributes. Requires client support.
+     */
+    public static final String CWF_SPARSE_UPDATES_PROPERTY = "cwf.sparseUpdates";
+
+    /** Send sparse updates. */
+    private static final boolean cSparseUpdates = Boolean.getBoolean(CWF_SPARSE_UPDATES_PROPERTY);
+
+    /**
+     * The attribute texts last sent to the client, key is object key
+     */
+    protected Map<String, String[]> mSentValues;
+
     /**
      * Instantiates a new as data source viewport listener impl.
      *
@@ -76,6 +96,7 @@ public class AsDataSourceDataListenerImpl<T> extends AsDataSourceListenerImpl<T>
     @SuppressWarnings("unchecked")
     protected void init() {
         mChangedItems = new HashMap<String, Type>();
+        mSentValues = new ConcurrentHashMap<String, String[]>();
         mGetMethods = new AsGetMethodIf[mAttributes.length];
         for (int i = 0; i < mAttributes.length; i++) {
             mGetMethods[i] = AsGetMethod.create(mList.getItemClass(), mAttributes[i]);
@@ -132,6 +153,7 @@ public class AsDataSourceDataListenerImpl<T> extends AsDataSourceListenerImpl<T>
         synchronized (mChangedItems) {
             mChangedItems.clear();
         }
+        mSentValues.clear();
         CwfDataIf tEvent = CwfDataFactory.create(MvcEventEnum.DataClearEvent);
         CwfMessage tMessage = new CwfMessage(tEvent, mSubscriptionHandle);
         mDataSourceService.addPendingDataSourceEvent(tMessage);
@@ -153,6 +175,7 @@ public class AsDataSourceDataListenerImpl<T> extends AsDataSourceListenerImpl<T>
 
         // TODO: Do we need to divide this into chunks?
         Map<String, String[]> tValues = new HashMap<String, String[]>();
+        Map<String, String[]> tChangedIndexes = new HashMap<String, String[]>();
         String[] tKeys = new String[tChangedItems.size()];
         String[] tTypes = new String[tChangedItems.size()];
         int tItemCount = 0;
@@ -168,16 +191,38 @@ public class AsDataSourceDataListenerImpl<T> extends AsDataSourceListenerImpl<T>
                 return null;
             }
 
-            tKeys[tItemCount] = tEntry.getKey();
-            tTypes[tItemCount] = tEntry.getValue().name();
             String[] tAttributeValues = new String[mGetMethods.length];
             for (int i = 0; i < mGetMethods.length; i++) {
                 tAttributeValues[i] = tItem == null ? null : mGetMethods[i].getText(tItem, mDataSourceService);
             }
+
+            // Compare with the texts last sent, and skip updates which are not visible to the client
+            String[] tSentValues = tItem == null ?
+                mSentValues.remove(tEntry.getKey()) : mSentValues.put(tEntry.getKey(), tAttributeValues);
+            if (tItem != null && tSentValues != null && tEntry.getValue() == Type.UPDATE) {
+                if (Arrays.equals(tSentValues, tAttributeValues)) {
+                    continue;
+                }
+                if (isSparseUpdates()) {
+                    String[] tIndexes = getChangedIndexes(tSentValues, tAttributeValues);
+                    tAttributeValues = getChangedValues(tIndexes, tAttributeValues);
+                    tChangedIndexes.put(tEntry.getKey(), tIndexes);
+                }
+            }
+
+            tKeys[tItemCount] = tEntry.getKey();
+            tTypes[tItemCount] = tEntry.getValue().name();
             tValues.put(tEntry.getKey(), tAttributeValues);
 
             tItemCount += 1;
         }
+        if (tItemCount == 0) {
+            return null;
+        }
+        if (tItemCount < tKeys.length) {
+            tKeys = Arrays.copyOf(tKeys, tItemCount);
+            tTypes = Arrays.copyOf(tTypes, tItemCount);
+        }
 
         CwfDataIf tData = CwfDataFactory.create(MvcEventEnum.DataUpdateEvent);
         tData.setProperty(ATTR_TOTAL_SIZE, mList.size());
@@ -186,9 +231,54 @@ public class AsDataSourceDataListenerImpl<T> extends AsDataSourceListenerImpl<T>
         tGridData.setProperty(ATTR_KEYS, tKeys);
         tGridData.setProperty(ATTR_TYPE, tTypes);
         tGridData.setProperty(ATTR_VALUES, tValues);
+        if (!tChangedIndexes.isEmpty()) {
+            tGridData.setProperty(ATTR_CHANGED, tChangedIndexes);
+        }
         tData.setObject(ATTR_GRID_DATA, tGridData);
 
         return new CwfMessage(tData, mSubscriptionHandle);
     }
 
+    /**
+     * Check if only the changed attributes of updated items are sent.
+     *
+     * @return {@code true}, if sparse updates are enabled
+     */
+    protected boolean isSparseUpdates() {
+        return cSparseUpdates;
+    }
+
+    /**
+     * Get the indexes of the attributes whose texts differ from the ones last sent.
+     *
+     * @param pSentValues the attribute texts last sent
+     * @param pValues the current attribute texts
+     * @return the indexes of the changed attributes, in ascending order
+     */
+    protected String[] getChangedIndexes(String[] pSentValues, String[] pValues) {
+        List<String> tIndexes = new ArrayList<String>();
+        for (int i = 0; i < pValues.length; i++) {
+            String tSent = i < pSentValues.length ? pSentValues[i] : null;
+            if (tSent == null ? pValues[i] != null : !tSent.equals(pValues[i])) {
+                tIndexes.add(Integer.toString(i));
+            }
+        }
+        return tIndexes.toArray(new String[tIndexes.size()]);
+    }
+
+    /**
+     * Get the attribute texts at the given indexes.
+     *
+     * @param pIndexes the indexes of the changed attributes
+     * @param pValues the current attribute texts
+     * @return the changed attribute texts, in the order of the indexes
+     */
+    protected String[] getChangedValues(String[] pIndexes, String[] pValues) {
+        String[] tChanged = new String[pIndexes.length];
+        for (int i = 0; i < pIndexes.length; i++) {
+            tChanged[i] = pValues[Integer.parseInt(pIndexes[i])];
+        }
+        return tChanged;
+    }
+
 }
@@ -40,6 +40,9 @@ public class AsDataSourceEvent<T> implements AsDataSourceEventIf<T> {
     
     /** The index. */
     private final int mIndex;
+
+    /** The index before an update. */
+    private final int mOldIndex;
     
     /** The value. */
     private final T mValue;
@@ -59,13 +62,15 @@ public class AsDataSourceEvent<T> implements AsDataSourceEventIf<T> {
      * @param pSource the source
      * @param pType the type
      * @param pIndex the index
+     * @param pOldIndex the index before an update
      * @param pItem the item
      * @param pOldItem the old item
      */
-    private AsDataSourceEvent(AsListIf<T> pSource, Type pType, int pIndex, T pItem, T pOldItem) {
+    private AsDataSourceEvent(AsListIf<T> pSource, Type pType, int pIndex, int pOldIndex, T pItem, T pOldItem) {
         mSource = pSource;
         mType = pType;
         mIndex = pIndex;
+        mOldIndex = pOldIndex;
         mValue = pItem;
         mOldValue = pOldItem;
     }
@@ -77,7 +82,7 @@ public class AsDataSourceEvent<T> implements AsDataSourceEventIf<T> {
      * @param pSnapshot the snapshot
      */
     private AsDataSourceEvent(AsListIf<T> pSource, Collection<T> pSnapshot) {
-        this(pSource, Type.SNAPSHOT, 0, null, null);
+        this(pSource, Type.SNAPSHOT, 0, 0, null, null);
         mSnapshot = pSnapshot;
     }
     
@@ -87,7 +92,7 @@ public class AsDataSourceEvent<T> implements AsDataSourceEventIf<T> {
      * @param pSource the source
      */
     private AsDataSourceEvent(AsListIf<T> pSource) {
-        this(pSource, Type.CLEAR, 0, null, null);
+        this(pSource, Type.CLEAR, 0, 0, null, null);
     }
     
     @Override
@@ -105,6 +110,11 @@ public class AsDataSourceEvent<T> implements AsDataSourceEventIf<T> {
         return mIndex;
     }
     
+    @Override
+    public int getOldIndex() {
+        return mOldIndex;
+    }
+    
     @Override
     public T getOldValue() {
         return mOldValue;
@@ -127,7 +137,23 @@ public class AsDataSourceEvent<T> implements AsDataSourceEventIf<T> {
      * @return the as data source event
      */
     public static <T> AsDataSourceEvent<T> create(AsListIf<T> pSource, Type pType, int pIndex, T pItem, T pOldItem) {
-        return new AsDataSourceEvent<T>(pSource, pType, pIndex, pItem, pOldItem);
+        return new AsDataSourceEvent<T>(pSource, pType, pIndex, pIndex, pItem, pOldItem);
+    }
+
+    /**
+     * Static factory method for an update list model event which moved the item within the list.
+     *
+     * @param <T> the generic type
+     * @param pSource the source
+     * @param pIndex the index after the update
+     * @param pOldIndex the index before the update
+     * @param pItem the item
+     * @param pOldItem the old item
+     * @return the as data source event
+     */
+    public static <T> AsDataSourceEvent<T> createUpdate(AsListIf<T> pSource, int pIndex, int pOldIndex, T pItem,
+            T pOldItem) {
+        return new AsDataSourceEvent<T>(pSource, Type.UPDATE, pIndex, pOldIndex, pItem, pOldItem);
     }
 
     /**
@@ -161,7 +187,7 @@ public class AsDataSourceEvent<T> implements AsDataSourceEventIf<T> {
      * @return the as data source event
      */
     public static <T> AsDataSourceEvent<T> createDestroy(AsListIf<T> pSource) {
-        return new AsDataSourceEvent<T>(pSource, Type.DESTROY, 0, null, null);
+        return new AsDataSourceEvent<T>(pSource, Type.DESTROY, 0, 0, null, null);
     }
     
     @Override
@@ -0,0 +1,215 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cinnober.ciguan.CwfMessageIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.client.impl.MvcEventEnum;
+import com.cinnober.ciguan.impl.As;
+
+/**
+ * Queue holding the data source events of a session until they are fetched by the client.
+ * <p>
+ * List update events for the same subscription and item key are coalesced, so that only the latest
+ * text of an item is delivered. The coalesced event is moved to the end of the queue, where its index
+ * is valid with respect to the add and remove events queued before it.
+ * <p>
+ * The number of queued list events is bounded by the JVM parameter
+ * {@value #CWF_DATA_SOURCE_EVENT_LIMIT_PROPERTY}. When a client does not keep up, the queued list events
+ * are discarded and the affected subscriptions are marked for resynchronization, see {@link #takeResync()}.
+ * Further list events of those subscriptions are discarded until they have been resynchronized. Other
+ * messages, such as responses to requests, are always queued.
+ */
+public class AsDataSourceEventQueue implements MvcModelAttributesIf {
+
+    /** JVM parameter holding the maximum number of queued list events per session. */
+    public static final String CWF_DATA_SOURCE_EVENT_LIMIT_PROPERTY = "cwf.dataSourceEventLimit";
+
+    /** The default maximum number of queued list events per session. */
+    public static final int DEFAULT_DATA_SOURCE_EVENT_LIMIT = 10000;
+
+    /** The names of the list events, which are bounded and replaced by a snapshot on overflow. */
+    protected static final Set<String> cListEventNames = new HashSet<String>(Arrays.asList(
+        MvcEventEnum.ListAddEvent.name(),
+        MvcEventEnum.ListUpdateEvent.name(),
+        MvcEventEnum.ListRemoveEvent.name(),
+        MvcEventEnum.ListClearEvent.name(),
+        MvcEventEnum.ListInitEvent.name()));
+
+    /** The queued messages, in delivery order. */
+    private final LinkedHashMap<Object, CwfMessageIf> mMessages = new LinkedHashMap<Object, CwfMessageIf>();
+
+    /** The subscription handles awaiting resynchronization. */
+    private final Set<Integer> mResync = new LinkedHashSet<Integer>();
+
+    /** The maximum number of queued list events. */
+    private final int mLimit;
+
+    /** The number of queued list events. */
+    private int mListEventCount;
+
+    /** Sequence used to create unique keys for messages which are not coalesced. */
+    private long mSequence;
+
+    /**
+     * Create a new data source event queue.
+     */
+    public AsDataSourceEventQueue() {
+        this(Math.max(1, Integer.getInteger(CWF_DATA_SOURCE_EVENT_LIMIT_PROPERTY, DEFAULT_DATA_SOURCE_EVENT_LIMIT)));
+    }
+
+    /**
+     * Create a new data source event queue.
+     *
+     * @param pLimit the maximum number of queued list events
+     */
+    public AsDataSourceEventQueue(int pLimit) {
+        mLimit = pLimit;
+    }
+
+    /**
+     * Add a message to the queue, coalescing it with a queued update of the same item.
+     *
+     * @param pMessage the message
+     */
+    public synchronized void add(CwfMessageIf pMessage) {
+        boolean tListEvent = isListEvent(pMessage);
+        if (tListEvent && mResync.contains(pMessage.getHandle())) {
+            // Superseded by the snapshot sent on resynchronization
+            return;
+        }
+        Object tKey = getCoalescingKey(pMessage);
+        if (tKey != null) {
+            if (mMessages.remove(tKey) != null) {
+                // Re-insert at the end, where the index of the latest update is valid
+                mMessages.put(tKey, pMessage);
+                return;
+            }
+        }
+        else {
+            tKey = Long.valueOf(mSequence++);
+        }
+        if (tListEvent) {
+            if (mListEventCount >= mLimit) {
+                overflow(pMessage.getHandle());
+                return;
+            }
+            mListEventCount++;
+        }
+        mMessages.put(tKey, pMessage);
+    }
+
+    /**
+     * Remove and return all queued messages.
+     *
+     * @return the queued messages, in delivery order
+     */
+    public synchronized List<CwfMessageIf> drain() {
+        List<CwfMessageIf> tList = new ArrayList<CwfMessageIf>(mMessages.values());
+        mMessages.clear();
+        mListEventCount = 0;
+        return tList;
+    }
+
+    /**
+     * Remove and return the subscriptions awaiting resynchronization. List events of these
+     * subscriptions are accepted again once this method has returned.
+     *
+     * @return the subscription handles
+     */
+    public synchronized Set<Integer> takeResync() {
+        if (mResync.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<Integer> tResync = new LinkedHashSet<Integer>(mResync);
+        mResync.clear();
+        return tResync;
+    }
+
+    /**
+     * @return the number of queued messages
+     */
+    public synchronized int size() {
+        return mMessages.size();
+    }
+
+    /**
+     * Get the key on which the given message is coalesced with already queued messages.
+     *
+     * @param pMessage the message
+     * @return the coalescing key, or {@code null} if the message must be delivered individually
+     */
+    protected Object getCoalescingKey(CwfMessageIf pMessage) {
+        if (MvcEventEnum.ListUpdateEvent.name().equals(pMessage.getName()) && pMessage.getData() != null) {
+            String tKey = pMessage.getData().getProperty(ATTR_KEY);
+            if (tKey != null) {
+                return pMessage.getHandle() + "/" + tKey;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if the given message is a list event, which is bounded by the queue.
+     *
+     * @param pMessage the message
+     * @return {@code true} if the message is a list event
+     */
+    protected boolean isListEvent(CwfMessageIf pMessage) {
+        return pMessage.getName() != null && cListEventNames.contains(pMessage.getName());
+    }
+
+    /**
+     * Handle a queue overflow, by discarding all queued list events and marking their subscriptions,
+     * along with the subscription of the rejected event, for resynchronization.
+     *
+     * @param pHandle the subscription handle of the rejected event
+     */
+    protected void overflow(int pHandle) {
+        for (Iterator<Map.Entry<Object, CwfMessageIf>> tIterator = mMessages.entrySet().iterator();
+            tIterator.hasNext();) {
+            CwfMessageIf tMessage = tIterator.next().getValue();
+            if (isListEvent(tMessage)) {
+                mResync.add(tMessage.getHandle());
+                tIterator.remove();
+            }
+        }
+        mResync.add(pHandle);
+        mListEventCount = 0;
+        As.getLogger().log("Data source event queue exceeded " + mLimit +
+            " list events, resending the lists of subscriptions " + mResync);
+    }
+
+}
@@ -34,6 +34,8 @@ import com.cinnober.ciguan.datasource.AsSortIf;
  * <li>Its filter</li>
  * <li>Its sorting (not yet implemented)</li>
  * </ul>
+ * The filter component is the string representation of the filter. Attribute value filters are
+ * created from canonical expressions, so logically equal filters share the same key.
  */
 public abstract class AsDataSourceKeyGenerator {
 
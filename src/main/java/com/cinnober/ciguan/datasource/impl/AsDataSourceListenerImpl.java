@@ -23,6 +23,15 @@
  */
 package com.cinnober.ciguan.datasource.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import com.cinnober.ciguan.AsHandlerRegistrationIf;
 import com.cinnober.ciguan.CwfDataIf;
 import com.cinnober.ciguan.client.MvcModelAttributesIf;
@@ -34,6 +43,7 @@ import com.cinnober.ciguan.datasource.AsDataSourceIf;
 import com.cinnober.ciguan.datasource.AsDataSourceListenerIf;
 import com.cinnober.ciguan.datasource.AsDataSourceServiceIf;
 import com.cinnober.ciguan.datasource.AsListIf;
+import com.cinnober.ciguan.datasource.RpcHasDataSourceEventIf;
 import com.cinnober.ciguan.subscription.impl.AsClientSubscriptionImpl;
 
 /**
@@ -49,6 +59,25 @@ public class AsDataSourceListenerImpl<T> extends AsClientSubscriptionImpl
      * one large initiation event. */
     protected static final int SNAPSHOT_SEGMENTATION_THRESHOLD = 100;
 
+    /** System property holding the targeted size in characters of the text of one snapshot segment. */
+    public static final String CWF_SNAPSHOT_SEGMENT_SIZE_PROPERTY = "cwf.snapshotSegmentSize";
+
+    /** The default targeted size in characters of the text of one snapshot segment. */
+    public static final int DEFAULT_SNAPSHOT_SEGMENT_SIZE = 32 * 1024;
+
+    /** The minimum number of items in a snapshot segment. */
+    protected static final int MIN_SNAPSHOT_SEGMENT_ITEMS = 10;
+
+    /** The maximum number of items in a snapshot segment. */
+    protected static final int MAX_SNAPSHOT_SEGMENT_ITEMS = 1000;
+
+    /** The number of items sampled to estimate the text size of an item. */
+    protected static final int SNAPSHOT_SAMPLE_SIZE = 10;
+
+    /** The targeted size in characters of the text of one snapshot segment. */
+    private static final int cSnapshotSegmentSize =
+        Math.max(1, Integer.getInteger(CWF_SNAPSHOT_SEGMENT_SIZE_PROPERTY, DEFAULT_SNAPSHOT_SEGMENT_SIZE));
+
     /** The data source service. */
     protected final AsDataSourceServiceIf mDataSourceService;
 
@@ -61,6 +90,12 @@ public class AsDataSourceListenerImpl<T> extends AsClientSubscriptionImpl
     /** The view id. */
     protected final String mViewId;
 
+    /** Guards the snapshot stream. */
+    private final Object mSnapshotLock = new Object();
+
+    /** The snapshot being streamed to the client, or {@code null} if none. */
+    private SnapshotStream mSnapshotStream;
+
     /**
      * Instantiates a new as data source listener impl.
      *
@@ -104,22 +139,15 @@ public class AsDataSourceListenerImpl<T> extends AsClientSubscriptionImpl
         CwfDataIf tData = null;
         switch (pEvent.getType()) {
             case ADD:
-                tData = CwfDataFactory.create(MvcEventEnum.ListAddEvent);
-                tData.setProperty(ATTR_INDEX, pEvent.getIndex());
-                tData.setProperty(ATTR_KEY, mList.getKey(pEvent.getNewValue()));
-                tData.setProperty(ATTR_TEXT, mList.getText(pEvent.getNewValue(), mDataSourceService));
+                tData = createItemEvent(MvcEventEnum.ListAddEvent, pEvent.getIndex(), pEvent.getNewValue());
                 break;
 
             case UPDATE:
-                tData = CwfDataFactory.create(MvcEventEnum.ListUpdateEvent);
-                tData.setProperty(ATTR_INDEX, pEvent.getIndex());
-                tData.setProperty(ATTR_KEY, mList.getKey(pEvent.getNewValue()));
-                tData.setProperty(ATTR_TEXT, mList.getText(pEvent.getNewValue(), mDataSourceService));
+                tData = createItemEvent(MvcEventEnum.ListUpdateEvent, pEvent.getIndex(), pEvent.getNewValue());
                 break;
 
             case REMOVE:
-                tData = CwfDataFactory.create(MvcEventEnum.ListRemoveEvent);
-                tData.setProperty(ATTR_INDEX, pEvent.getIndex());
+                tData = createItemEvent(MvcEventEnum.ListRemoveEvent, pEvent.getIndex(), null);
                 break;
 
             case SNAPSHOT:
@@ -133,67 +161,352 @@ public class AsDataSourceListenerImpl<T> extends AsClientSubscriptionImpl
             default:;
         }
         if (tData != null) {
-            CwfMessage tMessage = new CwfMessage(tData, mSubscriptionHandle);
-            mDataSourceService.addPendingDataSourceEvent(tMessage);
+            synchronized (mSnapshotLock) {
+                if (mSnapshotStream != null) {
+                    T tItem = pEvent.getOldValue() != null ? pEvent.getOldValue() : pEvent.getNewValue();
+                    if (tItem != null) {
+                        mSnapshotStream.mChangedKeys.add(mList.getKey(tItem));
+                    }
+                }
+                sendEvent(new CwfMessage(tData, mSubscriptionHandle));
+            }
         }
     }
 
     /**
-     * Send a snapshot, break up into segments if we exceed the threshold
-     * TODO: Do we need to synchronize this?.
+     * Create a list event about one item.
+     *
+     * @param pEvent the event type
+     * @param pIndex the index
+     * @param pItem the item, or {@code null} for a removal
+     * @return the event data
      */
-    protected void sendSnapshot() {
-        int tListSize = mList.size();
-        if (tListSize >= SNAPSHOT_SEGMENTATION_THRESHOLD) {
-            int tOverflow = tListSize % SNAPSHOT_SEGMENTATION_THRESHOLD;
-            int tLastSegmentSize = tOverflow == 0 ? SNAPSHOT_SEGMENTATION_THRESHOLD : tOverflow;
-            int tNoOfSegments = tListSize / SNAPSHOT_SEGMENTATION_THRESHOLD + (tOverflow > 0 ? 1 : 0);
-
-            int i = 0;
-            for (int tSegmentNo = 0; tSegmentNo < tNoOfSegments; tSegmentNo++) {
-                int tSegmentSize = (tSegmentNo < tNoOfSegments - 1 ?
-                    SNAPSHOT_SEGMENTATION_THRESHOLD : tLastSegmentSize);
-                String[][] tItems = new String[tSegmentSize][];
-                for (int j = 0; j < tSegmentSize; j++) {
-                    T tItem = mList.get(i++);
-                    tItems[j] = new String[] {
-                        mList.getKey(tItem), mList.getText(tItem, mDataSourceService)};
-                }
-
-                CwfDataIf tData = CwfDataFactory.create(MvcEventEnum.ListInitEvent);
-                tData.setProperty(ATTR_SEGMENT_COUNT, tNoOfSegments);
-                tData.setProperty(ATTR_SEGMENT_NO, tSegmentNo);
-                tData.setProperty(ATTR_VALUES, tItems);
-                if (tSegmentNo == 0) {
-                    tData.setObject(ATTR_METADATA,
-                        mList.getListMetaData() != null ? mList.getListMetaData().values() : null);
-                }
+    private CwfDataIf createItemEvent(MvcEventEnum pEvent, int pIndex, T pItem) {
+        CwfDataIf tData = CwfDataFactory.create(pEvent);
+        tData.setProperty(ATTR_INDEX, pIndex);
+        if (pItem != null) {
+            tData.setProperty(ATTR_KEY, mList.getKey(pItem));
+            tData.setProperty(ATTR_TEXT, mList.getText(pItem, mDataSourceService));
+        }
+        return tData;
+    }
 
-                mDataSourceService.addPendingDataSourceEvent(new CwfMessage(tData, mSubscriptionHandle));
+    /**
+     * Send a list event to the client. While a snapshot is being streamed, the event is dropped, since
+     * its index refers to the complete list, and the changes are sent as a difference against the
+     * streamed snapshot once its last segment has been sent. The keys of the items changed meanwhile
+     * are recorded by {@link #onDataSourceEvent(AsDataSourceEventIf)}, so that items which are updated
+     * in place are also sent.
+     *
+     * @param pMessage the message
+     */
+    protected void sendEvent(CwfMessage pMessage) {
+        synchronized (mSnapshotLock) {
+            if (mSnapshotStream == null) {
+                mDataSourceService.addPendingDataSourceEvent(pMessage);
+            }
+            else {
+                mSnapshotStream.mChanged = true;
             }
         }
-        else {
-            CwfDataIf tData = CwfDataFactory.create(MvcEventEnum.ListInitEvent);
-            String[][] tItems = new String[mList.size()][];
-            int i = 0;
-            for (T tItem : mList.values()) {
-                tItems[i++] = new String[] {
-                    mList.getKey(tItem), mList.getText(tItem, mDataSourceService)};
+    }
+
+    /**
+     * Get the lock which the list holds while changing its items and notifying its listeners. It must
+     * be taken before the snapshot lock when reading the list, since list events take the snapshot lock.
+     *
+     * @return the list mutex
+     */
+    private Object getListMutex() {
+        return mList instanceof AsList ? ((AsList<?>) mList).mMutex : mList;
+    }
+
+    /**
+     * Send a snapshot of the current version of the list. Large snapshots are streamed in segments,
+     * one segment each time the client has drained the pending events, see {@link SnapshotStream}.
+     */
+    protected void sendSnapshot() {
+        synchronized (getListMutex()) {
+            synchronized (mSnapshotLock) {
+                sendSnapshotLocked();
             }
-            tData.setProperty(ATTR_SEGMENT_COUNT, 1);
-            tData.setProperty(ATTR_SEGMENT_NO, 0);
-            tData.setProperty(ATTR_VALUES, tItems);
-            tData.setObject(ATTR_METADATA,
-                mList.getListMetaData() != null ? mList.getListMetaData().values() : null);
+        }
+    }
 
-            mDataSourceService.addPendingDataSourceEvent(new CwfMessage(tData, mSubscriptionHandle));
+    /**
+     * Send a snapshot of the current version of the list, holding the list mutex and the snapshot lock.
+     */
+    private void sendSnapshotLocked() {
+        if (mList.size() >= SNAPSHOT_SEGMENTATION_THRESHOLD) {
+            startSnapshotStream();
+            return;
         }
+        // Any snapshot being streamed is superseded by this one
+        mSnapshotStream = null;
+        Collection<T> tSnapshot = mList.values();
+        CwfDataIf tData = CwfDataFactory.create(MvcEventEnum.ListInitEvent);
+        String[][] tItems = new String[tSnapshot.size()][];
+        int i = 0;
+        for (T tItem : tSnapshot) {
+            tItems[i++] = new String[] {
+                mList.getKey(tItem), mList.getText(tItem, mDataSourceService)};
+        }
+        tData.setProperty(ATTR_SEGMENT_COUNT, 1);
+        tData.setProperty(ATTR_SEGMENT_NO, 0);
+        tData.setProperty(ATTR_VALUES, tItems);
+        tData.setObject(ATTR_METADATA,
+            mList.getListMetaData() != null ? mList.getListMetaData().values() : null);
 
+        mDataSourceService.addPendingDataSourceEvent(new CwfMessage(tData, mSubscriptionHandle));
+    }
+
+    /**
+     * Start streaming a snapshot of the current version of the list, replacing any snapshot being
+     * streamed. Must be called holding the list mutex and the snapshot lock.
+     */
+    private void startSnapshotStream() {
+        mSnapshotStream = new SnapshotStream(mList.values());
+        mDataSourceService.addPendingDataSourceEvent(mSnapshotStream);
     }
 
     @Override
     public void removeHandler() {
         mList.removeListener(this);
+        synchronized (mSnapshotLock) {
+            mSnapshotStream = null;
+        }
+    }
+
+    /**
+     * A snapshot streamed to the client in segments. The snapshot is taken against one version of
+     * the list and read through an in-order cursor. Only one segment is produced each time the
+     * pending events are dequeued, and the segment size is chosen so that each segment holds roughly
+     * the same amount of text. Changes made to the list meanwhile are sent after the last segment,
+     * as the difference between the snapshot and the list at that time, which takes no more events
+     * than there are items, however often the list changes. An item counts as changed if it has been
+     * replaced, or if an event has been received for its key, since an item may be updated in place.
+     */
+    private class SnapshotStream implements RpcHasDataSourceEventIf {
+
+        /** The snapshot. */
+        private final Collection<T> mSnapshot;
+
+        /** The cursor. */
+        private final Iterator<T> mCursor;
+
+        /** The number of items. */
+        private final int mSize;
+
+        /** The number of items per segment. */
+        private final int mSegmentSize;
+
+        /** The number of segments. */
+        private final int mSegmentCount;
+
+        /** The number of the next segment. */
+        private int mSegmentNo;
+
+        /** Flag indicating that the list has changed since the snapshot was taken. */
+        private boolean mChanged;
+
+        /** The keys of the items added, updated or removed since the snapshot was taken. */
+        private final Set<String> mChangedKeys = new HashSet<String>();
+
+        /**
+         * Instantiates a new snapshot stream.
+         *
+         * @param pSnapshot the snapshot
+         */
+        SnapshotStream(Collection<T> pSnapshot) {
+            mSnapshot = pSnapshot;
+            mSize = pSnapshot.size();
+            mSegmentSize = getSegmentSize(pSnapshot);
+            mSegmentCount = (mSize + mSegmentSize - 1) / mSegmentSize;
+            mCursor = pSnapshot.iterator();
+        }
+
+        /**
+         * Estimate the number of items per segment from the text size of the first items.
+         *
+         * @param pSnapshot the snapshot
+         * @return the number of items per segment
+         */
+        private int getSegmentSize(Collection<T> pSnapshot) {
+            long tLength = 0;
+            int tCount = 0;
+            for (Iterator<T> tIterator = pSnapshot.iterator(); tIterator.hasNext() && tCount < SNAPSHOT_SAMPLE_SIZE;) {
+                T tItem = tIterator.next();
+                String tText = mList.getText(tItem, mDataSourceService);
+                tLength += mList.getKey(tItem).length() + (tText == null ? 0 : tText.length());
+                tCount++;
+            }
+            if (tCount == 0 || tLength == 0) {
+                return MAX_SNAPSHOT_SEGMENT_ITEMS;
+            }
+            long tItems = cSnapshotSegmentSize * (long) tCount / tLength;
+            return (int) Math.max(MIN_SNAPSHOT_SEGMENT_ITEMS, Math.min(MAX_SNAPSHOT_SEGMENT_ITEMS, tItems));
+        }
+
+        @Override
+        public String getKey() {
+            return mSubscriptionHandle + "/snapshot";
+        }
+
+        @Override
+        public CwfMessage getEvent() {
+            synchronized (mSnapshotLock) {
+                if (mSegmentNo < mSegmentCount - 1) {
+                    return nextSegment();
+                }
+            }
+            // The changes are read from the list when the last segment is sent
+            synchronized (getListMutex()) {
+                synchronized (mSnapshotLock) {
+                    return nextSegment();
+                }
+            }
+        }
+
+        /**
+         * Produce the next segment, must be called holding the snapshot lock, and also the list mutex
+         * for the last segment.
+         *
+         * @return the segment event, or {@code null} if the stream has been stopped
+         */
+        private CwfMessage nextSegment() {
+            if (mSnapshotStream != this) {
+                // Superseded or unsubscribed
+                return null;
+            }
+            int tSegmentSize = Math.min(mSegmentSize, mSize - mSegmentNo * mSegmentSize);
+            String[][] tItems = new String[tSegmentSize][];
+            for (int i = 0; i < tSegmentSize; i++) {
+                T tItem = mCursor.next();
+                tItems[i] = new String[] {
+                    mList.getKey(tItem), mList.getText(tItem, mDataSourceService)};
+            }
+
+            CwfDataIf tData = CwfDataFactory.create(MvcEventEnum.ListInitEvent);
+            tData.setProperty(ATTR_SEGMENT_COUNT, mSegmentCount);
+            tData.setProperty(ATTR_SEGMENT_NO, mSegmentNo);
+            tData.setProperty(ATTR_VALUES, tItems);
+            if (mSegmentNo == 0) {
+                tData.setObject(ATTR_METADATA,
+                    mList.getListMetaData() != null ? mList.getListMetaData().values() : null);
+            }
+
+            mSegmentNo++;
+            if (mSegmentNo < mSegmentCount) {
+                // Produce the next segment when the client has drained this one
+                mDataSourceService.addPendingDataSourceEvent(this);
+            }
+            else {
+                // Complete, the changes are dequeued after this segment
+                mSnapshotStream = null;
+                if (mChanged) {
+                    sendChanges();
+                }
+            }
+            return new CwfMessage(tData, mSubscriptionHandle);
+        }
+
+        /**
+         * Send the changes of the list since the snapshot was taken. Items which are added, removed or
+         * changed are removed from the client from the last to the first and then added from the
+         * first to the last, while the remaining items keep their relative order. If only items are
+         * changed in place, update events are sent instead. Must be called holding the list mutex.
+         */
+        private void sendChanges() {
+            List<T> tOld = new ArrayList<T>(mSnapshot);
+            List<T> tNew = new ArrayList<T>(mList.values());
+            Map<String, T> tOldItems = new HashMap<String, T>();
+            for (T tItem : tOld) {
+                tOldItems.put(mList.getKey(tItem), tItem);
+            }
+            Map<String, T> tNewItems = new HashMap<String, T>();
+            for (T tItem : tNew) {
+                tNewItems.put(mList.getKey(tItem), tItem);
+            }
+
+            // The items which are kept must be in the same order, which holds for sorted lists
+            List<T> tKeptOld = new ArrayList<T>();
+            for (T tItem : tOld) {
+                if (isKept(tItem, tNewItems)) {
+                    tKeptOld.add(tItem);
+                }
+            }
+            List<T> tKeptNew = new ArrayList<T>();
+            for (T tItem : tNew) {
+                if (isKept(tItem, tOldItems)) {
+                    tKeptNew.add(tItem);
+                }
+            }
+            if (!tKeptOld.equals(tKeptNew)) {
+                sendSnapshotLocked();
+                return;
+            }
+
+            if (tOld.size() == tNew.size() && tKeptOld.size() + countChangedInPlace(tOld, tNew) == tNew.size()) {
+                for (int i = 0; i < tNew.size(); i++) {
+                    if (!isKept(tNew.get(i), tOldItems)) {
+                        addEvent(createItemEvent(MvcEventEnum.ListUpdateEvent, i, tNew.get(i)));
+                    }
+                }
+                return;
+            }
+            for (int i = tOld.size() - 1; i >= 0; i--) {
+                if (!isKept(tOld.get(i), tNewItems)) {
+                    addEvent(createItemEvent(MvcEventEnum.ListRemoveEvent, i, null));
+                }
+            }
+            for (int i = 0; i < tNew.size(); i++) {
+                if (!isKept(tNew.get(i), tOldItems)) {
+                    addEvent(createItemEvent(MvcEventEnum.ListAddEvent, i, tNew.get(i)));
+                }
+            }
+        }
+
+        /**
+         * Check if an item is unchanged since the snapshot was taken, that is, if the other version
+         * of the list holds the same instance and no event has been received for its key.
+         *
+         * @param pItem the item
+         * @param pOtherItems the items of the other version of the list, by key
+         * @return {@code true} if the item is unchanged
+         */
+        private boolean isKept(T pItem, Map<String, T> pOtherItems) {
+            String tKey = mList.getKey(pItem);
+            return pOtherItems.get(tKey) == pItem && !mChangedKeys.contains(tKey);
+        }
+
+        /**
+         * Count the items which are changed, but remain with the same key at the same index.
+         *
+         * @param pOld the items of the snapshot
+         * @param pNew the items of the list
+         * @return the number of items changed in place
+         */
+        private int countChangedInPlace(List<T> pOld, List<T> pNew) {
+            int tCount = 0;
+            for (int i = 0; i < pNew.size(); i++) {
+                String tKey = mList.getKey(pNew.get(i));
+                if (tKey.equals(mList.getKey(pOld.get(i)))
+                    && (pOld.get(i) != pNew.get(i) || mChangedKeys.contains(tKey))) {
+                    tCount++;
+                }
+            }
+            return tCount;
+        }
+
+        /**
+         * Add an event to the pending events.
+         *
+         * @param pData the event data
+         */
+        private void addEvent(CwfDataIf pData) {
+            mDataSourceService.addPendingDataSourceEvent(new CwfMessage(pData, mSubscriptionHandle));
+        }
+
     }
 
 }
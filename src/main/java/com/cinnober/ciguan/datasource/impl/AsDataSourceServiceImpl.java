@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.cinnober.ciguan.AsConnectionIf;
 import com.cinnober.ciguan.AsHandlerRegistrationIf;
@@ -46,13 +47,16 @@ import com.cinnober.ciguan.client.impl.MvcEventEnum;
 import com.cinnober.ciguan.client.impl.MvcModelNames;
 import com.cinnober.ciguan.client.impl.MvcRequestEnum;
 import com.cinnober.ciguan.data.AsContextMenu;
+import com.cinnober.ciguan.data.AsDataSourceDef;
 import com.cinnober.ciguan.data.AsMenuItem;
 import com.cinnober.ciguan.data.AsMetaDataData;
 import com.cinnober.ciguan.data.AsMetaObject;
 import com.cinnober.ciguan.data.AsViewDefinition;
 import com.cinnober.ciguan.data.CwfDataFactory;
 import com.cinnober.ciguan.data.CwfMessage;
+import com.cinnober.ciguan.datasource.AsDataSourceEventIf;
 import com.cinnober.ciguan.datasource.AsDataSourceIf;
+import com.cinnober.ciguan.datasource.AsDataSourceListenerIf;
 import com.cinnober.ciguan.datasource.AsDataSourceServiceIf;
 import com.cinnober.ciguan.datasource.AsDataSourceViewportListenerIf;
 import com.cinnober.ciguan.datasource.AsFilterIf;
@@ -64,7 +68,7 @@ import com.cinnober.ciguan.datasource.CwfGlobalDataSources;
 import com.cinnober.ciguan.datasource.RpcHasDataSourceEventIf;
 import com.cinnober.ciguan.datasource.RpcSortCriteriaIf;
 import com.cinnober.ciguan.datasource.RpcSortCriteriaIf.SortOrder;
-import com.cinnober.ciguan.datasource.filter.AsAttributeValueFilter;
+import com.cinnober.ciguan.datasource.filter.AsFilterCache;
 import com.cinnober.ciguan.datasource.filter.AsIncludeAllFilter;
 import com.cinnober.ciguan.datasource.filter.AsRequestFilter;
 import com.cinnober.ciguan.datasource.filter.RpcAttributeSortCriteria;
@@ -75,6 +79,8 @@ import com.cinnober.ciguan.datasource.tree.AsTreeNodeFolder;
 import com.cinnober.ciguan.datasource.tree.AsTreeRoot;
 import com.cinnober.ciguan.datasource.tree.AsViewContext;
 import com.cinnober.ciguan.impl.As;
+import com.cinnober.ciguan.request.AsPartialResponseIf;
+import com.cinnober.ciguan.request.AsResponseCallbackIf;
 import com.cinnober.ciguan.subscription.AsDataSourceDataSubscriptionRequestIf;
 import com.cinnober.ciguan.subscription.AsDataSourceGetListItemRequestIf;
 import com.cinnober.ciguan.subscription.AsDataSourceGetListTextRequestIf;
@@ -99,8 +105,7 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
     protected final AsSessionDataSourcesIf mSessionDataSources;
 
     /** The Pending data source events. */
-    protected final List<CwfMessageIf> mPendingDataSourceEvents =
-        Collections.synchronizedList(new ArrayList<>());
+    protected final AsDataSourceEventQueue mPendingDataSourceEvents = new AsDataSourceEventQueue();
 
     /** The Pending has data source events. */
     protected final Map<String, RpcHasDataSourceEventIf> mPendingHasDataSourceEvents =
@@ -113,6 +118,19 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
     /** The Session data. */
     private AsSessionDataIf mSessionData;
 
+    /** The context menu lookup table, shared by all sessions. */
+    private static volatile AsContextMenuTable cContextMenuTable;
+
+    /** The resolved paths to the items of query responses, keyed by response class and item class. */
+    private static final Map<String, Field[]> cQueryResultPaths = new ConcurrentHashMap<String, Field[]>();
+
+    /** The memoized menu item access of this session. */
+    private MenuItemAccess mMenuItemAccess;
+
+    /** The queries being executed, keyed by the viewport they populate. */
+    private final Map<AsDataSourceViewportListenerIf<?>, QueryResultHandler> mQueryHandlers =
+        new ConcurrentHashMap<AsDataSourceViewportListenerIf<?>, QueryResultHandler>();
+
     /**
      * Instantiates a new as data source service impl.
      */
@@ -129,6 +147,11 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
             tHandler.removeHandler();
         }
         mDataSourceListeners.clear();
+        for (QueryResultHandler tQuery : mQueryHandlers.values()) {
+            tQuery.cancel();
+        }
+        mQueryHandlers.clear();
+        resetMenuItemAccess();
     }
 
     /**
@@ -424,6 +447,10 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
         AsHandlerRegistrationIf tListener = mDataSourceListeners.remove(pRequest.getHandle());
         if (tListener != null) {
             tListener.removeHandler();
+            QueryResultHandler tQuery = mQueryHandlers.remove(tListener);
+            if (tQuery != null) {
+                tQuery.cancel();
+            }
         }
     }
 
@@ -435,15 +462,17 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
     @Override
     public List<CwfMessageIf> dequeuePendingDataSourceEvents() {
 
-        List<CwfMessageIf> tEvents = new ArrayList<>();
-        List<RpcHasDataSourceEventIf> tHasEvents = new ArrayList<RpcHasDataSourceEventIf>();
-
-        if (mPendingDataSourceEvents.size() > 0) {
-            synchronized (mPendingDataSourceEvents) {
-                tEvents.addAll(mPendingDataSourceEvents);
-                mPendingDataSourceEvents.clear();
+        // Resend the lists whose events were discarded because the client did not keep up
+        for (Integer tHandle : mPendingDataSourceEvents.takeResync()) {
+            AsHandlerRegistrationIf tListener = mDataSourceListeners.get(tHandle);
+            if (tListener instanceof AsDataSourceListenerImpl) {
+                ((AsDataSourceListenerImpl<?>) tListener).sendSnapshot();
             }
         }
+
+        List<CwfMessageIf> tEvents = mPendingDataSourceEvents.drain();
+        List<RpcHasDataSourceEventIf> tHasEvents = new ArrayList<RpcHasDataSourceEventIf>();
+
         if (mPendingHasDataSourceEvents.size() > 0) {
             synchronized (mPendingHasDataSourceEvents) {
                 tHasEvents.addAll(mPendingHasDataSourceEvents.values());
@@ -466,6 +495,7 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
     public void setSessionData(AsSessionDataIf pSessionData) {
         mSessionData = pSessionData;
         mSessionDataSources.setSessionData(pSessionData);
+        resetMenuItemAccess();
     }
 
     /**
@@ -632,6 +662,10 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
                 break;
 
             case ViewportSetSelectionRequest: {
+                if (Boolean.TRUE.equals(tData.getBooleanProperty(ATTR_SELECT_ALL))) {
+                    pListener.selectAll();
+                    break;
+                }
                 String tKey = tData.getProperty(ATTR_SELECTED_OBJECT);
                 int tIndex = tData.getIntProperty(ATTR_SELECTED_INDEX);
                 pListener.setViewportSelection(tKey, tIndex,
@@ -671,9 +705,9 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
                         pListener.getDataSource().getItemClass(),  new RpcSortCriteriaIf[] {tSort});
                 AsListIf tDataSource = (AsListIf) getRequestDataSource(
                     pListener.getDataSource().getDataSourceId(), tFilter, tQuerySortOrder);
-                populateDataSourceFromQuery(pConnection, tDataSource,
+                // The viewport is attached once the first part of the result is added
+                populateDataSourceFromQuery(pConnection, pListener, tDataSource,
                     tData.getObject(ATTR_QUERY), pRequest.getHandle());
-                pListener.setDataSource(tDataSource);
                 break;
 
             case ViewportGetContextMenuRequest:
@@ -785,30 +819,7 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
                 // Set the array in the response
                 tResponse.setObject(ATTR_CONTEXT_OBJECT, tArray);
 
-                for (AsMenuItem tMenuItem : tMenu.getMenuItems()) {
-                    if (tMenuItem.isForPerspective(tPerspective)) {
-                        if (tMenuItem.isAccessAllowed(pConnection) &&
-                            tMenuItem.isIncluded(pConnection, tItems.toArray())) {
-                            tResponse.addObject(TAG_MENUITEM, tMenuItem.getValues());
-                        }
-                    }
-                }
-                for (AsContextMenu tSubMenu : tMenu.getSubMenus(tPerspective)) {
-                    // Copy the menu and remove all its items since we need to filter them one by one
-                    CwfDataIf tSubMenuData = CwfDataFactory.copy(tSubMenu.getValues());
-                    while (tSubMenuData.getObjectList(TAG_MENUITEM).size() > 0) {
-                        tSubMenuData.removeObject(TAG_MENUITEM, 0);
-                    }
-                    tResponse.addObject(TAG_MENU, tSubMenuData);
-                    for (AsMenuItem tSubItem : tSubMenu.getMenuItems()) {
-                        if (tSubItem.isForPerspective(tPerspective)) {
-                            if (tSubItem.isAccessAllowed(pConnection) &&
-                                tSubItem.isIncluded(pConnection, tItems.toArray())) {
-                                tSubMenuData.addObject(TAG_MENUITEM, tSubItem.getValues());
-                            }
-                        }
-                    }
-                }
+                addContextMenuItems(pConnection, tMenu, tPerspective, tResponse, tItems.toArray());
             }
             else {
                 // TODO: Remove
@@ -834,30 +845,7 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
                 }
                 tResponse.setObject(ATTR_CONTEXT_OBJECT, tItemData);
 
-                for (AsMenuItem tMenuItem : tMenu.getMenuItems()) {
-                    if (tMenuItem.isForPerspective(tPerspective)) {
-                        if (tMenuItem.isAccessAllowed(pConnection) &&
-                            tMenuItem.isIncluded(pConnection, tItem)) {
-                            tResponse.addObject(TAG_MENUITEM, tMenuItem.getValues());
-                        }
-                    }
-                }
-                for (AsContextMenu tSubMenu : tMenu.getSubMenus(tPerspective)) {
-                    // Copy the menu and remove all its items since we need to filter them one by one
-                    CwfDataIf tSubMenuData = CwfDataFactory.copy(tSubMenu.getValues());
-                    while (tSubMenuData.getObjectList(TAG_MENUITEM).size() > 0) {
-                        tSubMenuData.removeObject(TAG_MENUITEM, 0);
-                    }
-                    tResponse.addObject(TAG_MENU, tSubMenuData);
-                    for (AsMenuItem tSubItem : tSubMenu.getMenuItems()) {
-                        if (tSubItem.isForPerspective(tPerspective)) {
-                            if (tSubItem.isAccessAllowed(pConnection) &&
-                                tSubItem.isIncluded(pConnection, tItem)) {
-                                tSubMenuData.addObject(TAG_MENUITEM, tSubItem.getValues());
-                            }
-                        }
-                    }
-                }
+                addContextMenuItems(pConnection, tMenu, tPerspective, tResponse, tItem);
             }
             else {
                 // TODO: Remove
@@ -886,24 +874,107 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
      * @return the context menu
      */
     protected AsContextMenu getContextMenu(String pPerspectiveId, String pViewId, String pItemClassName) {
+        return getContextMenuTable().getContextMenu(pPerspectiveId, pViewId, pItemClassName);
+    }
+
+    /**
+     * Get the context menu lookup table for the context menu list of this session.
+     * <p>
+     * The table is shared between sessions, and is only replaced if the context menu list itself
+     * is replaced.
+     *
+     * @return the context menu table
+     */
+    protected AsContextMenuTable getContextMenuTable() {
         AsDataSourceIf<AsContextMenu> tContextMenusDataSource =
             getDataSource(CwfGlobalDataSources.CONTEXTMENUS_ALL, null, null);
         AsListIf<AsContextMenu> tContextMenus = (AsListIf<AsContextMenu>) tContextMenusDataSource;
-        // Use a most -> least significant match scheme
-        String[] tKeysToTest = new String[] {
-            pPerspectiveId + "." + pViewId + "." + pItemClassName,
-            pPerspectiveId + ".*." + pItemClassName,
-            "*." + pViewId + "." + pItemClassName,
-            "*.*." + pItemClassName,
-            pItemClassName
-        };
-        for (String tKey : tKeysToTest) {
-            AsContextMenu tMenu = tContextMenus.get(tKey);
-            if (tMenu != null) {
-                return tMenu;
+        AsContextMenuTable tTable = cContextMenuTable;
+        if (tTable == null || tTable.getDataSource() != tContextMenus) {
+            synchronized (AsContextMenuTable.class) {
+                tTable = cContextMenuTable;
+                if (tTable == null || tTable.getDataSource() != tContextMenus) {
+                    if (tTable != null) {
+                        tTable.dispose();
+                    }
+                    tTable = new AsContextMenuTable(tContextMenus);
+                    cContextMenuTable = tTable;
+                }
+            }
+        }
+        return tTable;
+    }
+
+    /**
+     * Populate the menu items and sub menus of the given context menu which are applicable to the
+     * perspective, accessible to the user and included for the given items.
+     *
+     * @param pConnection the connection
+     * @param pMenu the context menu
+     * @param pPerspective the perspective
+     * @param pResponse the response to populate
+     * @param pItems the items the context menu is requested for
+     */
+    protected void addContextMenuItems(
+        AsConnectionIf pConnection, AsContextMenu pMenu, String pPerspective, CwfDataIf pResponse, Object... pItems) {
+
+        AsContextMenuTable.Layout tLayout = getContextMenuTable().getLayout(pMenu, pPerspective);
+        for (AsMenuItem tMenuItem : tLayout.getMenuItems()) {
+            if (isMenuItemAccessAllowed(pConnection, tMenuItem) && tMenuItem.isIncluded(pConnection, pItems)) {
+                pResponse.addObject(TAG_MENUITEM, tMenuItem.getValues());
+            }
+        }
+        for (AsContextMenuTable.SubMenu tSubMenu : tLayout.getSubMenus()) {
+            // Start from an empty copy of the menu since its items need to be filtered one by one
+            CwfDataIf tSubMenuData = tSubMenu.createData();
+            pResponse.addObject(TAG_MENU, tSubMenuData);
+            for (AsMenuItem tSubItem : tSubMenu.getMenuItems()) {
+                if (isMenuItemAccessAllowed(pConnection, tSubItem) && tSubItem.isIncluded(pConnection, pItems)) {
+                    tSubMenuData.addObject(TAG_MENUITEM, tSubItem.getValues());
+                }
             }
         }
-        return null;
+    }
+
+    /**
+     * Check if the user of this session has access to the given menu item. The result does not
+     * depend on the item the menu is requested for, and is memoized until the menu items available
+     * to the session change.
+     *
+     * @param pConnection the connection
+     * @param pMenuItem the menu item
+     * @return {@code true}, if access is allowed
+     */
+    @SuppressWarnings("deprecation")
+    protected boolean isMenuItemAccessAllowed(AsConnectionIf pConnection, AsMenuItem pMenuItem) {
+        MenuItemAccess tAccess;
+        synchronized (this) {
+            if (mMenuItemAccess == null) {
+                AsDataSourceIf<AsXmlRefData> tMenuItems =
+                    getDataSource(CwfGlobalDataSources.MENUITEMS_ALL, null, null);
+                if (!(tMenuItems instanceof AsListIf<?>)) {
+                    return pMenuItem.isAccessAllowed(pConnection);
+                }
+                mMenuItemAccess = new MenuItemAccess((AsListIf<AsXmlRefData>) tMenuItems);
+            }
+            tAccess = mMenuItemAccess;
+        }
+        Boolean tAllowed = tAccess.mAllowed.get(pMenuItem);
+        if (tAllowed == null) {
+            tAllowed = pMenuItem.isAccessAllowed(tAccess.mMenuItems);
+            tAccess.mAllowed.put(pMenuItem, tAllowed);
+        }
+        return tAllowed;
+    }
+
+    /**
+     * Discard the memoized menu item access of this session.
+     */
+    protected synchronized void resetMenuItemAccess() {
+        if (mMenuItemAccess != null) {
+            mMenuItemAccess.mMenuItems.removeListener(mMenuItemAccess);
+            mMenuItemAccess = null;
+        }
     }
 
     /**
@@ -1052,49 +1123,123 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
 
     /**
      * Populate the data source from the given query.
+     * <p>
+     * The response is passed to a callback, and a response implementing {@link AsPartialResponseIf}
+     * may arrive in several parts. The items of each part are added to the data source in one
+     * operation as soon as the part arrives, and the completion event is sent after the last part.
+     * <p>
+     * If the data source is defined with a query cache time to live, the result is shared with
+     * other users issuing the same query through the {@link AsQueryResultCache}, and the user filter
+     * of the data source is applied to the shared items.
      *
      * @param pConnection the connection
      * @param pDataSource the data source
      * @param pQuery the query
      * @param pRequestHandle the request handle
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @SuppressWarnings("rawtypes")
     protected void populateDataSourceFromQuery(
         AsConnectionIf pConnection, AsListIf pDataSource, CwfDataIf pQuery, int pRequestHandle) {
+        populateDataSourceFromQuery(pConnection, null, pDataSource, pQuery, pRequestHandle);
+    }
+
+    /**
+     * Populate the data source from the given query, and attach the viewport to it.
+     * <p>
+     * The viewport is attached once the first part of the result has been added, so that it receives
+     * the items added so far as a snapshot, and only the items of later parts as single additions.
+     * A query still being executed for the same viewport is cancelled, its remaining parts are
+     * ignored.
+     *
+     * @param pConnection the connection
+     * @param pListener the viewport to attach, or {@code null} if attached by the caller
+     * @param pDataSource the data source
+     * @param pQuery the query
+     * @param pRequestHandle the request handle
+     * @see #populateDataSourceFromQuery(AsConnectionIf, AsListIf, CwfDataIf, int)
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected void populateDataSourceFromQuery(AsConnectionIf pConnection, AsDataSourceViewportListenerIf pListener,
+        AsListIf pDataSource, CwfDataIf pQuery, int pRequestHandle) {
 
         // Inform the client that the search has started
         CwfDataIf tData = CwfDataFactory.create(MvcEventEnum.ViewportQueryInitEvent);
         addPendingDataSourceEvent(new CwfMessage(tData, pRequestHandle));
 
         pDataSource.clear();
+        QueryResultHandler tHandler = new QueryResultHandler(pListener, pDataSource, pRequestHandle);
+        if (pListener != null) {
+            QueryResultHandler tPrevious = mQueryHandlers.put(pListener, tHandler);
+            if (tPrevious != null) {
+                tPrevious.cancel();
+            }
+        }
+
+        // Use a shared result if one is cached or being fetched
+        AsDataSourceDef<?> tDef = AsDataSourceDef.getDataSourceDef(pDataSource.getDataSourceId());
+        if (tDef != null && tDef.getQueryCacheTtl() > 0) {
+            tHandler.mUserFilter = tDef.createUserFilter(mSessionData.getMember(), mSessionData.getUser());
+            tHandler.mCacheEntry = AsQueryResultCache.get().acquire(
+                AsQueryResultCache.getKey(pDataSource.getDataSourceId(), pQuery), tDef.getQueryCacheTtl(),
+                pDataSource.getItemClass(), tHandler.new CachedResultHandler());
+            if (tHandler.mCacheEntry == null) {
+                return;
+            }
+        }
+
         CwfMessage tRequest = new CwfMessage(MvcModelNames.ServerRequest, (CwfDataIf) pQuery, -1);
-        Object tResponse = pConnection.getRequestService().sendLocal(pConnection, tRequest);
-
-        // If the query failed, notify the client
-        ClientQueryResponse tClientResponse = createClientQueryResponse(tResponse);
-        if (tClientResponse != null && tClientResponse.mStatusCode != As.STATUS_CODE_OK) {
-            tData = CwfDataFactory.create(MvcEventEnum.ViewportErrorEvent);
-            tData.setProperty(ATTR_STATUS_CODE, tClientResponse.mStatusCode);
-            tData.setProperty(ATTR_STATUS_MESSAGE, tClientResponse.mStatusMessage);
-            addPendingDataSourceEvent(new CwfMessage(tData, pRequestHandle));
-            return;
+        pConnection.getRequestService().sendLocal(pConnection, tRequest, tHandler);
+    }
+
+    /**
+     * Get the items of a query response, or a part of it.
+     *
+     * @param pResponse the response
+     * @param pItemClass the item class
+     * @return the items, never {@code null}
+     */
+    protected List<Object> getQueryResult(Object pResponse, Class<?> pItemClass) {
+        Object tItems = findItems(pResponse, pItemClass);
+        if (tItems == null) {
+            return Collections.emptyList();
         }
+        int tLength = Array.getLength(tItems);
+        List<Object> tList = new ArrayList<Object>(tLength);
+        for (int i = 0; i < tLength; i++) {
+            Object tItem = Array.get(tItems, i);
+            if (tItem != null) {
+                tList.add(tItem);
+            }
+        }
+        return tList;
+    }
 
-        // Now populate the response into the data source
-        Object tItems = findItems(tResponse, pDataSource.getItemClass());
-        if (tItems != null) {
-            for (int i = 0; i < Array.getLength(tItems); i++) {
-                Object tItem = Array.get(tItems, i);
-                if (tItem != null) {
-                    pDataSource.add(tItem);
+    /**
+     * Add the items of a query result to the data source.
+     *
+     * @param pDataSource the data source
+     * @param pItems the items
+     * @param pFilter the filter to apply to the items, or {@code null} to add all items
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected void addQueryResult(AsListIf pDataSource, List<Object> pItems, AsFilterIf pFilter) {
+        List<Object> tItems = pItems;
+        if (pFilter != null) {
+            tItems = new ArrayList<Object>(pItems.size());
+            for (Object tItem : pItems) {
+                if (pFilter.include(tItem)) {
+                    tItems.add(tItem);
                 }
             }
         }
-
-        // Inform the client that the search has completed
-        tData = CwfDataFactory.create(MvcEventEnum.ViewportQueryCompleteEvent);
-        tData.setProperty(ATTR_SIZE, pDataSource.size());
-        addPendingDataSourceEvent(new CwfMessage(tData, pRequestHandle));
+        if (pDataSource instanceof AsTreeMapList) {
+            ((AsTreeMapList) pDataSource).addAll(tItems);
+        }
+        else {
+            for (Object tItem : tItems) {
+                pDataSource.add(tItem);
+            }
+        }
     }
 
     /**
@@ -1109,19 +1254,70 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
     }
 
     /**
-     * Attempt to find the data to populate based on its class.
+     * Attempt to find the data to populate based on its class. The path to the field holding the
+     * items is resolved once per response and item class, and reused for subsequent responses.
      *
      * @param pObject the object
      * @param pItemClass the item class
      * @return the object
      */
     protected Object findItems(Object pObject, Class<?> pItemClass) {
+        String tKey = pObject.getClass().getName() + "/" + pItemClass.getName();
+        Field[] tPath = cQueryResultPaths.get(tKey);
+        if (tPath != null) {
+            Object tItems = getItems(pObject, tPath);
+            if (tItems != null) {
+                return tItems;
+            }
+        }
+        List<Field> tFoundPath = new ArrayList<Field>();
+        Object tItems = findItems(pObject, pItemClass, tFoundPath);
+        if (tItems != null) {
+            cQueryResultPaths.put(tKey, tFoundPath.toArray(new Field[tFoundPath.size()]));
+        }
+        return tItems;
+    }
+
+    /**
+     * Follow a resolved path of fields from the response to the items.
+     *
+     * @param pObject the object
+     * @param pPath the path
+     * @return the items, or {@code null} if the path ends in a {@code null} value
+     */
+    private Object getItems(Object pObject, Field[] pPath) {
+        Object tObject = pObject;
+        for (Field tField : pPath) {
+            try {
+                tObject = tField.get(tObject);
+            }
+            catch (Exception e) {
+                throw new RuntimeException("Could not retrieve subobject", e);
+            }
+            if (tObject == null) {
+                return null;
+            }
+        }
+        return tObject;
+    }
+
+    /**
+     * Search the fields of the object recursively for an array of the given item class.
+     *
+     * @param pObject the object
+     * @param pItemClass the item class
+     * @param pPath the path of fields leading to the object, the path to the items is appended if found
+     * @return the object
+     */
+    private Object findItems(Object pObject, Class<?> pItemClass, List<Field> pPath) {
         for (Field tField : pObject.getClass().getFields()) {
             // If the field is an array, look at its type
             if (tField.getType().isArray()) {
                 if (tField.getType().getComponentType().isAssignableFrom(pItemClass)) {
                     try {
-                        return tField.get(pObject);
+                        Object tArray = tField.get(pObject);
+                        pPath.add(tField);
+                        return tArray;
                     }
                     catch (Exception e) {
                         throw new RuntimeException("Could not retrieve array element", e);
@@ -1140,10 +1336,12 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
                 try {
                     Object tSubObject = tField.get(pObject);
                     if (tSubObject != null) {
-                        Object tArray = findItems(tSubObject, pItemClass);
+                        pPath.add(tField);
+                        Object tArray = findItems(tSubObject, pItemClass, pPath);
                         if (tArray != null) {
                             return tArray;
                         }
+                        pPath.remove(pPath.size() - 1);
                     }
                 }
                 catch (Exception e) {
@@ -1213,7 +1411,7 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
         }
         if (tFilter == null) {
             tFilter = (pFilterExpression == null || pFilterExpression.length() == 0) ?
-                null : AsAttributeValueFilter.create(tDataSource.getItemClass(), pFilterExpression);
+                null : AsFilterCache.getAttributeValueFilter(tDataSource.getItemClass(), pFilterExpression);
         }
         AsAttributeValueSort<T> tSort = pSort == null ?
             null :  new AsAttributeValueSort<T>(tDataSource.getItemClass(), pSort);
@@ -1270,4 +1468,234 @@ public class AsDataSourceServiceImpl implements AsDataSourceServiceIf, MvcModelA
 
     }
 
+    /**
+     * Callback populating a query data source with the response, or the parts of the response, as
+     * they arrive.
+     */
+    protected class QueryResultHandler implements AsResponseCallbackIf<Object> {
+
+        /** The viewport to attach to the data source, or {@code null} if none. */
+        @SuppressWarnings("rawtypes")
+        private final AsDataSourceViewportListenerIf mListener;
+
+        /** The data source. */
+        @SuppressWarnings("rawtypes")
+        private final AsListIf mDataSource;
+
+        /** The request handle. */
+        private final int mRequestHandle;
+
+        /** The user filter applied to shared results, if any. */
+        @SuppressWarnings("rawtypes")
+        private AsFilterIf mUserFilter;
+
+        /** The shared result populated by this query, if any. */
+        private AsQueryResultCache.Entry mCacheEntry;
+
+        /** Flag indicating whether the query is completed or has failed. */
+        private boolean mDone;
+
+        /** Flag indicating whether the query is cancelled, its result is then not used. */
+        private boolean mCancelled;
+
+        /** Flag indicating whether the viewport is attached to the data source. */
+        private boolean mAttached;
+
+        /**
+         * Instantiates a new query result handler.
+         *
+         * @param pListener the viewport to attach to the data source, or {@code null} if none
+         * @param pDataSource the data source
+         * @param pRequestHandle the request handle
+         */
+        @SuppressWarnings("rawtypes")
+        public QueryResultHandler(AsDataSourceViewportListenerIf pListener, AsListIf pDataSource,
+            int pRequestHandle) {
+            mListener = pListener;
+            mDataSource = pDataSource;
+            mRequestHandle = pRequestHandle;
+        }
+
+        /**
+         * Cancel the query, the remaining parts of the result are ignored. A query populating a
+         * shared result still completes the shared result, since other users may be waiting for it.
+         */
+        public synchronized void cancel() {
+            mCancelled = true;
+            if (mCacheEntry == null) {
+                mDone = true;
+            }
+        }
+
+        @Override
+        public synchronized void onResponse(Object pResponse) {
+            if (mDone) {
+                return;
+            }
+            // The shared result, if any, is completed after the last part or failed on any error
+            boolean tLastPart = true;
+            try {
+                // No matching service, nothing to populate
+                if (pResponse == null) {
+                    complete();
+                    return;
+                }
+
+                // If the query failed, notify the client
+                ClientQueryResponse tClientResponse = createClientQueryResponse(pResponse);
+                if (tClientResponse != null && tClientResponse.mStatusCode != As.STATUS_CODE_OK) {
+                    if (mCacheEntry != null) {
+                        mCacheEntry.fail(tClientResponse.mStatusCode, tClientResponse.mStatusMessage);
+                    }
+                    fail(tClientResponse.mStatusCode, tClientResponse.mStatusMessage);
+                    return;
+                }
+
+                // Now populate the response into the data source
+                tLastPart = !(pResponse instanceof AsPartialResponseIf) ||
+                    ((AsPartialResponseIf) pResponse).isLastPart();
+                List<Object> tItems = getQueryResult(pResponse, mDataSource.getItemClass());
+                if (mCacheEntry != null) {
+                    mCacheEntry.addItems(tItems);
+                }
+                if (!mCancelled) {
+                    addQueryResult(mDataSource, tItems, mUserFilter);
+                }
+                if (tLastPart) {
+                    complete();
+                }
+                else {
+                    attach();
+                }
+            }
+            catch (RuntimeException e) {
+                String tMessage = "Exception while populating query data source " + mDataSource.getDataSourceId();
+                if (mCacheEntry != null) {
+                    mCacheEntry.fail(As.STATUS_CODE_NOK, tMessage);
+                }
+                if (!mDone) {
+                    fail(As.STATUS_CODE_NOK, tMessage + ": " + e.getMessage());
+                }
+                throw e;
+            }
+            finally {
+                // Has no effect if the shared result has already failed
+                if (mCacheEntry != null && tLastPart) {
+                    mCacheEntry.complete();
+                }
+            }
+        }
+
+        /**
+         * Attach the viewport to the data source, unless already attached or cancelled.
+         */
+        @SuppressWarnings("unchecked")
+        private void attach() {
+            if (mListener != null && !mAttached && !mCancelled) {
+                mAttached = true;
+                mListener.setDataSource(mDataSource);
+            }
+        }
+
+        /**
+         * Mark the query as done, and forget it unless a later query has replaced it.
+         */
+        private void done() {
+            mDone = true;
+            if (mListener != null) {
+                mQueryHandlers.remove(mListener, this);
+            }
+        }
+
+        /**
+         * Inform the client that the search has completed.
+         */
+        private void complete() {
+            done();
+            if (mCancelled) {
+                return;
+            }
+            CwfDataIf tData = CwfDataFactory.create(MvcEventEnum.ViewportQueryCompleteEvent);
+            tData.setProperty(ATTR_SIZE, mDataSource.size());
+            addPendingDataSourceEvent(new CwfMessage(tData, mRequestHandle));
+            attach();
+        }
+
+        /**
+         * Inform the client that the search has failed.
+         *
+         * @param pStatusCode the status code
+         * @param pStatusMessage the status message
+         */
+        private void fail(int pStatusCode, String pStatusMessage) {
+            done();
+            if (mCancelled) {
+                return;
+            }
+            CwfDataIf tData = CwfDataFactory.create(MvcEventEnum.ViewportErrorEvent);
+            tData.setProperty(ATTR_STATUS_CODE, pStatusCode);
+            tData.setProperty(ATTR_STATUS_MESSAGE, pStatusMessage);
+            addPendingDataSourceEvent(new CwfMessage(tData, mRequestHandle));
+            attach();
+        }
+
+        /**
+         * Callback populating the data source from a shared result fetched by another query.
+         */
+        protected class CachedResultHandler implements AsResponseCallbackIf<AsQueryResultCache.Entry> {
+
+            @Override
+            public void onResponse(AsQueryResultCache.Entry pEntry) {
+                synchronized (QueryResultHandler.this) {
+                    if (mDone) {
+                        return;
+                    }
+                    if (pEntry.isFailed()) {
+                        fail(pEntry.getStatusCode(), pEntry.getStatusMessage());
+                        return;
+                    }
+                    addQueryResult(mDataSource, pEntry.getItems(), mUserFilter);
+                    complete();
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * Memoized menu item access of a session, cleared whenever the menu items available to the
+     * session change, e.g. when the permissions of the user are changed.
+     */
+    @SuppressWarnings("deprecation")
+    private static class MenuItemAccess implements AsDataSourceListenerIf<AsXmlRefData> {
+
+        /** The menu items available to the session. */
+        private final AsListIf<AsXmlRefData> mMenuItems;
+
+        /** The access per menu item. */
+        private final Map<AsMenuItem, Boolean> mAllowed = new ConcurrentHashMap<AsMenuItem, Boolean>();
+
+        /**
+         * Instantiates a new menu item access.
+         *
+         * @param pMenuItems the menu items available to the session
+         */
+        MenuItemAccess(AsListIf<AsXmlRefData> pMenuItems) {
+            mMenuItems = pMenuItems;
+            mMenuItems.addListener(this, false);
+        }
+
+        @Override
+        public void onDataSourceEvent(AsDataSourceEventIf<AsXmlRefData> pEvent) {
+            mAllowed.clear();
+        }
+
+        @Override
+        public AsDataSourceIf<AsXmlRefData> getDataSource() {
+            return mMenuItems;
+        }
+
+    }
+
 }
@@ -24,13 +24,15 @@
 package com.cinnober.ciguan.datasource.impl;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
+import com.cinnober.ciguan.AsFormatIf;
 import com.cinnober.ciguan.AsLoggerIf;
 import com.cinnober.ciguan.CwfBusinessTypeIf;
 import com.cinnober.ciguan.CwfDataIf;
@@ -51,10 +53,12 @@ import com.cinnober.ciguan.datasource.RpcHasDataSourceEventIf;
 import com.cinnober.ciguan.datasource.RpcSortCriteriaIf;
 import com.cinnober.ciguan.datasource.RpcSortCriteriaIf.SortOrder;
 import com.cinnober.ciguan.datasource.filter.AsAttributeValueFilter;
+import com.cinnober.ciguan.datasource.filter.AsFilterCache;
 import com.cinnober.ciguan.datasource.filter.AsRequestFilter;
 import com.cinnober.ciguan.datasource.filter.RpcAttributeSortCriteria;
 import com.cinnober.ciguan.datasource.filter.RpcFilterOperator;
 import com.cinnober.ciguan.datasource.getter.AsGetMethod;
+import com.cinnober.ciguan.datasource.getter.AsObjectGetMethod;
 import com.cinnober.ciguan.datasource.listtree.AsListTreeList;
 import com.cinnober.ciguan.datasource.listtree.AsListTreeNode;
 import com.cinnober.ciguan.datasource.summary.AsViewportSummaryHandler;
@@ -77,6 +81,16 @@ import com.cinnober.ciguan.impl.CwfBusinessTypes;
 public class AsDataSourceViewportListenerImpl<T> extends AsDataSourceListenerImpl<T>
 implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
 
+    /** System property holding the number of rows above and below the viewport to format ahead. */
+    public static final String CWF_VIEWPORT_PREFETCH_MARGIN_PROPERTY = "cwf.viewportPrefetchMargin";
+
+    /** Default number of rows above and below the viewport to format ahead. */
+    public static final int DEFAULT_VIEWPORT_PREFETCH_MARGIN = 20;
+
+    /** The number of rows above and below the viewport to format ahead. */
+    private static final int cPrefetchMargin =
+        Math.max(0, Integer.getInteger(CWF_VIEWPORT_PREFETCH_MARGIN_PROPERTY, DEFAULT_VIEWPORT_PREFETCH_MARGIN));
+
     /** The get methods. */
     protected AsGetMethodIf<T>[] mGetMethods;
 
@@ -98,8 +112,8 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
     /** The selected object key. */
     protected String mSelectedObjectKey;
 
-    /** The selected object key set. */
-    protected Set<String> mSelectedObjectKeySet = new LinkedHashSet<String>();
+    /** The selected rows. */
+    protected AsViewportSelection<T> mSelection;
 
     /** The selected object viewport index. */
     protected Integer mSelectedObjectViewportIndex;
@@ -119,6 +133,22 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
     /** The has summaries. */
     protected boolean mHasSummaries;
 
+    /** The formatted rows of the viewport and its prefetch margin, by key. */
+    protected Map<String, FormattedRow<T>> mFormattedRows = new HashMap<String, FormattedRow<T>>();
+
+    /**
+     * The columns whose getters read more than the item itself, e.g. referenced objects, and which are
+     * formatted again for every event, for the rows sent only. Not initialized in the declaration, since
+     * {@link #init(Class, String[])} is called by the initial snapshot, from the constructor of the superclass.
+     */
+    protected boolean[] mDerivedColumns;
+
+    /** The locale that the formatted rows were formatted with. */
+    protected Locale mFormattedLocale;
+
+    /** The formatter that the formatted rows were formatted with. */
+    protected AsFormatIf mFormatter;
+
     /**
      * Instantiates a new as data source viewport listener impl.
      *
@@ -133,6 +163,7 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
             boolean pMultiSelect, AsDataSourceServiceIf pConnection, String pViewId) {
         super(pList, pAttributes, pSubscriptionHandle, pConnection, pViewId);
         mMultiSelect = pMultiSelect;
+        mSelection = new AsViewportSelection<T>(pList);
     }
 
     /**
@@ -145,10 +176,14 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
      */
     @SuppressWarnings("unchecked")
     protected void init(Class<T> pClass, String[] pAttributes) {
+        mFormattedRows = new HashMap<String, FormattedRow<T>>();
         mGetMethods = new AsGetMethodIf[pAttributes.length];
+        mDerivedColumns = new boolean[pAttributes.length];
         mSummaryHandlers = new AsViewportSummaryHandlerIf[pAttributes.length];
         for (int i = 0; i < pAttributes.length; i++) {
             mGetMethods[i] = AsGetMethod.create(pClass, pAttributes[i]);
+            // Only the plain getters of the item's own attributes are known to depend on the item only
+            mDerivedColumns[i] = mGetMethods[i].getClass() != AsObjectGetMethod.class;
             mSummaryHandlers[i] = AsViewportSummaryHandler.create(mViewId, mGetMethods[i], mDataSourceService);
             if (mSummaryHandlers[i] != null) {
                 mHasSummaries = true;
@@ -214,6 +249,9 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
      * @param pEvent the event
      */
     protected void add(AsDataSourceEventIf<T> pEvent) {
+        if (pEvent.getNewValue() != null) {
+            mSelection.added(mList.getKey(pEvent.getNewValue()), pEvent.getIndex());
+        }
         setValuesHaveChanged(true);
         setListSizeChanged();
     }
@@ -225,6 +263,11 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
      * @param pEvent the event
      */
     protected void update(AsDataSourceEventIf<T> pEvent) {
+        if (pEvent.getNewValue() != null) {
+            String tKey = mList.getKey(pEvent.getNewValue());
+            mFormattedRows.remove(tKey);
+            mSelection.moved(tKey, pEvent.getOldIndex(), pEvent.getIndex());
+        }
         setValuesHaveChanged(true);
     }
 
@@ -238,6 +281,11 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
      */
     protected void remove(AsDataSourceEventIf<T> pEvent) {
         // FIXME: Remove the key from selected keys and unselect if selected?
+        T tItem = pEvent.getOldValue() != null ? pEvent.getOldValue() : pEvent.getNewValue();
+        if (tItem != null) {
+            mSelection.removed(mList.getKey(tItem), pEvent.getIndex());
+            mFormattedRows.remove(mList.getKey(tItem));
+        }
         setValuesHaveChanged(true);
         setListSizeChanged();
     }
@@ -248,6 +296,10 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
      * @param pEvent the event
      */
     protected void snapshot(AsDataSourceEventIf<T> pEvent) {
+        // The initial snapshot is delivered while the listener is being created
+        if (mSelection != null) {
+            mSelection.cleared();
+        }
         init(mList.getItemClass(), mAttributes);
         CwfDataIf tData = CwfDataFactory.create(MvcEventEnum.ViewportInitEvent);
         tData.setProperty(ATTR_SIZE, mList.size());
@@ -295,8 +347,7 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
         }
 
         // Calculate the first object key
-        int tCurrentIndex = (mFirstObjectKey == null ? 0 : mList.indexOf(mFirstObjectKey));
-        int tNewIndex = Math.min((tCurrentIndex + pOffset), mList.size() - mViewportSize);
+        int tNewIndex = Math.min((tFirstIndex + pOffset), mList.size() - mViewportSize);
         if (tNewIndex <= 0) {
             mFirstObjectKey = null;
             tNewIndex = 0;
@@ -345,15 +396,26 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
     @Override
     public void setViewportFilter(String pFilterExpression) {
         AsFilterIf<T> tFilter = pFilterExpression == null ?
-                null : AsAttributeValueFilter.create(mList.getItemClass(), pFilterExpression);
+                null : AsFilterCache.getAttributeValueFilter(mList.getItemClass(), pFilterExpression);
 
         // Handle query based data sources in a special way
 
         AsListIf<T> tOriginalQueryList = getOriginalQueryList();
         if (tOriginalQueryList != null) {
             if (tFilter != null) {
-                // Request based data source: Switch to a new filtered sub-list
-                AsDataSourceIf<T> tNewDataSource = tOriginalQueryList.createDataSource(tFilter);
+                // Request based data source: Switch to a new filtered sub-list, seeded from the current
+                // filtered sub-list if the filter was narrowed
+                AsListIf<T> tFilteredQueryList = getFilteredQueryList();
+                AsDataSourceIf<T> tNewDataSource;
+                if (tFilteredQueryList instanceof AsEmapiTreeMapList
+                    && tOriginalQueryList instanceof AsEmapiTreeMapList
+                    && AsAttributeValueFilter.isNarrowerThan(tFilter, tFilteredQueryList.getFilter())) {
+                    tNewDataSource = ((AsEmapiTreeMapList<T>) tOriginalQueryList).createDataSource(
+                        tFilter, (AsEmapiTreeMapList<T>) tFilteredQueryList);
+                }
+                else {
+                    tNewDataSource = tOriginalQueryList.createDataSource(tFilter);
+                }
                 setDataSource((AsListIf<T>) tNewDataSource);
             }
             else {
@@ -467,14 +529,14 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
      * @param pSelectedObjectViewportIndex the selected object viewport index
      */
     protected void select(String pSelectedObjectKey, Integer pSelectedObjectViewportIndex) {
-        mSelectedObjectKeySet.clear();
         mSelectedObjectKey = pSelectedObjectKey;
-        mSelectedObjectKeySet.add(pSelectedObjectKey);
+        mSelection.select(pSelectedObjectKey);
         mSelectedObjectViewportIndex = pSelectedObjectViewportIndex;
     }
 
     /**
      * Unselect all previously selected rows, and select rows from current index to the new index.
+     * The rows are selected as a single range, which costs two index lookups regardless of its size.
      *
      * @param pSelectedObjectKey the selected object key
      * @param pSelectedObjectViewportIndex the selected object viewport index
@@ -483,14 +545,16 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
         if (!mMultiSelect) {
             return;
         }
-        mSelectedObjectKeySet.clear();
-        int tCurrentIndex = mSelectedObjectKey == null ? 0 : mList.indexOf(mSelectedObjectKey);
-        int tNewIndex = mList.indexOf(pSelectedObjectKey);
-        int tStart = Math.min(tCurrentIndex, tNewIndex);
-        int tStop = Math.max(tCurrentIndex, tNewIndex);
-        for (int i = tStart; i <= tStop; i++) {
-            mSelectedObjectKeySet.add(mList.getKey(mList.get(i)));
+        mSelection.selectRange(mSelectedObjectKey, pSelectedObjectKey);
+    }
+
+    @Override
+    public void selectAll() {
+        if (!mMultiSelect) {
+            return;
         }
+        mSelection.selectAll();
+        setValuesHaveChanged(true);
     }
 
     /**
@@ -501,16 +565,16 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
      */
     protected void selectControl(String pSelectedObjectKey, Integer pSelectedObjectViewportIndex) {
         if ((pSelectedObjectKey != null && pSelectedObjectKey.equals(mSelectedObjectKey))
-                || mSelectedObjectKeySet.contains(pSelectedObjectKey)) {
+                || mSelection.contains(pSelectedObjectKey)) {
             mSelectedObjectKey = null;
             mSelectedObjectViewportIndex = null;
-            mSelectedObjectKeySet.remove(pSelectedObjectKey);
+            mSelection.remove(pSelectedObjectKey);
             return;
         }
         if (!mMultiSelect) {
             return;
         }
-        mSelectedObjectKeySet.add(pSelectedObjectKey);
+        mSelection.add(pSelectedObjectKey);
         mSelectedObjectKey = pSelectedObjectKey;
         mSelectedObjectViewportIndex = pSelectedObjectViewportIndex;
     }
@@ -526,8 +590,7 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
             return;
         }
         mSelectedObjectKey = mList.getKey(mList.get(tIndex));
-        mSelectedObjectKeySet.clear();
-        mSelectedObjectKeySet.add(mSelectedObjectKey);
+        mSelection.select(mSelectedObjectKey);
         if (mSelectedObjectViewportIndex == null) {
             mSelectedObjectViewportIndex = 0;
         }
@@ -555,7 +618,9 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
             return;
         }
         mList.removeListener(this);
+        mSelection.setList(pDataSource);
         mList = pDataSource;
+        mFormattedRows = new HashMap<String, FormattedRow<T>>();
         setValuesHaveChanged(true);
         mListSizeChanged = false;
         mList.addListener(this);
@@ -569,6 +634,8 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
      * Clear.
      */
     protected void clear() {
+        mFormattedRows = new HashMap<String, FormattedRow<T>>();
+        mSelection.cleared();
         setValuesHaveChanged(true);
     }
 
@@ -663,7 +730,7 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
 
     @Override
     public Set<String> getSelectedKeys() {
-        return Collections.unmodifiableSet(mSelectedObjectKeySet);
+        return mSelection.getKeys();
     }
 
     @Override
@@ -671,9 +738,116 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
         return mGetMethods;
     }
 
+    /**
+     * Get the formatted attribute values of a row to send, reusing the values formatted by a previous
+     * event unless the row has been replaced or updated since. Derived columns are formatted again, since
+     * the objects they read may have changed without the row being updated. The row is added to the
+     * given rows, which replace the current ones at the end of the event.
+     *
+     * @param pKey the key
+     * @param pItem the item
+     * @param pFormattedRows the rows formatted for the current event
+     * @return the attribute values
+     */
+    protected String[] getFormattedRow(String pKey, T pItem, Map<String, FormattedRow<T>> pFormattedRows) {
+        FormattedRow<T> tRow = pFormattedRows.get(pKey);
+        if (tRow == null || tRow.mItem != pItem) {
+            tRow = formatRow(pItem, mFormattedRows.get(pKey), true);
+            pFormattedRows.put(pKey, tRow);
+        }
+        return tRow.mValues;
+    }
+
+    /**
+     * Format the attribute values of a row. The values of the columns which are not derived are reused
+     * from the previous row, if it was formatted from the same item.
+     *
+     * @param pItem the item
+     * @param pPrevious the row formatted by a previous event, or {@code null} if none
+     * @param pDerived {@code true} to format the derived columns, otherwise they are left unformatted
+     * @return the row
+     */
+    protected FormattedRow<T> formatRow(T pItem, FormattedRow<T> pPrevious, boolean pDerived) {
+        boolean tReuse = pPrevious != null && pPrevious.mItem == pItem;
+        if (tReuse && !(pDerived && hasDerivedColumns())) {
+            return pPrevious;
+        }
+        String[] tAttributeValues = new String[mGetMethods.length];
+        for (int i = 0; i < mGetMethods.length; i++) {
+            if (mDerivedColumns[i]) {
+                tAttributeValues[i] = pDerived ? mGetMethods[i].getText(pItem, mDataSourceService) : null;
+            }
+            else {
+                tAttributeValues[i] = tReuse ?
+                    pPrevious.mValues[i] : mGetMethods[i].getText(pItem, mDataSourceService);
+            }
+        }
+        return new FormattedRow<T>(pItem, tAttributeValues);
+    }
+
+    /**
+     * Check if any column is derived, see {@link #mDerivedColumns}.
+     *
+     * @return {@code true} if at least one column is derived
+     */
+    protected boolean hasDerivedColumns() {
+        for (boolean tDerived : mDerivedColumns) {
+            if (tDerived) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop the formatted rows if the locale of the session or the formatter has changed since they were
+     * formatted.
+     */
+    protected void checkFormattedRows() {
+        Locale tLocale = mDataSourceService.getLocale();
+        AsFormatIf tFormatter = As.getFormatter();
+        boolean tLocaleChanged = tLocale == null ? mFormattedLocale != null : !tLocale.equals(mFormattedLocale);
+        if (tLocaleChanged || tFormatter != mFormatter) {
+            mFormattedRows = new HashMap<String, FormattedRow<T>>();
+            mFormattedLocale = tLocale;
+            mFormatter = tFormatter;
+        }
+    }
+
+    /**
+     * Format the rows within the prefetch margin above and below the viewport, so that scrolling
+     * within the margin only moves the first index and sends rows which are already formatted. Rows
+     * outside the margin are dropped from the formatted rows. Only the columns which are not derived
+     * are formatted ahead, the derived columns are formatted when the row is sent. Must be called after
+     * the rows of the event have been formatted.
+     *
+     * @param pFormattedRows the rows formatted for the current event
+     */
+    protected void prefetch(Map<String, FormattedRow<T>> pFormattedRows) {
+        if (cPrefetchMargin == 0) {
+            return;
+        }
+        int tFromIndex = Math.max(0, mFirstIndex - cPrefetchMargin);
+        int tToIndex = Math.min(mList.size(), mFirstIndex + mViewportSize + cPrefetchMargin);
+        try {
+            Iterator<T> tCursor = mList.iterator(tFromIndex);
+            for (int i = tFromIndex; i < tToIndex && tCursor.hasNext(); i++) {
+                T tItem = tCursor.next();
+                String tKey = mList.getKey(tItem);
+                if (!pFormattedRows.containsKey(tKey)) {
+                    pFormattedRows.put(tKey, formatRow(tItem, mFormattedRows.get(tKey), false));
+                }
+            }
+        }
+        catch (ConcurrentModificationException e) {
+            // Data was modified while reading, the remaining rows are formatted when they are sent
+        }
+    }
+
     @Override
     public synchronized CwfMessage getEvent() {
         try {
+            checkFormattedRows();
             Map<String, String[]> tValues = new HashMap<String, String[]>();
             String[] tKeys = new String[mViewportSize];
             String[] tStates = new String[mViewportSize];
@@ -698,15 +872,24 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
             mSelectedObjectViewportIndex = null;
             List<T> tItemsToSend = new ArrayList<T>();
             int tIndex = mFirstIndex;
+            Iterator<T> tCursor = mList.iterator(mFirstIndex);
             for (int tRow = 0; tRow < mViewportSize && tIndex < mList.size(); tRow++) {
                 T tItem = null;
-                try {
+                if (tCursor != null) {
+                    try {
+                        tItem = tCursor.hasNext() ? tCursor.next() : null;
+                    }
+                    catch (ConcurrentModificationException e) {
+                        // Data was modified while reading, read the remaining rows one by one
+                        tCursor = null;
+                    }
+                }
+                if (tCursor == null) {
                     tItem = mList.get(tIndex);
                 }
-                catch (Exception e) {
-                    // Data was removed while reading, count it and return
-                    //                    AsMetricsIf.Singleton.get().incrementCounter(AsMetricsIf.MX_FAILED_VIEWPORT_READ_ATTEMPTS);
-                    return null;
+                if (tItem == null) {
+                    // The list has shrunk while reading
+                    break;
                 }
                 if (tItem != null && mStateMethod != null) {
                     tStates[tRow] = (String) mStateMethod.getObject(tItem);
@@ -729,14 +912,11 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
                 }
             }
             List<String> tSelectedKeysToSend = new ArrayList<String>();
+            Map<String, FormattedRow<T>> tFormattedRows = new HashMap<String, FormattedRow<T>>();
             for (T tItem : tItemsToSend) {
                 String tKey = mList.getKey(tItem);
-                String[] tAttributeValues = new String[mGetMethods.length];
-                for (int i = 0; i < mGetMethods.length; i++) {
-                    tAttributeValues[i] = mGetMethods[i].getText(tItem, mDataSourceService);
-                }
-                tValues.put(tKey, tAttributeValues);
-                if (mSelectedObjectKeySet.contains(tKey) || tKey.equals(mSelectedObjectKey)) {
+                tValues.put(tKey, getFormattedRow(tKey, tItem, tFormattedRows));
+                if (tKey.equals(mSelectedObjectKey) || mSelection.contains(tKey)) {
                     tSelectedKeysToSend.add(tKey);
                 }
             }
@@ -772,10 +952,12 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
             CwfDataIf tScrollData = CwfDataFactory.create();
             tScrollData.setProperty(ATTR_POSITION, mFirstIndex);
             tScrollData.setProperty(ATTR_TOTAL_SIZE, mList.size());
-            tScrollData.setProperty(ATTR_SELECTED_COUNT, mSelectedObjectKeySet.size());
+            tScrollData.setProperty(ATTR_SELECTED_COUNT, mSelection.size());
             tScrollData.setProperty(ATTR_VISIBLE_SIZE, tKeys.length);
             tData.setObject(ATTR_SCROLL_DATA, tScrollData);
 
+            prefetch(tFormattedRows);
+            mFormattedRows = tFormattedRows;
             mValuesHaveChanged = false;
             mListSizeChanged = false;
 
@@ -788,4 +970,29 @@ implements AsDataSourceViewportListenerIf<T>, RpcHasDataSourceEventIf {
         return null;
     }
 
+    /**
+     * The formatted attribute values of a row, along with the item they were formatted from.
+     *
+     * @param <T> the type of object contained in the underlying list
+     */
+    protected static class FormattedRow<T> {
+
+        /** The item. */
+        private final T mItem;
+
+        /** The formatted attribute values. */
+        private final String[] mValues;
+
+        /**
+         * Instantiates a new formatted row.
+         *
+         * @param pItem the item
+         * @param pValues the formatted attribute values
+         */
+        protected FormattedRow(T pItem, String[] pValues) {
+            mItem = pItem;
+            mValues = pValues;
+        }
+    }
+
 }
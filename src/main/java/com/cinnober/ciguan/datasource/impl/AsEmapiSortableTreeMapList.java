@@ -23,8 +23,15 @@
  */
 package com.cinnober.ciguan.datasource.impl;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.cinnober.ciguan.datasource.AsFilterIf;
 import com.cinnober.ciguan.datasource.AsSortIf;
@@ -94,10 +101,10 @@ public class AsEmapiSortableTreeMapList<E extends Object> extends AsEmapiTreeMap
                 // Add to the sorted map too
                 mSortedItems.put(pItem, pItem);
                 int tIndex = mSortedItems.indexOfKey(pItem);
-                notifyListeners(AsDataSourceEvent.create(this, Type.ADD, tIndex, pItem, null));
                 
-                // Add quietly to the ID map
+                // Add quietly to the ID map, before the listeners look the item up
                 super.add(pItem, false);
+                notifyListeners(AsDataSourceEvent.create(this, Type.ADD, tIndex, pItem, null));
             }
             assert mSortedItems.size() == size();
         }
@@ -109,21 +116,23 @@ public class AsEmapiSortableTreeMapList<E extends Object> extends AsEmapiTreeMap
             if (include(pNewValue)) {
                 // Remove from and add to sorted map too
                 E tOldValue = get(getKey(pNewValue));
+                int tOldIndex = -1;
                 if (tOldValue != null) {
+                    tOldIndex = mSortedItems.indexOfKey(tOldValue);
                     E tOldSortedValue = mSortedItems.remove(tOldValue);
                     assert tOldSortedValue != null;
                 }
                 mSortedItems.put(pNewValue, pNewValue);
                 int tIndex = mSortedItems.indexOfKey(pNewValue);
+                
+                // Update quietly to the ID map, before the listeners look the item up
+                super.update(pNewValue, false);
                 if (tOldValue == null) {
                     notifyListeners(AsDataSourceEvent.create(this, Type.ADD, tIndex, pNewValue, null));
                 }
                 else {
-                    notifyListeners(AsDataSourceEvent.create(this, Type.UPDATE, tIndex, pNewValue, tOldValue));
+                    notifyListeners(AsDataSourceEvent.createUpdate(this, tIndex, tOldIndex, pNewValue, tOldValue));
                 }
-                
-                // Update quietly to the ID map
-                super.update(pNewValue, false);
             }
             else {
                 remove(pNewValue);
@@ -141,15 +150,66 @@ public class AsEmapiSortableTreeMapList<E extends Object> extends AsEmapiTreeMap
                 int tIndex = mSortedItems.indexOfKey(tOldValue);
                 E tOldSortedValue = mSortedItems.remove(tOldValue);
                 assert tOldSortedValue != null;
-                notifyListeners(AsDataSourceEvent.create(this, Type.REMOVE, tIndex, pItem, tOldValue));
                 
-                // Remove quietly from the ID map
+                // Remove quietly from the ID map, before the listeners look the item up
                 super.remove(pItem, false);
+                notifyListeners(AsDataSourceEvent.create(this, Type.REMOVE, tIndex, pItem, tOldValue));
             }
             assert mSortedItems.size() == size();
         }
     };
     
+    /**
+     * Add all items in a single transaction on the list. An empty list is built in bulk, in both maps,
+     * and listeners are sent a single snapshot event. Otherwise each item is added to both maps and
+     * listeners are notified about it.
+     *
+     * @param pItems the items
+     */
+    @Override
+    public void addAll(Collection<E> pItems) {
+        synchronized (mMutex) {
+            if (size() == 0) {
+                // Keep the last item per key, as the sorted map holds each item under its sort values
+                Map<String, E> tItems = new LinkedHashMap<String, E>();
+                for (E tItem : pItems) {
+                    tItems.put(getKey(tItem), tItem);
+                }
+                mSnapshot = tItems.values();
+                doSnapshot();
+            }
+            else {
+                for (E tItem : pItems) {
+                    add(tItem);
+                }
+            }
+            assert mSortedItems.size() == size();
+        }
+    }
+
+    /**
+     * Remove all items whose keys start with the given prefix, and which are accepted by the given
+     * filter, from both maps. Listeners are notified about each removed item in key order, at its
+     * index in the sort order at the time of removal.
+     *
+     * @param pKeyPrefix the key prefix
+     * @param pFilter the filter, or {@code null} to remove all items in the range
+     * @return the removed items, in key order
+     */
+    @Override
+    public List<E> removeByKeyPrefix(String pKeyPrefix, AsFilterIf<E> pFilter) {
+        synchronized (mMutex) {
+            List<E> tRemoved = new ArrayList<E>();
+            for (E tItem : getByKeyPrefix(pKeyPrefix)) {
+                if (pFilter == null || pFilter.include(tItem)) {
+                    remove(tItem);
+                    tRemoved.add(tItem);
+                }
+            }
+            return tRemoved;
+        }
+    }
+
     /**
      * Store the snapshot until everything is initialized properly.
      *
@@ -167,15 +227,24 @@ public class AsEmapiSortableTreeMapList<E extends Object> extends AsEmapiTreeMap
     }
     
     /**
-     * Do the actual snapshot processing.
+     * Do the actual snapshot processing. The items are sorted as an array and the sorted map is built
+     * from the result in linear time, which is considerably cheaper than putting the items one by one
+     * when a new sort order is requested on a large list.
      */
     protected void doSnapshot() {
         // Populate the sorted map
+        List<E> tItems = new ArrayList<E>(mSnapshot.size());
         for (E tItem : mSnapshot) {
             if (include(tItem)) {
-                mSortedItems.put(tItem, tItem);
+                tItems.add(tItem);
             }
         }
+        Collections.sort(tItems, mSortedItems.comparator());
+        List<Map.Entry<E, E>> tEntries = new ArrayList<Map.Entry<E, E>>(tItems.size());
+        for (E tItem : tItems) {
+            tEntries.add(new AbstractMap.SimpleImmutableEntry<E, E>(tItem, tItem));
+        }
+        mSortedItems.putAllSorted(tEntries);
         
         // Let the ID map process the snapshot and notify its listeners
         super.snapshot(mSnapshot);
@@ -187,6 +256,16 @@ public class AsEmapiSortableTreeMapList<E extends Object> extends AsEmapiTreeMap
         return mSortedItems.get(pIndex);
     }
 
+    @Override
+    public Iterator<E> iterator(int pIndex) {
+        return readOnly(mSortedItems.valueListIterator(Math.max(0, Math.min(pIndex, mSortedItems.size()))));
+    }
+
+    @Override
+    public int indexOf(E pItem) {
+        return indexOf(getKey(pItem));
+    }
+
     @Override
     public int indexOf(String pKey) {
         E tItem = super.get(pKey);
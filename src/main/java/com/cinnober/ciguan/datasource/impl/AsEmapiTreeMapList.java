@@ -101,6 +101,28 @@ public class AsEmapiTreeMapList<E extends Object> extends AsTreeMapList<E> imple
         getSource().addListener(this);
     }
 
+    /**
+     * Instantiates a new as EMAPI tree map list, populated from a seed list rather than from the
+     * source. The seed must be another child of the source whose filter accepts every item accepted by
+     * the given filter, typically when a filter is narrowed, so that only the items of the seed are
+     * evaluated. The seed is read while holding the source mutex, when it is consistent with the source.
+     *
+     * @param pModelId the model id
+     * @param pSource the source
+     * @param pSeed the seed
+     * @param pFilter the filter
+     */
+    public AsEmapiTreeMapList(
+        String pModelId, AsEmapiTreeMapList<E> pSource, AsEmapiTreeMapList<E> pSeed, AsFilterIf<E> pFilter) {
+        super(pModelId, pSource, pFilter, null, pSource.getItemClass());
+        mIdAttribute = pSource.mIdAttribute;
+        mTextAttribute = pSource.mTextAttribute;
+        synchronized (pSource.mMutex) {
+            pSource.addListener(this, false);
+            snapshot(pSeed.values());
+        }
+    }
+
     /**
      * Instantiates a new as EMAPI tree map list.
      *
@@ -161,6 +183,36 @@ public class AsEmapiTreeMapList<E extends Object> extends AsTreeMapList<E> imple
         }
     }
     
+    /**
+     * Re-evaluate the filter against the items of the source list. Items which are now accepted are
+     * added and items which are no longer accepted are removed, while items whose filter outcome is
+     * unchanged generate no events. This is used when the outcome of the filter depends on external
+     * state, such as the access rights of a user, which has changed.
+     */
+    @SuppressWarnings("unchecked")
+    public void refilter() {
+        if (!(getSource() instanceof AsList)) {
+            return;
+        }
+        AsList<E> tSource = (AsList<E>) getSource();
+        // Lock in the same order as regular event propagation: source first, then this list
+        synchronized (tSource.mMutex) {
+            synchronized (mMutex) {
+                for (E tItem : tSource.values()) {
+                    boolean tPresent = get(getKey(tItem)) != null;
+                    if (include(tItem)) {
+                        if (!tPresent) {
+                            add(tItem);
+                        }
+                    }
+                    else if (tPresent) {
+                        remove(tItem);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Handle incoming messages.
      *
@@ -177,6 +229,19 @@ public class AsEmapiTreeMapList<E extends Object> extends AsTreeMapList<E> imple
         }
     }
 
+    /**
+     * Create a filtered child list, populated from the given seed list instead of from this list.
+     *
+     * @param pFilter the filter
+     * @param pSeed another child of this list whose filter accepts every item accepted by the filter
+     * @return the data source
+     */
+    public AsDataSourceIf<E> createDataSource(AsFilterIf<E> pFilter, AsEmapiTreeMapList<E> pSeed) {
+        synchronized (mMutex) {
+            return new AsEmapiTreeMapList<E>(getDataSourceId(), this, pSeed, pFilter);
+        }
+    }
+
     @Override
     public AsDataSourceIf<E> createDataSource(AsSortIf<E> pSort) {
         synchronized (mMutex) {
@@ -64,6 +64,16 @@ public abstract class AsList<T> extends AsDataSource<T> implements AsListIf<T> {
         super.addListener(pListener);
     }
 
+    @Override
+    public void addListener(AsDataSourceListenerIf<T> pListener, boolean pSnapshot) {
+        if (pSnapshot) {
+            addListener(pListener);
+        }
+        else {
+            super.addListener(pListener);
+        }
+    }
+
     @Override
     public void setListMetaData(AsListMetaDataIf pListMetaData) {
         mListMetaData = pListMetaData;
@@ -0,0 +1,453 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.cinnober.ciguan.AsBdxListenerIf;
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.impl.As;
+import com.cinnober.ciguan.request.AsResponseCallbackIf;
+
+/**
+ * Cache of query results shared by all users.
+ * <p>
+ * Query data sources are normally populated by executing the query once per user. For query data
+ * sources defined with a {@code queryCacheTtl}, the result of a query is instead kept here, keyed by
+ * the data source and the canonicalized query content, and handed to every user issuing the same
+ * query. A query issued while the same query is being executed waits for that execution instead
+ * of starting another one.
+ * <p>
+ * An entry is dropped when its time to live has expired, or when an object of its item class is
+ * broadcast, since the cached result may then be stale. All entries of the class are dropped, as
+ * queries are evaluated by the back-end and the cache cannot tell which results the object belongs
+ * to, or would be added to. The number of entries is bounded by the
+ * system property {@value #CWF_QUERY_CACHE_SIZE_PROPERTY}, evicting the least recently used entry.
+ * <p>
+ * Cached results must not depend on the user issuing the query. Entitlements are applied per
+ * user, through the user filter of the data source, when the items are added to the user's list.
+ */
+public class AsQueryResultCache {
+
+    /** System property holding the maximum number of cached query results. */
+    public static final String CWF_QUERY_CACHE_SIZE_PROPERTY = "cwf.queryCacheSize";
+
+    /** Default maximum number of cached query results. */
+    public static final int DEFAULT_QUERY_CACHE_SIZE = 100;
+
+    /** The shared instance. */
+    private static final AsQueryResultCache cInstance = new AsQueryResultCache(
+        Math.max(1, Integer.getInteger(CWF_QUERY_CACHE_SIZE_PROPERTY, DEFAULT_QUERY_CACHE_SIZE)));
+
+    /** The entries, in access order. */
+    private final Map<String, Entry> mEntries;
+
+    /** The item classes for which an invalidation listener is registered. */
+    private final Set<Class<?>> mInvalidatedClasses = new HashSet<Class<?>>();
+
+    /**
+     * Instantiates a new query result cache.
+     *
+     * @param pMaxSize the maximum number of entries
+     */
+    @SuppressWarnings("serial")
+    public AsQueryResultCache(final int pMaxSize) {
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AsQueryResultCache.Entry> pEldest) {
+                return size() > pMaxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the shared instance.
+     *
+     * @return the query result cache
+     */
+    public static AsQueryResultCache get() {
+        return cInstance;
+    }
+
+    /**
+     * Create the cache key of a query, independent of the order of the query attributes.
+     *
+     * @param pDataSourceId the data source id
+     * @param pQuery the query
+     * @return the cache key
+     */
+    public static String getKey(String pDataSourceId, CwfDataIf pQuery) {
+        StringBuilder tBuilder = new StringBuilder(pDataSourceId).append(':');
+        appendCanonical(tBuilder, pQuery);
+        return tBuilder.toString();
+    }
+
+    /**
+     * Append the canonical form of a value of the query, with the attributes of objects in name order
+     * and strings quoted. The values are read as they are held by the data, since
+     * {@link CwfDataIf#getProperties()} does not return every kind of value.
+     *
+     * @param pBuilder the builder
+     * @param pValue the value
+     */
+    private static void appendCanonical(StringBuilder pBuilder, Object pValue) {
+        if (pValue instanceof JSONObject) {
+            JSONObject tObject = (JSONObject) pValue;
+            pBuilder.append('{');
+            for (String tName : new TreeSet<String>(tObject.keySet())) {
+                pBuilder.append(JSONObject.quote(tName)).append(':');
+                appendCanonical(pBuilder, tObject.opt(tName));
+                pBuilder.append(',');
+            }
+            pBuilder.append('}');
+        }
+        else if (pValue instanceof JSONArray) {
+            pBuilder.append('[');
+            for (Object tItem : (JSONArray) pValue) {
+                appendCanonical(pBuilder, tItem);
+                pBuilder.append(',');
+            }
+            pBuilder.append(']');
+        }
+        else if (pValue instanceof CwfDataIf) {
+            appendData(pBuilder, (CwfDataIf) pValue);
+        }
+        else if (pValue == null || pValue == JSONObject.NULL) {
+            pBuilder.append("null");
+        }
+        else {
+            pBuilder.append(JSONObject.quote(pValue.toString()));
+        }
+    }
+
+    /**
+     * Append the canonical form of data which does not hold its values as JSON, with properties and
+     * objects in name order.
+     *
+     * @param pBuilder the builder
+     * @param pData the data
+     */
+    private static void appendData(StringBuilder pBuilder, CwfDataIf pData) {
+        pBuilder.append('{');
+        for (Map.Entry<String, String> tProperty : new TreeMap<String, String>(pData.getProperties()).entrySet()) {
+            pBuilder.append(JSONObject.quote(tProperty.getKey())).append(':');
+            appendCanonical(pBuilder, tProperty.getValue());
+            pBuilder.append(',');
+        }
+        if (pData.getObjects() != null) {
+            for (Map.Entry<String, CwfDataIf> tObject :
+                new TreeMap<String, CwfDataIf>(pData.getObjects()).entrySet()) {
+                pBuilder.append(JSONObject.quote(tObject.getKey())).append(':');
+                appendCanonical(pBuilder, tObject.getValue());
+                pBuilder.append(',');
+            }
+        }
+        if (pData.getObjectListMap() != null) {
+            for (Map.Entry<String, List<CwfDataIf>> tList :
+                new TreeMap<String, List<CwfDataIf>>(pData.getObjectListMap()).entrySet()) {
+                pBuilder.append(JSONObject.quote(tList.getKey())).append(":[");
+                for (CwfDataIf tItem : tList.getValue()) {
+                    appendCanonical(pBuilder, tItem);
+                    pBuilder.append(',');
+                }
+                pBuilder.append("],");
+            }
+        }
+        pBuilder.append('}');
+    }
+
+    /**
+     * Acquire the result of a query. If the result is cached, or the query is being executed on
+     * behalf of another user, the waiter is passed the entry once it is complete and {@code null}
+     * is returned. Otherwise a new entry is created and returned, and the caller is responsible
+     * for executing the query and completing or failing the entry.
+     *
+     * @param pKey the cache key
+     * @param pTtl the time to live of the result in milliseconds
+     * @param pItemClass the item class
+     * @param pWaiter the callback receiving the completed or failed entry
+     * @return the new entry to populate, or {@code null} if the waiter will be called
+     */
+    public Entry acquire(String pKey, int pTtl, Class<?> pItemClass, AsResponseCallbackIf<Entry> pWaiter) {
+        Entry tEntry;
+        synchronized (this) {
+            tEntry = mEntries.get(pKey);
+            if (tEntry != null && tEntry.isExpired(System.currentTimeMillis())) {
+                mEntries.remove(pKey);
+                tEntry = null;
+            }
+            if (tEntry == null) {
+                tEntry = new Entry(pKey, pTtl, pItemClass);
+                mEntries.put(pKey, tEntry);
+                registerInvalidation(pItemClass);
+                return tEntry;
+            }
+        }
+        tEntry.addWaiter(pWaiter);
+        return null;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Remove an entry, if it is still the cached entry for its key.
+     *
+     * @param pEntry the entry
+     */
+    protected synchronized void remove(Entry pEntry) {
+        if (mEntries.get(pEntry.mKey) == pEntry) {
+            mEntries.remove(pEntry.mKey);
+        }
+    }
+
+    /**
+     * Remove all entries with the given item class.
+     *
+     * @param pItemClass the item class
+     */
+    protected synchronized void invalidate(Class<?> pItemClass) {
+        Iterator<Entry> tIterator = mEntries.values().iterator();
+        while (tIterator.hasNext()) {
+            if (tIterator.next().mItemClass == pItemClass) {
+                tIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Register a broadcast listener invalidating the entries of the given item class, unless
+     * already registered. Must be called holding the lock.
+     *
+     * @param pItemClass the item class
+     */
+    private void registerInvalidation(final Class<?> pItemClass) {
+        if (mInvalidatedClasses.add(pItemClass)) {
+            As.getBdxHandler().addBdxListener(new AsBdxListenerIf() {
+                @Override
+                public void onBroadcast(Object pMessage) {
+                    invalidate(pItemClass);
+                }
+            }, pItemClass);
+        }
+    }
+
+    /**
+     * Cached result of one query.
+     */
+    public class Entry {
+
+        /** The cache key. */
+        private final String mKey;
+
+        /** The time to live in milliseconds. */
+        private final int mTtl;
+
+        /** The item class. */
+        private final Class<?> mItemClass;
+
+        /** The items, collected while the query is executed. */
+        private List<Object> mItems = new ArrayList<Object>();
+
+        /** The waiters, or {@code null} once the entry is completed or failed. */
+        private List<AsResponseCallbackIf<Entry>> mWaiters = new ArrayList<AsResponseCallbackIf<Entry>>();
+
+        /** The time of creation, or of completion once completed. */
+        private long mTimestamp = System.currentTimeMillis();
+
+        /** Flag indicating whether the query failed. */
+        private boolean mFailed;
+
+        /** The status code of a failed query. */
+        private int mStatusCode;
+
+        /** The status message of a failed query. */
+        private String mStatusMessage;
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param pKey the cache key
+         * @param pTtl the time to live in milliseconds
+         * @param pItemClass the item class
+         */
+        Entry(String pKey, int pTtl, Class<?> pItemClass) {
+            mKey = pKey;
+            mTtl = pTtl;
+            mItemClass = pItemClass;
+        }
+
+        /**
+         * Add items of the query result, called by the executor of the query.
+         *
+         * @param pItems the items
+         */
+        public synchronized void addItems(Collection<?> pItems) {
+            if (mWaiters != null) {
+                mItems.addAll(pItems);
+            }
+        }
+
+        /**
+         * Complete the entry and pass it to the waiting users.
+         */
+        public void complete() {
+            List<AsResponseCallbackIf<Entry>> tWaiters;
+            synchronized (this) {
+                if (mWaiters == null) {
+                    return;
+                }
+                mItems = Collections.unmodifiableList(mItems);
+                mTimestamp = System.currentTimeMillis();
+                tWaiters = mWaiters;
+                mWaiters = null;
+            }
+            notifyWaiters(tWaiters);
+        }
+
+        /**
+         * Fail the entry, remove it from the cache and pass it to the waiting users.
+         *
+         * @param pStatusCode the status code
+         * @param pStatusMessage the status message
+         */
+        public void fail(int pStatusCode, String pStatusMessage) {
+            List<AsResponseCallbackIf<Entry>> tWaiters;
+            synchronized (this) {
+                if (mWaiters == null) {
+                    return;
+                }
+                mFailed = true;
+                mStatusCode = pStatusCode;
+                mStatusMessage = pStatusMessage;
+                mItems = Collections.emptyList();
+                tWaiters = mWaiters;
+                mWaiters = null;
+            }
+            remove(this);
+            notifyWaiters(tWaiters);
+        }
+
+        /**
+         * Check whether the query failed.
+         *
+         * @return {@code true} if failed
+         */
+        public synchronized boolean isFailed() {
+            return mFailed;
+        }
+
+        /**
+         * Get the items of a completed entry.
+         *
+         * @return the items
+         */
+        public synchronized List<Object> getItems() {
+            return mItems;
+        }
+
+        /**
+         * Get the status code of a failed query.
+         *
+         * @return the status code
+         */
+        public synchronized int getStatusCode() {
+            return mStatusCode;
+        }
+
+        /**
+         * Get the status message of a failed query.
+         *
+         * @return the status message
+         */
+        public synchronized String getStatusMessage() {
+            return mStatusMessage;
+        }
+
+        /**
+         * Add a waiter, which is called at once if the entry is already completed.
+         *
+         * @param pWaiter the waiter
+         */
+        void addWaiter(AsResponseCallbackIf<Entry> pWaiter) {
+            synchronized (this) {
+                if (mWaiters != null) {
+                    mWaiters.add(pWaiter);
+                    return;
+                }
+            }
+            pWaiter.onResponse(this);
+        }
+
+        /**
+         * Check whether the entry has expired. An entry being populated expires after the same
+         * time, so that a query which never completes does not block the cache.
+         *
+         * @param pNow the current time
+         * @return {@code true} if expired
+         */
+        synchronized boolean isExpired(long pNow) {
+            return pNow - mTimestamp > mTtl;
+        }
+
+        /**
+         * Pass the entry to the waiters.
+         *
+         * @param pWaiters the waiters
+         */
+        private void notifyWaiters(List<AsResponseCallbackIf<Entry>> pWaiters) {
+            for (AsResponseCallbackIf<Entry> tWaiter : pWaiters) {
+                tWaiter.onResponse(this);
+            }
+        }
+
+    }
+
+}
@@ -23,8 +23,14 @@
  */
 package com.cinnober.ciguan.datasource.impl;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import com.cinnober.ciguan.datasource.AsFilterIf;
 import com.cinnober.ciguan.datasource.AsListIf;
@@ -38,8 +44,14 @@ import com.cinnober.ciguan.datasource.AsDataSourceEventIf.Type;
  */
 public abstract class AsTreeMapList<T> extends AsList<T> {
 
-    /** The m items. */
-    private IndexedTreeMap<String, T> mItems = new IndexedTreeMap<String, T>();
+    /** The m items, by map key, see {@link #getMapKey(Object)}. */
+    private IndexedTreeMap<Object, T> mItems = new IndexedTreeMap<Object, T>();
+
+    /** The immutable snapshot of the current version, or {@code null} if not yet taken. */
+    private volatile List<T> mSnapshot;
+
+    /** The version, incremented on every change of the items. */
+    private volatile long mVersion;
     
     /**
      * Instantiates a new as tree map list.
@@ -69,10 +81,11 @@ public abstract class AsTreeMapList<T> extends AsList<T> {
     protected void add(T pItem, boolean pNotify) {
         synchronized (mMutex) {
             if (include(pItem)) {
-                String tId = getKey(pItem);
+                Object tId = getMapKey(pItem);
                 T tOldValue = mItems.put(tId, pItem);
+                changed();
                 if (pNotify) {
-                    int tIndex = indexOf(tId);
+                    int tIndex = mItems.indexOfKey(tId);
                     if (tOldValue == null) {
                         notifyListeners(AsDataSourceEvent.create(this, Type.ADD, tIndex, pItem, null));
                     }
@@ -84,6 +97,27 @@ public abstract class AsTreeMapList<T> extends AsList<T> {
         }
     }
 
+    /**
+     * Add all items in a single transaction on the list. An empty list, such as one populated from
+     * the first part of a query result, is built in bulk and listeners are sent a single snapshot
+     * event. Otherwise listeners are notified about each added item while the mutex is held.
+     *
+     * @param pItems the items
+     */
+    public void addAll(Collection<T> pItems) {
+        synchronized (mMutex) {
+            if (mItems.size() == 0) {
+                putAll(pItems);
+                changed();
+                notifyListeners(AsDataSourceEvent.createSnapshot(this, values()));
+                return;
+            }
+            for (T tItem : pItems) {
+                add(tItem);
+            }
+        }
+    }
+
     @Override
     public T get(int pIndex) {
         if (pIndex < 0 || pIndex >= mItems.size()) {
@@ -94,17 +128,81 @@ public abstract class AsTreeMapList<T> extends AsList<T> {
 
     @Override
     public T get(String pId) {
-        return mItems.get(pId);
+        return mItems.get(toMapKey(pId));
+    }
+
+    /**
+     * Get the item held under the given map key.
+     *
+     * @param pMapKey the map key
+     * @return the item, or {@code null} if there is none
+     */
+    protected T getByMapKey(Object pMapKey) {
+        return mItems.get(pMapKey);
+    }
+
+    /**
+     * Get the key under which an item is held in the map of this list. This is the key of the item, unless
+     * a subclass holds its items under a more compact identity, in which case it must also override
+     * {@link #toMapKey(String)}. Map keys must be comparable, and sort in the same order as the keys.
+     *
+     * @param pItem the item
+     * @return the map key
+     */
+    protected Object getMapKey(T pItem) {
+        return getKey(pItem);
+    }
+
+    /**
+     * Get the map key of the item with the given key, see {@link #getMapKey(Object)}.
+     *
+     * @param pKey the key
+     * @return the map key
+     */
+    protected Object toMapKey(String pKey) {
+        return pKey;
+    }
+
+    @Override
+    public Iterator<T> iterator(int pIndex) {
+        return readOnly(mItems.valueListIterator(Math.max(0, Math.min(pIndex, mItems.size()))));
+    }
+
+    /**
+     * Wrap the given cursor over the items, to prevent removal of items past the listener notifications.
+     *
+     * @param <E> the item type
+     * @param pIterator the iterator
+     * @return the read-only iterator
+     */
+    protected static <E> Iterator<E> readOnly(final Iterator<E> pIterator) {
+        return new Iterator<E>() {
+
+            @Override
+            public boolean hasNext() {
+                return pIterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return pIterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     @Override
     public int indexOf(T pItem) {
-        return mItems.indexOfKey(getKey(pItem));
+        return mItems.indexOfKey(getMapKey(pItem));
     }
     
     @Override
     public int indexOf(String pKey) {
-        return mItems.indexOfKey(pKey);
+        return mItems.indexOfKey(toMapKey(pKey));
     }
 
     /**
@@ -124,10 +222,11 @@ public abstract class AsTreeMapList<T> extends AsList<T> {
      */
     protected void remove(T pItem, boolean pNotify) {
         synchronized (mMutex) {
-            String tId = getKey(pItem);
+            Object tId = getMapKey(pItem);
             int tIndex = mItems.indexOfKey(tId);
             if (tIndex >= 0) {
                 T tOldValue = mItems.remove(tId);
+                changed();
                 if (pNotify) {
                     notifyListeners(AsDataSourceEvent.create(this, Type.REMOVE, tIndex, pItem, tOldValue));
                 }
@@ -135,6 +234,58 @@ public abstract class AsTreeMapList<T> extends AsList<T> {
         }
     }
 
+    /**
+     * Remove all items whose keys start with the given prefix, and which are accepted by the given
+     * filter, in a single transaction on the list. Since the items are kept in key order, the matching
+     * items form a contiguous range which is located without scanning the rest of the list.
+     * Listeners are notified about each removed item, from the last to the first, while the
+     * mutex is held.
+     *
+     * @param pKeyPrefix the key prefix
+     * @param pFilter the filter, or {@code null} to remove all items in the range
+     * @return the removed items, in key order
+     */
+    public List<T> removeByKeyPrefix(String pKeyPrefix, AsFilterIf<T> pFilter) {
+        synchronized (mMutex) {
+            int tFirstIndex = mItems.ceilingIndexOfKey(toMapKey(pKeyPrefix));
+            List<T> tItems = getByKeyPrefix(pKeyPrefix);
+            List<T> tRemoved = new ArrayList<T>(tItems.size());
+            for (int i = tItems.size() - 1; i >= 0; i--) {
+                T tItem = tItems.get(i);
+                if (pFilter == null || pFilter.include(tItem)) {
+                    mItems.remove(getMapKey(tItem));
+                    changed();
+                    tRemoved.add(tItem);
+                    notifyListeners(AsDataSourceEvent.create(this, Type.REMOVE, tFirstIndex + i, tItem, tItem));
+                }
+            }
+            Collections.reverse(tRemoved);
+            return tRemoved;
+        }
+    }
+
+    /**
+     * Get all items whose keys start with the given prefix. The items form a contiguous range of
+     * the key order, which is located without scanning the rest of the list.
+     *
+     * @param pKeyPrefix the key prefix
+     * @return the items, in key order
+     */
+    protected List<T> getByKeyPrefix(String pKeyPrefix) {
+        synchronized (mMutex) {
+            List<T> tItems = new ArrayList<T>();
+            Iterator<T> tIterator = mItems.valueListIterator(mItems.ceilingIndexOfKey(toMapKey(pKeyPrefix)));
+            while (tIterator.hasNext()) {
+                T tItem = tIterator.next();
+                if (!getKey(tItem).startsWith(pKeyPrefix)) {
+                    break;
+                }
+                tItems.add(tItem);
+            }
+            return tItems;
+        }
+    }
+
     @Override
     public int size() {
         return mItems.size();
@@ -154,10 +305,11 @@ public abstract class AsTreeMapList<T> extends AsList<T> {
     protected void update(T pNewValue, boolean pNotify) {
         synchronized (mMutex) {
             if (include(pNewValue)) {
-                String tId = getKey(pNewValue);
+                Object tId = getMapKey(pNewValue);
                 T tOldValue = mItems.put(tId, pNewValue);
+                changed();
                 if (pNotify) {
-                    int tIndex = indexOf(tId);
+                    int tIndex = mItems.indexOfKey(tId);
                     if (tOldValue == null) {
                         notifyListeners(AsDataSourceEvent.create(this, Type.ADD, tIndex, pNewValue, null));
                     }
@@ -174,25 +326,107 @@ public abstract class AsTreeMapList<T> extends AsList<T> {
     
     @Override
     public void snapshot(Collection<T> pSnapshot) {
-        for (T tItem : pSnapshot) {
+        synchronized (mMutex) {
+            if (mItems.size() == 0) {
+                putAll(pSnapshot);
+            }
+            else {
+                for (T tItem : pSnapshot) {
+                    if (include(tItem)) {
+                        mItems.put(getMapKey(tItem), tItem);
+                    }
+                }
+            }
+            changed();
+            notifyListeners(AsDataSourceEvent.createSnapshot(this, pSnapshot));
+        }
+    }
+
+    /**
+     * Populate the empty list from the given items. The items are sorted by key, unless they already
+     * are as the snapshot of a parent list is, and the item map is built from the result in linear time
+     * rather than by putting the items one by one. Of several items with the same key the last one is kept.
+     *
+     * @param pItems the items
+     */
+    @SuppressWarnings("unchecked")
+    private void putAll(Collection<T> pItems) {
+        List<Map.Entry<Object, T>> tEntries = new ArrayList<Map.Entry<Object, T>>(pItems.size());
+        Comparable<Object> tLastKey = null;
+        boolean tSorted = true;
+        for (T tItem : pItems) {
             if (include(tItem)) {
-                mItems.put(getKey(tItem), tItem);
+                Comparable<Object> tKey = (Comparable<Object>) getMapKey(tItem);
+                tSorted = tSorted && (tLastKey == null || tLastKey.compareTo(tKey) < 0);
+                tEntries.add(new AbstractMap.SimpleImmutableEntry<Object, T>(tKey, tItem));
+                tLastKey = tKey;
             }
         }
-        notifyListeners(AsDataSourceEvent.createSnapshot(this, pSnapshot));
+        if (!tSorted) {
+            // The sort is stable, so the last of the entries with the same key is the one to keep
+            Comparator<Map.Entry<Object, T>> tComparator = new Comparator<Map.Entry<Object, T>>() {
+                @Override
+                public int compare(Map.Entry<Object, T> pThis, Map.Entry<Object, T> pThat) {
+                    return ((Comparable<Object>) pThis.getKey()).compareTo(pThat.getKey());
+                }
+            };
+            Collections.sort(tEntries, tComparator);
+            int tSize = 0;
+            for (Map.Entry<Object, T> tEntry : tEntries) {
+                if (tSize > 0 && tComparator.compare(tEntries.get(tSize - 1), tEntry) == 0) {
+                    tSize--;
+                }
+                tEntries.set(tSize++, tEntry);
+            }
+            tEntries.subList(tSize, tEntries.size()).clear();
+        }
+        mItems.putAllSorted(tEntries);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned collection is an immutable snapshot of the current version of the list. It is
+     * shared by all callers until the list changes, so subscribing many listeners between two changes
+     * only copies the items once, and the snapshot can be iterated without holding the list mutex.
+     */
     @Override
     public Collection<T> values() {
+        List<T> tSnapshot = mSnapshot;
+        if (tSnapshot != null) {
+            return tSnapshot;
+        }
         synchronized (mMutex) {
-            return new ArrayList<T>(mItems.values());
+            if (mSnapshot == null) {
+                mSnapshot = Collections.unmodifiableList(new ArrayList<T>(mItems.values()));
+            }
+            return mSnapshot;
         }
     }
 
+    /**
+     * Get the version of the list, which is incremented whenever its items change. Snapshots and
+     * indexes taken at the same version are consistent with each other.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Register a change of the items, must be called holding the mutex.
+     */
+    protected void changed() {
+        mVersion++;
+        mSnapshot = null;
+    }
+
     @Override
     public void clear() {
         synchronized (mMutex) {
             mItems.clear();
+            changed();
             notifyListeners(AsDataSourceEvent.createClear(this));
         }
     }
@@ -202,6 +436,7 @@ public abstract class AsTreeMapList<T> extends AsList<T> {
         synchronized (mMutex) {
             super.destroy();
             mItems.clear();
+            changed();
         }
     }
     
@@ -0,0 +1,655 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.cinnober.ciguan.datasource.AsListIf;
+
+/**
+ * The selection of a viewport, kept as a set of row ranges over the list rather than as a set of keys.
+ * A range is identified by the keys of its first and last rows, and is resolved to a pair of indexes
+ * in the list when needed. Selecting a range of rows, or all rows, thus costs a couple of index lookups
+ * regardless of the number of rows in the range. Rows selected one by one are kept as individual keys.
+ * <p>
+ * The selection holds the rows which were selected when the selection was made. A range follows its
+ * boundary rows, and the boundaries are moved inwards when a boundary row is removed from the list. Rows
+ * which are added between the boundaries later on, or moved in by an update of a sorted list, are kept
+ * as exclusions from the ranges, and selected rows which are moved out of the boundaries are kept as
+ * inclusions. The range created by {@link #selectAll()} has open ends, and covers the whole list except
+ * for the rows added after the selection was made.
+ *
+ * @param <T> the type of object contained in the underlying list
+ */
+public class AsViewportSelection<T> {
+
+    /** The list. */
+    private AsListIf<T> mList;
+
+    /** The selected ranges. */
+    private final List<Range> mRanges = new ArrayList<Range>();
+
+    /** The individually selected keys. */
+    private final Set<String> mKeys = new LinkedHashSet<String>();
+
+    /** The keys of the rows within the ranges which are not selected. */
+    private final Set<String> mExcluded = new HashSet<String>();
+
+    /** The keys of the selected rows which have been moved out of the ranges. */
+    private final Set<String> mIncluded = new LinkedHashSet<String>();
+
+    /** The set view of the selected keys. */
+    private final Set<String> mKeySet = new KeySet();
+
+    /**
+     * Instantiates a new viewport selection.
+     *
+     * @param pList the list
+     */
+    public AsViewportSelection(AsListIf<T> pList) {
+        mList = pList;
+    }
+
+    /**
+     * Unselect all rows.
+     */
+    public synchronized void clear() {
+        mRanges.clear();
+        mKeys.clear();
+        mExcluded.clear();
+        mIncluded.clear();
+    }
+
+    /**
+     * Unselect all rows, and select the row with the given key.
+     *
+     * @param pKey the key
+     */
+    public synchronized void select(String pKey) {
+        clear();
+        mKeys.add(pKey);
+    }
+
+    /**
+     * Unselect all rows, and select the rows between the given keys, inclusive. The keys may be given
+     * in any order.
+     *
+     * @param pFromKey the key of the first row of the range, or {@code null} to start at the first row
+     * @param pToKey the key of the last row of the range
+     */
+    public synchronized void selectRange(String pFromKey, String pToKey) {
+        clear();
+        int tToIndex = mList.indexOf(pToKey);
+        if (tToIndex < 0) {
+            return;
+        }
+        int tFromIndex = pFromKey == null ? -1 : mList.indexOf(pFromKey);
+        if (tFromIndex < 0) {
+            tFromIndex = 0;
+            pFromKey = getKey(0);
+        }
+        if (tFromIndex <= tToIndex) {
+            mRanges.add(new Range(pFromKey, pToKey));
+        }
+        else {
+            mRanges.add(new Range(pToKey, pFromKey));
+        }
+    }
+
+    /**
+     * Unselect all rows, and select all rows of the list.
+     */
+    public synchronized void selectAll() {
+        clear();
+        mRanges.add(new Range(null, null));
+    }
+
+    /**
+     * Add the row with the given key to the selection.
+     *
+     * @param pKey the key
+     */
+    public synchronized void add(String pKey) {
+        if (!mExcluded.remove(pKey) && !contains(pKey)) {
+            mKeys.add(pKey);
+        }
+    }
+
+    /**
+     * Remove the row with the given key from the selection, splitting the range which contains it.
+     *
+     * @param pKey the key
+     */
+    public synchronized void remove(String pKey) {
+        mKeys.remove(pKey);
+        int tIndex = mList.indexOf(pKey);
+        if (tIndex < 0) {
+            return;
+        }
+        for (Range tRange : new ArrayList<Range>(mRanges)) {
+            int[] tInterval = resolve(tRange);
+            if (tInterval != null && tInterval[0] <= tIndex && tIndex <= tInterval[1]) {
+                mRanges.remove(tRange);
+                if (tInterval[0] < tIndex) {
+                    mRanges.add(new Range(tRange.mFromKey, getKey(tIndex - 1)));
+                }
+                if (tIndex < tInterval[1]) {
+                    mRanges.add(new Range(getKey(tIndex + 1), tRange.mToKey));
+                }
+            }
+        }
+        mExcluded.remove(pKey);
+        mIncluded.remove(pKey);
+    }
+
+    /**
+     * Check if the row with the given key is selected.
+     *
+     * @param pKey the key
+     * @return {@code true} if the row is selected
+     */
+    public synchronized boolean contains(String pKey) {
+        if (mKeys.contains(pKey) || mIncluded.contains(pKey)) {
+            return true;
+        }
+        if (mRanges.isEmpty() || mExcluded.contains(pKey)) {
+            return false;
+        }
+        int tIndex = mList.indexOf(pKey);
+        return tIndex >= 0 && covers(getIntervals(), tIndex);
+    }
+
+    /**
+     * Get the number of selected rows.
+     *
+     * @return the number of selected rows
+     */
+    public synchronized int size() {
+        List<int[]> tIntervals = getIntervals();
+        int tSize = 0;
+        for (int[] tInterval : tIntervals) {
+            tSize += tInterval[1] - tInterval[0] + 1;
+        }
+        for (String tKey : mExcluded) {
+            if (covers(tIntervals, mList.indexOf(tKey))) {
+                tSize--;
+            }
+        }
+        return tSize + getOutsideKeys(tIntervals).size();
+    }
+
+    /**
+     * Get a read-only view of the selected keys. The keys within ranges are iterated in list order,
+     * using a cursor over the list for each range, followed by the individually selected keys.
+     *
+     * @return the selected keys
+     */
+    public Set<String> getKeys() {
+        return mKeySet;
+    }
+
+    /**
+     * Replace the list. The selected ranges are resolved to keys in the current list, since the rows
+     * between the boundaries may differ in the new list.
+     *
+     * @param pList the new list
+     */
+    public synchronized void setList(AsListIf<T> pList) {
+        if (mList == pList) {
+            return;
+        }
+        for (int[] tInterval : getIntervals()) {
+            Iterator<T> tIterator = mList.iterator(tInterval[0]);
+            for (int i = tInterval[0]; i <= tInterval[1] && tIterator.hasNext(); i++) {
+                String tKey = mList.getKey(tIterator.next());
+                if (!mExcluded.contains(tKey)) {
+                    mKeys.add(tKey);
+                }
+            }
+        }
+        mKeys.addAll(mIncluded);
+        mRanges.clear();
+        mExcluded.clear();
+        mIncluded.clear();
+        mList = pList;
+    }
+
+    /**
+     * Adjust the ranges after a row has been removed from the list. Must be called after the removal,
+     * with the index that the row had before it was removed.
+     *
+     * @param pKey the key of the removed row
+     * @param pIndex the index of the removed row
+     */
+    public synchronized void removed(String pKey, int pIndex) {
+        mExcluded.remove(pKey);
+        mIncluded.remove(pKey);
+        for (Iterator<Range> tIterator = mRanges.iterator(); tIterator.hasNext();) {
+            Range tRange = tIterator.next();
+            if (pKey.equals(tRange.mFromKey)) {
+                tRange.mFromKey = pIndex < mList.size() ? getKey(pIndex) : null;
+                if (tRange.mFromKey == null) {
+                    tIterator.remove();
+                    continue;
+                }
+            }
+            if (pKey.equals(tRange.mToKey)) {
+                tRange.mToKey = pIndex > 0 ? getKey(pIndex - 1) : null;
+                if (tRange.mToKey == null) {
+                    tIterator.remove();
+                    continue;
+                }
+            }
+            if (resolve(tRange) == null) {
+                tIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop the ranges after all rows have been removed from the list, or after the rows have been replaced
+     * by a snapshot. The individually selected keys are kept.
+     */
+    public synchronized void cleared() {
+        mRanges.clear();
+        mExcluded.clear();
+        mIncluded.clear();
+    }
+
+    /**
+     * Exclude a row which has been added to the list within a range, since it was not there when the
+     * selection was made. Must be called after the row has been added.
+     *
+     * @param pKey the key of the added row
+     * @param pIndex the index of the added row
+     */
+    public synchronized void added(String pKey, int pIndex) {
+        for (Range tRange : mRanges) {
+            int tFromIndex = tRange.mFromKey == null ? 0 : mList.indexOf(tRange.mFromKey);
+            int tToIndex = tRange.mToKey == null ? Integer.MAX_VALUE : mList.indexOf(tRange.mToKey);
+            if (tFromIndex >= 0 && tFromIndex <= pIndex && pIndex <= tToIndex) {
+                mExcluded.add(pKey);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Keep the selection of a row which has been moved within the list by an update. The boundaries of
+     * the ranges are moved to the neighbours of the row if the row is a boundary, and the row is then
+     * excluded or included so that it remains selected if and only if it was selected before the move.
+     * Must be called after the update.
+     *
+     * @param pKey the key of the moved row
+     * @param pOldIndex the index of the row before the update
+     * @param pIndex the index of the row after the update
+     */
+    public synchronized void moved(String pKey, int pOldIndex, int pIndex) {
+        if (pOldIndex == pIndex || pOldIndex < 0 || pIndex < 0 || mRanges.isEmpty()) {
+            return;
+        }
+        boolean tSelected = mKeys.contains(pKey) || mIncluded.contains(pKey);
+        boolean tExcluded = mExcluded.contains(pKey);
+        for (Iterator<Range> tIterator = mRanges.iterator(); tIterator.hasNext();) {
+            Range tRange = tIterator.next();
+            boolean tFromMoved = pKey.equals(tRange.mFromKey);
+            boolean tToMoved = pKey.equals(tRange.mToKey);
+
+            // The boundaries in the list without the moved row, a moved boundary is replaced by its neighbour
+            int tFromIndex = tFromMoved ? pOldIndex : getIndexWithout(tRange.mFromKey, pIndex, 0);
+            int tToIndex = tToMoved ? pOldIndex - 1 : getIndexWithout(tRange.mToKey, pIndex, Integer.MAX_VALUE);
+            if (!tFromMoved && tFromIndex < 0 || !tToMoved && tToIndex < 0) {
+                continue;
+            }
+            if (!tExcluded && (tFromMoved || tToMoved
+                    || (tRange.mFromKey == null || tFromIndex < pOldIndex) && pOldIndex <= tToIndex)) {
+                tSelected = true;
+            }
+            if (tFromMoved || tToMoved) {
+                if (tFromIndex > tToIndex) {
+                    tIterator.remove();
+                    continue;
+                }
+                if (tFromMoved) {
+                    tRange.mFromKey = getKey(tFromIndex >= pIndex ? tFromIndex + 1 : tFromIndex);
+                }
+                if (tToMoved) {
+                    tRange.mToKey = getKey(tToIndex >= pIndex ? tToIndex + 1 : tToIndex);
+                }
+                if (tFromMoved && tRange.mFromKey == null || tToMoved && tRange.mToKey == null) {
+                    tIterator.remove();
+                }
+            }
+        }
+        mExcluded.remove(pKey);
+        mIncluded.remove(pKey);
+        if (mKeys.contains(pKey)) {
+            return;
+        }
+        boolean tCovered = covers(getIntervals(), pIndex);
+        if (tSelected && !tCovered) {
+            mIncluded.add(pKey);
+        }
+        else if (!tSelected && tCovered) {
+            mExcluded.add(pKey);
+        }
+    }
+
+    /**
+     * Get the index that a boundary row would have in the list without the moved row.
+     *
+     * @param pBoundaryKey the key of the boundary row, or {@code null} for an open end
+     * @param pMovedIndex the index of the moved row
+     * @param pOpenIndex the index to use for an open end
+     * @return the index, or a negative value if the boundary row is not in the list
+     */
+    private int getIndexWithout(String pBoundaryKey, int pMovedIndex, int pOpenIndex) {
+        if (pBoundaryKey == null) {
+            return pOpenIndex;
+        }
+        int tIndex = mList.indexOf(pBoundaryKey);
+        return tIndex > pMovedIndex ? tIndex - 1 : tIndex;
+    }
+
+    /**
+     * Get the selected keys which are not iterated within the given intervals, that is the individually
+     * selected or included keys which are outside the intervals or excluded from them.
+     *
+     * @param pIntervals the intervals, in list order
+     * @return the keys
+     */
+    private Set<String> getOutsideKeys(List<int[]> pIntervals) {
+        Set<String> tKeys = new LinkedHashSet<String>(mKeys);
+        tKeys.addAll(mIncluded);
+        for (Iterator<String> tIterator = tKeys.iterator(); tIterator.hasNext();) {
+            String tKey = tIterator.next();
+            if (!mExcluded.contains(tKey) && covers(pIntervals, mList.indexOf(tKey))) {
+                tIterator.remove();
+            }
+        }
+        return tKeys;
+    }
+
+    /**
+     * Get the key of the row at the given index.
+     *
+     * @param pIndex the index
+     * @return the key, or {@code null} if there is no such row
+     */
+    private String getKey(int pIndex) {
+        if (pIndex < 0 || pIndex >= mList.size()) {
+            return null;
+        }
+        T tItem = mList.get(pIndex);
+        return tItem == null ? null : mList.getKey(tItem);
+    }
+
+    /**
+     * Resolve the given range to the indexes of its first and last rows.
+     *
+     * @param pRange the range
+     * @return the indexes, or {@code null} if the range is empty
+     */
+    private int[] resolve(Range pRange) {
+        int tFromIndex = pRange.mFromKey == null ? 0 : mList.indexOf(pRange.mFromKey);
+        int tToIndex = pRange.mToKey == null ? mList.size() - 1 : mList.indexOf(pRange.mToKey);
+        if (tFromIndex < 0 || tToIndex < tFromIndex) {
+            return null;
+        }
+        return new int[] {tFromIndex, tToIndex};
+    }
+
+    /**
+     * Resolve all ranges to disjoint intervals of indexes, in list order.
+     *
+     * @return the intervals
+     */
+    private List<int[]> getIntervals() {
+        List<int[]> tIntervals = new ArrayList<int[]>(mRanges.size());
+        for (Range tRange : mRanges) {
+            int[] tInterval = resolve(tRange);
+            if (tInterval != null) {
+                tIntervals.add(tInterval);
+            }
+        }
+        if (tIntervals.size() < 2) {
+            return tIntervals;
+        }
+        Collections.sort(tIntervals, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] pThis, int[] pThat) {
+                return pThis[0] < pThat[0] ? -1 : (pThis[0] == pThat[0] ? 0 : 1);
+            }
+        });
+        List<int[]> tMerged = new ArrayList<int[]>(tIntervals.size());
+        int[] tLast = null;
+        for (int[] tInterval : tIntervals) {
+            if (tLast != null && tInterval[0] <= tLast[1] + 1) {
+                tLast[1] = Math.max(tLast[1], tInterval[1]);
+            }
+            else {
+                tLast = tInterval;
+                tMerged.add(tLast);
+            }
+        }
+        return tMerged;
+    }
+
+    /**
+     * Check if the given index is within one of the given disjoint intervals.
+     *
+     * @param pIntervals the intervals, in list order
+     * @param pIndex the index
+     * @return {@code true} if the index is covered
+     */
+    private static boolean covers(List<int[]> pIntervals, int pIndex) {
+        int tLow = 0;
+        int tHigh = pIntervals.size() - 1;
+        while (tLow <= tHigh) {
+            int tMid = (tLow + tHigh) >>> 1;
+            int[] tInterval = pIntervals.get(tMid);
+            if (pIndex < tInterval[0]) {
+                tHigh = tMid - 1;
+            }
+            else if (pIndex > tInterval[1]) {
+                tLow = tMid + 1;
+            }
+            else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A range of selected rows.
+     */
+    private static class Range {
+
+        /** The key of the first row, {@code null} for the first row of the list. */
+        private String mFromKey;
+
+        /** The key of the last row, {@code null} for the last row of the list. */
+        private String mToKey;
+
+        /**
+         * Instantiates a new range.
+         *
+         * @param pFromKey the key of the first row
+         * @param pToKey the key of the last row
+         */
+        Range(String pFromKey, String pToKey) {
+            mFromKey = pFromKey;
+            mToKey = pToKey;
+        }
+    }
+
+    /**
+     * Read-only set view of the selected keys.
+     */
+    private class KeySet extends AbstractSet<String> {
+
+        @Override
+        public boolean contains(Object pKey) {
+            return pKey instanceof String && AsViewportSelection.this.contains((String) pKey);
+        }
+
+        @Override
+        public int size() {
+            return AsViewportSelection.this.size();
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            synchronized (AsViewportSelection.this) {
+                List<int[]> tIntervals = getIntervals();
+                return new KeyIterator(mList, tIntervals, new HashSet<String>(mExcluded),
+                        new ArrayList<String>(getOutsideKeys(tIntervals)));
+            }
+        }
+    }
+
+    /**
+     * Iterator over the selected keys, walking each interval with a cursor over the list.
+     */
+    private class KeyIterator implements Iterator<String> {
+
+        /** The list. */
+        private final AsListIf<T> mIteratedList;
+
+        /** The intervals. */
+        private final List<int[]> mIntervals;
+
+        /** The keys excluded from the intervals. */
+        private final Set<String> mExcludedKeys;
+
+        /** The individually selected keys outside the intervals. */
+        private final Iterator<String> mKeyIterator;
+
+        /** The current interval. */
+        private int mInterval;
+
+        /** The index of the next row in the current interval. */
+        private int mIndex;
+
+        /** The cursor over the current interval. */
+        private Iterator<T> mCursor;
+
+        /** The next key. */
+        private String mNext;
+
+        /**
+         * Instantiates a new key iterator.
+         *
+         * @param pList the list
+         * @param pIntervals the intervals
+         * @param pExcludedKeys the keys excluded from the intervals
+         * @param pKeys the individually selected keys outside the intervals
+         */
+        KeyIterator(AsListIf<T> pList, List<int[]> pIntervals, Set<String> pExcludedKeys, List<String> pKeys) {
+            mIteratedList = pList;
+            mIntervals = pIntervals;
+            mExcludedKeys = pExcludedKeys;
+            mKeyIterator = pKeys.iterator();
+            mIndex = pIntervals.isEmpty() ? 0 : pIntervals.get(0)[0];
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext != null;
+        }
+
+        @Override
+        public String next() {
+            if (mNext == null) {
+                throw new NoSuchElementException();
+            }
+            String tKey = mNext;
+            advance();
+            return tKey;
+        }
+
+        /**
+         * Read the next key, from the current interval skipping the excluded keys, or from the individually
+         * selected keys.
+         */
+        private void advance() {
+            while (mInterval < mIntervals.size()) {
+                mNext = readKey();
+                if (mNext == null) {
+                    // The list has shrunk below the remaining intervals
+                    mInterval = mIntervals.size();
+                    break;
+                }
+                mIndex++;
+                if (mIndex > mIntervals.get(mInterval)[1]) {
+                    mInterval++;
+                    mCursor = null;
+                    if (mInterval < mIntervals.size()) {
+                        mIndex = mIntervals.get(mInterval)[0];
+                    }
+                }
+                if (!mExcludedKeys.contains(mNext)) {
+                    return;
+                }
+            }
+            mNext = mKeyIterator.hasNext() ? mKeyIterator.next() : null;
+        }
+
+        /**
+         * Read the key at the current index, seeking the cursor again if the list was modified.
+         *
+         * @return the key, or {@code null} if the index is past the end of the list
+         */
+        private String readKey() {
+            try {
+                if (mCursor == null) {
+                    mCursor = mIteratedList.iterator(mIndex);
+                }
+                return mCursor.hasNext() ? mIteratedList.getKey(mCursor.next()) : null;
+            }
+            catch (ConcurrentModificationException e) {
+                mCursor = mIteratedList.iterator(mIndex);
+                return mCursor.hasNext() ? mIteratedList.getKey(mCursor.next()) : null;
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -29,6 +29,7 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -373,6 +374,19 @@ implements IndexedMap<K,V>, Cloneable, java.io.Serializable
     return p == null ? -1 : p.getIndex();
   }
 
+  /**
+   * Returns the index of the least key greater than or equal to the specified key,
+   * or the size of the map if there is no such key.
+   *
+   * @param key the key
+   * @return the index
+   */
+  public int ceilingIndexOfKey(K key)
+  {
+    Entry<K,V> p = getCeilEntry(key);
+    return p == null ? size() : p.getIndex();
+  }
+
   /**
    * Returns the index of the specified value.
    *
@@ -635,6 +649,29 @@ public void putAll(Map<? extends K, ? extends V> map)
     return value;
   }
 
+  /**
+   * Replaces all mappings of this IndexedTreeMap with the given entries, which
+   * must be sorted according to the ordering of this map and must not contain
+   * duplicate keys.  This method runs in linear time, as opposed to
+   * n*log(n) time for putting the entries one by one.
+   *
+   * @param entries the sorted entries
+   */
+  public void putAllSorted(List<? extends Map.Entry<K,V>> entries)
+  {
+    clear();
+    try
+    {
+      buildFromSorted(entries.size(), entries.iterator(), null, null);
+    }
+    catch (java.io.IOException cannotHappen)
+    {
+    }
+    catch (ClassNotFoundException cannotHappen)
+    {
+    }
+  }
+
   /**
    * Removes all mappings from this IndexedTreeMap.
    */
@@ -2678,7 +2715,7 @@ private Entry<K,V> getPrecedingEntry(K key)
     {
       if (defaultVal == null)
       {
-        IndexedMap.Entry<K,V> entry = (IndexedMap.Entry<K,V>)it.next();
+        Map.Entry<K,V> entry = (Map.Entry<K,V>)it.next();
         key = entry.getKey();
         value = entry.getValue();
       }
@@ -2695,6 +2732,8 @@ private Entry<K,V> getPrecedingEntry(K key)
     }
 
     Entry<K,V> middle = new Entry<K,V>(key, value, null);
+    middle.leftNodes = mid - lo;
+    middle.rightNodes = hi - mid;
 
     if (level == redLevel) middle.colour = RED;
 
@@ -2780,7 +2819,8 @@ private Entry<K,V> getPrecedingEntry(K key)
      */
     PrivateEntryIterator(int index)
     {
-      cursor = getEntry(index);
+      if (index < size) cursor = getEntry(index);
+      else cursor = size == 0 ? null : last;
     }
 
     /**
@@ -37,6 +37,7 @@ import com.cinnober.ciguan.datasource.AsTreeNodeIf;
 import com.cinnober.ciguan.datasource.getter.AsGetMethod;
 import com.cinnober.ciguan.datasource.impl.AsDataSourceServiceImpl;
 import com.cinnober.ciguan.datasource.impl.AsEmapiTreeMapList;
+import com.cinnober.ciguan.datasource.tree.AsTreeNodeId;
 
 /**
  * Implementation of a server side tree list. This list will contain all items
@@ -226,6 +227,29 @@ public class AsListTreeList<T> extends AsEmapiTreeMapList<AsListTreeNode> {
         return (AsListIf<T>) ((AsDataSourceServiceImpl) mService).getDataSource(pDataSourceId, pFilterExpression, null);
     }
 
+    /**
+     * {@inheritDoc}
+     * The key of a node is its path, rendered from the identity of the node.
+     */
+    @Override
+    public String getKey(AsListTreeNode pNode) {
+        return pNode.getPath();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Nodes are held under their identities, so paths are only rendered when sent to the client.
+     */
+    @Override
+    protected Object getMapKey(AsListTreeNode pNode) {
+        return pNode.getId();
+    }
+
+    @Override
+    protected Object toMapKey(String pKey) {
+        return AsTreeNodeId.parse(pKey);
+    }
+
     /**
      * Get the full path of the item.
      *
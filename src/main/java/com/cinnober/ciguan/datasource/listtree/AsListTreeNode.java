@@ -32,6 +32,7 @@ import com.cinnober.ciguan.datasource.AsListIf;
 import com.cinnober.ciguan.datasource.AsTreeNodeIf;
 import com.cinnober.ciguan.datasource.getter.AsGetMethod;
 import com.cinnober.ciguan.datasource.impl.AsXmlRefData;
+import com.cinnober.ciguan.datasource.tree.AsTreeNodeId;
 import com.cinnober.ciguan.impl.As;
 
 /**
@@ -55,15 +56,12 @@ public class AsListTreeNode implements AsTreeNodeIf {
     /** The key. */
     private final String mKey;
 
-    /** The path. */
-    private final String mPath;
+    /** The identity, from which the path is rendered. */
+    private final AsTreeNodeId mId;
 
     /** The type. */
     private final String mType;
 
-    /** The level. */
-    private final String mLevel;
-
     /** The item. */
     private Object mItem;
 
@@ -93,16 +91,14 @@ public class AsListTreeNode implements AsTreeNodeIf {
         mItem = pItem;
         if (pParent == null) {
             mKey = "";
-            mPath = "";
+            mId = AsTreeNodeId.ROOT;
             mType = "";
-            mLevel = "";
         }
         else {
             mKey = pItemSource.getKey(pItem);
-            mPath = pParent.getPath() + PATH_SEPARATOR + mKey;
+            mId = AsTreeNodeId.child(pParent.getId(), mKey);
             mType = pItem instanceof AsXmlRefData ? ((AsXmlRefData) pItem).getTagName() :
                 As.getTypeName(pItem.getClass());
-            mLevel = getLevel(mPath);
         }
         mExpanded = pExpanded;
         if (pItem != null) {
@@ -111,7 +107,7 @@ public class AsListTreeNode implements AsTreeNodeIf {
                 mStateMethod = tMeta.getGetMethod(tMeta.getStateField());
             }
             // Initiate the text getter if needed
-            String tItemText = pList.getNodeText(pList.getTreeDefinition().getDepth() - mLevel.length());
+            String tItemText = pList.getNodeText(pList.getTreeDefinition().getDepth() - getLevel().length());
             if (tItemText != null) {
                 mTextMethod = AsGetMethod.create(pItemSource.getItemClass(), tItemText);
             }
@@ -147,12 +143,25 @@ public class AsListTreeNode implements AsTreeNodeIf {
 
     @Override
     public String getLevel() {
-        return mLevel;
+        return mId.getLevel();
+    }
+
+    /**
+     * Get the identity of the node.
+     *
+     * @return the identity
+     */
+    public AsTreeNodeId getId() {
+        return mId;
     }
 
+    /**
+     * {@inheritDoc}
+     * The path is rendered from the identity on every call.
+     */
     @Override
     public String getPath() {
-        return mPath;
+        return mId.getPath();
     }
 
     @Override
@@ -202,22 +211,6 @@ public class AsListTreeNode implements AsTreeNodeIf {
         return mItemSource.getText(mItem, mList.getDataSourceService());
     }
 
-    /**
-     * Get the level of this node by calculating the number of path separators.
-     *
-     * @param pPath the path
-     * @return the level
-     */
-    protected String getLevel(String pPath) {
-        String tLevel = "";
-        for (int i = 1; i < pPath.length(); i++) {
-            if (pPath.charAt(i) == PATH_SEPARATOR) {
-                tLevel = tLevel + ".";
-            }
-        }
-        return tLevel;
-    }
-
     /**
      * Adds the child.
      *
@@ -0,0 +1,445 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.owner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cinnober.ciguan.datasource.AsDataSourceIf;
+import com.cinnober.ciguan.datasource.AsListIf;
+
+/**
+ * Idle eviction policy for the data sources of a data source owner.
+ * <p>
+ * Data sources which are neither permanent nor listened to are candidates for eviction. A candidate
+ * is evicted when it has been idle longer than the maximum idle time, optionally scaled up by the
+ * estimated cost of rebuilding it, or, when the owner holds more data sources or items than allowed, in least
+ * recently used (LRU) or least frequently used (LFU) order. Candidates idle for less than the
+ * minimum retention time are never evicted.
+ * <p>
+ * All settings are read from system properties, first with the owner type as suffix (global, member
+ * or user), e.g. {@code cwf.dataSourceMaxIdle.user}, then without it.
+ */
+public class AsDataSourceEvictionPolicy {
+
+    /** System property holding the eviction order, {@code lru} or {@code lfu}. */
+    public static final String CWF_DATA_SOURCE_EVICTION_PROPERTY = "cwf.dataSourceEviction";
+
+    /** System property holding the maximum idle time in milliseconds. */
+    public static final String CWF_DATA_SOURCE_MAX_IDLE_PROPERTY = "cwf.dataSourceMaxIdle";
+
+    /** System property holding the minimum retention time in milliseconds. */
+    public static final String CWF_DATA_SOURCE_MIN_RETENTION_PROPERTY = "cwf.dataSourceMinRetention";
+
+    /** System property holding the maximum number of evictable data sources, 0 for no limit. */
+    public static final String CWF_DATA_SOURCE_LIMIT_PROPERTY = "cwf.dataSourceLimit";
+
+    /** System property holding the maximum number of items in evictable data sources, 0 for no limit. */
+    public static final String CWF_DATA_SOURCE_ITEM_LIMIT_PROPERTY = "cwf.dataSourceItemLimit";
+
+    /**
+     * System property holding the number of source items which doubles the idle time of a data source
+     * built from them, 0 to not scale the idle time.
+     */
+    public static final String CWF_DATA_SOURCE_COST_UNIT_PROPERTY = "cwf.dataSourceCostUnit";
+
+    /** System property holding the cleanup interval in milliseconds. */
+    public static final String CWF_DATA_SOURCE_CLEANUP_INTERVAL_PROPERTY = "cwf.dataSourceCleanupInterval";
+
+    /** The default maximum idle time. */
+    public static final int DEFAULT_MAX_IDLE = 30 * 1000;
+
+    /** The default minimum retention time. */
+    public static final int DEFAULT_MIN_RETENTION = 5 * 1000;
+
+    /** The default cleanup interval. */
+    public static final int DEFAULT_CLEANUP_INTERVAL = 60 * 1000;
+
+    /** Number of evicted keys remembered to recognize rebuilds. */
+    private static final int EVICTED_KEY_HISTORY = 1000;
+
+    /** The owner type. */
+    private final String mOwnerType;
+
+    /** Evict in least frequently used order rather than least recently used order. */
+    private final boolean mLfu;
+
+    /** The maximum idle time. */
+    private final long mMaxIdle;
+
+    /** The minimum retention time. */
+    private final long mMinRetention;
+
+    /** The maximum number of evictable data sources. */
+    private final int mLimit;
+
+    /** The maximum number of items in evictable data sources. */
+    private final long mItemLimit;
+
+    /** The number of source items which doubles the idle time, 0 if not scaled. */
+    private final long mCostUnit;
+
+    /** The cleanup interval. */
+    private final int mCleanupInterval;
+
+    /** The number of lookups per registered data source key. */
+    private final Map<String, AtomicLong> mUseCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** The most recently evicted data source keys, guarded by itself. */
+    private final Map<String, Boolean> mEvictedKeys = new LinkedHashMap<String, Boolean>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> pEldest) {
+            return size() > EVICTED_KEY_HISTORY;
+        }
+    };
+
+    /** The statistics. */
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mRebuilds = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    /**
+     * Instantiates a new eviction policy for the given owner type.
+     *
+     * @param pOwnerType the owner type
+     */
+    public AsDataSourceEvictionPolicy(String pOwnerType) {
+        mOwnerType = pOwnerType;
+        mLfu = "lfu".equalsIgnoreCase(getProperty(CWF_DATA_SOURCE_EVICTION_PROPERTY, "lru"));
+        mMaxIdle = Math.max(0, getLong(CWF_DATA_SOURCE_MAX_IDLE_PROPERTY, DEFAULT_MAX_IDLE));
+        mMinRetention = Math.max(0, getLong(CWF_DATA_SOURCE_MIN_RETENTION_PROPERTY, DEFAULT_MIN_RETENTION));
+        mLimit = (int) Math.max(0, getLong(CWF_DATA_SOURCE_LIMIT_PROPERTY, 0));
+        mItemLimit = Math.max(0, getLong(CWF_DATA_SOURCE_ITEM_LIMIT_PROPERTY, 0));
+        mCostUnit = Math.max(0, getLong(CWF_DATA_SOURCE_COST_UNIT_PROPERTY, 0));
+        mCleanupInterval = (int) Math.max(1000, getLong(CWF_DATA_SOURCE_CLEANUP_INTERVAL_PROPERTY,
+            DEFAULT_CLEANUP_INTERVAL));
+    }
+
+    /**
+     * Gets the owner type.
+     *
+     * @return the owner type
+     */
+    public String getOwnerType() {
+        return mOwnerType;
+    }
+
+    /**
+     * Gets the cleanup interval.
+     *
+     * @return the cleanup interval in milliseconds
+     */
+    public int getCleanupInterval() {
+        return mCleanupInterval;
+    }
+
+    /**
+     * Record a lookup of an existing data source. The use count is only kept from the creation of the
+     * data source to its removal, a lookup racing the removal does not count.
+     *
+     * @param pKey the data source key
+     */
+    public void onHit(String pKey) {
+        mHits.incrementAndGet();
+        AtomicLong tCount = mUseCounts.get(pKey);
+        if (tCount != null) {
+            tCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record the creation of a data source which was not found.
+     *
+     * @param pKey the data source key
+     */
+    public void onMiss(String pKey) {
+        mMisses.incrementAndGet();
+        synchronized (mEvictedKeys) {
+            if (mEvictedKeys.remove(pKey) != null) {
+                mRebuilds.incrementAndGet();
+            }
+        }
+        mUseCounts.put(pKey, new AtomicLong(1));
+    }
+
+    /**
+     * Record the eviction of a data source, which is also a removal.
+     *
+     * @param pKey the data source key
+     */
+    public void onEvict(String pKey) {
+        mEvictions.incrementAndGet();
+        onRemove(pKey);
+        synchronized (mEvictedKeys) {
+            mEvictedKeys.put(pKey, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Record the removal of a data source, for any reason.
+     *
+     * @param pKey the data source key
+     */
+    public void onRemove(String pKey) {
+        mUseCounts.remove(pKey);
+    }
+
+    /**
+     * Gets the number of data source keys with a use count.
+     *
+     * @return the number of tracked keys
+     */
+    int getTrackedKeyCount() {
+        return mUseCounts.size();
+    }
+
+    /**
+     * Select the data sources to evict.
+     *
+     * @param pDataSources the registered data sources, keyed by data source key
+     * @return the keys of the data sources to evict
+     */
+    public List<String> select(Map<String, AsDataSourceIf<?>> pDataSources) {
+        List<String> tEvict = new ArrayList<String>();
+        List<Candidate> tRetained = new ArrayList<Candidate>();
+        int tCount = 0;
+        long tItems = 0;
+        for (Map.Entry<String, AsDataSourceIf<?>> tEntry : pDataSources.entrySet()) {
+            AsDataSourceIf<?> tDataSource = tEntry.getValue();
+            if (tDataSource.isPermanent()) {
+                continue;
+            }
+            long tSize = getSize(tDataSource);
+            long tIdle = tDataSource.getChildlessTime();
+            if (tIdle <= 0) {
+                // In use, counts towards the limits but can not be evicted
+                tCount++;
+                tItems += tSize;
+                continue;
+            }
+            double tFactor = getRetentionFactor(getRebuildCost(tDataSource));
+            if (tIdle > mMaxIdle * tFactor) {
+                tEvict.add(tEntry.getKey());
+            }
+            else {
+                tCount++;
+                tItems += tSize;
+                if (tIdle >= mMinRetention) {
+                    double tValue = getRetentionValue(tEntry.getKey(), tIdle, tFactor);
+                    tRetained.add(new Candidate(tEntry.getKey(), tSize, tValue));
+                }
+            }
+        }
+
+        // Evict the least valuable data sources until the owner is within its limits
+        if (isOverLimit(tCount, tItems)) {
+            Collections.sort(tRetained, new Comparator<Candidate>() {
+                @Override
+                public int compare(Candidate pFirst, Candidate pSecond) {
+                    return Double.compare(pFirst.mValue, pSecond.mValue);
+                }
+            });
+            for (Candidate tCandidate : tRetained) {
+                if (!isOverLimit(tCount, tItems)) {
+                    break;
+                }
+                tEvict.add(tCandidate.mKey);
+                tCount--;
+                tItems -= tCandidate.mSize;
+            }
+        }
+        return tEvict;
+    }
+
+    /**
+     * Estimate the cost of rebuilding a data source, as the number of source items it is built from.
+     *
+     * @param pDataSource the data source
+     * @return the rebuild cost
+     */
+    protected long getRebuildCost(AsDataSourceIf<?> pDataSource) {
+        AsDataSourceIf<?> tSource = pDataSource.getSource();
+        return tSource == null ? 0 : getSize(tSource);
+    }
+
+    /**
+     * Get the factor by which the idle time of a data source is extended given its rebuild cost.
+     *
+     * @param pRebuildCost the rebuild cost
+     * @return the retention factor, 1 or more, always 1 unless a cost unit is configured
+     */
+    protected double getRetentionFactor(long pRebuildCost) {
+        if (mCostUnit == 0) {
+            return 1;
+        }
+        return 1 + Math.log(1 + pRebuildCost / (double) mCostUnit) / Math.log(2);
+    }
+
+    /**
+     * Get the value of retaining a data source, data sources with lower values are evicted first.
+     *
+     * @param pKey the data source key
+     * @param pIdle the idle time
+     * @param pRetentionFactor the retention factor
+     * @return the retention value
+     */
+    protected double getRetentionValue(String pKey, long pIdle, double pRetentionFactor) {
+        if (mLfu) {
+            AtomicLong tCount = mUseCounts.get(pKey);
+            return (tCount == null ? 0 : tCount.get()) * pRetentionFactor;
+        }
+        return -pIdle / pRetentionFactor;
+    }
+
+    /**
+     * Check if the given number of data sources and items exceed the limits.
+     *
+     * @param pCount the number of data sources
+     * @param pItems the number of items
+     * @return {@code true}, if any limit is exceeded
+     */
+    private boolean isOverLimit(int pCount, long pItems) {
+        return mLimit > 0 && pCount > mLimit || mItemLimit > 0 && pItems > mItemLimit;
+    }
+
+    /**
+     * Gets the number of items of a data source, or one if it is not a list.
+     *
+     * @param pDataSource the data source
+     * @return the size
+     */
+    private static long getSize(AsDataSourceIf<?> pDataSource) {
+        return pDataSource instanceof AsListIf<?> ? ((AsListIf<?>) pDataSource).size() : 1;
+    }
+
+    /**
+     * Gets the number of lookups of existing data sources.
+     *
+     * @return the hits
+     */
+    public long getHits() {
+        return mHits.get();
+    }
+
+    /**
+     * Gets the number of lookups which created a data source.
+     *
+     * @return the misses
+     */
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    /**
+     * Gets the number of data sources created again after having been evicted.
+     *
+     * @return the rebuilds
+     */
+    public long getRebuilds() {
+        return mRebuilds.get();
+    }
+
+    /**
+     * Gets the number of evicted data sources.
+     *
+     * @return the evictions
+     */
+    public long getEvictions() {
+        return mEvictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return mOwnerType + " data sources: hits=" + getHits() + ", misses=" + getMisses() +
+            ", rebuilds=" + getRebuilds() + ", evictions=" + getEvictions();
+    }
+
+    /**
+     * Gets an owner type specific property.
+     *
+     * @param pName the property name
+     * @param pDefault the default value
+     * @return the property value
+     */
+    private String getProperty(String pName, String pDefault) {
+        String tValue = System.getProperty(pName + "." + mOwnerType);
+        return tValue != null ? tValue : System.getProperty(pName, pDefault);
+    }
+
+    /**
+     * Gets an owner type specific numeric property.
+     *
+     * @param pName the property name
+     * @param pDefault the default value
+     * @return the property value
+     */
+    private long getLong(String pName, long pDefault) {
+        String tValue = getProperty(pName, null);
+        try {
+            return tValue == null ? pDefault : Long.parseLong(tValue.trim());
+        }
+        catch (NumberFormatException e) {
+            return pDefault;
+        }
+    }
+
+    /**
+     * A data source which may be evicted under pressure.
+     */
+    private static class Candidate {
+
+        /** The data source key. */
+        private final String mKey;
+
+        /** The size. */
+        private final long mSize;
+
+        /** The retention value. */
+        private final double mValue;
+
+        /**
+         * Instantiates a new candidate.
+         *
+         * @param pKey the data source key
+         * @param pSize the size
+         * @param pValue the retention value
+         */
+        Candidate(String pKey, long pSize, double pValue) {
+            mKey = pKey;
+            mSize = pSize;
+            mValue = pValue;
+        }
+
+    }
+
+}
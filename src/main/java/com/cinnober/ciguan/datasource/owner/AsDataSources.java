@@ -23,10 +23,16 @@
  */
 package com.cinnober.ciguan.datasource.owner;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -37,7 +43,9 @@ import com.cinnober.ciguan.datasource.AsDataSourceOwnerIf;
 import com.cinnober.ciguan.datasource.AsFilterIf;
 import com.cinnober.ciguan.datasource.AsListIf;
 import com.cinnober.ciguan.datasource.AsSortIf;
+import com.cinnober.ciguan.datasource.filter.AsAttributeValueFilter;
 import com.cinnober.ciguan.datasource.impl.AsDataSourceKeyGenerator;
+import com.cinnober.ciguan.datasource.impl.AsEmapiTreeMapList;
 import com.cinnober.ciguan.impl.As;
 import com.cinnober.ciguan.scheduler.AsScheduledTaskHandleIf;
 import com.cinnober.ciguan.scheduler.AsScheduledTaskIf;
@@ -48,17 +56,29 @@ import com.cinnober.ciguan.scheduler.AsSchedulerIf;
  */
 public abstract class AsDataSources implements AsDataSourceOwnerIf {
 
-    private static final int INTERVAL = 60 * 1000; // Once per minute
-    private static final int MAX_IDLE = 30 * 1000; // 30 seconds of being idle
     private static AtomicLong cLastInstanceId = new AtomicLong();
 
     protected AsScheduledTaskHandleIf mCleanup;
     //    protected final MibValue mMibValue = new MibValue();
     protected AtomicInteger mUseCounter = new AtomicInteger();
     protected long mInstanceId;
-    protected final Map<String, AsDataSourceIf<?>> mDataSources = new HashMap<String, AsDataSourceIf<?>>();
+    protected final Map<String, AsDataSourceIf<?>> mDataSources = new ConcurrentHashMap<String, AsDataSourceIf<?>>();
+    /**
+     * Data sources being created or evicted, concurrent requests for the same key wait for the same
+     * creation or eviction.
+     */
+    private final ConcurrentHashMap<String, FutureTask<AsDataSourceIf<?>>> mPendingDataSources =
+        new ConcurrentHashMap<String, FutureTask<AsDataSourceIf<?>>>();
+    /** Keys of the data sources which derived data sources are being built from, with the number of builds. */
+    private final ConcurrentHashMap<String, Integer> mBuildSources = new ConcurrentHashMap<String, Integer>();
+    /** The registered filtered and unsorted tree map lists, by the data source they are filtered from. */
+    @SuppressWarnings("rawtypes")
+    private final ConcurrentHashMap<AsDataSourceIf<?>, Set<AsEmapiTreeMapList>> mFilteredLists =
+        new ConcurrentHashMap<AsDataSourceIf<?>, Set<AsEmapiTreeMapList>>();
+    protected final AsDataSourceEvictionPolicy mEvictionPolicy;
 
     public AsDataSources() {
+        mEvictionPolicy = createEvictionPolicy();
         mCleanup = AsSchedulerIf.Singleton.get().schedule(new CleanupTask());
         mInstanceId = cLastInstanceId.addAndGet(1);
         //        mMibValue.update();
@@ -67,75 +87,323 @@ public abstract class AsDataSources implements AsDataSourceOwnerIf {
     @Override
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public <T> AsDataSourceIf<T> getDataSource(String pDataSourceId, AsFilterIf<T> pFilter, AsSortIf<T> pSort) {
-        synchronized (mDataSources) {
+        // A derived data source is resolved again if the data source it is built from is evicted meanwhile
+        while (true) {
             AsDataSourceIf tBaseDataSource = mDataSources.get(
                     AsDataSourceKeyGenerator.createKey(pDataSourceId, null, null));
+            if (tBaseDataSource == null || pFilter == null && pSort == null) {
+                return tBaseDataSource;
+            }
             AsDataSourceIf tFilterDataSource = getDataSource(tBaseDataSource, pFilter);
-            AsDataSourceIf tSortDataSource = getDataSource(tFilterDataSource, pSort);
-            return tSortDataSource;
+            if (tFilterDataSource != null) {
+                AsDataSourceIf tSortDataSource = getDataSource(tFilterDataSource, pSort);
+                if (tSortDataSource != null) {
+                    return tSortDataSource;
+                }
+            }
         }
     }
 
+    /**
+     * Create the eviction policy of this owner, called once during construction.
+     *
+     * @return the eviction policy
+     */
+    protected AsDataSourceEvictionPolicy createEvictionPolicy() {
+        return new AsDataSourceEvictionPolicy(getOwnerType());
+    }
+
+    /**
+     * Get the owner type used to look up owner specific settings, derived from the class name,
+     * e.g. {@code user} for {@link AsUserDataSources}.
+     *
+     * @return the owner type
+     */
+    protected String getOwnerType() {
+        String tName = getClass().getSimpleName();
+        if (tName.startsWith("As")) {
+            tName = tName.substring(2);
+        }
+        if (tName.endsWith("DataSources") && tName.length() > "DataSources".length()) {
+            tName = tName.substring(0, tName.length() - "DataSources".length());
+        }
+        return tName.toLowerCase(Locale.ENGLISH);
+    }
+
+    public AsDataSourceEvictionPolicy getEvictionPolicy() {
+        return mEvictionPolicy;
+    }
+
     public <T> AsListIf<T> getList(String pDataSourceId) {
         AsDataSourceIf<T> tSource = getDataSource(pDataSourceId, null, null);
         return (AsListIf<T>) tSource;
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    private AsDataSourceIf getDataSource(AsDataSourceIf pDataSource, AsFilterIf<?> pFilter) {
+    private AsDataSourceIf getDataSource(final AsDataSourceIf pDataSource, final AsFilterIf pFilter) {
         if (pDataSource == null || pFilter == null) {
             return pDataSource;
         }
-        AsDataSourceIf tDataSource = mDataSources.get(
-                AsDataSourceKeyGenerator.createKey(pDataSource.getDataSourceId(), pFilter, null));
+        final String tKey = AsDataSourceKeyGenerator.createKey(pDataSource.getDataSourceId(), pFilter, null);
+        AsDataSourceIf tDataSource = mDataSources.get(tKey);
         if (tDataSource == null) {
-            tDataSource = pDataSource.createDataSource(pFilter);
-            putDataSource(tDataSource);
+            return createDataSource(tKey, pDataSource, new Callable<AsDataSourceIf<?>>() {
+                @Override
+                public AsDataSourceIf<?> call() {
+                    AsEmapiTreeMapList tSeed = getFilterSeed(pDataSource, pFilter);
+                    if (tSeed != null) {
+                        String tSeedKey = getKey(tSeed);
+                        addBuildSource(tSeedKey);
+                        try {
+                            if (mDataSources.get(tSeedKey) == tSeed) {
+                                return ((AsEmapiTreeMapList) pDataSource).createDataSource(pFilter, tSeed);
+                            }
+                        }
+                        finally {
+                            removeBuildSource(tSeedKey);
+                        }
+                    }
+                    return pDataSource.createDataSource(pFilter);
+                }
+            });
         }
+        mEvictionPolicy.onHit(tKey);
         return tDataSource;
     }
 
+    /**
+     * Find the smallest registered filtered child of the given data source whose filter is wider than
+     * the given filter. A filter which is narrowed, e.g. by adding a criteria in a viewport, can then
+     * be evaluated on the items of the wider child only, instead of on all items of the data source.
+     *
+     * @param pDataSource the data source
+     * @param pFilter the filter
+     * @return the seed, or {@code null} if none
+     */
+    @SuppressWarnings("rawtypes")
+    private AsEmapiTreeMapList getFilterSeed(AsDataSourceIf pDataSource, AsFilterIf pFilter) {
+        if (!(pDataSource instanceof AsEmapiTreeMapList)) {
+            return null;
+        }
+        Set<AsEmapiTreeMapList> tCandidates = mFilteredLists.get(pDataSource);
+        if (tCandidates == null) {
+            return null;
+        }
+        AsEmapiTreeMapList tSeed = null;
+        for (AsEmapiTreeMapList tCandidate : tCandidates) {
+            if (AsAttributeValueFilter.isNarrowerThan(pFilter, tCandidate.getFilter())
+                && (tSeed == null || tCandidate.size() < tSeed.size())) {
+                tSeed = tCandidate;
+            }
+        }
+        return tSeed;
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    private AsDataSourceIf getDataSource(AsDataSourceIf pDataSource, AsSortIf<?> pSort) {
+    private AsDataSourceIf getDataSource(final AsDataSourceIf pDataSource, final AsSortIf pSort) {
         if (pDataSource == null || pSort == null) {
             return pDataSource;
         }
-        AsDataSourceIf tModel = mDataSources.get(
-                AsDataSourceKeyGenerator.createKey(pDataSource.getDataSourceId(), pDataSource.getFilter(), pSort));
+        final String tKey =
+            AsDataSourceKeyGenerator.createKey(pDataSource.getDataSourceId(), pDataSource.getFilter(), pSort);
+        AsDataSourceIf tModel = mDataSources.get(tKey);
         if (tModel == null) {
-            tModel = pDataSource.createDataSource(pSort);
-            putDataSource(tModel);
+            return createDataSource(tKey, pDataSource, new Callable<AsDataSourceIf<?>>() {
+                @Override
+                public AsDataSourceIf<?> call() {
+                    return pDataSource.createDataSource(pSort);
+                }
+            });
         }
+        mEvictionPolicy.onHit(tKey);
         return tModel;
     }
 
+    /**
+     * Create and register a derived data source. Only one creation per key runs at a time,
+     * concurrent requests for the same key wait for it and share its result. The source is kept from
+     * being evicted while the data source is built from it.
+     *
+     * @param pKey the data source key
+     * @param pSource the data source to build from
+     * @param pFactory the data source factory
+     * @return the data source, or {@code null} if the source has been evicted and must be resolved again
+     */
+    private AsDataSourceIf<?> createDataSource(final String pKey, final AsDataSourceIf<?> pSource,
+        final Callable<AsDataSourceIf<?>> pFactory) {
+        FutureTask<AsDataSourceIf<?>> tTask = new FutureTask<AsDataSourceIf<?>>(new Callable<AsDataSourceIf<?>>() {
+            @Override
+            public AsDataSourceIf<?> call() throws Exception {
+                // The data source may have been registered since the caller looked it up
+                AsDataSourceIf<?> tDataSource = mDataSources.get(pKey);
+                if (tDataSource != null) {
+                    mEvictionPolicy.onHit(pKey);
+                    return tDataSource;
+                }
+                String tSourceKey = getKey(pSource);
+                addBuildSource(tSourceKey);
+                try {
+                    if (!pSource.isPermanent() && mDataSources.get(tSourceKey) != pSource) {
+                        return null;
+                    }
+                    mEvictionPolicy.onMiss(pKey);
+                    tDataSource = pFactory.call();
+                    putDataSource(tDataSource);
+                    return tDataSource;
+                }
+                finally {
+                    removeBuildSource(tSourceKey);
+                }
+            }
+        });
+        FutureTask<AsDataSourceIf<?>> tPending = mPendingDataSources.putIfAbsent(pKey, tTask);
+        if (tPending == null) {
+            try {
+                tTask.run();
+            }
+            finally {
+                mPendingDataSources.remove(pKey, tTask);
+            }
+            tPending = tTask;
+        }
+        try {
+            return tPending.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for data source " + pKey, e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException("Data source " + pKey + " could not be created", e.getCause());
+        }
+    }
+
+    /**
+     * Register a build from the data source with the given key. An eviction removes the data source
+     * before checking for builds, and a build is registered before checking that its source is still
+     * registered, so either the eviction keeps the source or the build resolves it again.
+     *
+     * @param pKey the key of the source
+     */
+    private void addBuildSource(String pKey) {
+        while (true) {
+            Integer tCount = mBuildSources.get(pKey);
+            if (tCount == null ? mBuildSources.putIfAbsent(pKey, 1) == null
+                : mBuildSources.replace(pKey, tCount, tCount + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Unregister a build from the data source with the given key.
+     *
+     * @param pKey the key of the source
+     */
+    private void removeBuildSource(String pKey) {
+        while (true) {
+            Integer tCount = mBuildSources.get(pKey);
+            if (tCount.intValue() == 1 ? mBuildSources.remove(pKey, tCount)
+                : mBuildSources.replace(pKey, tCount, tCount - 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Index a registered data source among the filter seeds of its source, if it is a filtered and
+     * unsorted tree map list.
+     *
+     * @param pDataSource the data source
+     */
+    @SuppressWarnings("rawtypes")
+    private void addFilteredList(AsDataSourceIf<?> pDataSource) {
+        if (!isFilteredList(pDataSource)) {
+            return;
+        }
+        Set<AsEmapiTreeMapList> tLists = mFilteredLists.get(pDataSource.getSource());
+        if (tLists == null) {
+            Set<AsEmapiTreeMapList> tNew =
+                Collections.newSetFromMap(new ConcurrentHashMap<AsEmapiTreeMapList, Boolean>());
+            tLists = mFilteredLists.putIfAbsent(pDataSource.getSource(), tNew);
+            if (tLists == null) {
+                tLists = tNew;
+            }
+        }
+        tLists.add((AsEmapiTreeMapList) pDataSource);
+    }
+
+    /**
+     * Remove a data source which is no longer registered from the filter seeds, both as a seed and as
+     * the source of seeds. The set of seeds of a source is kept while the source is registered, so
+     * that a concurrent registration is not lost.
+     *
+     * @param pDataSource the data source
+     */
+    private void removeFilteredList(AsDataSourceIf<?> pDataSource) {
+        mFilteredLists.remove(pDataSource);
+        if (isFilteredList(pDataSource)) {
+            Set<?> tLists = mFilteredLists.get(pDataSource.getSource());
+            if (tLists != null) {
+                tLists.remove(pDataSource);
+            }
+        }
+    }
+
+    /**
+     * Check if a data source may seed a narrower filter on its source.
+     *
+     * @param pDataSource the data source
+     * @return {@code true} if the data source is a filtered and unsorted tree map list
+     */
+    private static boolean isFilteredList(AsDataSourceIf<?> pDataSource) {
+        return pDataSource instanceof AsEmapiTreeMapList && pDataSource.getSource() != null
+            && pDataSource.getFilter() != null && pDataSource.getSort() == null;
+    }
+
+    /**
+     * Get the key under which the given derived data source is registered.
+     *
+     * @param pDataSource the data source
+     * @return the key
+     */
+    private static String getKey(AsDataSourceIf<?> pDataSource) {
+        return AsDataSourceKeyGenerator.createKey(
+            pDataSource.getDataSourceId(), pDataSource.getFilter(), pDataSource.getSort());
+    }
+
     protected void putDataSource(AsDataSourceIf<?> pDataSource) {
         if (pDataSource.getDataSourceId() == null) {
             throw new RuntimeException(getClass().getSimpleName() + ": Attempt to register a model without an ID");
         }
 
-        String tKey = AsDataSourceKeyGenerator.createKey(
-                pDataSource.getDataSourceId(), pDataSource.getFilter(), pDataSource.getSort());
-        if (mDataSources.containsKey(tKey)) {
+        String tKey = getKey(pDataSource);
+        if (mDataSources.putIfAbsent(tKey, pDataSource) != null) {
             throw new RuntimeException("Data source with ID " + pDataSource.getDataSourceId() + " already registered");
         }
+        addFilteredList(pDataSource);
         if (pDataSource != null) {
             AsLoggerIf.Singleton.get().logTrace(getClass().getSimpleName() + "(" + getName() +
                     "): Data source with key " + tKey + " registered");
-            mDataSources.put(tKey, pDataSource);
             pDataSource.setOwner(this);
             //            mMibValue.update();
         }
     }
 
     protected void putDataSourceAs(AsDataSourceIf<?> pDataSource, String pModelId) {
-        if (mDataSources.containsKey(pModelId)) {
-            throw new RuntimeException("Data source with ID " + pDataSource.getDataSourceId() + " already registered");
-        }
         if (pDataSource != null) {
+            if (mDataSources.putIfAbsent(pModelId, pDataSource) != null) {
+                throw new RuntimeException(
+                    "Data source with ID " + pDataSource.getDataSourceId() + " already registered");
+            }
             AsLoggerIf.Singleton.get().logTrace(getClass().getSimpleName() + "(" + getName() +
                     "): Data source with key " + pModelId + " registered");
-            mDataSources.put(pModelId, pDataSource);
             pDataSource.setOwner(this);
             //            mMibValue.update();
         }
@@ -156,36 +424,86 @@ public abstract class AsDataSources implements AsDataSourceOwnerIf {
     }
 
     /**
-     * TODO: This may need optimization
-     * @param pIncludePermanent
+     * Remove data sources which are selected by the eviction policy, or all data sources.
+     *
+     * @param pIncludePermanent remove all data sources, including permanent ones
      */
     protected void clean(boolean pIncludePermanent) {
-        synchronized (mDataSources) {
-            Iterator<Map.Entry<String, AsDataSourceIf<?>>> tIterator = mDataSources.entrySet().iterator();
-            while (tIterator.hasNext()) {
-                Map.Entry<String, AsDataSourceIf<?>> tEntry = tIterator.next();
-                boolean tRemove;
-                if (pIncludePermanent) {
-                    tRemove = true;
-                }
-                else {
-                    tRemove =
-                            tEntry.getValue().getChildlessTime() > MAX_IDLE &&
-                            !tEntry.getValue().isPermanent();
+        if (pIncludePermanent) {
+            for (String tKey : new ArrayList<String>(mDataSources.keySet())) {
+                AsDataSourceIf<?> tDataSource = mDataSources.remove(tKey);
+                if (tDataSource != null) {
+                    removeFilteredList(tDataSource);
+                    remove(tKey, tDataSource);
+                    mEvictionPolicy.onRemove(tKey);
                 }
-                if (tRemove) {
-                    boolean tDestroy = tEntry.getValue().getOwner() == this;
-                    AsLoggerIf.Singleton.get().logTrace(
-                            AsDataSources.this.getClass().getSimpleName() + "(" + getName() +
-                                    "): Data source with key " + tEntry.getKey() + (tDestroy ? " destroyed" : " unregistered"));
-                    if (tDestroy) {
-                        tEntry.getValue().destroy();
+            }
+            return;
+        }
+        List<String> tKeys = mEvictionPolicy.select(mDataSources);
+        for (final String tKey : tKeys) {
+            // Claim the key, so that it is not created while it is evicted
+            FutureTask<AsDataSourceIf<?>> tEviction =
+                new FutureTask<AsDataSourceIf<?>>(new Callable<AsDataSourceIf<?>>() {
+                    @Override
+                    public AsDataSourceIf<?> call() {
+                        return evict(tKey);
                     }
-                    tIterator.remove();
-                    //                    mMibValue.update();
-                }
+                });
+            if (mPendingDataSources.putIfAbsent(tKey, tEviction) != null) {
+                // Being created, the data source is in use
+                continue;
             }
+            try {
+                tEviction.run();
+            }
+            finally {
+                mPendingDataSources.remove(tKey, tEviction);
+            }
+        }
+        if (!tKeys.isEmpty()) {
+            AsLoggerIf.Singleton.get().logTrace(
+                getClass().getSimpleName() + "(" + getName() + "): " + mEvictionPolicy);
+        }
+    }
+
+    /**
+     * Evict the data source with the given key, unless it has been taken into use since it was
+     * selected or a data source is being built from it. Must be called holding the claim on the key.
+     *
+     * @param pKey the data source key
+     * @return the data source, if kept, or {@code null} if evicted
+     */
+    private AsDataSourceIf<?> evict(String pKey) {
+        AsDataSourceIf<?> tDataSource = mDataSources.remove(pKey);
+        if (tDataSource == null) {
+            return null;
+        }
+        if (mBuildSources.containsKey(pKey) || tDataSource.getChildlessTime() <= 0) {
+            mDataSources.put(pKey, tDataSource);
+            return tDataSource;
+        }
+        removeFilteredList(tDataSource);
+        remove(pKey, tDataSource);
+        mEvictionPolicy.onEvict(pKey);
+        return null;
+    }
+
+    /**
+     * Destroy a data source removed from the registry, if owned by this owner.
+     *
+     * @param pKey the data source key
+     * @param pDataSource the data source
+     */
+    private void remove(String pKey, AsDataSourceIf<?> pDataSource) {
+        boolean tDestroy = pDataSource.getOwner() == this;
+        AsLoggerIf.Singleton.get().logTrace(
+                getClass().getSimpleName() + "(" + getName() +
+                        "): Data source with key " + pKey + (tDestroy ? " destroyed" : " unregistered"));
+        if (tDestroy) {
+            pDataSource.destroy();
         }
+        //                    mMibValue.update();
     }
 
     /**
@@ -205,12 +523,12 @@ public abstract class AsDataSources implements AsDataSourceOwnerIf {
 
         @Override
         public int getDelayMs() {
-            return INTERVAL;
+            return mEvictionPolicy.getCleanupInterval();
         }
 
         @Override
         public int getIntervalMs() {
-            return INTERVAL;
+            return mEvictionPolicy.getCleanupInterval();
         }
 
     }
@@ -247,7 +565,7 @@ public abstract class AsDataSources implements AsDataSourceOwnerIf {
 
     @Override
     public boolean isRegisteredDataSourceId(String pId) {
-        return mDataSources.containsKey(pId);
+        return pId != null && mDataSources.containsKey(pId);
     }
 
     @Override
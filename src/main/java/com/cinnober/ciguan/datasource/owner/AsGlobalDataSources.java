@@ -32,6 +32,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.cinnober.ciguan.AsBdxListenerIf;
 import com.cinnober.ciguan.AsBdxMapperIf;
@@ -70,7 +71,8 @@ public class AsGlobalDataSources extends AsDataSources implements MvcModelAttrib
     private final BdxListener mBdxListener = new BdxListener();
 
     /** The Class to list mapping. */
-    private final HashMap<Class<?>, AsListIf<?>> mClassToListMapping = new HashMap<Class<?>, AsListIf<?>>();
+    private final ConcurrentHashMap<Class<?>, AsListIf<?>> mClassToListMapping =
+        new ConcurrentHashMap<Class<?>, AsListIf<?>>();
 
     /** The Listeners. */
     private final List<ConstantGroupListenerIf> mListeners = new ArrayList<ConstantGroupListenerIf>();
@@ -494,8 +496,8 @@ public class AsGlobalDataSources extends AsDataSources implements MvcModelAttrib
     protected void putDataSource(AsDataSourceIf<?> pDataSource) {
         pDataSource.setPermanent();
         super.putDataSource(pDataSource);
-        if (pDataSource instanceof AsListIf<?> && !mClassToListMapping.containsKey(pDataSource.getItemClass())) {
-            mClassToListMapping.put(pDataSource.getItemClass(), (AsListIf<?>) pDataSource);
+        if (pDataSource instanceof AsListIf<?> && pDataSource.getItemClass() != null) {
+            mClassToListMapping.putIfAbsent(pDataSource.getItemClass(), (AsListIf<?>) pDataSource);
         }
     }
 
@@ -506,8 +508,8 @@ public class AsGlobalDataSources extends AsDataSources implements MvcModelAttrib
     protected void putDataSourceAs(AsDataSourceIf<?> pDataSource, String pDataSourceId) {
         pDataSource.setPermanent();
         super.putDataSourceAs(pDataSource, pDataSourceId);
-        if (pDataSource instanceof AsListIf<?> && !mClassToListMapping.containsKey(pDataSource.getItemClass())) {
-            mClassToListMapping.put(pDataSource.getItemClass(), (AsListIf<?>) pDataSource);
+        if (pDataSource instanceof AsListIf<?> && pDataSource.getItemClass() != null) {
+            mClassToListMapping.putIfAbsent(pDataSource.getItemClass(), (AsListIf<?>) pDataSource);
         }
     }
 
@@ -520,7 +522,7 @@ public class AsGlobalDataSources extends AsDataSources implements MvcModelAttrib
      */
     @SuppressWarnings("unchecked")
     public <T> AsListIf<T> getDataSource(Class<T> pClass) {
-        return (AsListIf<T>) mClassToListMapping.get(pClass);
+        return pClass == null ? null : (AsListIf<T>) mClassToListMapping.get(pClass);
     }
 
     /**
@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.cinnober.ciguan.AsDataSourceNotFoundException;
 import com.cinnober.ciguan.AsLoggerIf;
@@ -54,6 +55,9 @@ public class AsUserDataSources extends AsDataSources {
     /** The user id. */
     private final String mUserId;
 
+    /** The ids of the data sources which have been created with a user filter. */
+    private final List<String> mUserFilteredDataSourceIds = new CopyOnWriteArrayList<String>();
+
     /**
      * Instantiates a new as user data sources.
      *
@@ -195,10 +199,28 @@ public class AsUserDataSources extends AsDataSources {
         AsDataSourceIf<T> tDataSource = tOriginalDataSource.createDataSource(pFilter);
         tDataSource.setPermanent();
         putDataSourceAs(tDataSource, pNewDataSource);
+        if (!mUserFilteredDataSourceIds.contains(pNewDataSource)) {
+            mUserFilteredDataSourceIds.add(pNewDataSource);
+        }
+    }
+
+    /**
+     * Re-evaluate the user filters of all user filtered data sources, typically because the
+     * access rights of the user have changed. Only items whose filter outcome has changed are
+     * added to or removed from the data sources.
+     */
+    public void refilterUserDataSources() {
+        for (String tDataSourceId : mUserFilteredDataSourceIds) {
+            AsDataSourceIf<?> tDataSource = getDataSources().get(tDataSourceId);
+            if (tDataSource instanceof AsEmapiTreeMapList) {
+                ((AsEmapiTreeMapList<?>) tDataSource).refilter();
+            }
+        }
     }
 
     // Query data source (always create a new data source to avoid accidental modification of a shared data
-    // source from server side code)
+    // source from server side code). Query results themselves may still be shared between users, see
+    // AsQueryResultCache.
 
     /**
      * Creates the query data source.
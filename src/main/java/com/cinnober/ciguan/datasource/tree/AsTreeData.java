@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.cinnober.ciguan.CwfDataIf;
 import com.cinnober.ciguan.client.MvcModelAttributesIf;
@@ -50,6 +51,13 @@ public class AsTreeData extends AsXmlRefData implements MvcModelAttributesIf {
     /** The text. */
     private final Map<String, String> mText = new HashMap<String, String>();
 
+    /** The node templates, shared by all trees created from this definition, keyed by item type. */
+    private final ConcurrentHashMap<Object, AsTreeNodeTemplate> mTemplates =
+        new ConcurrentHashMap<Object, AsTreeNodeTemplate>();
+
+    /** The nodes shared by all trees created from this definition. */
+    private final AsTreeNodeCache mNodeCache = new AsTreeNodeCache(this);
+
     /**
      * Instantiates a new as tree data.
      *
@@ -134,6 +142,35 @@ public class AsTreeData extends AsXmlRefData implements MvcModelAttributesIf {
         return mNodes.get(As.getTypeName(pItem.getClass()));
     }
 
+    /**
+     * Get the shared node template for the type of the given item.
+     *
+     * @param pItem the item
+     * @return the node template
+     */
+    AsTreeNodeTemplate getNodeTemplate(Object pItem) {
+        Object tKey = pItem instanceof AsXmlRefData ? ((AsXmlRefData) pItem).getTagName() : pItem.getClass();
+        AsTreeNodeTemplate tTemplate = mTemplates.get(tKey);
+        if (tTemplate == null) {
+            // Creation is idempotent, a concurrently created duplicate is simply discarded
+            tTemplate = new AsTreeNodeTemplate(this, pItem);
+            AsTreeNodeTemplate tExisting = mTemplates.putIfAbsent(tKey, tTemplate);
+            if (tExisting != null) {
+                tTemplate = tExisting;
+            }
+        }
+        return tTemplate;
+    }
+
+    /**
+     * Get the cache of the nodes shared by all trees created from this definition.
+     *
+     * @return the node cache
+     */
+    AsTreeNodeCache getNodeCache() {
+        return mNodeCache;
+    }
+
     /**
      * Gets the item text.
      *
@@ -26,12 +26,15 @@ package com.cinnober.ciguan.datasource.tree;
 import java.lang.reflect.Constructor;
 
 import com.cinnober.ciguan.datasource.AsFilterIf;
-import com.cinnober.ciguan.datasource.getter.AsGetMethod;
-import com.cinnober.ciguan.datasource.getter.AsObjectGetMethod;
+import com.cinnober.ciguan.datasource.AsGetMethodIf;
+import com.cinnober.ciguan.datasource.filter.AsFilterCache;
+import com.cinnober.ciguan.datasource.filter.AsFilterTemplate;
 
 /**
  *
- * Helper class to parse filter expressions for tree definitions
+ * Helper class to parse filter expressions for tree definitions. Filter constructors, getters and
+ * filter templates are resolved through the {@link AsFilterCache}, so only the first node of each type
+ * pays for the reflective lookups and the parsing.
  *
  */
 public abstract class AsTreeFilterTool {
@@ -45,13 +48,14 @@ public abstract class AsTreeFilterTool {
      */
     public static AsFilterIf<?> createFilter(String pExpression, Object pItem) {
         if (pExpression.startsWith("class:")) {
-            AsFilterIf<?> tFilter = null;
             String tClassName = pExpression.substring(6);
             try {
-                Class<?> tClass = Class.forName(tClassName);
-                Constructor<?> tConstructor = tClass.getConstructor(pItem.getClass());
-                tFilter = (AsFilterIf<?>) tConstructor.newInstance(pItem);
-                return tFilter;
+                Constructor<? extends AsFilterIf<?>> tConstructor =
+                    AsFilterCache.getConstructor(tClassName, pItem.getClass());
+                if (tConstructor == null) {
+                    throw new ClassNotFoundException(tClassName);
+                }
+                return tConstructor.newInstance(pItem);
             }
             catch (Exception e) {
                 throw new RuntimeException("Could not instantiate filter of type " + tClassName, e);
@@ -74,13 +78,26 @@ public abstract class AsTreeFilterTool {
             int tIndex = pFilterExpression.indexOf("../");
             if (tIndex >= 0) {
                 String tAttributeName = pFilterExpression.substring(tIndex + 3);
-                AsObjectGetMethod tGetter = (AsObjectGetMethod) AsGetMethod.create(pItem.getClass(), tAttributeName);
+                AsGetMethodIf tGetter = AsFilterCache.getGetMethod(pItem.getClass(), tAttributeName);
                 return pFilterExpression.substring(0, tIndex) + tGetter.getValue(pItem);
             }
         }
         return pFilterExpression;
     }
 
+    /**
+     * Bind the comma separated parts of type "../" of a filter expression to the values of the item's
+     * corresponding attributes, through the shared {@link AsFilterTemplate} of the expression. This is
+     * equivalent to {@link #expandFilterExpression(Object, String[])} on the parts of the expression.
+     *
+     * @param pItem the item
+     * @param pFilterExpression the filter expression
+     * @return the expanded filter expression
+     */
+    public static String bindFilterExpression(Object pItem, String pFilterExpression) {
+        return AsFilterCache.getFilterTemplate(pItem.getClass(), pFilterExpression).bind(pItem);
+    }
+
     /**
      * Expand expressions of type "../" and replace it with the value of the contained item's
      * corresponding attribute
@@ -23,17 +23,10 @@
  */
 package com.cinnober.ciguan.datasource.tree;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import com.cinnober.ciguan.data.AsDictionaryWord;
-import com.cinnober.ciguan.datasource.AsDataSourceEventIf;
-import com.cinnober.ciguan.datasource.AsDataSourceIf;
-import com.cinnober.ciguan.datasource.AsDataSourceListenerIf;
 import com.cinnober.ciguan.datasource.AsDataSourceServiceIf;
 import com.cinnober.ciguan.datasource.AsFilterIf;
 import com.cinnober.ciguan.datasource.AsListIf;
-import com.cinnober.ciguan.datasource.AsTreeNodeIf;
 import com.cinnober.ciguan.datasource.folder.AsTreeFolder;
 import com.cinnober.ciguan.datasource.impl.AsDataSourceServiceImpl;
 import com.cinnober.ciguan.datasource.impl.AsEmapiTreeMapList;
@@ -45,6 +38,9 @@ import com.cinnober.ciguan.impl.As;
  * Implementation of a server side tree list. This list will contain all items
  * in the tree since the child nodes always contribute their content to the top level
  * as nodes are expanded or collapsed.
+ * <p>
+ * The nodes of objects share their item, children and links with the trees created from the same definition
+ * in other sessions, see {@link AsTreeNodeCache}. Only the expansion state is kept per tree.
  */
 @SuppressWarnings({ "unchecked", "rawtypes" })
 public class AsTreeList extends AsEmapiTreeMapList<AsTreeNode> {
@@ -55,10 +51,6 @@ public class AsTreeList extends AsEmapiTreeMapList<AsTreeNode> {
     /** The tree data. */
     private final AsTreeData mTreeData;
 
-    /** The link listeners. */
-    private final Map<AsListIf, LinkListener> mLinkListeners =
-        new HashMap<AsListIf, LinkListener>();
-
     /**
      * Instantiates a new as tree list.
      *
@@ -74,47 +66,46 @@ public class AsTreeList extends AsEmapiTreeMapList<AsTreeNode> {
             // TODO: test for condition on session object
             if (tChild.isFolder()) {
                 AsTreeFolder tFolder = new AsTreeFolder(tChild, null);
-                add(new AsTreeNodeFolder(this, tFolder, ""));
+                add(new AsTreeNodeFolder(this, tFolder, AsTreeNodeId.ROOT));
             }
             else {
                 AsListIf tSourceList = getDataSource(tChild.getSource(), tChild.getFilter());
-                tSourceList.addListener(new AsTreeNodeSource(this, "", tSourceList, tChild.getIndex(), null));
+                new AsTreeNodeSource(this, AsTreeNodeId.ROOT, tSourceList, tChild.getIndex(), null);
             }
         }
     }
 
     /**
-     * Adds the link listener.
-     *
-     * @param pList the list
-     * @param pKey the key
-     * @param pNode the node
+     * {@inheritDoc}
+     * The key of a node is its path, rendered from the identity of the node.
      */
-    public void addLinkListener(AsListIf pList, String pKey, AsTreeNodeIf pNode) {
-        LinkListener tListener = mLinkListeners.get(pList);
-        if (tListener == null) {
-            tListener = new LinkListener(pList);
-            mLinkListeners.put(pList, tListener);
-        }
-        tListener.addNode(pKey, pNode);
+    @Override
+    public String getKey(AsTreeNode pNode) {
+        return pNode.getPath();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Nodes are held under their identities, so paths are only rendered when sent to the client.
+     */
+    @Override
+    protected Object getMapKey(AsTreeNode pNode) {
+        return pNode.getId();
+    }
+
+    @Override
+    protected Object toMapKey(String pKey) {
+        return AsTreeNodeId.parse(pKey);
     }
 
     /**
-     * Removes the link listener.
+     * Get a node by its identity.
      *
-     * @param pList the list
-     * @param pKey the key
-     * @param pNode the node
+     * @param pId the identity
+     * @return the node, or {@code null} if the node is not in the tree
      */
-    @SuppressWarnings("unlikely-arg-type")
-    public void removeLinkListener(AsListIf pList, String pKey, AsTreeNodeIf pNode) {
-        LinkListener tListener = mLinkListeners.get(pList);
-        if (tListener != null) {
-            tListener.removeNode(pKey, pNode);
-            if (tListener.size() == 0) {
-                mLinkListeners.remove(tListener);
-            }
-        }
+    public AsTreeNode get(AsTreeNodeId pId) {
+        return getByMapKey(pId);
     }
 
     /**
@@ -127,6 +118,15 @@ public class AsTreeList extends AsEmapiTreeMapList<AsTreeNode> {
         return mTreeData.getNode(pNode.getItem());
     }
 
+    /**
+     * Get the cache of the nodes shared with the other trees created from the same definition.
+     *
+     * @return the node cache
+     */
+    AsTreeNodeCache getNodeCache() {
+        return mTreeData.getNodeCache();
+    }
+
     /**
      * Get the text attribute for a given list item type.
      *
@@ -176,7 +176,7 @@ public class AsTreeList extends AsEmapiTreeMapList<AsTreeNode> {
      */
     public String getLabel(AsTreeFolder pItem) {
         AsListIf<AsDictionaryWord> tList = As.getGlobalDataSources().getDataSource(AsDictionaryWord.class);
-        AsDictionaryWord tWord = (AsDictionaryWord) tList.get(".folder." + pItem.getLabel());
+        AsDictionaryWord tWord = tList.get(".folder." + pItem.getLabel());
         if (tWord == null) {
             return pItem.getLabel();
         }
@@ -184,84 +184,16 @@ public class AsTreeList extends AsEmapiTreeMapList<AsTreeNode> {
     }
 
     /**
-     * Class listening to linked object updates.
+     * Gets the label of a continuation node.
      *
-     * @see LinkEvent
+     * @param pRemaining the number of children which are not yet shown
+     * @return the label
      */
-    private class LinkListener implements AsDataSourceListenerIf {
-
-        /** The list. */
-        private final AsListIf mList;
-
-        /** The nodes. */
-        private final Map<String, AsTreeNodeIf> mNodes = new HashMap<String, AsTreeNodeIf>();
-
-        /**
-         * Instantiates a new link listener.
-         *
-         * @param pList the list
-         */
-        public LinkListener(AsListIf pList) {
-            mList = pList;
-        }
-
-        @Override
-        public AsDataSourceIf getDataSource() {
-            return mList;
-        }
-
-        @Override
-        public void onDataSourceEvent(AsDataSourceEventIf pEvent) {
-            switch (pEvent.getType()) {
-                case UPDATE:
-                    String tKey = mList.getKey(pEvent.getNewValue());
-                    AsTreeNodeIf tNode = mNodes.get(tKey);
-                    if (tNode != null) {
-                        tNode.setItem(pEvent.getNewValue());
-                        update((AsTreeNode) tNode);
-                    }
-                    break;
-
-                default:
-                    break;
-            }
-        }
-
-        /**
-         * Adds the node.
-         *
-         * @param pKey the key
-         * @param pNode the node
-         */
-        public void addNode(String pKey, AsTreeNodeIf pNode) {
-            mNodes.put(pKey, pNode);
-            if (size() == 1) {
-                mList.addListener(this);
-            }
-        }
-
-        /**
-         * Removes the node.
-         *
-         * @param pKey the key
-         * @param pNode the node
-         */
-        public void removeNode(String pKey, AsTreeNodeIf pNode) {
-            mNodes.remove(pKey);
-            if (size() == 0) {
-                mList.removeListener(this);
-            }
-        }
-
-        /**
-         * Returns the size.
-         *
-         * @return the size
-         */
-        public int size() {
-            return mNodes.size();
-        }
-
+    public String getMoreLabel(int pRemaining) {
+        AsListIf<AsDictionaryWord> tList = As.getGlobalDataSources().getDataSource(AsDictionaryWord.class);
+        AsDictionaryWord tWord = tList.get(".tree.more");
+        String tText = tWord == null ? "..." : tWord.getText(mService.getLocale());
+        return tText + " (" + pRemaining + ")";
     }
 
 }
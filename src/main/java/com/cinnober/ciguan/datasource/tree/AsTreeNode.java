@@ -40,18 +40,12 @@ public abstract class AsTreeNode<T> implements AsTreeNodeIf<T> {
     /** The root. */
     protected final AsTreeList mRoot;
 
-    /** The path. */
-    protected final String mPath;
-
-    /** The parent path. */
-    protected final String mParentPath;
+    /** The identity, from which the path is rendered. */
+    protected final AsTreeNodeId mId;
 
     /** The type. */
     protected String mType;
 
-    /** The level. */
-    private final String mLevel;
-
     /** The expanded flag. */
     private Boolean mExpanded;
 
@@ -68,11 +62,21 @@ public abstract class AsTreeNode<T> implements AsTreeNodeIf<T> {
      * @param pItem the item
      */
     public AsTreeNode(AsTreeList pRoot, String pParentPath, String pKey, String pType, T pItem) {
+        this(pRoot, AsTreeNodeId.child(AsTreeNodeId.parse(pParentPath), pKey), pType, pItem);
+    }
+
+    /**
+     * Instantiates a new as tree node.
+     *
+     * @param pRoot the root
+     * @param pId the identity
+     * @param pType the type
+     * @param pItem the item
+     */
+    protected AsTreeNode(AsTreeList pRoot, AsTreeNodeId pId, String pType, T pItem) {
         mRoot = pRoot;
-        mPath = pParentPath + PATH_SEPARATOR + pKey;
-        mParentPath = pParentPath;
+        mId = pId;
         mType = pType;
-        mLevel = getLevel(mPath);
         mItem = pItem;
     }
 
@@ -87,12 +91,25 @@ public abstract class AsTreeNode<T> implements AsTreeNodeIf<T> {
 
     @Override
     public String getLevel() {
-        return mLevel;
+        return mId.getLevel();
     }
 
+    /**
+     * Get the identity of the node.
+     *
+     * @return the identity
+     */
+    public AsTreeNodeId getId() {
+        return mId;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The path is rendered from the identity on every call.
+     */
     @Override
     public String getPath() {
-        return mPath;
+        return mId.getPath();
     }
 
     @Override
@@ -111,7 +128,7 @@ public abstract class AsTreeNode<T> implements AsTreeNodeIf<T> {
     }
 
     public AsTreeNodeIf<?> getParent() {
-        return mRoot.get(mParentPath);
+        return mRoot.get(mId.getParent());
     }
 
     public void setItem(T pItem) {
@@ -129,7 +146,10 @@ public abstract class AsTreeNode<T> implements AsTreeNodeIf<T> {
                 collapseNode();
                 mExpanded = false;
             }
-            mRoot.update(this);
+            // The node may have been replaced while expanding, see AsTreeNodeMore
+            if (mRoot.get(mId) == this) {
+                mRoot.update(this);
+            }
         }
     }
 
@@ -143,23 +163,6 @@ public abstract class AsTreeNode<T> implements AsTreeNodeIf<T> {
      */
     protected abstract void collapseNode();
 
-
-    /**
-     * Get the level of this node by calculating the number of path separators.
-     *
-     * @param pPath the path
-     * @return the level
-     */
-    protected String getLevel(String pPath) {
-        String tLevel = "";
-        for (int i = 1; i < pPath.length(); i++) {
-            if (pPath.charAt(i) == PATH_SEPARATOR) {
-                tLevel = tLevel + ".";
-            }
-        }
-        return tLevel;
-    }
-
     @Override
     public String getState() {
         return null;
@@ -0,0 +1,286 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cinnober.ciguan.datasource.AsDataSourceEventIf;
+import com.cinnober.ciguan.datasource.AsDataSourceIf;
+import com.cinnober.ciguan.datasource.AsDataSourceListenerIf;
+import com.cinnober.ciguan.datasource.AsFilterIf;
+import com.cinnober.ciguan.datasource.AsListIf;
+import com.cinnober.ciguan.datasource.tree.AsTreeData.Child;
+
+/**
+ * The shared nodes of all trees created from the same tree definition, see {@link AsTreeSharedNode}.
+ * <p>
+ * A shared node is identified by its item source and its node identity. Trees resolve their data sources through the
+ * session, so two sessions share the nodes of a list only when they resolve the same list instance, i.e. when
+ * the effective filters are the same. A shared node is kept while it is referenced by the node of at least one
+ * tree, and a single listener per linked list keeps the items of the shared link nodes up to date.
+ * <p>
+ * Listeners are never added to or removed from a list while holding the lock of the cache, since events are
+ * delivered while the listeners of the list are locked, and may create nodes in turn.
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+class AsTreeNodeCache {
+
+    /** The tree definition. */
+    private final AsTreeData mTreeData;
+
+    /** The shared nodes, by item source and identity. */
+    private final Map<AsListIf, Map<AsTreeNodeId, AsTreeSharedNode>> mNodes =
+        new IdentityHashMap<AsListIf, Map<AsTreeNodeId, AsTreeSharedNode>>();
+
+    /** The link listeners, by linked list. */
+    private final Map<AsListIf, LinkListener> mLinkListeners = new IdentityHashMap<AsListIf, LinkListener>();
+
+    /**
+     * Create a node cache.
+     *
+     * @param pTreeData the tree definition
+     */
+    AsTreeNodeCache(AsTreeData pTreeData) {
+        mTreeData = pTreeData;
+    }
+
+    /**
+     * Get a reference to the shared node of an item, creating the node if it is not referenced yet.
+     * Every reference must be released by {@link #release(AsTreeSharedNode)}.
+     *
+     * @param pRoot the tree requesting the node, used to resolve the link source
+     * @param pItem the item
+     * @param pItemSource the item source
+     * @param pParent the identity of the parent
+     * @param pChildIndex the child index
+     * @return the shared node
+     */
+    AsTreeSharedNode acquire(AsTreeList pRoot, Object pItem, AsListIf pItemSource, AsTreeNodeId pParent,
+        int pChildIndex) {
+        AsTreeNodeId tId = new AsTreeNodeId(pParent, AsTreeNodeId.prefix(pChildIndex), pItemSource.getKey(pItem));
+        AsTreeNodeTemplate tTemplate = mTreeData.getNodeTemplate(pItem);
+        AsListIf tLinkSource = null;
+        if (tTemplate.isLink()) {
+            List<Child> tChildren = tTemplate.getChildren(pItem);
+            if (!tChildren.isEmpty()) {
+                tLinkSource = pRoot.getDataSource(tChildren.get(0).getSource(), (AsFilterIf) null);
+            }
+        }
+        AsTreeSharedNode tNode;
+        synchronized (this) {
+            Map<AsTreeNodeId, AsTreeSharedNode> tNodes = mNodes.get(pItemSource);
+            tNode = tNodes == null ? null : tNodes.get(tId);
+            if (tNode != null && tNode.getLinkSource() == tLinkSource) {
+                if (tLinkSource == null) {
+                    tNode.setItem(pItem);
+                }
+                tNode.reference();
+                return tNode;
+            }
+            tNode = new AsTreeSharedNode(mTreeData, tId, pItem, pItemSource, tTemplate, tLinkSource);
+            tNode.reference();
+            if (tNodes == null) {
+                tNodes = new HashMap<AsTreeNodeId, AsTreeSharedNode>();
+                mNodes.put(pItemSource, tNodes);
+            }
+            // If the existing node links to a list resolved differently by another session,
+            // the new node is private to the requesting tree
+            if (!tNodes.containsKey(tId)) {
+                tNodes.put(tId, tNode);
+            }
+        }
+        if (tLinkSource != null) {
+            addLink(tNode);
+        }
+        return tNode;
+    }
+
+    /**
+     * Release a reference to a shared node. The node is discarded when the last reference is released.
+     *
+     * @param pNode the shared node
+     */
+    void release(AsTreeSharedNode pNode) {
+        synchronized (this) {
+            if (!pNode.release()) {
+                return;
+            }
+            Map<AsTreeNodeId, AsTreeSharedNode> tNodes = mNodes.get(pNode.getItemSource());
+            if (tNodes != null && tNodes.get(pNode.getId()) == pNode) {
+                tNodes.remove(pNode.getId());
+                if (tNodes.isEmpty()) {
+                    mNodes.remove(pNode.getItemSource());
+                }
+            }
+        }
+        if (pNode.getLinkSource() != null) {
+            removeLink(pNode);
+        }
+    }
+
+    /**
+     * Get the number of shared nodes.
+     *
+     * @return the number of shared nodes
+     */
+    synchronized int size() {
+        int tSize = 0;
+        for (Map<AsTreeNodeId, AsTreeSharedNode> tNodes : mNodes.values()) {
+            tSize += tNodes.size();
+        }
+        return tSize;
+    }
+
+    /**
+     * Start following the linked object of a shared node.
+     *
+     * @param pNode the shared node
+     */
+    private void addLink(AsTreeSharedNode pNode) {
+        AsListIf tList = pNode.getLinkSource();
+        LinkListener tListener;
+        boolean tFirst;
+        synchronized (this) {
+            tListener = mLinkListeners.get(tList);
+            if (tListener == null) {
+                tListener = new LinkListener(tList);
+                mLinkListeners.put(tList, tListener);
+            }
+            tFirst = tListener.addNode(pNode);
+        }
+        if (tFirst) {
+            tList.addListener(tListener, false);
+            synchronized (this) {
+                if (mLinkListeners.get(tList) == tListener) {
+                    return;
+                }
+            }
+            // The last link was removed while the listener was added
+            tList.removeListener(tListener);
+        }
+    }
+
+    /**
+     * Stop following the linked object of a shared node.
+     *
+     * @param pNode the shared node
+     */
+    private void removeLink(AsTreeSharedNode pNode) {
+        AsListIf tList = pNode.getLinkSource();
+        LinkListener tListener;
+        synchronized (this) {
+            tListener = mLinkListeners.get(tList);
+            if (tListener == null || !tListener.removeNode(pNode)) {
+                return;
+            }
+            mLinkListeners.remove(tList);
+        }
+        tList.removeListener(tListener);
+    }
+
+    /**
+     * Class listening to linked object updates, on behalf of all shared link nodes of a list.
+     */
+    private static class LinkListener implements AsDataSourceListenerIf {
+
+        /** The list. */
+        private final AsListIf mList;
+
+        /** The shared nodes, by link key. */
+        private final Map<String, List<AsTreeSharedNode>> mNodes = new HashMap<String, List<AsTreeSharedNode>>();
+
+        /**
+         * Instantiates a new link listener.
+         *
+         * @param pList the list
+         */
+        LinkListener(AsListIf pList) {
+            mList = pList;
+        }
+
+        @Override
+        public AsDataSourceIf getDataSource() {
+            return mList;
+        }
+
+        @Override
+        public void onDataSourceEvent(AsDataSourceEventIf pEvent) {
+            switch (pEvent.getType()) {
+                case UPDATE:
+                    List<AsTreeSharedNode> tNodes;
+                    synchronized (this) {
+                        tNodes = mNodes.get(mList.getKey(pEvent.getNewValue()));
+                        if (tNodes == null) {
+                            return;
+                        }
+                        tNodes = new ArrayList<AsTreeSharedNode>(tNodes);
+                    }
+                    for (AsTreeSharedNode tNode : tNodes) {
+                        tNode.linkUpdated(pEvent.getNewValue());
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Adds the node.
+         *
+         * @param pNode the node
+         * @return {@code true} if it is the first node
+         */
+        synchronized boolean addNode(AsTreeSharedNode pNode) {
+            boolean tFirst = mNodes.isEmpty();
+            List<AsTreeSharedNode> tNodes = mNodes.get(pNode.getLinkKey());
+            if (tNodes == null) {
+                tNodes = new ArrayList<AsTreeSharedNode>(1);
+                mNodes.put(pNode.getLinkKey(), tNodes);
+            }
+            tNodes.add(pNode);
+            return tFirst;
+        }
+
+        /**
+         * Removes the node.
+         *
+         * @param pNode the node
+         * @return {@code true} if it was the last node
+         */
+        synchronized boolean removeNode(AsTreeSharedNode pNode) {
+            List<AsTreeSharedNode> tNodes = mNodes.get(pNode.getLinkKey());
+            if (tNodes != null && tNodes.remove(pNode) && tNodes.isEmpty()) {
+                mNodes.remove(pNode.getLinkKey());
+            }
+            return mNodes.isEmpty();
+        }
+
+    }
+
+}
@@ -23,7 +23,6 @@
  */
 package com.cinnober.ciguan.datasource.tree;
 
-import java.util.ArrayList;
 import java.util.Formatter;
 
 import com.cinnober.ciguan.datasource.AsListIf;
@@ -62,13 +61,24 @@ public class AsTreeNodeFolder extends AsTreeNode<AsTreeFolder> {
      * @param pParentPath the parent path
      */
     public AsTreeNodeFolder(AsTreeList pRoot, AsTreeFolder pFolder, String pParentPath) {
-        super(pRoot, pParentPath, format(pFolder.getIndex()) + ":" +
-            pFolder.getFolderName(), pFolder.getLabel(), pFolder);
+        this(pRoot, pFolder, AsTreeNodeId.parse(pParentPath));
+    }
+
+    /**
+     * Create a folder below the node with the given identity.
+     *
+     * @param pRoot the root
+     * @param pFolder the folder
+     * @param pParent the identity of the parent, {@link AsTreeNodeId#ROOT} for a top level folder
+     */
+    public AsTreeNodeFolder(AsTreeList pRoot, AsTreeFolder pFolder, AsTreeNodeId pParent) {
+        super(pRoot, new AsTreeNodeId(pParent, format(pFolder.getIndex()) + ":", pFolder.getFolderName()),
+            pFolder.getLabel(), pFolder);
         mLabel = mRoot.getLabel(getItem());
         setExpandable(true);
         mFilter = AsTreeFilterTool.expandFilterExpression(getItem().getParent(), getItem().getFilter());
         mList = mRoot.getDataSource(getItem().getFolderName(), mFilter);
-        mListener = new AsTreeNodeSource(mRoot, mPath, mList, 0, this);
+        mListener = new AsTreeNodeSource(mRoot, mId, mList, 0, this);
     }
 
     /**
@@ -92,28 +102,9 @@ public class AsTreeNodeFolder extends AsTreeNode<AsTreeFolder> {
 
     @Override
     protected void collapseNode() {
-
-        if (mListener == null) {
-            return;
-        }
-        ArrayList<AsTreeNode> tChildren = new ArrayList<AsTreeNode>();
-        for (int tIndex = mRoot.indexOf(this) + 1; tIndex < mRoot.size(); tIndex++) {
-            AsTreeNode tNode = mRoot.get(tIndex);
-            if (!tNode.getPath().startsWith(getPath())) {
-                break;
-            }
-            else {
-                tChildren.add(tNode);
-            }
-        }
-        for (AsTreeNode tNode : tChildren) {
-            if (Boolean.TRUE.equals(tNode.getExpanded())) {
-                tNode.setExpanded(false);
-            }
-            mRoot.remove(tNode);
-            tNode.onRemove();
+        if (mListener != null) {
+            mListener.collapse();
         }
-        // Remove listener
     }
 
     @Override
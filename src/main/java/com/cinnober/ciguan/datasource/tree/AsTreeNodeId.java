@@ -0,0 +1,338 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.tree;
+
+import com.cinnober.ciguan.datasource.AsTreeNodeIf;
+
+/**
+ * Compact identity of a node in a tree list: a reference to the identity of the parent plus the own key of
+ * the node. The own key is held as a prefix, interned per child definition, and the key of the node in its
+ * source, so a node identity holds no strings of its own beyond those already held by the source.
+ * <p>
+ * Identities sort segment by segment, parent first, in the same order as the path strings sent to the client.
+ * A path is the concatenation of the own keys of a node and its ancestors, each preceded by
+ * {@link AsTreeNodeIf#PATH_SEPARATOR}, which sorts before all printable characters, so every node sorts
+ * directly after its parent and before the later siblings of the parent. Paths are only rendered from the
+ * identity when a node is sent to the client, see {@link #getPath()}, and are parsed back into an identity
+ * when a node is looked up by its path.
+ */
+public final class AsTreeNodeId implements Comparable<AsTreeNodeId> {
+
+    /** The identity of the invisible root of all trees, the parent of all top level nodes. */
+    public static final AsTreeNodeId ROOT = new AsTreeNodeId();
+
+    /** The prefix separator, ending the prefix of an own key. */
+    private static final char PREFIX_SEPARATOR = ':';
+
+    /** The shared prefixes of the children of a child definition, indexed by the index of the definition. */
+    private static volatile String[] cPrefixes = new String[] {"0:", "1:", "2:", "3:", "4:", "5:", "6:", "7:"};
+
+    /** The shared level strings, indexed by depth. */
+    private static volatile String[] cLevels = new String[] {"", ".", "..", "...", "....", "....."};
+
+    /** The identity of the parent, {@code null} for the root. */
+    private final AsTreeNodeId mParent;
+
+    /** The prefix of the own key, up to and including the first prefix separator, or an empty string. */
+    private final String mPrefix;
+
+    /** The rest of the own key. */
+    private final String mKey;
+
+    /** The depth, one for top level nodes. */
+    private final int mDepth;
+
+    /** The hash code. */
+    private final int mHash;
+
+    /**
+     * Create the root identity.
+     */
+    private AsTreeNodeId() {
+        mParent = null;
+        mPrefix = "";
+        mKey = "";
+        mDepth = 0;
+        mHash = 0;
+    }
+
+    /**
+     * Create the identity of a child node.
+     *
+     * @param pParent the identity of the parent, {@link #ROOT} for a top level node
+     * @param pPrefix the prefix of the own key, which must be empty or end with the only prefix separator
+     * @param pKey the rest of the own key
+     */
+    public AsTreeNodeId(AsTreeNodeId pParent, String pPrefix, String pKey) {
+        mParent = pParent;
+        mPrefix = pPrefix;
+        mKey = pKey;
+        mDepth = pParent.mDepth + 1;
+        mHash = (pParent.mHash * 31 + pPrefix.hashCode()) * 31 + pKey.hashCode();
+    }
+
+    /**
+     * Create the identity of a child node from its complete own key.
+     *
+     * @param pParent the identity of the parent, {@link #ROOT} for a top level node
+     * @param pKey the own key
+     * @return the identity
+     */
+    public static AsTreeNodeId child(AsTreeNodeId pParent, String pKey) {
+        int tEnd = pKey.indexOf(PREFIX_SEPARATOR) + 1;
+        return new AsTreeNodeId(pParent, pKey.substring(0, tEnd), pKey.substring(tEnd));
+    }
+
+    /**
+     * Parse the path of a node.
+     *
+     * @param pPath the path
+     * @return the identity, {@link #ROOT} for an empty path
+     */
+    public static AsTreeNodeId parse(String pPath) {
+        AsTreeNodeId tId = ROOT;
+        int tStart = pPath.indexOf(AsTreeNodeIf.PATH_SEPARATOR);
+        while (tStart >= 0) {
+            int tEnd = pPath.indexOf(AsTreeNodeIf.PATH_SEPARATOR, tStart + 1);
+            tId = child(tId, pPath.substring(tStart + 1, tEnd < 0 ? pPath.length() : tEnd));
+            tStart = tEnd;
+        }
+        return tId;
+    }
+
+    /**
+     * Get the shared prefix of the own keys of the children originating from a child definition.
+     *
+     * @param pChildIndex the index of the child definition
+     * @return the prefix
+     */
+    public static String prefix(int pChildIndex) {
+        String[] tPrefixes = cPrefixes;
+        if (pChildIndex < tPrefixes.length) {
+            return tPrefixes[pChildIndex];
+        }
+        synchronized (AsTreeNodeId.class) {
+            tPrefixes = cPrefixes;
+            if (pChildIndex >= tPrefixes.length) {
+                String[] tNewPrefixes = new String[pChildIndex + 1];
+                System.arraycopy(tPrefixes, 0, tNewPrefixes, 0, tPrefixes.length);
+                for (int i = tPrefixes.length; i < tNewPrefixes.length; i++) {
+                    tNewPrefixes[i] = i + String.valueOf(PREFIX_SEPARATOR);
+                }
+                cPrefixes = tNewPrefixes;
+                tPrefixes = tNewPrefixes;
+            }
+            return tPrefixes[pChildIndex];
+        }
+    }
+
+    /**
+     * Get the shared level string of the given depth, consisting of one dot per level below the top level.
+     *
+     * @param pDepth the depth, zero for the top level
+     * @return the level string
+     */
+    public static String level(int pDepth) {
+        String[] tLevels = cLevels;
+        if (pDepth < tLevels.length) {
+            return tLevels[pDepth];
+        }
+        synchronized (AsTreeNodeId.class) {
+            tLevels = cLevels;
+            if (pDepth >= tLevels.length) {
+                String[] tNewLevels = new String[pDepth + 1];
+                System.arraycopy(tLevels, 0, tNewLevels, 0, tLevels.length);
+                for (int i = tLevels.length; i < tNewLevels.length; i++) {
+                    tNewLevels[i] = tNewLevels[i - 1] + ".";
+                }
+                cLevels = tNewLevels;
+                tLevels = tNewLevels;
+            }
+            return tLevels[pDepth];
+        }
+    }
+
+    /**
+     * Get the identity of the parent.
+     *
+     * @return the identity of the parent, {@link #ROOT} for a top level node and {@code null} for the root
+     */
+    public AsTreeNodeId getParent() {
+        return mParent;
+    }
+
+    /**
+     * Get the depth.
+     *
+     * @return the depth, one for a top level node and zero for the root
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Get the shared level string of the node, see {@link #level(int)}.
+     *
+     * @return the level string
+     */
+    public String getLevel() {
+        return level(Math.max(0, mDepth - 1));
+    }
+
+    /**
+     * Check if this is the identity of a descendant of the given node.
+     *
+     * @param pAncestor the identity of the possible ancestor
+     * @return {@code true} if the node is a descendant of the given node
+     */
+    public boolean isDescendantOf(AsTreeNodeId pAncestor) {
+        AsTreeNodeId tId = this;
+        while (tId.mDepth > pAncestor.mDepth) {
+            tId = tId.mParent;
+            if (tId.equals(pAncestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Render the path of the node, as sent to the client.
+     *
+     * @return the path, an empty string for the root
+     */
+    public String getPath() {
+        if (mParent == null) {
+            return "";
+        }
+        return appendPath(new StringBuilder(getPathLength())).toString();
+    }
+
+    /**
+     * Get the length of the path.
+     *
+     * @return the length
+     */
+    private int getPathLength() {
+        int tLength = 0;
+        for (AsTreeNodeId tId = this; tId.mParent != null; tId = tId.mParent) {
+            tLength += 1 + tId.mPrefix.length() + tId.mKey.length();
+        }
+        return tLength;
+    }
+
+    /**
+     * Append the path of the node.
+     *
+     * @param pPath the path builder
+     * @return the path builder
+     */
+    private StringBuilder appendPath(StringBuilder pPath) {
+        if (mParent != null) {
+            mParent.appendPath(pPath).append(AsTreeNodeIf.PATH_SEPARATOR).append(mPrefix).append(mKey);
+        }
+        return pPath;
+    }
+
+    @Override
+    public int compareTo(AsTreeNodeId pOther) {
+        if (this == pOther) {
+            return 0;
+        }
+        AsTreeNodeId tThis = this;
+        AsTreeNodeId tOther = pOther;
+        while (tThis.mDepth > tOther.mDepth) {
+            tThis = tThis.mParent;
+        }
+        while (tOther.mDepth > tThis.mDepth) {
+            tOther = tOther.mParent;
+        }
+        int tDiff = compareLevel(tThis, tOther);
+        return tDiff != 0 ? tDiff : mDepth - pOther.mDepth;
+    }
+
+    /**
+     * Compare two identities at the same depth, segment by segment from the top level.
+     *
+     * @param pThis an identity
+     * @param pOther another identity at the same depth
+     * @return the order of the identities
+     */
+    private static int compareLevel(AsTreeNodeId pThis, AsTreeNodeId pOther) {
+        if (pThis == pOther) {
+            return 0;
+        }
+        int tDiff = compareLevel(pThis.mParent, pOther.mParent);
+        if (tDiff != 0) {
+            return tDiff;
+        }
+        if (pThis.mPrefix.equals(pOther.mPrefix)) {
+            return pThis.mKey.compareTo(pOther.mKey);
+        }
+        // Compare the own keys as the concatenations of prefix and key
+        int tThisLength = pThis.mPrefix.length() + pThis.mKey.length();
+        int tOtherLength = pOther.mPrefix.length() + pOther.mKey.length();
+        for (int i = 0; i < tThisLength && i < tOtherLength; i++) {
+            int tCharDiff = pThis.charAt(i) - pOther.charAt(i);
+            if (tCharDiff != 0) {
+                return tCharDiff;
+            }
+        }
+        return tThisLength - tOtherLength;
+    }
+
+    /**
+     * Get a character of the own key.
+     *
+     * @param pIndex the index in the own key
+     * @return the character
+     */
+    private char charAt(int pIndex) {
+        return pIndex < mPrefix.length() ? mPrefix.charAt(pIndex) : mKey.charAt(pIndex - mPrefix.length());
+    }
+
+    @Override
+    public boolean equals(Object pObject) {
+        if (this == pObject) {
+            return true;
+        }
+        if (!(pObject instanceof AsTreeNodeId)) {
+            return false;
+        }
+        AsTreeNodeId tOther = (AsTreeNodeId) pObject;
+        return mHash == tOther.mHash && mDepth == tOther.mDepth && mKey.equals(tOther.mKey) &&
+            mPrefix.equals(tOther.mPrefix) && mParent.equals(tOther.mParent);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHash;
+    }
+
+    @Override
+    public String toString() {
+        return getPath();
+    }
+
+}
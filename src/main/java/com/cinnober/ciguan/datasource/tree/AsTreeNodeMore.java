@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.tree;
+
+/**
+ * Continuation node standing in for the children of a tree node which have not yet been materialized.
+ * The item is the number of remaining children. Expanding the node replaces it with the next page of
+ * children, followed by a new continuation node if there are still children left.
+ */
+@SuppressWarnings("rawtypes")
+public class AsTreeNodeMore extends AsTreeNode<Integer> {
+
+    /** The key of the continuation node, sorts after the keys of all children of the same source. */
+    private static final String MORE_KEY = "\uffff";
+
+    /** The type of the continuation node. */
+    public static final String TYPE = "more";
+
+    /** The source populating the children. */
+    private final AsTreeNodeSource mSource;
+
+    /**
+     * Instantiates a new continuation node.
+     *
+     * @param pRoot the root
+     * @param pSource the source populating the children
+     * @param pParent the identity of the parent
+     * @param pChildIndex the child index
+     * @param pRemaining the number of children which are not yet materialized
+     */
+    AsTreeNodeMore(AsTreeList pRoot, AsTreeNodeSource pSource, AsTreeNodeId pParent, int pChildIndex,
+        int pRemaining) {
+        super(pRoot, new AsTreeNodeId(pParent, AsTreeNodeId.prefix(pChildIndex), MORE_KEY), TYPE,
+            Integer.valueOf(pRemaining));
+        mSource = pSource;
+        setExpandable(true);
+    }
+
+    @Override
+    public String getLabel() {
+        return mRoot.getMoreLabel(getItem().intValue());
+    }
+
+    @Override
+    protected void expandNode() {
+        mSource.expandMore(this);
+    }
+
+    @Override
+    protected void collapseNode() {
+        // Never left in the expanded state, the node is replaced when expanded
+    }
+
+}
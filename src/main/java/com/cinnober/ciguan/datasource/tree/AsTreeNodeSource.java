@@ -23,25 +23,42 @@
  */
 package com.cinnober.ciguan.datasource.tree;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import com.cinnober.ciguan.datasource.AsDataSourceEventIf;
 import com.cinnober.ciguan.datasource.AsDataSourceIf;
 import com.cinnober.ciguan.datasource.AsDataSourceListenerIf;
 import com.cinnober.ciguan.datasource.AsListIf;
-import com.cinnober.ciguan.datasource.AsTreeNodeIf;
-import com.cinnober.ciguan.datasource.AsDataSourceEventIf.Type;
 
 /**
  * Listener to populate children for tree nodes.
+ * <p>
+ * Child nodes are only materialized while the parent is expanded, and then page by page: the first
+ * page is added when the parent is expanded, and the remaining children are represented by a single
+ * continuation node which adds the next page when it is expanded in turn. While the parent is collapsed,
+ * no child nodes exist and the only effect of a change in the source is a refresh of the parent,
+ * whose label may show the number of children.
  *
  * @param <T> the generic type
  */
 class AsTreeNodeSource<T> implements AsDataSourceListenerIf<T> {
     
+    /** JVM parameter holding the number of child nodes materialized per page. */
+    static final String CWF_TREE_PAGE_SIZE_PROPERTY = "cwf.treePageSize";
+
+    /** The default number of child nodes materialized per page. */
+    static final int DEFAULT_PAGE_SIZE = 200;
+
+    /** The number of child nodes materialized per page. */
+    private static final int cPageSize =
+        Math.max(1, Integer.getInteger(CWF_TREE_PAGE_SIZE_PROPERTY, DEFAULT_PAGE_SIZE));
+
     /** The root. */
     private final AsTreeList mRoot;
     
-    /** The path. */
-    private final String mPath;
+    /** The identity of the parent. */
+    private final AsTreeNodeId mParentId;
     
     /** The data source. */
     private final AsListIf<T> mDataSource;
@@ -51,37 +68,51 @@ class AsTreeNodeSource<T> implements AsDataSourceListenerIf<T> {
     
     /** The parent. */
     private final AsTreeNode<?> mParent;
+
+    /** The prefix of the own keys of all child nodes, see {@link AsTreeNodeId#prefix(int)}. */
+    private final String mKeyPrefix;
+
+    /** The source keys of the materialized child nodes, {@code null} while the parent is collapsed. */
+    private Set<String> mMaterialized;
+
+    /** The continuation node, {@code null} when all children are materialized. */
+    private AsTreeNodeMore mMore;
+
+    /** The number of children last shown in the label of the parent. */
+    private int mFolderCount;
     
     /**
      * Instantiates a new as tree node source.
      *
      * @param pRoot the root
-     * @param pPath the path
+     * @param pParentId the identity of the parent
      * @param pSource the source
      * @param pChildIndex the child index
      * @param pFolder the folder
      */
-    AsTreeNodeSource(AsTreeList pRoot, String pPath, AsListIf<T> pSource, int pChildIndex, AsTreeNode<?> pFolder) {
+    AsTreeNodeSource(AsTreeList pRoot, AsTreeNodeId pParentId, AsListIf<T> pSource, int pChildIndex,
+        AsTreeNode<?> pFolder) {
         mRoot = pRoot;
-        mPath = pPath;
+        mParentId = pParentId;
         mDataSource = pSource;
         mIndex = pChildIndex;
         mParent = pFolder;
-        pSource.addListener(this);
+        mKeyPrefix = AsTreeNodeId.prefix(pChildIndex);
+        mFolderCount = pSource.size();
+        pSource.addListener(this, false);
+        if (mParent == null || Boolean.TRUE.equals(mParent.getExpanded())) {
+            expand();
+        }
     }
     
     /**
-     * Stop.
+     * Stop. The listener is removed before taking the lock of this source, since events are
+     * delivered to this source while the listeners of the data source are locked.
      */
     public void stop() {
         mDataSource.removeListener(this);
-        // Remove all items in the list
-        if (mParent == null || Boolean.TRUE.equals(mParent.getExpanded())) {
-            for (T tItem : mDataSource.values()) {
-                AsTreeNode<?> tNode = mRoot.get(getKey(tItem, mDataSource));
-                tNode.onRemove();
-                mRoot.remove(tNode);
-            }
+        synchronized (this) {
+            removeChildren();
         }
     }
 
@@ -90,76 +121,232 @@ class AsTreeNodeSource<T> implements AsDataSourceListenerIf<T> {
         throw new UnsupportedOperationException("This method is invalid for a tree node");
     }
     
-    @SuppressWarnings("unchecked")
     @Override
-    public void onDataSourceEvent(AsDataSourceEventIf<T> pEvent) {
-        if (pEvent.getType() == Type.DESTROY) {
+    public synchronized void onDataSourceEvent(AsDataSourceEventIf<T> pEvent) {
+        if (pEvent.getType() == AsDataSourceEventIf.Type.DESTROY) {
+            return;
+        }
+        if (mMaterialized == null) {
+            // Collapsed, only the number of children is of interest
+            updateFolder();
             return;
         }
-        else if (mParent == null || Boolean.TRUE.equals(mParent.getExpanded())) {
-            switch (pEvent.getType()) {
-                case ADD:
-                    mRoot.add(new AsTreeNodeWithObject(mRoot, pEvent.getNewValue(), pEvent.getSource(), mPath, mIndex));
-                    updateFolder();
-                    break;
-                case UPDATE: {
-                    String tKey = getKey(pEvent.getNewValue(), pEvent.getSource());
-                    AsTreeNode<T> tNode = mRoot.get(tKey);
-                    tNode.setItem(pEvent.getNewValue());
-                    mRoot.update(tNode);
-                    break;
+        switch (pEvent.getType()) {
+            case ADD:
+                addChild(pEvent.getNewValue());
+                updateMore();
+                updateFolder();
+                break;
+            case UPDATE:
+                updateChild(pEvent.getNewValue(), pEvent.getIndex());
+                break;
+            case REMOVE:
+                removeChild(mDataSource.getKey(pEvent.getOldValue()));
+                updateMore();
+                updateFolder();
+                break;
+            case SNAPSHOT:
+                for (T tItem : pEvent.getSnapshot()) {
+                    if (!mMaterialized.contains(mDataSource.getKey(tItem))) {
+                        addChild(tItem);
+                    }
                 }
-                case REMOVE:
-                    AsTreeNode<?> tNode = mRoot.get(getKey(pEvent.getOldValue(), pEvent.getSource()));
+                updateMore();
+                updateFolder();
+                break;
+            case CLEAR:
+                removeChildren();
+                mMaterialized = new HashSet<String>();
+                updateFolder();
+                break;
+            default:;
+        }
+    }
+
+    /**
+     * Add a child node for a new item, unless the item falls beyond the materialized range.
+     *
+     * @param pItem the item
+     */
+    private void addChild(T pItem) {
+        if (mMore == null || mDataSource.indexOf(pItem) < mMaterialized.size()) {
+            materialize(pItem);
+        }
+    }
+
+    /**
+     * Update the child node of an item. In a sorted source, the update may move the item into or out of
+     * the materialized range, which then grows or shrinks by one to remain a prefix of the source.
+     *
+     * @param pItem the item
+     * @param pIndex the index of the item after the update
+     */
+    private void updateChild(T pItem, int pIndex) {
+        String tSourceKey = mDataSource.getKey(pItem);
+        boolean tInRange = mMore == null || pIndex < mMaterialized.size();
+        if (!mMaterialized.contains(tSourceKey)) {
+            if (tInRange) {
+                materialize(pItem);
+                updateMore();
+            }
+        }
+        else if (!tInRange) {
+            removeChild(tSourceKey);
+            updateMore();
+        }
+        else {
+            AsTreeNode<T> tNode = getChild(tSourceKey);
+            if (tNode != null) {
+                tNode.setItem(pItem);
+                mRoot.update(tNode);
+            }
+        }
+    }
+
+    /**
+     * Create and add the child node of an item.
+     *
+     * @param pItem the item
+     */
+    @SuppressWarnings("unchecked")
+    private void materialize(T pItem) {
+        mRoot.add(new AsTreeNodeWithObject(mRoot, pItem, mDataSource, mParentId, mIndex));
+        mMaterialized.add(mDataSource.getKey(pItem));
+    }
+
+    /**
+     * Remove the child node of an item, if it is materialized.
+     *
+     * @param pSourceKey the key of the item in the source
+     */
+    private void removeChild(String pSourceKey) {
+        if (mMaterialized.remove(pSourceKey)) {
+            AsTreeNode<?> tNode = mRoot.get(getChildId(pSourceKey));
+            if (tNode != null) {
+                tNode.onRemove();
+                mRoot.remove(tNode);
+            }
+        }
+    }
+
+    /**
+     * Remove all materialized child nodes and the continuation node.
+     */
+    private void removeChildren() {
+        if (mMaterialized != null) {
+            for (String tSourceKey : mMaterialized) {
+                AsTreeNode<?> tNode = mRoot.get(getChildId(tSourceKey));
+                if (tNode != null) {
                     tNode.onRemove();
                     mRoot.remove(tNode);
-                    updateFolder();
-                    break;
-                case SNAPSHOT:
-                    for (Object tItem : pEvent.getSnapshot()) {
-                        mRoot.add(new AsTreeNodeWithObject(mRoot, tItem, pEvent.getSource(), mPath, mIndex));
-                    }
-                    updateFolder();
-                    break;
-                case CLEAR:
-                    // TODO: Fold and delete all nodes
-                    break;
-                default:;
+                }
             }
+            mMaterialized = null;
         }
-        else {
-            updateFolder();
+        if (mMore != null) {
+            mRoot.remove(mMore);
+            mMore = null;
+        }
+    }
+
+    /**
+     * Materialize the next page of child nodes.
+     */
+    private void materializeNextPage() {
+        int tSize = mDataSource.size();
+        int tAdded = 0;
+        for (int i = Math.min(mMaterialized.size(), tSize); i < tSize && tAdded < cPageSize; i++) {
+            T tItem = mDataSource.get(i);
+            if (tItem != null && !mMaterialized.contains(mDataSource.getKey(tItem))) {
+                materialize(tItem);
+                tAdded++;
+            }
+        }
+        updateMore();
+    }
+
+    /**
+     * Add, refresh or remove the continuation node depending on the number of children
+     * which are not yet materialized.
+     */
+    private void updateMore() {
+        int tRemaining = mDataSource.size() - mMaterialized.size();
+        if (tRemaining <= 0) {
+            if (mMore != null) {
+                mRoot.remove(mMore);
+                mMore = null;
+            }
+        }
+        else if (mMore == null) {
+            mMore = new AsTreeNodeMore(mRoot, this, mParentId, mIndex, tRemaining);
+            mRoot.add(mMore);
+        }
+        else if (mMore.getItem().intValue() != tRemaining) {
+            mMore.setItem(tRemaining);
+            mRoot.update(mMore);
         }
     }
     
     /**
-     * Update folder.
+     * Update the parent when the number of children shown in its label has changed.
      */
     private void updateFolder() {
-        if (mParent != null) {
+        int tCount = mDataSource.size();
+        if (mParent != null && tCount != mFolderCount) {
+            mFolderCount = tCount;
             mRoot.update(mParent);
         }
     }
+
+    /**
+     * Get the child node of an item.
+     *
+     * @param pSourceKey the key of the item in the source
+     * @return the child node, or {@code null} if it is not materialized
+     */
+    @SuppressWarnings("unchecked")
+    private AsTreeNode<T> getChild(String pSourceKey) {
+        return mRoot.get(getChildId(pSourceKey));
+    }
     
     /**
-     * Assemble a complete key for an item in the root data source
-     * FIXME: Place this somewhere else?.
+     * Get the identity of the child node of an item in the root data source, given its key in the source.
      *
-     * @param pItem the item
-     * @param pSource the source
-     * @return the key
+     * @param pSourceKey the key of the item in the source
+     * @return the identity
      */
-    private String getKey(T pItem, AsListIf<T> pSource) {
-        return mPath + AsTreeNodeIf.PATH_SEPARATOR + mIndex + ":" + pSource.getKey(pItem);
+    private AsTreeNodeId getChildId(String pSourceKey) {
+        return new AsTreeNodeId(mParentId, mKeyPrefix, pSourceKey);
     }
 
     /**
-     * Expand.
+     * Expand, materializing the first page of child nodes.
      */
-    public void expand() {
-        // force a new snapshot
-        mDataSource.removeListener(this);
-        mDataSource.addListener(this);
+    public synchronized void expand() {
+        if (mMaterialized == null) {
+            mMaterialized = new HashSet<String>();
+            materializeNextPage();
+        }
+    }
+
+    /**
+     * Collapse, removing all child nodes.
+     */
+    public synchronized void collapse() {
+        removeChildren();
+    }
+
+    /**
+     * Replace the given continuation node with the next page of child nodes.
+     *
+     * @param pMore the continuation node being expanded
+     */
+    synchronized void expandMore(AsTreeNodeMore pMore) {
+        if (mMaterialized != null && mMore == pMore) {
+            mRoot.remove(mMore);
+            mMore = null;
+            materializeNextPage();
+        }
     }
     
 }
@@ -0,0 +1,205 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.tree;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cinnober.ciguan.data.AsMetaObject;
+import com.cinnober.ciguan.datasource.AsFilterIf;
+import com.cinnober.ciguan.datasource.AsGetMethodIf;
+import com.cinnober.ciguan.datasource.filter.AsFilterCache;
+import com.cinnober.ciguan.datasource.getter.AsGetMethod;
+import com.cinnober.ciguan.datasource.impl.AsXmlRefData;
+import com.cinnober.ciguan.datasource.tree.AsTreeData.Child;
+import com.cinnober.ciguan.datasource.tree.AsTreeData.Node;
+import com.cinnober.ciguan.impl.As;
+
+/**
+ * The parts of a tree node which only depend on the tree definition and the type of the node item:
+ * the node mapping, the compiled child conditions and the getters for link key, state and text.
+ * Templates are created once per tree definition and item type, and are shared by the nodes of all
+ * trees created from the definition, in all sessions. Apart from its cache of shared child lists, a template
+ * is immutable once created.
+ */
+@SuppressWarnings({ "unchecked", "rawtypes", "deprecation" })
+class AsTreeNodeTemplate {
+
+    /** The maximum number of distinct child lists shared per template. */
+    private static final int MAX_SHARED_CHILD_LISTS = 64;
+
+    /** The node mapping, or {@code null} if the item type has no children in the tree. */
+    private final Node mNode;
+
+    /** The child conditions, indexed as the children of the node, or {@code null} if there are none. */
+    private final AsFilterIf<Object>[] mConditions;
+
+    /** The link key getter, or {@code null} if the node is not a link. */
+    private final AsGetMethodIf<Object> mLinkKeyMethod;
+
+    /** The state method. */
+    private final AsGetMethodIf<Object> mStateMethod;
+
+    /** The text method. */
+    private final AsGetMethodIf<Object> mTextMethod;
+
+    /** The node type. */
+    private final String mType;
+
+    /** The shared child lists, keyed by the indexes of the children whose conditions are met. */
+    private final ConcurrentHashMap<BitSet, List<Child>> mChildLists = new ConcurrentHashMap<BitSet, List<Child>>();
+
+    /**
+     * Create a new template for items of the same type as the given item.
+     *
+     * @param pTreeData the tree definition
+     * @param pItem the item
+     */
+    AsTreeNodeTemplate(AsTreeData pTreeData, Object pItem) {
+        Class<?> tClass = pItem.getClass();
+        mType = pItem instanceof AsXmlRefData ? ((AsXmlRefData) pItem).getTagName() : As.getTypeName(tClass);
+        mNode = pTreeData.getNode(pItem);
+        AsFilterIf<Object>[] tConditions = null;
+        if (mNode != null) {
+            List<Child> tChildren = mNode.getChildren();
+            for (int i = 0; i < tChildren.size(); i++) {
+                String tCondition = tChildren.get(i).getCondition();
+                if (tCondition != null) {
+                    if (tConditions == null) {
+                        tConditions = new AsFilterIf[tChildren.size()];
+                    }
+                    tConditions[i] = (AsFilterIf<Object>) AsFilterCache.getAttributeValueFilter(tClass, tCondition);
+                }
+            }
+        }
+        mConditions = tConditions;
+        mLinkKeyMethod = mNode != null && mNode.isLink() ?
+            (AsGetMethodIf<Object>) AsGetMethod.create(tClass, mNode.getKeyRefAttribute()) : null;
+        AsMetaObject tMeta = As.getMetaDataHandler().getMetaData(tClass);
+        if (tMeta != null && tMeta.getStateField() != null && !tMeta.getStateField().isEmpty()) {
+            mStateMethod = tMeta.getGetMethod(tMeta.getStateField());
+        }
+        else {
+            mStateMethod = null;
+        }
+        String tTextAttribute = pTreeData.getItemText(As.getTypeName(tClass));
+        mTextMethod = tTextAttribute != null ? (AsGetMethodIf<Object>) AsGetMethod.create(tClass, tTextAttribute) : null;
+    }
+
+    /**
+     * Get the node mapping.
+     *
+     * @return the node mapping, or {@code null} if the item type has no children in the tree
+     */
+    Node getNode() {
+        return mNode;
+    }
+
+    /**
+     * Get the children which apply to the given item, after evaluation of the child conditions.
+     * The returned list is shared by all nodes whose items meet the same conditions, and cannot be modified.
+     *
+     * @param pItem the item
+     * @return the children, never {@code null}
+     */
+    List<Child> getChildren(Object pItem) {
+        if (mNode == null) {
+            return Collections.emptyList();
+        }
+        if (mConditions == null) {
+            return mNode.getChildren();
+        }
+        BitSet tIncluded = new BitSet(mConditions.length);
+        for (int i = 0; i < mConditions.length; i++) {
+            if (mConditions[i] == null || mConditions[i].include(pItem)) {
+                tIncluded.set(i);
+            }
+        }
+        List<Child> tChildren = mChildLists.get(tIncluded);
+        if (tChildren == null) {
+            tChildren = new ArrayList<Child>(tIncluded.cardinality());
+            for (int i = tIncluded.nextSetBit(0); i >= 0; i = tIncluded.nextSetBit(i + 1)) {
+                tChildren.add(mNode.getChildren().get(i));
+            }
+            tChildren = Collections.unmodifiableList(tChildren);
+            if (mChildLists.size() < MAX_SHARED_CHILD_LISTS) {
+                List<Child> tExisting = mChildLists.putIfAbsent(tIncluded, tChildren);
+                if (tExisting != null) {
+                    tChildren = tExisting;
+                }
+            }
+        }
+        return tChildren;
+    }
+
+    /**
+     * Check if the node is a link to an object in another data source.
+     *
+     * @return {@code true} if the node is a link
+     */
+    boolean isLink() {
+        return mLinkKeyMethod != null;
+    }
+
+    /**
+     * Get the key of the linked object.
+     *
+     * @param pItem the item
+     * @return the key of the linked object
+     */
+    String getLinkKey(Object pItem) {
+        return mLinkKeyMethod.getValue(pItem);
+    }
+
+    /**
+     * Get the state method.
+     *
+     * @return the state method, or {@code null}
+     */
+    AsGetMethodIf<Object> getStateMethod() {
+        return mStateMethod;
+    }
+
+    /**
+     * Get the text method.
+     *
+     * @return the text method, or {@code null}
+     */
+    AsGetMethodIf<Object> getTextMethod() {
+        return mTextMethod;
+    }
+
+    /**
+     * Get the node type.
+     *
+     * @return the node type
+     */
+    String getType() {
+        return mType;
+    }
+
+}
@@ -24,55 +24,31 @@
 package com.cinnober.ciguan.datasource.tree;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-import com.cinnober.ciguan.AsLoggerIf;
-import com.cinnober.ciguan.data.AsMetaObject;
 import com.cinnober.ciguan.datasource.AsFilterIf;
 import com.cinnober.ciguan.datasource.AsGetMethodIf;
 import com.cinnober.ciguan.datasource.AsListIf;
-import com.cinnober.ciguan.datasource.filter.AsAttributeValueFilter;
 import com.cinnober.ciguan.datasource.folder.AsTreeFolder;
-import com.cinnober.ciguan.datasource.getter.AsGetMethod;
-import com.cinnober.ciguan.datasource.impl.AsXmlRefData;
 import com.cinnober.ciguan.datasource.tree.AsTreeData.Child;
-import com.cinnober.ciguan.datasource.tree.AsTreeData.Node;
-import com.cinnober.ciguan.impl.As;
 
 /**
- * Tree node containing an object.
+ * Tree node containing an object. The item, the children and the link of the node are held by an
+ * {@link AsTreeSharedNode}, which is shared with the nodes of the same item in the trees of other sessions,
+ * while the expansion state and the child lists of an expanded node are kept per tree.
  */
-@SuppressWarnings({ "unchecked", "rawtypes", "deprecation" })
+@SuppressWarnings({ "unchecked", "rawtypes" })
 public class AsTreeNodeWithObject extends AsTreeNode<Object> {
 
-    /** The item source. */
-    private final AsListIf mItemSource;
+    /** The shared node. */
+    private final AsTreeSharedNode mShared;
     
-    /** The link source. */
-    private AsListIf mLinkSource;
-    
-    /** The link key. */
-    private String mLinkKey;
-    
-    /** The children. */
-    private List<Child> mChildren;
-    
-    /** The listeners. */
-    private final List<AsTreeNodeSource> mListeners = new ArrayList<AsTreeNodeSource>();
+    /** The listeners, created when the node is first expanded. */
+    private List<AsTreeNodeSource> mListeners;
     
     /** The folders. */
     private List<AsTreeNodeFolder> mFolders;
     
-    /** The state method. */
-    private AsGetMethodIf<Object> mStateMethod;
-    
-    /** The text method. */
-    private AsGetMethodIf<Object> mTextMethod;
-    
-    /** The is link flag. */
-    private boolean mIsLink;
-    
     /**
      * Default instance.
      *
@@ -84,84 +60,71 @@ public class AsTreeNodeWithObject extends AsTreeNode<Object> {
      */
     public AsTreeNodeWithObject(AsTreeList pRoot, Object pItem, 
         AsListIf pItemSource, String pParentPath, int pChildIndex) {
-        super(pRoot, pParentPath, pChildIndex + ":" + pItemSource.getKey(pItem), 
-            pItem instanceof AsXmlRefData ? ((AsXmlRefData) pItem).getTagName() : As.getTypeName(pItem.getClass()),
-                pItem);
-        mItemSource = pItemSource;
-        Node tNode = pRoot.getMappings(this);
-        if (tNode != null) {
-            mChildren = new ArrayList<Child>();
-            for (Child tChild : tNode.getChildren()) {
-                String tCondition = tChild.getCondition();
-                AsFilterIf<Object> tFilter = null;
-                if (tCondition != null) {
-                    tFilter = (AsFilterIf<Object>) AsAttributeValueFilter.create(pItem.getClass(), tCondition); 
-                }
-                if (tFilter == null || tFilter.include(pItem)) {
-                    mChildren.add(tChild);
-                }
-            }
-            if (tNode.isLink() && !mChildren.isEmpty()) {
-                mIsLink = true;
-                Child tChild = mChildren.get(0);
-                String tKeyAttr = tNode.getKeyRefAttribute();
-                AsGetMethodIf tGetMethod = AsGetMethod.create(pItem.getClass(), tKeyAttr);
-                mLinkKey = tGetMethod.getValue(pItem);
-                mLinkSource = mRoot.getDataSource(tChild.getSource(), (AsFilterIf) null);
-                setItem(mLinkSource.get(mLinkKey));
-                mType = As.getTypeName(getItem().getClass());
-                pRoot.addLinkListener(mLinkSource, mLinkKey, this);
+        this(pRoot, pItem, pItemSource, AsTreeNodeId.parse(pParentPath), pChildIndex);
+    }
 
-                // Get the "new" children
-                tNode = pRoot.getMappings(this);
-                mChildren = tNode == null ? Collections.EMPTY_LIST : tNode.getChildren();
-            }
-            setExpandable(!mChildren.isEmpty());
-        }
-        AsMetaObject tMeta = As.getMetaDataHandler().getMetaData(pItem.getClass());
-        if (tMeta != null && tMeta.getStateField() != null && !tMeta.getStateField().isEmpty()) {
-            mStateMethod = tMeta.getGetMethod(tMeta.getStateField());
-        }
-        // Create the text getter if necessary
-        String tTextAttribute = pRoot.getItemText(As.getTypeName(pItem.getClass()));
-        if (tTextAttribute != null) {
-            mTextMethod = (AsGetMethodIf<Object>) AsGetMethod.create(pItem.getClass(), tTextAttribute);
-        }
+    /**
+     * Create a node below the node with the given identity.
+     *
+     * @param pRoot the root
+     * @param pItem the item
+     * @param pItemSource the item source
+     * @param pParent the identity of the parent
+     * @param pChildIndex the child index
+     */
+    public AsTreeNodeWithObject(AsTreeList pRoot, Object pItem, 
+        AsListIf pItemSource, AsTreeNodeId pParent, int pChildIndex) {
+        this(pRoot, pRoot.getNodeCache().acquire(pRoot, pItem, pItemSource, pParent, pChildIndex));
+    }
+
+    /**
+     * Create a node referencing a shared node.
+     *
+     * @param pRoot the root
+     * @param pShared the shared node, referenced on behalf of this node
+     */
+    private AsTreeNodeWithObject(AsTreeList pRoot, AsTreeSharedNode pShared) {
+        super(pRoot, pShared.getId(), pShared.getType(), null);
+        mShared = pShared;
+        setExpandable(!pShared.getChildren().isEmpty());
+        pShared.addNode(this);
+    }
+    
+    @Override
+    public Object getItem() {
+        return mShared.getItem();
     }
     
     @Override
     public void setItem(Object pItem) {
-        if (mIsLink && (pItem == null || pItem.getClass() != mLinkSource.getItemClass())) {
-            if (pItem == null) {
-                // Inconsistent data, log
-                AsLoggerIf.Singleton.get().log("ERROR: Tree link child object not found, data source: " +
-                    mLinkSource.getDataSourceId() + " child key: " + mLinkKey);
-            }
-            else if (pItem.getClass() != mLinkSource.getItemClass()) {
-                // Ignore updates to the link object, log as trace
-                AsLoggerIf.Singleton.get().logTrace(
-                    "The tree link object was updated, this is most likely an application error. " +
-                    "The update was ignored.");
-            }
-            return;
+        mShared.setItem(pItem);
+    }
+    
+    /**
+     * Refresh the node after a change of the shared item, unless the node is no longer in the tree.
+     */
+    void refresh() {
+        if (mRoot.get(mId) == this) {
+            mRoot.update(this);
         }
-        super.setItem(pItem);
     }
     
     @Override
     public void onRemove() {
         collapseNode();
-        mRoot.removeLinkListener(mLinkSource, mLinkKey, this);
+        mShared.removeNode(this);
+        mRoot.getNodeCache().release(mShared);
     }
     
     @Override
     public String getLabel() {
-        if (mTextMethod != null) {
-            return mTextMethod.getText(getItem(), mRoot.getDataSourceService());
+        AsGetMethodIf<Object> tTextMethod = mShared.getTemplate().getTextMethod();
+        if (tTextMethod != null) {
+            return tTextMethod.getText(getItem(), mRoot.getDataSourceService());
         }
-        return mIsLink ?
-            mLinkSource.getText(getItem(), mRoot.getDataSourceService()) :
-            mItemSource.getText(getItem(), mRoot.getDataSourceService());
+        return mShared.getLinkSource() != null ?
+            mShared.getLinkSource().getText(getItem(), mRoot.getDataSourceService()) :
+            mShared.getItemSource().getText(getItem(), mRoot.getDataSourceService());
     }
     
     /**
@@ -179,11 +142,11 @@ public class AsTreeNodeWithObject extends AsTreeNode<Object> {
     
     @Override
     protected void expandNode() {
-        for (Child tChild : mChildren) {
+        for (Child tChild : mShared.getChildren()) {
             if (tChild.isFolder()) {
                 AsTreeFolder tFolder = 
                     new AsTreeFolder(tChild, getItem());
-                AsTreeNodeFolder tNode = new AsTreeNodeFolder(mRoot, tFolder , mPath);
+                AsTreeNodeFolder tNode = new AsTreeNodeFolder(mRoot, tFolder, mId);
                 addFolder(tNode);
             }
             else {
@@ -199,13 +162,15 @@ public class AsTreeNodeWithObject extends AsTreeNode<Object> {
                         tList = mRoot.getDataSource(tDataSourceId, tFilter);
                     }
                     else {
-                        String tExpression = AsTreeFilterTool.
-                            expandFilterExpression(getItem(), tChild.getFilter().split(","));
+                        String tExpression = AsTreeFilterTool.bindFilterExpression(getItem(), tChild.getFilter());
                         tList = mRoot.getDataSource(tDataSourceId, tExpression);
                     }
                 }
                 // listener to data source
-                mListeners.add(new AsTreeNodeSource(mRoot, mPath, tList, tChild.getIndex(), this));
+                if (mListeners == null) {
+                    mListeners = new ArrayList<AsTreeNodeSource>();
+                }
+                mListeners.add(new AsTreeNodeSource(mRoot, mId, tList, tChild.getIndex(), this));
             }
         }
     }
@@ -220,7 +185,7 @@ public class AsTreeNodeWithObject extends AsTreeNode<Object> {
         ArrayList<AsTreeNode> tChildren = new ArrayList<AsTreeNode>();
         for (int tIndex = mRoot.indexOf(this) + 1; tIndex < mRoot.size(); tIndex++) {
             AsTreeNode tNode = mRoot.get(tIndex);
-            if (!tNode.getPath().startsWith(getPath())) {
+            if (!tNode.getId().isDescendantOf(mId)) {
                 break;
             }
             else if (tNode.getExpanded() != null) {
@@ -230,11 +195,13 @@ public class AsTreeNodeWithObject extends AsTreeNode<Object> {
         for (AsTreeNode tNode : tChildren) {
             tNode.setExpanded(false);
         }
-        for (AsTreeNodeSource tListener : mListeners) {
-            // Remove listener
-            tListener.stop();
+        if (mListeners != null) {
+            for (AsTreeNodeSource tListener : mListeners) {
+                // Remove listener
+                tListener.stop();
+            }
+            mListeners.clear();
         }
-        mListeners.clear();
         if (mFolders != null) {
             for (AsTreeNodeFolder tFolder : mFolders) {
                 mRoot.remove(tFolder);
@@ -245,7 +212,8 @@ public class AsTreeNodeWithObject extends AsTreeNode<Object> {
     
     @Override
     public String getState() {
-        return mStateMethod != null ? (String) mStateMethod.getObject(getItem()) : "";
+        AsGetMethodIf<Object> tStateMethod = mShared.getTemplate().getStateMethod();
+        return tStateMethod != null ? (String) tStateMethod.getObject(getItem()) : "";
     }
     
 }
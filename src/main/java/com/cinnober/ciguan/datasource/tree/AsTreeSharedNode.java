@@ -0,0 +1,250 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.tree;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.cinnober.ciguan.AsLoggerIf;
+import com.cinnober.ciguan.datasource.AsListIf;
+import com.cinnober.ciguan.datasource.tree.AsTreeData.Child;
+import com.cinnober.ciguan.datasource.tree.AsTreeData.Node;
+import com.cinnober.ciguan.impl.As;
+
+/**
+ * The parts of a tree node with an object which do not depend on the session: the path, the item, the
+ * children and the link to another data source. A shared node is created once per item source and identity
+ * by the {@link AsTreeNodeCache} of the tree definition, and is referenced by one {@link AsTreeNodeWithObject}
+ * per tree in which the item is shown. The expansion state and the child lists of an expanded node are kept
+ * by the referencing nodes, per session.
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+final class AsTreeSharedNode {
+
+    /** The identity. */
+    private final AsTreeNodeId mId;
+
+    /** The item source. */
+    private final AsListIf mItemSource;
+
+    /** The shared template of the original item. */
+    private final AsTreeNodeTemplate mTemplate;
+
+    /** The link source, or {@code null} if the node is not a link. */
+    private final AsListIf mLinkSource;
+
+    /** The link key, or {@code null} if the node is not a link. */
+    private final String mLinkKey;
+
+    /** The type. */
+    private final String mType;
+
+    /** The children. */
+    private final List<Child> mChildren;
+
+    /** The item. */
+    private volatile Object mItem;
+
+    /** The nodes referencing this node. */
+    private final List<AsTreeNodeWithObject> mNodes = new CopyOnWriteArrayList<AsTreeNodeWithObject>();
+
+    /** The number of references, guarded by the node cache. */
+    private int mReferences;
+
+    /**
+     * Create a shared node.
+     *
+     * @param pTreeData the tree definition
+     * @param pId the identity
+     * @param pItem the item
+     * @param pItemSource the item source
+     * @param pTemplate the template for the type of the item
+     * @param pLinkSource the link source, or {@code null} if the node is not a link
+     */
+    AsTreeSharedNode(AsTreeData pTreeData, AsTreeNodeId pId, Object pItem, AsListIf pItemSource,
+        AsTreeNodeTemplate pTemplate, AsListIf pLinkSource) {
+        mId = pId;
+        mItemSource = pItemSource;
+        mTemplate = pTemplate;
+        mLinkSource = pLinkSource;
+        mItem = pItem;
+        if (pLinkSource != null) {
+            mLinkKey = pTemplate.getLinkKey(pItem);
+            setItem(pLinkSource.get(mLinkKey));
+            mType = As.getTypeName(mItem.getClass());
+
+            // Get the "new" children
+            Node tNode = pTreeData.getNode(mItem);
+            mChildren = tNode == null ? Collections.EMPTY_LIST : tNode.getChildren();
+        }
+        else {
+            mLinkKey = null;
+            mType = pTemplate.getType();
+            mChildren = pTemplate.getChildren(pItem);
+        }
+    }
+
+    /**
+     * Get the identity.
+     *
+     * @return the identity
+     */
+    AsTreeNodeId getId() {
+        return mId;
+    }
+
+    /**
+     * Get the item source.
+     *
+     * @return the item source
+     */
+    AsListIf getItemSource() {
+        return mItemSource;
+    }
+
+    /**
+     * Get the shared template of the original item.
+     *
+     * @return the template
+     */
+    AsTreeNodeTemplate getTemplate() {
+        return mTemplate;
+    }
+
+    /**
+     * Get the link source.
+     *
+     * @return the link source, or {@code null} if the node is not a link
+     */
+    AsListIf getLinkSource() {
+        return mLinkSource;
+    }
+
+    /**
+     * Get the link key.
+     *
+     * @return the link key, or {@code null} if the node is not a link
+     */
+    String getLinkKey() {
+        return mLinkKey;
+    }
+
+    /**
+     * Get the type.
+     *
+     * @return the type
+     */
+    String getType() {
+        return mType;
+    }
+
+    /**
+     * Get the children.
+     *
+     * @return the children, never {@code null}
+     */
+    List<Child> getChildren() {
+        return mChildren;
+    }
+
+    /**
+     * Get the item.
+     *
+     * @return the item
+     */
+    Object getItem() {
+        return mItem;
+    }
+
+    /**
+     * Set the item. The item of a link is only replaced by an object of the link source.
+     *
+     * @param pItem the item
+     */
+    void setItem(Object pItem) {
+        if (mLinkSource != null && (pItem == null || pItem.getClass() != mLinkSource.getItemClass())) {
+            if (pItem == null) {
+                // Inconsistent data, log
+                AsLoggerIf.Singleton.get().log("ERROR: Tree link child object not found, data source: " +
+                    mLinkSource.getDataSourceId() + " child key: " + mLinkKey);
+            }
+            else {
+                // Ignore updates to the link object, log as trace
+                AsLoggerIf.Singleton.get().logTrace(
+                    "The tree link object was updated, this is most likely an application error. " +
+                    "The update was ignored.");
+            }
+            return;
+        }
+        mItem = pItem;
+    }
+
+    /**
+     * Replace the item with an update of the linked object, and refresh the referencing nodes.
+     *
+     * @param pItem the updated linked object
+     */
+    void linkUpdated(Object pItem) {
+        setItem(pItem);
+        for (AsTreeNodeWithObject tNode : mNodes) {
+            tNode.refresh();
+        }
+    }
+
+    /**
+     * Add a referencing node.
+     *
+     * @param pNode the node
+     */
+    void addNode(AsTreeNodeWithObject pNode) {
+        mNodes.add(pNode);
+    }
+
+    /**
+     * Remove a referencing node.
+     *
+     * @param pNode the node
+     */
+    void removeNode(AsTreeNodeWithObject pNode) {
+        mNodes.remove(pNode);
+    }
+
+    /**
+     * Add a reference, must be called holding the lock of the node cache.
+     */
+    void reference() {
+        mReferences++;
+    }
+
+    /**
+     * Release a reference, must be called holding the lock of the node cache.
+     *
+     * @return {@code true} if the last reference was released
+     */
+    boolean release() {
+        return --mReferences == 0;
+    }
+
+}
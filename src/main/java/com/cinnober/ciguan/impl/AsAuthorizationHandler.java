@@ -23,24 +23,45 @@
  */
 package com.cinnober.ciguan.impl;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.cinnober.ciguan.AsAuthorizationHandlerIf;
+import com.cinnober.ciguan.data.AsUserPermissionChange;
 
 /**
  * 
  * Default implementation of the AS authorization handler. This class should be extended by classes
  * which make use of an actual authorization system.
+ * <p>
+ * The access rights of each user are held as an immutable set which is replaced as a whole whenever
+ * the rights of the user change. Lookups therefore never lock, while registrations for the same user
+ * are serialized on one of a fixed number of lock stripes. Once the handler has been initialized, every
+ * change is announced by broadcasting an {@link AsUserPermissionChange} for the affected user.
  * 
  */
 public class AsAuthorizationHandler extends AsComponent implements AsAuthorizationHandlerIf {
 
-    private boolean mInitialized;
-    private final Map<String, Set<Object>> mAccessRights = new HashMap<String, Set<Object>>();
-    
+    /** The number of lock stripes used when registering access rights, must be a power of two */
+    private static final int LOCK_STRIPES = 64;
+
+    private volatile boolean mInitialized;
+    private final Map<String, Set<Object>> mAccessRights = new ConcurrentHashMap<String, Set<Object>>();
+    private final Object[] mLocks = new Object[LOCK_STRIPES];
+
+    /**
+     * Create a new authorization handler
+     */
+    public AsAuthorizationHandler() {
+        for (int i = 0; i < mLocks.length; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
     @Override
     public boolean isInitialized() {
         return mInitialized;
@@ -53,6 +74,9 @@ public class AsAuthorizationHandler extends AsComponent implements AsAuthorizati
     
     @Override
     public boolean checkAccess(String pUserId, Object pServiceRef) {
+        if (pUserId == null) {
+            return false;
+        }
         Set<Object> tUserRights = mAccessRights.get(pUserId);
         if (tUserRights != null) {
             return tUserRights.contains(pServiceRef);
@@ -62,12 +86,122 @@ public class AsAuthorizationHandler extends AsComponent implements AsAuthorizati
     
     @Override
     public void addAccess(String pUserId, Object pServiceRef) {
-        Set<Object> tUserRights = mAccessRights.get(pUserId);
-        if (tUserRights == null) {
-            tUserRights = new HashSet<Object>();
-            mAccessRights.put(pUserId, tUserRights);
+        grantAccess(pUserId, Collections.singleton(pServiceRef));
+    }
+
+    @Override
+    public void grantAccess(String pUserId, Collection<?> pServiceRefs) {
+        checkUserId(pUserId);
+        boolean tChanged;
+        synchronized (getLock(pUserId)) {
+            Set<Object> tUserRights = mAccessRights.get(pUserId);
+            Set<Object> tNewRights = tUserRights != null ?
+                new HashSet<Object>(tUserRights) : new HashSet<Object>();
+            tChanged = tNewRights.addAll(pServiceRefs);
+            if (tChanged) {
+                mAccessRights.put(pUserId, Collections.unmodifiableSet(tNewRights));
+            }
+        }
+        if (tChanged) {
+            notifyPermissionChange(pUserId);
         }
-        tUserRights.add(pServiceRef);
     }
-    
+
+    @Override
+    public void revokeAccess(String pUserId, Collection<?> pServiceRefs) {
+        checkUserId(pUserId);
+        boolean tChanged;
+        synchronized (getLock(pUserId)) {
+            Set<Object> tUserRights = mAccessRights.get(pUserId);
+            if (tUserRights == null) {
+                return;
+            }
+            Set<Object> tNewRights = new HashSet<Object>(tUserRights);
+            tChanged = tNewRights.removeAll(pServiceRefs);
+            if (tChanged) {
+                if (tNewRights.isEmpty()) {
+                    mAccessRights.remove(pUserId);
+                }
+                else {
+                    mAccessRights.put(pUserId, Collections.unmodifiableSet(tNewRights));
+                }
+            }
+        }
+        if (tChanged) {
+            notifyPermissionChange(pUserId);
+        }
+    }
+
+    @Override
+    public void setAccess(String pUserId, Collection<?> pServiceRefs) {
+        checkUserId(pUserId);
+        boolean tChanged;
+        synchronized (getLock(pUserId)) {
+            Set<Object> tUserRights = mAccessRights.get(pUserId);
+            Set<Object> tNewRights = new HashSet<Object>(pServiceRefs);
+            if (tUserRights == null) {
+                tChanged = !tNewRights.isEmpty();
+            }
+            else {
+                tChanged = !tUserRights.equals(tNewRights);
+            }
+            if (tChanged) {
+                if (tNewRights.isEmpty()) {
+                    mAccessRights.remove(pUserId);
+                }
+                else {
+                    mAccessRights.put(pUserId, Collections.unmodifiableSet(tNewRights));
+                }
+            }
+        }
+        if (tChanged) {
+            notifyPermissionChange(pUserId);
+        }
+    }
+
+    @Override
+    public Set<Object> getAccess(String pUserId) {
+        Set<Object> tUserRights = pUserId != null ? mAccessRights.get(pUserId) : null;
+        if (tUserRights != null) {
+            return tUserRights;
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Announce that the access rights of the given user have changed. Changes made while the handler
+     * is still being populated are not announced, since no user data sources can depend on them yet.
+     *
+     * @param pUserId the user id
+     */
+    protected void notifyPermissionChange(String pUserId) {
+        if (mInitialized && As.getBdxHandler() != null) {
+            As.getBdxHandler().broadcast(new AsUserPermissionChange(pUserId));
+        }
+    }
+
+    /**
+     * Reject a missing user id, access rights are only held for identified users
+     *
+     * @param pUserId the user id
+     * @throws IllegalArgumentException if the user id is null
+     */
+    private static void checkUserId(String pUserId) {
+        if (pUserId == null) {
+            throw new IllegalArgumentException("Access rights cannot be registered for a null user id");
+        }
+    }
+
+    /**
+     * Get the lock stripe guarding registrations for the given user
+     *
+     * @param pUserId the user id
+     * @return the lock object
+     */
+    private Object getLock(String pUserId) {
+        int tHash = pUserId.hashCode();
+        tHash ^= tHash >>> 16;
+        return mLocks[tHash & (LOCK_STRIPES - 1)];
+    }
+
 }
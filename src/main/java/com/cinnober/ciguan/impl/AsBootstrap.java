@@ -23,6 +23,18 @@
  */
 package com.cinnober.ciguan.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.cinnober.ciguan.AsAuthorizationHandlerIf;
 import com.cinnober.ciguan.AsBdxHandlerIf;
 import com.cinnober.ciguan.AsBeanFactoryIf;
@@ -43,6 +55,7 @@ import com.cinnober.ciguan.data.AsCwfDataFactoryImpl;
 import com.cinnober.ciguan.data.CwfDataFactory;
 import com.cinnober.ciguan.scheduler.AsSchedulerIf;
 import com.cinnober.ciguan.service.AsServiceHandlerIf;
+import com.cinnober.ciguan.xml.impl.AsConfigSnapshot;
 import com.cinnober.ciguan.xml.impl.AsConfigXmlParser;
 
 /**
@@ -53,6 +66,7 @@ public class AsBootstrap implements AsBootstrapIf {
 
     public static final String CWF_LOAD_MODULE_PROPERTY = "cwf.loadModule";
     public static final String CWF_BOOTSTRAP_PROPERTY = "cwf.bootstrap";
+    public static final String CWF_STARTUP_THREADS_PROPERTY = "cwf.startupThreads";
 
     public boolean mRunning;
 
@@ -76,10 +90,91 @@ public class AsBootstrap implements AsBootstrapIf {
         createConfiguredComponents();
 
         // components created
-        for (AsComponent tComponent : AsComponent.getAllComponents()) {
-            As.getLogger().log("ciguan start component: " + tComponent.getClass().getSimpleName());
-            tComponent.doStartComponent();
+        startComponents(new ArrayList<AsComponent>(AsComponent.getAllComponents()));
+    }
+
+    /**
+     * Start the given components in dependency order. Components which do not depend on
+     * each other are started in parallel on a bounded pool, see {@link AsComponent#getStartDependencies()}.
+     *
+     * @param pComponents the components, in creation order
+     * @throws AsInitializationException when a component fails to start
+     */
+    protected void startComponents(List<AsComponent> pComponents) throws AsInitializationException {
+        int tThreads = Math.max(1, Integer.getInteger(CWF_STARTUP_THREADS_PROPERTY,
+            Runtime.getRuntime().availableProcessors()).intValue());
+        ExecutorService tExecutor = Executors.newFixedThreadPool(tThreads, new StartupThreadFactory());
+        long tStartTime = System.currentTimeMillis();
+        Map<AsComponent, CompletableFuture<Void>> tStarted = new LinkedHashMap<AsComponent, CompletableFuture<Void>>();
+        try {
+            for (final AsComponent tComponent : pComponents) {
+                List<CompletableFuture<Void>> tDependencies = new ArrayList<CompletableFuture<Void>>();
+                for (Map.Entry<AsComponent, CompletableFuture<Void>> tEntry : tStarted.entrySet()) {
+                    if (dependsOn(tComponent, tEntry.getKey())) {
+                        tDependencies.add(tEntry.getValue());
+                    }
+                }
+                CompletableFuture<Void> tFuture = CompletableFuture
+                    .allOf(tDependencies.toArray(new CompletableFuture<?>[tDependencies.size()]))
+                    .thenRunAsync(new Runnable() {
+                        @Override
+                        public void run() {
+                            As.getLogger().log("ciguan start component: " + tComponent.getClass().getSimpleName());
+                            try {
+                                tComponent.doStartComponent();
+                            }
+                            catch (AsInitializationException e) {
+                                throw new CompletionException(e);
+                            }
+                        }
+                    }, tExecutor);
+                tStarted.put(tComponent, tFuture);
+            }
+            for (CompletableFuture<Void> tFuture : tStarted.values()) {
+                try {
+                    tFuture.join();
+                }
+                catch (CompletionException e) {
+                    // Propagate the failure as if the component was started on this thread
+                    if (e.getCause() instanceof AsInitializationException) {
+                        throw (AsInitializationException) e.getCause();
+                    }
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw (RuntimeException) e.getCause();
+                }
+            }
+        }
+        finally {
+            tExecutor.shutdown();
         }
+        for (AsComponent tComponent : pComponents) {
+            As.getLogger().log("ciguan component " + tComponent.getClass().getSimpleName()
+                + " started in " + tComponent.getStartTime() + " ms");
+        }
+        As.getLogger().log("ciguan started " + pComponents.size() + " components in "
+            + (System.currentTimeMillis() - tStartTime) + " ms using " + tThreads + " threads");
+    }
+
+    /**
+     * Check if a component must be started after another component.
+     *
+     * @param pComponent the component to start
+     * @param pOther a component created before it
+     * @return true if the component depends on the other component
+     */
+    protected boolean dependsOn(AsComponent pComponent, AsComponent pOther) {
+        Collection<Class<?>> tDependencies = pComponent.getStartDependencies();
+        if (tDependencies == null) {
+            return true;
+        }
+        for (Class<?> tDependency : tDependencies) {
+            if (tDependency.isInstance(pOther)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -165,6 +260,8 @@ public class AsBootstrap implements AsBootstrapIf {
             System.out.println("AS Synchronize External Data: " + tComponent.getClass().getSimpleName());
             tComponent.doSynchronizeExternalData();
         }
+        // Startup configuration is fully resolved, persist it if the snapshot was stale
+        AsConfigSnapshot.close();
     }
 
     @Override
@@ -187,6 +284,19 @@ public class AsBootstrap implements AsBootstrapIf {
         }
     }
 
+    /**
+     * Creates the component startup threads. Needed only to get more readable thread names.
+     */
+    protected static class StartupThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable pRunnable) {
+            return new Thread(pRunnable, "ComponentStartup-" + mCount.incrementAndGet());
+        }
+    }
+
     /**
      * Configure the bootstrap instance
      * 1) Attempt to use the passed class name
@@ -23,10 +23,9 @@
  */
 package com.cinnober.ciguan.impl;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.transform.TransformerException;
 
@@ -46,7 +45,8 @@ import com.cinnober.ciguan.client.MvcModelAttributesIf;
  */
 public class AsCache extends AsComponent implements AsCacheIf, MvcModelAttributesIf {
 
-    private Map<String, AsCacheReference<?, ?>> mCacheRefMap = new HashMap<String, AsCacheReference<?, ?>>();
+    private Map<String, AsCacheReference<?, ?>> mCacheRefMap =
+        new ConcurrentHashMap<String, AsCacheReference<?, ?>>();
 
     private <A, B> void addReference(String pType, String pField) {
         AsCacheReference<A, B> tRef = new AsCacheReference<A, B>(pType, pField);
@@ -72,11 +72,29 @@ public class AsCache extends AsComponent implements AsCacheIf, MvcModelAttribute
 
     @Override
     public <T> T get(Class<T> pClass, String... pIds) {
-        StringBuilder tKey = new StringBuilder();
+        return As.getGlobalDataSources().getDataSource(pClass).get(getKey(pIds));
+    }
+
+    /**
+     * Assemble the data source key of a possibly composite key. Single part keys, which is the
+     * common case, are used as is.
+     *
+     * @param pIds the key parts
+     * @return the key
+     */
+    static String getKey(String... pIds) {
+        if (pIds.length == 1 && pIds[0] != null) {
+            return pIds[0];
+        }
+        int tLength = pIds.length;
+        for (String tId : pIds) {
+            tLength += tId == null ? 4 : tId.length();
+        }
+        StringBuilder tKey = new StringBuilder(tLength);
         for (String tId : pIds) {
             tKey.append(tKey.length() > 0 ? "-" : "").append(tId);
         }
-        return As.getGlobalDataSources().getDataSource(pClass).get(tKey.toString());
+        return tKey.toString();
     }
 
     @Override
@@ -89,7 +107,7 @@ public class AsCache extends AsComponent implements AsCacheIf, MvcModelAttribute
     public <From> Collection<From> getReferencingObjects(Class<From> pFrom, String pFieldName, String pToKey) {
         String tRefName = AsCacheReference.refName(pFrom, pFieldName);
         AsCacheReference<From, ?> tCacheRef = (AsCacheReference<From, ?>) mCacheRefMap.get(tRefName);
-        return new ArrayList<From>(tCacheRef.getMapping(pToKey));
+        return tCacheRef.getMapping(pToKey);
     }
 
     @Override
@@ -23,11 +23,13 @@
  */
 package com.cinnober.ciguan.impl;
 
+import java.util.AbstractCollection;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.cinnober.ciguan.data.AsMetaObject;
 import com.cinnober.ciguan.datasource.AsDataSourceEventIf;
@@ -44,7 +46,8 @@ import com.cinnober.ciguan.datasource.AsListIf;
 public class AsCacheReference<A, B> implements AsDataSourceListenerIf<A> {
 
     private final AsGetMethodIf<A> mReferenceField;
-    private final Map<String, Set<A>> mMap = new HashMap<String, Set<A>>();
+    /** Referencing objects per referenced key, read without locking and written under the instance lock. */
+    private final Map<String, Set<A>> mMap = new ConcurrentHashMap<String, Set<A>>();
     private final AsListIf<A> mList;
     private String mName;
     
@@ -57,13 +60,27 @@ public class AsCacheReference<A, B> implements AsDataSourceListenerIf<A> {
         mList.addListener(this);
     }
 
+    /**
+     * Create a reference on the given field of the items in the given list.
+     *
+     * @param pName the reference name
+     * @param pReferenceField the referencing field
+     * @param pList the list of referencing objects
+     */
+    AsCacheReference(String pName, AsGetMethodIf<A> pReferenceField, AsListIf<A> pList) {
+        mName = pName;
+        mReferenceField = pReferenceField;
+        mList = pList;
+        mList.addListener(this);
+    }
+
     @Override
     public AsDataSourceIf<A> getDataSource() {
         return null;
     }
 
     @Override
-    public void onDataSourceEvent(AsDataSourceEventIf<A> pEvent) {
+    public synchronized void onDataSourceEvent(AsDataSourceEventIf<A> pEvent) {
         switch (pEvent.getType()) {
             case SNAPSHOT:
                 for (A tValue : pEvent.getSnapshot()) {
@@ -74,7 +91,8 @@ public class AsCacheReference<A, B> implements AsDataSourceListenerIf<A> {
                 add(pEvent.getNewValue());
                 break;
             case UPDATE:
-                update(pEvent.getOldValue(), pEvent.getNewValue());
+                remove(pEvent.getOldValue());
+                add(pEvent.getNewValue());
                 break;
             case REMOVE:
                 remove(pEvent.getOldValue());
@@ -87,7 +105,12 @@ public class AsCacheReference<A, B> implements AsDataSourceListenerIf<A> {
     private void add(A pValue) {
         Object tKey = mReferenceField.getValue(pValue);
         if (tKey != null) {
-            getMapping(tKey.toString()).add(pValue);
+            Set<A> tSet = mMap.get(tKey.toString());
+            if (tSet == null) {
+                tSet = Collections.newSetFromMap(new ConcurrentHashMap<A, Boolean>());
+                mMap.put(tKey.toString(), tSet);
+            }
+            tSet.add(pValue);
         }
     }
     
@@ -96,41 +119,64 @@ public class AsCacheReference<A, B> implements AsDataSourceListenerIf<A> {
     private void remove(A pValue) {
         Object tKey = mReferenceField.getValue(pValue);
         if (tKey != null) {
-            Collection<A> tSet = getMapping(tKey.toString());
-            tSet.remove(pValue);
-            if (tSet.isEmpty()) {
-                mMap.remove(tKey.toString());
+            Set<A> tSet = mMap.get(tKey.toString());
+            if (tSet != null) {
+                tSet.remove(pValue);
+                if (tSet.isEmpty()) {
+                    mMap.remove(tKey.toString());
+                }
             }
         }
     }
-    private void update(A pOld, A pNew) {
-        Object tOldKey = mReferenceField.getValue(pOld);
-        if (tOldKey != null) {
-            Collection<A> tSet = getMapping(tOldKey.toString());
-            tSet.remove(pOld);
-            add(pNew);
-            if (tSet.isEmpty()) {
-                mMap.remove(tOldKey.toString());
+
+    /**
+     * Get the objects referencing the given key as a read-only live view. The view can be
+     * iterated while the reference index is updated, without copying it. The key is looked up
+     * again on each access, since the set of a key is dropped when its last object is removed
+     * and a new set is created when the key is referenced again.
+     *
+     * @param pKey the referenced key
+     * @return the referencing objects, never {@code null}
+     */
+    public Collection<A> getMapping(final String pKey) {
+        return new AbstractCollection<A>() {
+
+            @Override
+            public Iterator<A> iterator() {
+                return Collections.unmodifiableSet(getSet()).iterator();
             }
-        }
-    }
 
-    public Collection<A> getMapping(String pKey) {
-        Set<A> tSet = mMap.get(pKey);
-        if (tSet == null) {
-            tSet = new HashSet<A>();
-            mMap.put(pKey, tSet);
-        }
-        return tSet;
+            @Override
+            public int size() {
+                return getSet().size();
+            }
+
+            @Override
+            public boolean contains(Object pObject) {
+                return getSet().contains(pObject);
+            }
+
+            private Set<A> getSet() {
+                Set<A> tSet = mMap.get(pKey);
+                return tSet != null ? tSet : Collections.<A>emptySet();
+            }
+        };
     }
 
     public String getName() {
         return mName;
     }
     
+    /**
+     * Stop listening to the list and clear the references. The listener is removed before taking
+     * the instance lock, since the list holds its listener lock while delivering events, which
+     * take the instance lock.
+     */
     public void destroy() {
         mList.removeListener(this);
-        mMap.clear();
+        synchronized (this) {
+            mMap.clear();
+        }
     }
     
     static String refName(Class<?> pType, String pFieldName) {
@@ -53,6 +53,26 @@ public abstract class AsComponent implements AsComponentIf {
         mStartTime = System.currentTimeMillis() - mStartTime;
     }
 
+    /**
+     * Get the components that must be started before this component, given as classes or
+     * interfaces implemented by those components. Only components created before this one
+     * are considered. A component that declares its dependencies may be started concurrently
+     * with other components, and must then synchronize on the configuration document while
+     * reading it since DOM implementations are not thread safe.
+     *
+     * @return the start dependencies, or null to depend on all components created before this one
+     */
+    public Collection<Class<?>> getStartDependencies() {
+        return null;
+    }
+
+    /**
+     * @return the time spent in {@link #startComponent()} in milliseconds
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
     public final void doAllComponentsStarted() throws AsInitializationException {
         mAllStartTime = System.currentTimeMillis();
         allComponentsStarted();
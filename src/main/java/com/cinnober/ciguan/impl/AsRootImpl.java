@@ -40,6 +40,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.cinnober.ciguan.AsBdxHandlerIf;
+import com.cinnober.ciguan.AsBdxListenerIf;
 import com.cinnober.ciguan.AsBeanFactoryIf;
 import com.cinnober.ciguan.AsConfigXmlParserIf;
 import com.cinnober.ciguan.AsConnectionIf;
@@ -48,12 +49,17 @@ import com.cinnober.ciguan.AsRootIf;
 import com.cinnober.ciguan.CwfDataIf;
 import com.cinnober.ciguan.client.MvcModelAttributesIf;
 import com.cinnober.ciguan.data.AsClientSession;
+import com.cinnober.ciguan.data.AsUserPermissionChange;
+import com.cinnober.ciguan.data.AsUserPreference;
+import com.cinnober.ciguan.data.AsUserPreferenceReset;
 import com.cinnober.ciguan.datasource.AsDataSourceOwnerIf;
+import com.cinnober.ciguan.datasource.AsFilterIf;
 import com.cinnober.ciguan.datasource.AsGetMethodFactoryIf;
 import com.cinnober.ciguan.datasource.AsGetMethodIf;
 import com.cinnober.ciguan.datasource.AsListIf;
 import com.cinnober.ciguan.datasource.getter.AsGetMethodFromExpression;
 import com.cinnober.ciguan.datasource.getter.AsListGetMethod;
+import com.cinnober.ciguan.datasource.impl.AsTreeMapList;
 import com.cinnober.ciguan.datasource.owner.AsGlobalDataSources;
 import com.cinnober.ciguan.datasource.owner.AsMemberDataSources;
 import com.cinnober.ciguan.datasource.owner.AsUserDataSources;
@@ -81,6 +87,56 @@ public class AsRootImpl extends AsComponent implements AsRootIf, MvcModelAttribu
         mGlobalDataSources = As.getBeanFactory().create(AsGlobalDataSources.class);
         registerConfiguredGetters();
         createServicePlugins();
+        As.getBdxHandler().addBdxListener(new AsBdxListenerIf() {
+            @Override
+            public void onBroadcast(Object pMessage) {
+                onUserPermissionChange((AsUserPermissionChange) pMessage);
+            }
+        }, AsUserPermissionChange.class);
+        As.getBdxHandler().addBdxListener(new AsBdxListenerIf() {
+            @Override
+            public void onBroadcast(Object pMessage) {
+                onUserPreferenceReset((AsUserPreferenceReset) pMessage);
+            }
+        }, AsUserPreferenceReset.class);
+    }
+
+    /**
+     * Re-evaluate the user filtered data sources of the user whose permissions have changed.
+     * Users without data sources are not affected, and the data sources of other users are left alone.
+     *
+     * @param pChange the permission change
+     */
+    protected void onUserPermissionChange(AsUserPermissionChange pChange) {
+        if (pChange.userId == null) {
+            return;
+        }
+        AsDataSourceOwnerIf tDataSources = mUserDataSources.get(pChange.userId);
+        if (tDataSources instanceof AsUserDataSources) {
+            ((AsUserDataSources) tDataSources).refilterUserDataSources();
+        }
+    }
+
+    /**
+     * Remove the preferences within the scope of the reset from the preference list. The preferences
+     * form a contiguous key range, which is removed in one operation on the list.
+     *
+     * @param pReset the preference reset
+     */
+    protected void onUserPreferenceReset(final AsUserPreferenceReset pReset) {
+        if (pReset.userId == null) {
+            return;
+        }
+        AsListIf<AsUserPreference> tList = As.getGlobalDataSources().getDataSource(AsUserPreference.class);
+        if (tList instanceof AsTreeMapList) {
+            ((AsTreeMapList<AsUserPreference>) tList).removeByKeyPrefix(pReset.getKeyPrefix(),
+                new AsFilterIf<AsUserPreference>() {
+                    @Override
+                    public boolean include(AsUserPreference pPreference) {
+                        return pReset.matches(pPreference);
+                    }
+                });
+        }
     }
 
     @Override
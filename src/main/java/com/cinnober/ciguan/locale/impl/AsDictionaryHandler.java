@@ -25,9 +25,13 @@ package com.cinnober.ciguan.locale.impl;
 
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -38,6 +42,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.cinnober.ciguan.AsConfigXmlParserIf;
 import com.cinnober.ciguan.AsDictionaryHandlerIf;
 import com.cinnober.ciguan.AsInitializationException;
 import com.cinnober.ciguan.CwfDataIf;
@@ -49,6 +54,7 @@ import com.cinnober.ciguan.datasource.owner.AsGlobalDataSources;
 import com.cinnober.ciguan.impl.As;
 import com.cinnober.ciguan.impl.AsComponent;
 import com.cinnober.ciguan.impl.AsUtil;
+import com.cinnober.ciguan.xml.impl.AsConfigSnapshot;
 
 /**
  *
@@ -57,6 +63,7 @@ import com.cinnober.ciguan.impl.AsUtil;
 public class AsDictionaryHandler extends AsComponent implements AsDictionaryHandlerIf, MvcModelAttributesIf {
 
     private static final String DELIMITER = ";";
+    private static final String SNAPSHOT_TABLE_PREFIX = "dictionary:";
 
     private Map<String, AsDictionaryWord> mWords = new HashMap<String, AsDictionaryWord>();
     private Map<String, AsDictionaryLanguage> mLanguages = new LinkedHashMap<String, AsDictionaryLanguage>();
@@ -64,9 +71,21 @@ public class AsDictionaryHandler extends AsComponent implements AsDictionaryHand
 
     private String[] mCurrentLanguages;
 
+    @Override
+    public Collection<Class<?>> getStartDependencies() {
+        return Arrays.<Class<?>>asList(AsConfigXmlParserIf.class);
+    }
+
     @Override
     public void startComponent() throws AsInitializationException {
-        parse(As.getConfigXmlParser().getConfigurationDocument());
+        Element tDocument = As.getConfigXmlParser().getConfigurationDocument();
+        List<String> tPaths;
+        synchronized (tDocument) {
+            tPaths = getDictionaryPaths(tDocument);
+        }
+        for (String tPath : tPaths) {
+            parse(tPath);
+        }
     }
 
     @Override
@@ -75,14 +94,27 @@ public class AsDictionaryHandler extends AsComponent implements AsDictionaryHand
     }
 
     protected void parse(Element pNode) {
+        for (String tPath : getDictionaryPaths(pNode)) {
+            parse(tPath);
+        }
+    }
+
+    /**
+     * Get the configured dictionary file paths
+     *
+     * @param pNode the node to parse from
+     * @return the dictionary paths
+     */
+    protected List<String> getDictionaryPaths(Element pNode) {
         try {
+            List<String> tPaths = new ArrayList<String>();
             NodeList tNodeList = XPathAPI.selectNodeList(pNode, "//" + TAG_AS_DICTIONARY);
             for (int i = 0; i < tNodeList.getLength(); i++) {
                 Node tNode = tNodeList.item(i);
                 CwfDataIf tTree = AsUtil.parse((Element) tNode);
-                String tPath = tTree.getProperty(ATTR_PATH);
-                parse(tPath);
+                tPaths.add(tTree.getProperty(ATTR_PATH));
             }
+            return tPaths;
         }
         catch (TransformerException e) {
             throw new RuntimeException("Error selecting plugin source node", e);
@@ -90,16 +122,52 @@ public class AsDictionaryHandler extends AsComponent implements AsDictionaryHand
     }
 
     protected void parse(String pPath) {
+        AsConfigSnapshot tSnapshot = AsConfigSnapshot.get();
+        List<String[]> tRows = tSnapshot != null ? tSnapshot.getTable(SNAPSHOT_TABLE_PREFIX + pPath) : null;
+        if (tRows == null) {
+            URL tResource = getResource(pPath);
+            tRows = read(pPath, tResource);
+            if (tSnapshot != null) {
+                tSnapshot.addSource(tResource);
+                tSnapshot.putTable(SNAPSHOT_TABLE_PREFIX + pPath, tRows);
+            }
+        }
+        createLanguages(tRows.get(0)[0]);
+        for (int i = 1; i < tRows.size(); i++) {
+            createWord(tRows.get(i));
+        }
+    }
+
+    /**
+     * Locate a dictionary file, relative paths are resolved against the package of this class first
+     *
+     * @param pPath the dictionary path
+     * @return the dictionary URL, or null if not found
+     */
+    protected URL getResource(String pPath) {
+        URL tResource = getClass().getResource(pPath);
+        if (tResource == null) {
+            tResource = ClassLoader.getSystemResource(pPath);
+        }
+        if (tResource == null) {
+            tResource = Thread.currentThread().getContextClassLoader().getResource(pPath);
+        }
+        return tResource;
+    }
+
+    /**
+     * Read a dictionary file into rows, the first row holds the language header
+     * and the remaining rows the split word definitions
+     *
+     * @param pPath the dictionary path
+     * @param pResource the dictionary URL, as located by {@link #getResource(String)}
+     * @return the dictionary rows
+     */
+    protected List<String[]> read(String pPath, URL pResource) {
         try {
             char[] tBytes = new char[1024];
             StringBuilder tBuffer = new StringBuilder();
-            InputStream tStream = getClass().getResourceAsStream(pPath);
-            if (tStream == null) {
-                tStream = ClassLoader.getSystemResourceAsStream(pPath);
-            }
-            if (tStream == null) {
-                tStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(pPath);
-            }
+            InputStream tStream = pResource.openStream();
             InputStreamReader tReader = new InputStreamReader(tStream, "UTF-8");
             int tCount = tReader.read(tBytes);
             while (tCount > 0) {
@@ -109,13 +177,15 @@ public class AsDictionaryHandler extends AsComponent implements AsDictionaryHand
 
             String[] tArr = tBuffer.toString().split("\n");
 
-            createLanguages(tArr[0]);
+            List<String[]> tRows = new ArrayList<String[]>(tArr.length);
+            tRows.add(new String[] {tArr[0]});
             for (int i = 1; i < tArr.length; i++) {
                 if (tArr[i].indexOf(DELIMITER) > 0) {
-                    createWord(tArr[i].split(DELIMITER));
+                    tRows.add(tArr[i].split(DELIMITER));
                 }
             }
             tStream.close();
+            return tRows;
         }
         catch (Exception e) {
             throw new RuntimeException("Failed to parse dictionary: " + pPath, e);
@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.meta;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Builds an index of the top level classes in a package by listing the class path
+ * directories and jar files that contribute to the package.
+ * <p>
+ * The index holds class names only, classes are loaded when they are first looked up.
+ */
+public class AsClassIndex {
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * Get the simple names of all top level classes in the given package.
+     *
+     * @param pPackage the package name
+     * @param pClassLoader the class loader to search
+     * @return an immutable set of simple class names, or null if no classes were found or if
+     *         some part of the package is located in a class path entry that cannot be listed
+     */
+    public static Set<String> getClassNames(String pPackage, ClassLoader pClassLoader) {
+        String tPath = pPackage.replace('.', '/');
+        Set<String> tNames = new HashSet<String>();
+        try {
+            Enumeration<URL> tUrls = pClassLoader.getResources(tPath);
+            while (tUrls.hasMoreElements()) {
+                URL tUrl = tUrls.nextElement();
+                if ("file".equals(tUrl.getProtocol())) {
+                    addDirectory(new File(new URI(tUrl.toString())), tNames);
+                }
+                else if ("jar".equals(tUrl.getProtocol())) {
+                    addJar(tUrl, tPath + "/", tNames);
+                }
+                else {
+                    return null;
+                }
+            }
+        }
+        catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+        // Nothing listed, the package may still be provided by a source without resource listing
+        return tNames.isEmpty() ? null : Collections.unmodifiableSet(tNames);
+    }
+
+    /**
+     * Add the classes in a class path directory.
+     *
+     * @param pDirectory the package directory
+     * @param pNames the names to add to
+     */
+    private static void addDirectory(File pDirectory, Set<String> pNames) {
+        String[] tFiles = pDirectory.list();
+        if (tFiles != null) {
+            for (String tFile : tFiles) {
+                addClass(tFile, pNames);
+            }
+        }
+    }
+
+    /**
+     * Add the classes in a package of a jar file.
+     *
+     * @param pUrl the jar URL of the package
+     * @param pPrefix the package path, including a trailing slash
+     * @param pNames the names to add to
+     * @throws IOException if the jar file cannot be read
+     */
+    private static void addJar(URL pUrl, String pPrefix, Set<String> pNames) throws IOException {
+        URLConnection tConnection = pUrl.openConnection();
+        if (!(tConnection instanceof JarURLConnection)) {
+            throw new IOException("Not a jar URL: " + pUrl);
+        }
+        tConnection.setUseCaches(false);
+        try (JarFile tJar = ((JarURLConnection) tConnection).getJarFile()) {
+            Enumeration<JarEntry> tEntries = tJar.entries();
+            while (tEntries.hasMoreElements()) {
+                String tName = tEntries.nextElement().getName();
+                if (tName.startsWith(pPrefix) && tName.indexOf('/', pPrefix.length()) == -1) {
+                    addClass(tName.substring(pPrefix.length()), pNames);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a class file name, ignoring nested and anonymous classes.
+     *
+     * @param pFileName the file name within the package
+     * @param pNames the names to add to
+     */
+    private static void addClass(String pFileName, Set<String> pNames) {
+        if (pFileName.endsWith(CLASS_SUFFIX) && pFileName.indexOf('$') == -1) {
+            pNames.add(pFileName.substring(0, pFileName.length() - CLASS_SUFFIX.length()));
+        }
+    }
+
+}
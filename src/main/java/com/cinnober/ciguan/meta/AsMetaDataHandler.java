@@ -28,12 +28,16 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.transform.TransformerException;
 
@@ -41,6 +45,7 @@ import org.apache.xpath.XPathAPI;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
+import com.cinnober.ciguan.AsConfigXmlParserIf;
 import com.cinnober.ciguan.AsInitializationException;
 import com.cinnober.ciguan.AsMetaDataHandlerIf;
 import com.cinnober.ciguan.CwfBusinessTypeIf;
@@ -69,13 +74,32 @@ public class AsMetaDataHandler extends AsComponent implements AsMetaDataHandlerI
     /** The separator between a namespace prefix and a class name */
     public static final String NS_SEP = ":";
 
-    /** The object type to class. */
-    protected Map<String, Class<?>> mObjectTypeToClass = new HashMap<String, Class<?>>();
+    /**
+     * The object type to class, a null value caches a type that could not be resolved.
+     * The map is never modified once published, updates replace the map under the lock.
+     */
+    protected volatile Map<String, Class<?>> mObjectTypeToClass = new HashMap<String, Class<?>>();
 
     /** The meta objects. */
-    protected Map<Class<?>, AsMetaObject<?>> mMetaObjects = new HashMap<Class<?>, AsMetaObject<?>>();
+    protected Map<Class<?>, AsMetaObject<?>> mMetaObjects = new ConcurrentHashMap<Class<?>, AsMetaObject<?>>();
 
-    protected Map<Class<?>, String> mTypeNames = new HashMap<Class<?>, String>();
+    protected Map<Class<?>, String> mTypeNames = new ConcurrentHashMap<Class<?>, String>();
+
+    /**
+     * The simple names of the classes in each search package, built once at startup.
+     * A package without an entry could not be indexed and is searched by class loading.
+     */
+    protected volatile Map<String, Set<String>> mClassIndex = Collections.emptyMap();
+
+    /**
+     * The classes found by class loading although they are not in the class index, by qualified name.
+     * A jar file built without directory entries does not list its packages, so the index may miss
+     * classes.
+     */
+    protected final Map<String, Class<?>> mUnindexedClasses = new ConcurrentHashMap<String, Class<?>>();
+
+    /** The qualified names of the classes that are neither in the class index nor found by class loading. */
+    protected final Set<String> mMissingClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /** The search packages. */
     private final Map<String, AsSearchPackage> mSearchPackages = new HashMap<String, AsSearchPackage>();
@@ -89,9 +113,37 @@ public class AsMetaDataHandler extends AsComponent implements AsMetaDataHandlerI
     /** The suppressed attributes. */
     private final Set<String> mSuppressedAttributes = new HashSet<String>();
 
+    @Override
+    public Collection<Class<?>> getStartDependencies() {
+        return Arrays.<Class<?>>asList(AsConfigXmlParserIf.class);
+    }
+
     @Override
     public void startComponent() throws AsInitializationException {
-        parse(As.getConfigXmlParser().getConfigurationDocument());
+        Element tDocument = As.getConfigXmlParser().getConfigurationDocument();
+        synchronized (tDocument) {
+            parse(tDocument);
+        }
+        buildClassIndex();
+    }
+
+    /**
+     * Build the class index of the search packages by listing the class path. The index is
+     * rebuilt on every start rather than stored in the configuration snapshot, since the
+     * snapshot is only keyed on the configuration and dictionary files and would not notice
+     * classes being added to or removed from the class path.
+     */
+    protected void buildClassIndex() {
+        Map<String, Set<String>> tIndex = new HashMap<String, Set<String>>();
+        for (String tPackage : mSearchPackages.keySet()) {
+            Set<String> tNames = AsClassIndex.getClassNames(tPackage, AsMetaDataHandler.class.getClassLoader());
+            if (tNames != null) {
+                tIndex.put(tPackage, tNames);
+            }
+        }
+        mClassIndex = Collections.unmodifiableMap(tIndex);
+        mUnindexedClasses.clear();
+        mMissingClasses.clear();
     }
 
     @Override
@@ -198,10 +250,10 @@ public class AsMetaDataHandler extends AsComponent implements AsMetaDataHandlerI
     @SuppressWarnings("unchecked")
     @Override
     public <T> Class<T> getType(String pObjectType) {
-        Class<T> tClass = (Class<T>) mObjectTypeToClass.get(pObjectType);
+        Map<String, Class<?>> tResolved = mObjectTypeToClass;
         // test with contains key, they value can be null
-        if (mObjectTypeToClass.containsKey(pObjectType)) {
-            return tClass;
+        if (tResolved.containsKey(pObjectType)) {
+            return (Class<T>) tResolved.get(pObjectType);
         }
 
         String tObjectType = pObjectType;
@@ -220,31 +272,74 @@ public class AsMetaDataHandler extends AsComponent implements AsMetaDataHandlerI
                 return null;
             }
         }
-        if (tClass != null || (tNamespaceIx == -1 && mObjectTypeToClass.containsKey(tObjectType))) {
-            // test with contains key, they value can be null, then no need to do this again
-            return tClass;
-        }
-        for (String tPackage : mSearchPackages.keySet()) {
-            try {
-                tClass = (Class<T>) Class.forName(tPackage + "." + tObjectType);
-                AsSearchPackage tSearchPackage = mSearchPackages.get(tPackage);
-                if ((tNamespaceIx == -1 && tSearchPackage.namespace.isEmpty()) ||
-                    (tNamespaceIx != -1 && tSearchPackage.namespace.equals(tNamespace))) {
+
+        // Prefer a search package with a matching namespace, else use any package containing the class
+        Class<?> tClass = null;
+        for (AsSearchPackage tSearchPackage : mSearchPackages.values()) {
+            Class<?> tPackageClass = findClass(tSearchPackage.packageName, tObjectType);
+            if (tPackageClass != null) {
+                tClass = tPackageClass;
+                if (tSearchPackage.namespace.equals(tNamespace)) {
                     break;
                 }
             }
-            catch (Exception e) {
-                // No action, proceed with next package
-            }
         }
-        synchronized (mObjectTypeToClass) {
-            mObjectTypeToClass.put(pObjectType, tClass);
+        synchronized (this) {
+            Map<String, Class<?>> tCopy = new HashMap<String, Class<?>>(mObjectTypeToClass);
+            tCopy.put(pObjectType, tClass);
+            mObjectTypeToClass = tCopy;
+        }
+        return (Class<T>) tClass;
+    }
+
+    /**
+     * Find a class in a search package. A class in the class index is loaded directly. Any other class
+     * is looked up by class loading, since the index may be incomplete, and the outcome is remembered.
+     *
+     * @param pPackage the package name
+     * @param pSimpleName the simple class name
+     * @return the class, or null if the package does not contain the class
+     */
+    protected Class<?> findClass(String pPackage, String pSimpleName) {
+        String tClassName = pPackage + "." + pSimpleName;
+        Set<String> tNames = mClassIndex.get(pPackage);
+        if (tNames != null && tNames.contains(pSimpleName)) {
+            return loadClass(tClassName);
+        }
+        Class<?> tClass = mUnindexedClasses.get(tClassName);
+        if (tClass != null || mMissingClasses.contains(tClassName)) {
+            return tClass;
+        }
+        tClass = loadClass(tClassName);
+        if (tClass != null) {
+            mUnindexedClasses.put(tClassName, tClass);
+        }
+        else {
+            mMissingClasses.add(tClassName);
         }
         return tClass;
     }
 
+    /**
+     * Load a class.
+     *
+     * @param pClassName the qualified class name
+     * @return the class, or null if it could not be loaded
+     */
+    private static Class<?> loadClass(String pClassName) {
+        try {
+            return Class.forName(pClassName);
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
     @Override
     public <T> String getTypeName(Class<T> pClass) {
+        if (pClass == null) {
+            return null;
+        }
         String tClassName = mTypeNames.get(pClass);
         if (tClassName == null) {
             String tPackage = pClass.getPackage() != null ? pClass.getPackage().getName() : null;
@@ -264,9 +359,7 @@ public class AsMetaDataHandler extends AsComponent implements AsMetaDataHandlerI
                 // No matching package
                 tClassName = pClass.getSimpleName();
             }
-            synchronized (mTypeNames) {
-                mTypeNames.put(pClass, tClassName);
-            }
+            mTypeNames.put(pClass, tClassName);
         }
         return tClassName;
     }
@@ -378,6 +471,9 @@ public class AsMetaDataHandler extends AsComponent implements AsMetaDataHandlerI
     @Override
     @SuppressWarnings("unchecked")
     public <T> AsMetaObject<T> getMetaData(Class<T> pClass) {
+        if (pClass == null) {
+            return null;
+        }
         AsMetaObject<?> tMeta = mMetaObjects.get(pClass);
         if (tMeta == null) {
             AsDefMetaData tDef = mMetaDataClasses.get(As.getTypeName(pClass));
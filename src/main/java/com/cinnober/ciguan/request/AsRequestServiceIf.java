@@ -66,6 +66,7 @@ public interface AsRequestServiceIf {
     
     /**
      * Send a CWF request that should not have its response sent back to the client.
+     * A response implementing {@link AsPartialResponseIf} may be passed to the callback in several parts.
      *
      * @param pConnection the connection
      * @param pMessage the message
@@ -85,6 +86,8 @@ public interface AsRequestServiceIf {
     
     /**
      * Send a server request that should not have its response sent back to the client.
+     * A response implementing {@link AsPartialResponseIf} may be passed to the callback in several parts,
+     * also after this method has returned, when the service streams its response.
      *
      * @param pConnection the connection
      * @param pHandle the client request handle
@@ -123,17 +123,17 @@ public class AsRequestService implements AsRequestServiceIf {
     @Override
     public void sendLocal(AsConnectionIf pConnection, int pHandle, Object pMessage,
         final AsResponseCallbackIf<Object> pCallback) {
-        // Attempt to execute a local service if one exists
+        // Attempt to execute a local service if one exists, a streaming service may respond in parts later
         try {
-            Object tResponse = AsServiceHandlerIf.Singleton.get().service(pConnection, pMessage);
-            if (tResponse != null) {
-                pCallback.onResponse(tResponse);
+            if (AsServiceHandlerIf.Singleton.get().service(pConnection, pMessage, pCallback)) {
+                return;
             }
         }
         catch (AsServiceInvocationException e) {
             AsLoggerIf.Singleton.get().logThrowable("Exception in the service", e);
             pCallback.onResponse(new AsResponse("Exception",
                 new AsStatus(As.STATUS_CODE_NOK, "Exception in the service")));
+            return;
         }
         // No matching service
         pCallback.onResponse(null);
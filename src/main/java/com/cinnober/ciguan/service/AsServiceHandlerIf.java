@@ -25,6 +25,8 @@ package com.cinnober.ciguan.service;
 
 import com.cinnober.ciguan.AsBeanFactoryIf;
 import com.cinnober.ciguan.AsConnectionIf;
+import com.cinnober.ciguan.request.AsPartialResponseIf;
+import com.cinnober.ciguan.request.AsResponseCallbackIf;
 import com.cinnober.ciguan.service.impl.AsServiceInvocationException;
 
 /**
@@ -42,7 +44,28 @@ public interface AsServiceHandlerIf {
      * @throws AsServiceInvocationException when an exception occurs in the service
      */
     Object service(AsConnectionIf pConnection, Object pRequest) throws AsServiceInvocationException;
-    
+
+    /**
+     * Look up and execute a service for the given request, passing the response to the given callback.
+     * A streaming service may pass its response as several {@link AsPartialResponseIf} parts,
+     * possibly after this method has returned and from another thread. The default implementation
+     * executes the service synchronously and passes a response other than {@code null} to the callback.
+     * @param pConnection the application server connection
+     * @param pRequest the request to process
+     * @param pCallback the callback receiving the response, or each part of it
+     * @return false if no service was found, in which case the callback is not called
+     * @throws AsServiceInvocationException when an exception occurs in the service
+     */
+    default boolean service(AsConnectionIf pConnection, Object pRequest, AsResponseCallbackIf<Object> pCallback)
+        throws AsServiceInvocationException {
+        Object tResponse = service(pConnection, pRequest);
+        if (tResponse == null) {
+            return false;
+        }
+        pCallback.onResponse(tResponse);
+        return true;
+    }
+
     /**
      * Singleton instance of the interface.
      */
@@ -37,6 +37,7 @@ import com.cinnober.ciguan.CwfDataIf;
 import com.cinnober.ciguan.impl.As;
 import com.cinnober.ciguan.impl.AsComponent;
 import com.cinnober.ciguan.impl.AsUtil;
+import com.cinnober.ciguan.request.AsResponseCallbackIf;
 import com.cinnober.ciguan.service.AsServiceHandlerIf;
 import com.cinnober.ciguan.service.AsServiceIf;
 
@@ -106,15 +107,29 @@ public class AsServiceHandler extends AsComponent implements AsServiceHandlerIf
         return null;
     }
 
+    @Override
+    public boolean service(AsConnectionIf pConnection, Object pRequest, AsResponseCallbackIf<Object> pCallback)
+        throws AsServiceInvocationException {
+        Service tService = mServices.get(pRequest.getClass());
+        if (tService != null) {
+            tService.service(pConnection, pRequest, pCallback);
+            return true;
+        }
+        return false;
+    }
+
     /**
      *
-     * Service wrapper
+     * Service wrapper. The service implementation either returns its response from a method
+     * {@code service(AsConnectionIf, RequestType)}, or streams it to the callback passed to a method
+     * {@code service(AsConnectionIf, RequestType, AsResponseCallbackIf)}, possibly in several parts.
      *
      */
     protected class Service {
 
         private AsServiceIf mService;
         private Method mMethod;
+        private boolean mStreaming;
 
         public Service(String pRequestClass, String pServiceClass) throws AsInitializationException {
             // Look up the request type
@@ -134,8 +149,15 @@ public class AsServiceHandler extends AsComponent implements AsServiceHandlerIf
                 if (!AsServiceIf.class.isAssignableFrom(tServiceType)) {
                     throw new AsInitializationException("Service implementation is not a valid service");
                 }
-                // Check for service method
-                mMethod = tServiceType.getMethod("service", AsConnectionIf.class, tRequestType);
+                // Check for service method, preferring one streaming the response to a callback
+                try {
+                    mMethod = tServiceType.getMethod(
+                        "service", AsConnectionIf.class, tRequestType, AsResponseCallbackIf.class);
+                    mStreaming = true;
+                }
+                catch (NoSuchMethodException e) {
+                    mMethod = tServiceType.getMethod("service", AsConnectionIf.class, tRequestType);
+                }
 
                 // Check if an instance already exists
                 mService = mServiceInstances.get(tServiceType);
@@ -160,13 +182,46 @@ public class AsServiceHandler extends AsComponent implements AsServiceHandlerIf
          * @throws AsServiceInvocationException
          */
         public Object service(AsConnectionIf pConnection, Object pRequest) throws AsServiceInvocationException {
+            if (mStreaming) {
+                throw new AsServiceInvocationException(
+                    "Service " + mService.getClass().getName() + " streams its response and must be " +
+                    "executed with a callback, parameter type " + pRequest.getClass().getName());
+            }
+            return invoke(pConnection, pRequest);
+        }
+
+        /**
+         * Execute the contained service, passing the response to the given callback. A streaming service
+         * may pass several parts, also after this method has returned.
+         * @param pConnection the application server connection
+         * @param pRequest the request to process
+         * @param pCallback the callback receiving the response, or each part of it
+         * @throws AsServiceInvocationException
+         */
+        public void service(AsConnectionIf pConnection, Object pRequest, AsResponseCallbackIf<Object> pCallback)
+            throws AsServiceInvocationException {
+            if (mStreaming) {
+                invoke(pConnection, pRequest, pCallback);
+            }
+            else {
+                pCallback.onResponse(invoke(pConnection, pRequest));
+            }
+        }
+
+        /**
+         * Invoke the service method
+         * @param pArguments the connection, the request and, for a streaming service, the callback
+         * @return the value returned by the service method
+         * @throws AsServiceInvocationException
+         */
+        private Object invoke(Object... pArguments) throws AsServiceInvocationException {
             try {
-                return mMethod.invoke(mService, pConnection, pRequest);
+                return mMethod.invoke(mService, pArguments);
             }
             catch (Exception e) {
                 throw new AsServiceInvocationException(
                     "Exception during execution of service " + mService.getClass().getName() +
-                    " and parameter type " + pRequest.getClass().getName(), e);
+                    " and parameter type " + pArguments[1].getClass().getName(), e);
             }
         }
 
@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.transport.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import com.cinnober.ciguan.AsConnectionIf;
+import com.cinnober.ciguan.CwfMessageIf;
+import com.cinnober.ciguan.client.impl.MvcEventEnum;
+import com.cinnober.ciguan.data.CwfDataFactory;
+import com.cinnober.ciguan.data.CwfMessage;
+import com.cinnober.ciguan.impl.As;
+
+/**
+ * Outbound queue holding the client messages of a single connection until they are fetched by the client.
+ * <p>
+ * Messages carrying state that is replaced rather than accumulated (for instance a form context) are
+ * coalesced on message name and handle, so that only the latest one is delivered. Other messages are
+ * queued individually in the order in which they were added. Subclasses can refine both the coalescing
+ * key and the way two coalesced messages are merged.
+ * <p>
+ * The number of queued messages is bounded by the JVM parameter {@value #CWF_CLIENT_MESSAGE_LIMIT_PROPERTY}.
+ * A client which does not fetch its messages in time is considered a slow consumer: its queued messages
+ * are discarded and replaced by a page reload event, which makes the client resynchronize its complete
+ * state. Further messages are discarded until the client has fetched the queue.
+ */
+public class AsClientMessageQueue {
+
+    /** JVM parameter holding the maximum number of queued messages per connection. */
+    public static final String CWF_CLIENT_MESSAGE_LIMIT_PROPERTY = "cwf.clientMessageLimit";
+
+    /** The default maximum number of queued messages per connection. */
+    public static final int DEFAULT_CLIENT_MESSAGE_LIMIT = 10000;
+
+    /** The names of the messages which are coalesced by default, latest wins. */
+    protected static final Set<String> cCoalescedMessageNames = new HashSet<String>(Arrays.asList(
+        MvcEventEnum.FormContextEvent.name(),
+        MvcEventEnum.ChangeLogLevelEvent.name(),
+        MvcEventEnum.PageReloadEvent.name()));
+
+    /** The queued messages, in delivery order. */
+    private final LinkedHashMap<Object, CwfMessageIf> mMessages = new LinkedHashMap<Object, CwfMessageIf>();
+
+    /** The maximum number of queued messages. */
+    private final int mLimit;
+
+    /** The connection owning the queue, may be {@code null}. */
+    private final AsConnectionIf mConnection;
+
+    /** Sequence used to create unique keys for messages which are not coalesced. */
+    private long mSequence;
+
+    /** Set when the queue has overflowed and is awaiting the next fetch. */
+    private boolean mSlowConsumer;
+
+    /** The number of times the queue has overflowed. */
+    private int mOverflowCount;
+
+    /** The queue replacing this one, which receives all messages added from now on, or {@code null}. */
+    private AsClientMessageQueue mSuccessor;
+
+    /**
+     * Create a new client message queue.
+     *
+     * @param pConnection the connection owning the queue
+     */
+    public AsClientMessageQueue(AsConnectionIf pConnection) {
+        this(pConnection, Math.max(1, Integer.getInteger(CWF_CLIENT_MESSAGE_LIMIT_PROPERTY, DEFAULT_CLIENT_MESSAGE_LIMIT)));
+    }
+
+    /**
+     * Create a new client message queue.
+     *
+     * @param pConnection the connection owning the queue
+     * @param pLimit the maximum number of queued messages
+     */
+    public AsClientMessageQueue(AsConnectionIf pConnection, int pLimit) {
+        mConnection = pConnection;
+        mLimit = pLimit;
+    }
+
+    /**
+     * Add a message to the queue, coalescing it with a queued message having the same coalescing key.
+     *
+     * @param pMessage the message
+     */
+    public synchronized void add(CwfMessageIf pMessage) {
+        if (mSuccessor != null) {
+            mSuccessor.add(pMessage);
+            return;
+        }
+        if (mSlowConsumer) {
+            return;
+        }
+        Object tKey = getCoalescingKey(pMessage);
+        if (tKey != null) {
+            CwfMessageIf tQueued = mMessages.remove(tKey);
+            if (tQueued != null) {
+                // Re-insert at the end, to keep the order relative to other messages
+                mMessages.put(tKey, merge(tQueued, pMessage));
+                return;
+            }
+        }
+        else {
+            tKey = Long.valueOf(mSequence++);
+        }
+        if (mMessages.size() >= mLimit) {
+            overflow();
+            return;
+        }
+        mMessages.put(tKey, pMessage);
+    }
+
+    /**
+     * Remove and return all queued messages. This also resets the slow consumer state.
+     *
+     * @return the queued messages, in delivery order
+     */
+    public synchronized ArrayList<CwfMessageIf> drain() {
+        ArrayList<CwfMessageIf> tList = new ArrayList<CwfMessageIf>(mMessages.values());
+        mMessages.clear();
+        mSlowConsumer = false;
+        return tList;
+    }
+
+    /**
+     * Move the queued messages to the queue replacing this one, and forward all messages added from now
+     * on to it. A producer still holding this queue thus does not lose its messages.
+     *
+     * @param pSuccessor the queue replacing this one
+     */
+    public synchronized void transferTo(AsClientMessageQueue pSuccessor) {
+        for (CwfMessageIf tMessage : drain()) {
+            pSuccessor.add(tMessage);
+        }
+        mSuccessor = pSuccessor;
+    }
+
+    /**
+     * @return the number of queued messages
+     */
+    public synchronized int size() {
+        return mMessages.size();
+    }
+
+    /**
+     * @return {@code true} if the queue has overflowed since the last fetch
+     */
+    public synchronized boolean isSlowConsumer() {
+        return mSlowConsumer;
+    }
+
+    /**
+     * @return the number of times the queue has overflowed
+     */
+    public synchronized int getOverflowCount() {
+        return mOverflowCount;
+    }
+
+    /**
+     * Get the key on which the given message is coalesced with already queued messages.
+     *
+     * @param pMessage the message
+     * @return the coalescing key, or {@code null} if the message must be delivered individually
+     */
+    protected Object getCoalescingKey(CwfMessageIf pMessage) {
+        String tName = pMessage.getName();
+        if (tName != null && cCoalescedMessageNames.contains(tName)) {
+            return tName + "/" + pMessage.getHandle();
+        }
+        return null;
+    }
+
+    /**
+     * Merge a new message into a queued message with the same coalescing key. The default implementation
+     * lets the latest message win, which is correct for messages carrying a complete state. Override this
+     * to merge messages carrying partial updates.
+     *
+     * @param pQueued the queued message
+     * @param pMessage the new message
+     * @return the message to deliver in place of both
+     */
+    protected CwfMessageIf merge(CwfMessageIf pQueued, CwfMessageIf pMessage) {
+        return pMessage;
+    }
+
+    /**
+     * Handle a queue overflow, by replacing all queued messages with a page reload event.
+     */
+    protected void overflow() {
+        mOverflowCount++;
+        String tSessionId = mConnection != null ? mConnection.getSessionId() : null;
+        As.getLogger().log("Client message queue of session " + tSessionId + " exceeded " + mLimit +
+            " messages, the client is considered a slow consumer and will be reloaded (overflow #" +
+            mOverflowCount + ")");
+        mMessages.clear();
+        CwfMessageIf tReload = new CwfMessage(CwfDataFactory.create(MvcEventEnum.PageReloadEvent), 0);
+        mMessages.put(Long.valueOf(mSequence++), tReload);
+        mSlowConsumer = true;
+    }
+
+}
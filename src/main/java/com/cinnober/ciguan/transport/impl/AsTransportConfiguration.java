@@ -24,6 +24,8 @@
 package com.cinnober.ciguan.transport.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 import javax.xml.transform.TransformerException;
@@ -33,6 +35,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.cinnober.ciguan.AsConfigXmlParserIf;
 import com.cinnober.ciguan.AsInitializationException;
 import com.cinnober.ciguan.AsTransportConfigurationIf;
 import com.cinnober.ciguan.CwfDataIf;
@@ -67,9 +70,17 @@ public class AsTransportConfiguration extends AsComponent implements AsTransport
     protected AsRequestTransformerConfiguration mRequestTransformerConfiguration =
         new AsRequestTransformerConfiguration();
 
+    @Override
+    public Collection<Class<?>> getStartDependencies() {
+        return Arrays.<Class<?>>asList(AsConfigXmlParserIf.class);
+    }
+
     @Override
     public void startComponent() throws AsInitializationException {
-        parse(As.getConfigXmlParser().getConfigurationDocument());
+        Element tDocument = As.getConfigXmlParser().getConfigurationDocument();
+        synchronized (tDocument) {
+            parse(tDocument);
+        }
     }
 
     /**
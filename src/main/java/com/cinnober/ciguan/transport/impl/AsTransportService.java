@@ -43,15 +43,30 @@ public class AsTransportService implements AsTransportServiceIf {
     private final List<AsTransportServicePluginIf> mTransportPlugins =
         new ArrayList<AsTransportServicePluginIf>();
     
-    /** The client messages. */
-    private final List<CwfMessageIf> mClientMessages = new ArrayList<>();
+    /** The outbound client message queue. */
+    private volatile AsClientMessageQueue mClientMessages = new AsClientMessageQueue(null);
     
     /** The connection. */
     private AsConnectionIf mConnection;
 
     @Override
-    public void setConnection(AsConnectionIf pConnection) {
+    public synchronized void setConnection(AsConnectionIf pConnection) {
         mConnection = pConnection;
+        // Keep the messages already queued for the client
+        AsClientMessageQueue tClientMessages = createClientMessageQueue(pConnection);
+        mClientMessages.transferTo(tClientMessages);
+        mClientMessages = tClientMessages;
+    }
+
+    /**
+     * Create the outbound client message queue of the given connection. Override this to
+     * plug in a queue with different coalescing rules.
+     *
+     * @param pConnection the connection
+     * @return the client message queue
+     */
+    protected AsClientMessageQueue createClientMessageQueue(AsConnectionIf pConnection) {
+        return new AsClientMessageQueue(pConnection);
     }
     
     @Override
@@ -68,18 +83,21 @@ public class AsTransportService implements AsTransportServiceIf {
 
     @Override
     public void addClientMessage(CwfMessageIf pMessage) {
-        synchronized (mClientMessages) {
-            mClientMessages.add(pMessage);
-        }
+        mClientMessages.add(pMessage);
     }
     
     @Override
     public ArrayList<CwfMessageIf> getPendingClientMessages() {
-        synchronized (mClientMessages) {
-            ArrayList<CwfMessageIf> tList = new ArrayList<>(mClientMessages);
-            mClientMessages.clear();
-            return tList;
-        }
+        return mClientMessages.drain();
+    }
+
+    /**
+     * Get the outbound client message queue.
+     *
+     * @return the client message queue
+     */
+    public AsClientMessageQueue getClientMessageQueue() {
+        return mClientMessages;
     }
 
     @Override
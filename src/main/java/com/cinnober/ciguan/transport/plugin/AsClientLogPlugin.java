@@ -78,7 +78,7 @@ public class AsClientLogPlugin extends AsTransportPlugin {
             CwfDataIf tEvent = CwfDataFactory.create(MvcEventEnum.ChangeLogLevelEvent);
             tEvent.setProperty(ATTR_LOG_LEVEL, tLogLevel);
             AsConnectionIf tTargetConnection = AsRootIf.Singleton.get().getAsConnection(tTargetSessionId);
-            synchronized (tTargetConnection) {
+            if (tTargetConnection != null) {
                 tTargetConnection.getTransportService().addClientMessage(new CwfMessage(tEvent, 0));
             }
             sendOkResponse(pConnection, pMessage.getHandle());
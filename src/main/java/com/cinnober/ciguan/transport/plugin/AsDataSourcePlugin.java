@@ -26,7 +26,6 @@ package com.cinnober.ciguan.transport.plugin;
 import com.cinnober.ciguan.AsConnectionIf;
 import com.cinnober.ciguan.CwfMessageIf;
 import com.cinnober.ciguan.client.impl.MvcRequestEnum;
-import com.cinnober.ciguan.datasource.AsDataSourceServiceIf;
 
 /**
  * Plugin handling data source related requests, for example setting up subscriptions to
@@ -34,57 +33,67 @@ import com.cinnober.ciguan.datasource.AsDataSourceServiceIf;
  */
 public class AsDataSourcePlugin extends AsTransportPlugin {
 
-    @Override
-    public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
-        
-        try {
-            AsDataSourceServiceIf tDataSourceService = pConnection.getDataSourceService();
-            MvcRequestEnum tModelName = MvcRequestEnum.valueOf(pMessage.getName());
-            switch (tModelName) {
-                // Session query, remove all current subscriptions
-                case SessionModel :
-                    tDataSourceService.resetDataSourceSubscriptions();
-                    break;
-                case MenuRequest:
-                    tDataSourceService.getMenu(pConnection, pMessage);
-                    break;
-                // Data source related requests
-                case DataSubscriptionRequest:
-                case DataUnsubscribeRequest:
-                case ListItemRequest:
-                case ListMultipleItemsRequest:
-                case ListSubscriptionRequest:
-                case ListTextRequest:
-                case ViewportFilterRequest:
-                case ViewportMovePositionRequest:
-                case ViewportMoveSelectionRequest:
-                case ViewportSetSizeRequest:
-                case ViewportSetPositionRequest:
-                case ViewportSetSelectionRequest:
-                case ViewportSetExpandedRequest:
-                case ViewportSortRequest:
-                case ViewportSubscriptionRequest:
-                case ViewportSetQueryRequest:
-                case ViewportAddObjectRequest:
-                case ViewportUpdateObjectRequest:
-                case ViewportUnsubscribeRequest:
-                case ViewportDeleteObjectRequest:
-                case ViewportGetContextRequest:
-                case ViewportGetContextMenuRequest:
-                    tDataSourceService.request(pConnection, pMessage);
-                    break;
-                    
-                default :
-                    break;
+    /** Requests forwarded as is to the data source service */
+    private static final MvcRequestEnum[] cDataSourceRequests = {
+        MvcRequestEnum.DataSubscriptionRequest,
+        MvcRequestEnum.DataUnsubscribeRequest,
+        MvcRequestEnum.ListItemRequest,
+        MvcRequestEnum.ListMultipleItemsRequest,
+        MvcRequestEnum.ListSubscriptionRequest,
+        MvcRequestEnum.ListTextRequest,
+        MvcRequestEnum.ViewportFilterRequest,
+        MvcRequestEnum.ViewportMovePositionRequest,
+        MvcRequestEnum.ViewportMoveSelectionRequest,
+        MvcRequestEnum.ViewportSetSizeRequest,
+        MvcRequestEnum.ViewportSetPositionRequest,
+        MvcRequestEnum.ViewportSetSelectionRequest,
+        MvcRequestEnum.ViewportSetExpandedRequest,
+        MvcRequestEnum.ViewportSortRequest,
+        MvcRequestEnum.ViewportSubscriptionRequest,
+        MvcRequestEnum.ViewportSetQueryRequest,
+        MvcRequestEnum.ViewportAddObjectRequest,
+        MvcRequestEnum.ViewportUpdateObjectRequest,
+        MvcRequestEnum.ViewportUnsubscribeRequest,
+        MvcRequestEnum.ViewportDeleteObjectRequest,
+        MvcRequestEnum.ViewportGetContextRequest,
+        MvcRequestEnum.ViewportGetContextMenuRequest
+    };
+
+    /**
+     * Instantiates a new data source plugin.
+     */
+    public AsDataSourcePlugin() {
+        // Session query, remove all current subscriptions
+        addHandler(MvcRequestEnum.SessionModel.name(), new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+                pConnection.getDataSourceService().resetDataSourceSubscriptions();
             }
+        });
+        addHandler(MvcRequestEnum.MenuRequest.name(), new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+                pConnection.getDataSourceService().getMenu(pConnection, pMessage);
+            }
+        });
+
+        // Data source related requests
+        MessageHandler tRequestHandler = new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+                pConnection.getDataSourceService().request(pConnection, pMessage);
+            }
+        };
+        for (MvcRequestEnum tRequest : cDataSourceRequests) {
+            addHandler(tRequest.name(), tRequestHandler);
         }
-        catch (IllegalArgumentException e) {
-            // this message is not handled here!
-            return;
-        }
+    }
 
+    @Override
+    public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+        // Messages not handled here are ignored
+        dispatch(pConnection, pMessage);
     }
-    
 
     @Override
     public void reset(AsConnectionIf pConnection) {
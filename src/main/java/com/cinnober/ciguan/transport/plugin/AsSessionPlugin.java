@@ -25,9 +25,7 @@ package com.cinnober.ciguan.transport.plugin;
 
 import java.lang.reflect.Field;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 
 import com.cinnober.ciguan.AsConnectionIf;
@@ -47,11 +45,9 @@ import com.cinnober.ciguan.data.AsResetUserPropertiesReq;
 import com.cinnober.ciguan.data.AsSelectLanguageReq;
 import com.cinnober.ciguan.data.AsSelectPerspectiveReq;
 import com.cinnober.ciguan.data.AsUserPreference;
+import com.cinnober.ciguan.data.AsUserPreferenceReset;
 import com.cinnober.ciguan.data.CwfDataFactory;
 import com.cinnober.ciguan.data.CwfMessage;
-import com.cinnober.ciguan.datasource.AsDataSourceIf;
-import com.cinnober.ciguan.datasource.AsDataSourceOwnerIf;
-import com.cinnober.ciguan.datasource.AsDataSourceServiceIf;
 import com.cinnober.ciguan.datasource.AsListIf;
 import com.cinnober.ciguan.impl.As;
 import com.cinnober.ciguan.transport.AsRequestTransformerIf;
@@ -119,95 +115,157 @@ public class AsSessionPlugin extends AsTransportPlugin implements MvcUserPrefere
 
     @Override
     public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+        dispatch(pConnection, pMessage);
+    }
 
-        CwfDataIf tData = pMessage.getData();
+    /**
+     * {@inheritDoc}
+     *
+     * Override and call super to add handlers for application specific session requests.
+     */
+    @Override
+    protected void registerHandlers() {
         // Query session state
-        if (pMessage.getName().equals(MvcModelNames.SessionModel.name())) {
-            // Populate the session data and store a copy of it
-            populateSessionData(pConnection, tData);
-            pConnection.getSessionData().setClientSession(tData);
-            // Return the response and exit
-            pConnection.getTransportService().addClientMessage(pMessage);
-            return;
-        }
+        addHandler(MvcModelNames.SessionModel.name(), new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+                onSessionModel(pConnection, pMessage);
+            }
+        });
 
-        // Login
-        if (pMessage.getName().equals(MvcModelNames.SessionRequest.name())) {
-            String tObjectType = pMessage.getData().getProperty(ATTR_OBJECT_NAME);
-            if (tObjectType.equals(As.getTypeName(AsSelectLanguageReq.class))) {
+        // Session requests, identified by the type of the request object
+        String tSessionRequest = MvcModelNames.SessionRequest.name();
+        addHandler(tSessionRequest, As.getTypeName(AsSelectLanguageReq.class), new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
                 setLocale(pConnection, pMessage);
-                return;
             }
-            if (tObjectType.equals(As.getTypeName(AsSelectPerspectiveReq.class))) {
+        });
+        addHandler(tSessionRequest, As.getTypeName(AsSelectPerspectiveReq.class), new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
                 setPerspective(pConnection, pMessage);
-                return;
             }
-            if (tObjectType.equals(As.getTypeName(AsResetUserPropertiesReq.class))) {
+        });
+        addHandler(tSessionRequest, As.getTypeName(AsResetUserPropertiesReq.class), new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
                 resetUserProperties(pConnection, pMessage);
-                return;
             }
-            if (tObjectType.equals(As.getTypeName(AsClientUserSettings.class))) {
+        });
+        addHandler(tSessionRequest, As.getTypeName(AsClientUserSettings.class), new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
                 saveClientUserSettings(pConnection, pMessage);
-                return;
             }
-        }
+        });
 
-        // Personalization request, store in the data source
-        if (pMessage.getName().equals(MvcRequestEnum.UserPreferenceRequest.name())) {
-            String tPerspective = tData.getProperty(ATTR_PERSPECTIVE);
-            String tSlot = tData.getProperty(ATTR_SLOT);
-            String tView = tData.getProperty(ATTR_VIEW);
-            String tItem = tData.getProperty(ATTR_ITEM);
-            String tPreference = tData.getProperty(ATTR_PREFERENCE);
-            String tValue = tData.getProperty(ATTR_VALUE);
-            if (tValue == null) {
-//                tValue = SerializationUtil.toJson(tData.getObject(ATTR_LAYOUT));
+        // Personalization requests
+        addHandler(MvcRequestEnum.UserPreferenceRequest.name(), new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+                saveUserPreference(pConnection, pMessage);
             }
-            if (tValue != null) {
-                AsUserPreference tPref = new AsUserPreference(pConnection.getSessionData().getUser(),
-                    tPerspective, tSlot, tView, tItem, tPreference, tValue);
-                if (isValidPreference(pConnection, tPref)) {
-                    As.getBdxHandler().broadcast(tPref);
-                }
+        });
+        addHandler(MvcRequestEnum.ResetPerspectiveRequest.name(), new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+                resetPerspective(pConnection, pMessage);
             }
-            sendOkResponse(pConnection, pMessage.getHandle());
-            return;
-        }
+        });
 
-        // Personalization request, reset perspective
-        if (pMessage.getName().equals(MvcRequestEnum.ResetPerspectiveRequest.name())) {
-            String tPerspective = tData.getProperty(ATTR_PERSPECTIVE);
+        // TODO: Move to another plugin?
+        addHandler(MvcRequestEnum.ReloadConfigurationRequest.name(), new MessageHandler() {
+            @Override
+            public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+                reloadConfiguration(pConnection, pMessage);
+            }
+        });
+    }
 
-            AsDataSourceServiceIf tDsSvc = pConnection.getDataSourceService();
-            AsDataSourceIf<AsUserPreference> tDs = tDsSvc.getDataSource("USER_PREFERENCES_ALL", null);
-            AsListIf<AsUserPreference> tList = (AsListIf<AsUserPreference>) tDs;
+    /**
+     * Query session state, populate the session data and store a copy of it.
+     *
+     * @param pConnection the connection
+     * @param pMessage the message
+     */
+    protected void onSessionModel(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+        CwfDataIf tData = pMessage.getData();
+        populateSessionData(pConnection, tData);
+        pConnection.getSessionData().setClientSession(tData);
+        // Return the response
+        pConnection.getTransportService().addClientMessage(pMessage);
+    }
 
-            List<AsUserPreference> tToRemove = new ArrayList<AsUserPreference>();
-            for (AsUserPreference tPref : tList.values()) {
-                if (tPref.getPerspectiveId().equals(tPerspective)) {
-                    tToRemove.add(tPref);
-                }
-            }
-            for (AsUserPreference tPref : tToRemove) {
-                tPref.deleted = true;
-                As.getBdxHandler().broadcast(tPref);
+    /**
+     * Personalization request, store the preference in the data source.
+     *
+     * @param pConnection the connection
+     * @param pMessage the message
+     */
+    protected void saveUserPreference(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+        CwfDataIf tData = pMessage.getData();
+        String tPerspective = tData.getProperty(ATTR_PERSPECTIVE);
+        String tSlot = tData.getProperty(ATTR_SLOT);
+        String tView = tData.getProperty(ATTR_VIEW);
+        String tItem = tData.getProperty(ATTR_ITEM);
+        String tPreference = tData.getProperty(ATTR_PREFERENCE);
+        String tValue = tData.getProperty(ATTR_VALUE);
+        if (tValue == null) {
+//            tValue = SerializationUtil.toJson(tData.getObject(ATTR_LAYOUT));
+        }
+        if (tValue != null) {
+            AsUserPreference tPref = new AsUserPreference(pConnection.getSessionData().getUser(),
+                tPerspective, tSlot, tView, tItem, tPreference, tValue);
+            if (isValidPreference(pConnection, tPref)) {
+                getPreferenceWriter().write(tPref);
             }
-
-            // Return the request and exit
-            pConnection.getTransportService().addClientMessage(pMessage);
-            return;
         }
+        sendOkResponse(pConnection, pMessage.getHandle());
+    }
 
-        // TODO: Move to another plugin?
-        if (pMessage.getName().equals(MvcRequestEnum.ReloadConfigurationRequest.name())) {
-            As.reloadConfiguration();
-
-            // Push a page reload event
-            CwfDataIf tEvent = CwfDataFactory.create(MvcEventEnum.PageReloadEvent);
-            CwfMessage tMessage = new CwfMessage(tEvent, 0);
-            pConnection.getTransportService().addClientMessage(tMessage);
-            return;
+    /**
+     * Get the writer used to store user preferences. Preference updates are debounced by the
+     * shared writer, override to use another writer.
+     *
+     * @return the user preference writer
+     */
+    protected AsUserPreferenceWriter getPreferenceWriter() {
+        return AsUserPreferenceWriter.get();
+    }
+
+    /**
+     * Personalization request, reset perspective.
+     *
+     * @param pConnection the connection
+     * @param pMessage the message
+     */
+    protected void resetPerspective(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+        String tPerspective = pMessage.getData().getProperty(ATTR_PERSPECTIVE);
+
+        // Remove all preferences of the perspective in one operation
+        if (tPerspective != null) {
+            getPreferenceWriter().reset(
+                new AsUserPreferenceReset(pConnection.getSessionData().getUser(), tPerspective, null, null));
         }
+
+        // Return the request
+        pConnection.getTransportService().addClientMessage(pMessage);
+    }
+
+    /**
+     * Reload the configuration and push a page reload event to the client.
+     *
+     * @param pConnection the connection
+     * @param pMessage the message
+     */
+    protected void reloadConfiguration(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+        As.reloadConfiguration();
+
+        // Push a page reload event
+        CwfDataIf tEvent = CwfDataFactory.create(MvcEventEnum.PageReloadEvent);
+        CwfMessage tMessage = new CwfMessage(tEvent, 0);
+        pConnection.getTransportService().addClientMessage(tMessage);
     }
 
     /**
@@ -270,23 +328,12 @@ public class AsSessionPlugin extends AsTransportPlugin implements MvcUserPrefere
      * @param pMessage the message
      */
     protected void resetUserProperties(AsConnectionIf pConnection, CwfMessageIf pMessage) {
-        // Empty the user data source
-        // NOTE: We cannot do a clear on the list since it is a child, instead we have to emulate
-        // remove broadcasts
-        CwfDataIf tData = pMessage.getData();
-        String tUserId = tData.getProperty(ATTR_USER_ID);
-        AsDataSourceOwnerIf tOwner = As.getUserDataSources(getMemberId(tUserId), tUserId);
-        AsDataSourceIf<AsUserPreference> tPrefs = tOwner.getDataSource("USER_PREFERENCES_ALL", null, null);
-
-        AsListIf<AsUserPreference> tList = (AsListIf<AsUserPreference>) tPrefs;
-        for (AsUserPreference tPref : new ArrayList<AsUserPreference>(tList.values())) {
-            AsUserPreference tRemovedPref = new AsUserPreference(tPref);
-            tRemovedPref.deleted = true;
-            As.getBdxHandler().broadcast(tRemovedPref);
-        }
+        // Remove all preferences of the user in one operation
+        String tUserId = pMessage.getData().getProperty(ATTR_USER_ID);
+        getPreferenceWriter().reset(new AsUserPreferenceReset(tUserId, null, null, null));
 
         // Let the property persister clear the persisted properties too
-        As.getUserPropertyPersister().resetUserProperties(pMessage.getData().getProperty(ATTR_USER_ID));
+        As.getUserPropertyPersister().resetUserProperties(tUserId);
 
         // Return a success response and exit
         sendOkResponse(pConnection, pMessage.getHandle());
@@ -23,8 +23,12 @@
  */
 package com.cinnober.ciguan.transport.plugin;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.cinnober.ciguan.AsConnectionIf;
 import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.CwfMessageIf;
 import com.cinnober.ciguan.client.MvcModelAttributesIf;
 import com.cinnober.ciguan.client.impl.MvcModelNames;
 import com.cinnober.ciguan.data.CwfDataFactory;
@@ -39,6 +43,31 @@ import com.cinnober.ciguan.transport.AsTransportServicePluginIf;
 public abstract class AsTransportPlugin extends AsPluginBase
     implements AsTransportServicePluginIf, MvcModelAttributesIf {
 
+    /** Handlers keyed by message name */
+    private final Map<String, MessageHandler> mHandlers = new HashMap<String, MessageHandler>();
+
+    /** Handlers keyed by message name and object type, for messages carrying a typed request */
+    private final Map<String, Map<String, MessageHandler>> mTypedHandlers =
+        new HashMap<String, Map<String, MessageHandler>>();
+
+    /** Flag indicating that {@link #registerHandlers()} has been called */
+    private volatile boolean mHandlersRegistered;
+
+    /**
+     * Handler of one kind of message, registered in the dispatch table of the plugin.
+     */
+    protected interface MessageHandler {
+
+        /**
+         * Handle the message.
+         *
+         * @param pConnection the connection
+         * @param pMessage the message
+         */
+        void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage);
+
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -69,6 +98,79 @@ public abstract class AsTransportPlugin extends AsPluginBase
         // No action, override if needed
     }
 
+    /**
+     * Register the message handlers of the plugin. Called once, before the first message is
+     * dispatched, so that subclasses are fully constructed when they register their handlers.
+     * No handlers are registered by default, override if needed.
+     */
+    protected void registerHandlers() {
+        // No handlers, override if needed
+    }
+
+    /**
+     * Register a handler for all messages with the given name.
+     *
+     * Handlers should be registered when the plugin is created or from {@link #registerHandlers()},
+     * the dispatch table is not modified after that.
+     *
+     * @param pMessageName the message name
+     * @param pHandler the handler
+     */
+    protected void addHandler(String pMessageName, MessageHandler pHandler) {
+        mHandlers.put(pMessageName, pHandler);
+    }
+
+    /**
+     * Register a handler for messages with the given name carrying an object of the given type,
+     * as identified by the {@link #ATTR_OBJECT_NAME} property of the message data.
+     *
+     * @param pMessageName the message name
+     * @param pObjectType the object type name
+     * @param pHandler the handler
+     */
+    protected void addHandler(String pMessageName, String pObjectType, MessageHandler pHandler) {
+        Map<String, MessageHandler> tHandlers = mTypedHandlers.get(pMessageName);
+        if (tHandlers == null) {
+            tHandlers = new HashMap<String, MessageHandler>();
+            mTypedHandlers.put(pMessageName, tHandlers);
+        }
+        tHandlers.put(pObjectType, pHandler);
+    }
+
+    /**
+     * Dispatch the message to the registered handler, if any. Messages are first matched on
+     * name and object type, then on name only.
+     *
+     * @param pConnection the connection
+     * @param pMessage the message
+     * @return {@code true} if a handler was found, otherwise {@code false}
+     */
+    protected boolean dispatch(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+        if (!mHandlersRegistered) {
+            synchronized (mHandlers) {
+                if (!mHandlersRegistered) {
+                    registerHandlers();
+                    mHandlersRegistered = true;
+                }
+            }
+        }
+        String tName = pMessage.getName();
+        MessageHandler tHandler = null;
+        Map<String, MessageHandler> tTypedHandlers = mTypedHandlers.get(tName);
+        if (tTypedHandlers != null && pMessage.getData() != null) {
+            String tObjectType = pMessage.getData().getProperty(ATTR_OBJECT_NAME);
+            tHandler = tObjectType != null ? tTypedHandlers.get(tObjectType) : null;
+        }
+        if (tHandler == null) {
+            tHandler = mHandlers.get(tName);
+        }
+        if (tHandler == null) {
+            return false;
+        }
+        tHandler.onMessage(pConnection, pMessage);
+        return true;
+    }
+
     /**
      * Send an Ok response to the client.
      *
@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.transport.plugin;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.cinnober.ciguan.data.AsUserPreference;
+import com.cinnober.ciguan.data.AsUserPreferenceReset;
+import com.cinnober.ciguan.impl.As;
+import com.cinnober.ciguan.scheduler.AsScheduledTaskIf;
+import com.cinnober.ciguan.scheduler.AsSchedulerIf;
+
+/**
+ * Debouncing writer of user preferences, shared by all sessions.
+ * <p>
+ * Layout interactions such as dragging a column or a splitter produce a stream of preference
+ * updates for the same preference. Instead of broadcasting every update, the writer keeps the last
+ * value per preference id, i.e. per user, perspective, slot, view, item and preference, and broadcasts
+ * it once no new value has been written for the quiet period given by the system property
+ * {@value #CWF_PREFERENCE_WRITE_DELAY_PROPERTY}. A quiet period of zero disables the debouncing.
+ */
+public class AsUserPreferenceWriter {
+
+    /** System property holding the quiet period in milliseconds. */
+    public static final String CWF_PREFERENCE_WRITE_DELAY_PROPERTY = "cwf.preferenceWriteDelay";
+
+    /** Default quiet period in milliseconds. */
+    public static final int DEFAULT_PREFERENCE_WRITE_DELAY = 500;
+
+    /** The shared instance. */
+    private static final AsUserPreferenceWriter cInstance = new AsUserPreferenceWriter(
+        Math.max(0, Integer.getInteger(CWF_PREFERENCE_WRITE_DELAY_PROPERTY, DEFAULT_PREFERENCE_WRITE_DELAY)));
+
+    /** The quiet period in milliseconds. */
+    private final int mDelay;
+
+    /** The pending preferences, keyed by preference id. */
+    private final Map<String, PendingPreference> mPending = new ConcurrentHashMap<String, PendingPreference>();
+
+    /** Flag indicating whether a flush task is scheduled. */
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    /**
+     * Instantiates a new user preference writer.
+     *
+     * @param pDelay the quiet period in milliseconds
+     */
+    public AsUserPreferenceWriter(int pDelay) {
+        mDelay = pDelay;
+    }
+
+    /**
+     * Get the shared instance.
+     *
+     * @return the user preference writer
+     */
+    public static AsUserPreferenceWriter get() {
+        return cInstance;
+    }
+
+    /**
+     * Write a preference. Any pending value of the same preference is replaced.
+     *
+     * @param pPreference the preference
+     */
+    public void write(AsUserPreference pPreference) {
+        if (mDelay <= 0) {
+            As.getBdxHandler().broadcast(pPreference);
+            return;
+        }
+        mPending.put(pPreference.getId(), new PendingPreference(pPreference, System.currentTimeMillis()));
+        schedule(mDelay);
+    }
+
+    /**
+     * Reset preferences. Pending values within the scope of the reset are discarded before the
+     * reset is broadcast, so that they are not applied after it.
+     *
+     * @param pReset the preference reset
+     */
+    public void reset(AsUserPreferenceReset pReset) {
+        Iterator<PendingPreference> tIterator = mPending.values().iterator();
+        while (tIterator.hasNext()) {
+            if (pReset.matches(tIterator.next().mPreference)) {
+                tIterator.remove();
+            }
+        }
+        As.getBdxHandler().broadcast(pReset);
+    }
+
+    /**
+     * Broadcast the pending preferences whose quiet period has expired.
+     *
+     * @return the time in milliseconds until the next pending preference expires, or zero if none are pending
+     */
+    protected long flush() {
+        long tNow = System.currentTimeMillis();
+        long tNext = 0;
+        for (Map.Entry<String, PendingPreference> tEntry : mPending.entrySet()) {
+            PendingPreference tPending = tEntry.getValue();
+            long tRemaining = tPending.mTimestamp + mDelay - tNow;
+            if (tRemaining <= 0) {
+                // Only broadcast if no newer value has been written meanwhile
+                if (mPending.remove(tEntry.getKey(), tPending)) {
+                    As.getBdxHandler().broadcast(tPending.mPreference);
+                }
+            }
+            else if (tNext == 0 || tRemaining < tNext) {
+                tNext = tRemaining;
+            }
+        }
+        return tNext;
+    }
+
+    /**
+     * Schedule a flush task, unless one is already scheduled.
+     *
+     * @param pDelay the delay in milliseconds
+     */
+    private void schedule(long pDelay) {
+        if (mScheduled.compareAndSet(false, true)) {
+            AsSchedulerIf.Singleton.get().schedule(new FlushTask((int) pDelay));
+        }
+    }
+
+    /**
+     * Pending preference value.
+     */
+    private static class PendingPreference {
+
+        /** The preference. */
+        private final AsUserPreference mPreference;
+
+        /** The time of the write. */
+        private final long mTimestamp;
+
+        /**
+         * Instantiates a new pending preference.
+         *
+         * @param pPreference the preference
+         * @param pTimestamp the time of the write
+         */
+        PendingPreference(AsUserPreference pPreference, long pTimestamp) {
+            mPreference = pPreference;
+            mTimestamp = pTimestamp;
+        }
+
+    }
+
+    /**
+     * One-shot task flushing the expired preferences, rescheduled for as long as preferences are pending.
+     */
+    private class FlushTask implements AsScheduledTaskIf {
+
+        /** The delay. */
+        private final int mTaskDelay;
+
+        /**
+         * Instantiates a new flush task.
+         *
+         * @param pDelay the delay in milliseconds
+         */
+        FlushTask(int pDelay) {
+            mTaskDelay = pDelay;
+        }
+
+        @Override
+        public String getName() {
+            return "UserPreferenceWriter";
+        }
+
+        @Override
+        public void run() {
+            long tNext = 0;
+            try {
+                tNext = flush();
+            }
+            finally {
+                mScheduled.set(false);
+            }
+            if (!mPending.isEmpty()) {
+                schedule(tNext > 0 ? tNext : mDelay);
+            }
+        }
+
+        @Override
+        public int getDelayMs() {
+            return mTaskDelay;
+        }
+
+        @Override
+        public int getIntervalMs() {
+            return 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,473 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.xml.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.cinnober.ciguan.AsLoggerIf;
+
+/**
+ * On-disk binary snapshot of the resolved startup configuration.
+ * <p>
+ * The snapshot holds the assembled configuration document together with any number of
+ * named string tables that components (dictionary, meta data) contribute during startup.
+ * It is keyed by a digest of every source resource that was read to produce it, identified by
+ * the URL it was actually loaded from, and it is only trusted when all those resources are unchanged. A stale or missing snapshot is
+ * rebuilt from the normal parse and written when the startup sequence has completed.
+ * <p>
+ * Components may contribute concurrently while they are started in parallel.
+ * <p>
+ * Snapshots are disabled unless the JVM parameter {@value #CWF_CONFIG_SNAPSHOT_PROPERTY}
+ * names the snapshot file.
+ */
+public class AsConfigSnapshot {
+
+    public static final String CWF_CONFIG_SNAPSHOT_PROPERTY = "cwf.configSnapshot";
+
+    private static final int MAGIC = 0x43574653; // "CWFS"
+    private static final int FORMAT_VERSION = 2;
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    private static final byte NODE_ELEMENT = 1;
+    private static final byte NODE_TEXT = 2;
+    private static final byte NODE_CDATA = 3;
+
+    /** The snapshot in use during startup, null when disabled or closed */
+    private static AsConfigSnapshot cInstance;
+
+    private final File mFile;
+    private final String mModule;
+    private final Map<String, byte[]> mSources = new LinkedHashMap<String, byte[]>();
+    private final Map<String, List<String[]>> mTables = new LinkedHashMap<String, List<String[]>>();
+    private Element mConfigurationDocument;
+    private boolean mValid;
+
+    /**
+     * Create an empty snapshot
+     *
+     * @param pFile the snapshot file
+     * @param pModule the boot module
+     */
+    private AsConfigSnapshot(File pFile, String pModule) {
+        mFile = pFile;
+        mModule = pModule;
+    }
+
+    /**
+     * Open the snapshot for the given module, if snapshots are enabled.
+     * The snapshot is loaded from disk and validated against its sources. When it is missing
+     * or stale, an empty snapshot is returned which will be populated during startup.
+     *
+     * @param pModule the boot module
+     * @return the snapshot, or null if snapshots are disabled
+     */
+    public static AsConfigSnapshot open(String pModule) {
+        String tPath = System.getProperty(CWF_CONFIG_SNAPSHOT_PROPERTY);
+        if (tPath == null || tPath.isEmpty()) {
+            cInstance = null;
+            return null;
+        }
+        AsConfigSnapshot tSnapshot = new AsConfigSnapshot(new File(tPath), pModule);
+        if (tSnapshot.mFile.isFile()) {
+            try {
+                tSnapshot.read();
+                tSnapshot.mValid = tSnapshot.isUpToDate();
+            }
+            catch (Exception e) {
+                AsLoggerIf.Singleton.get().logThrowable("Ignoring unreadable configuration snapshot " + tPath, e);
+            }
+            if (!tSnapshot.mValid) {
+                tSnapshot.mSources.clear();
+                tSnapshot.mTables.clear();
+                tSnapshot.mConfigurationDocument = null;
+            }
+        }
+        AsLoggerIf.Singleton.get().log("Configuration snapshot " + tPath
+            + (tSnapshot.mValid ? " is up to date" : " is stale, it will be regenerated"));
+        cInstance = tSnapshot;
+        return tSnapshot;
+    }
+
+    /**
+     * @return the snapshot in use during startup, or null if disabled or already closed
+     */
+    public static AsConfigSnapshot get() {
+        return cInstance;
+    }
+
+    /**
+     * Close the startup snapshot, writing it to disk if it was regenerated.
+     * Components will not see the snapshot after this call, so later configuration
+     * reloads always read the source files.
+     */
+    public static void close() {
+        AsConfigSnapshot tSnapshot = cInstance;
+        cInstance = null;
+        if (tSnapshot != null && !tSnapshot.mValid) {
+            try {
+                tSnapshot.write();
+                AsLoggerIf.Singleton.get().log("Configuration snapshot written to " + tSnapshot.mFile);
+            }
+            catch (IOException e) {
+                AsLoggerIf.Singleton.get().logThrowable("Failed to write configuration snapshot " + tSnapshot.mFile, e);
+            }
+        }
+    }
+
+    /**
+     * @return true if the snapshot was loaded from disk and all its sources are unchanged
+     */
+    public boolean isValid() {
+        return mValid;
+    }
+
+    /**
+     * @return the assembled configuration document, or null if not available
+     */
+    public Element getConfigurationDocument() {
+        return mConfigurationDocument;
+    }
+
+    /**
+     * Set the assembled configuration document to be stored in a regenerated snapshot.
+     * A copy is kept since the snapshot is written after all components have started.
+     *
+     * @param pConfigurationDocument the configuration document
+     */
+    public void setConfigurationDocument(Element pConfigurationDocument) {
+        if (!mValid) {
+            mConfigurationDocument = (Element) pConfigurationDocument.cloneNode(true);
+        }
+    }
+
+    /**
+     * Register a class path resource that the snapshot content depends on
+     *
+     * @param pResource the resource path, resolved as by {@link AsXmlTool#openResource(String)}
+     */
+    public void addSource(String pResource) {
+        addSource(AsXmlTool.getResource(pResource));
+    }
+
+    /**
+     * Register a resource that the snapshot content depends on. The URL must be the one
+     * the content was loaded from, so that the digest covers the same data.
+     *
+     * @param pResource the resource URL, ignored if null
+     */
+    public synchronized void addSource(URL pResource) {
+        if (!mValid && pResource != null && !mSources.containsKey(pResource.toExternalForm())) {
+            mSources.put(pResource.toExternalForm(), digest(pResource));
+        }
+    }
+
+    /**
+     * Get a string table stored in the snapshot
+     *
+     * @param pName the table name
+     * @return the table rows, or null if the table is not available
+     */
+    public synchronized List<String[]> getTable(String pName) {
+        return mValid ? mTables.get(pName) : null;
+    }
+
+    /**
+     * Store a string table in a regenerated snapshot
+     *
+     * @param pName the table name
+     * @param pRows the table rows
+     */
+    public synchronized void putTable(String pName, List<String[]> pRows) {
+        if (!mValid) {
+            mTables.put(pName, pRows);
+        }
+    }
+
+    /**
+     * Check that all recorded sources still have the recorded digest
+     *
+     * @return true if the snapshot is up to date
+     */
+    private boolean isUpToDate() {
+        if (mConfigurationDocument == null || mSources.isEmpty()) {
+            return false;
+        }
+        for (Map.Entry<String, byte[]> tEntry : mSources.entrySet()) {
+            try {
+                if (!Arrays.equals(tEntry.getValue(), digest(new URL(tEntry.getKey())))) {
+                    return false;
+                }
+            }
+            catch (MalformedURLException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the snapshot file
+     *
+     * @throws IOException on read errors or if the file has an unexpected format
+     * @throws ParserConfigurationException if no document could be created
+     */
+    private void read() throws IOException, ParserConfigurationException {
+        try (DataInputStream tIn = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (tIn.readInt() != MAGIC || tIn.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown snapshot format");
+            }
+            if (!mModule.equals(readString(tIn))) {
+                return;
+            }
+            int tSourceCount = tIn.readInt();
+            for (int i = 0; i < tSourceCount; i++) {
+                String tResource = readString(tIn);
+                byte[] tDigest = new byte[tIn.readInt()];
+                tIn.readFully(tDigest);
+                mSources.put(tResource, tDigest);
+            }
+            int tTableCount = tIn.readInt();
+            for (int i = 0; i < tTableCount; i++) {
+                String tName = readString(tIn);
+                int tRowCount = tIn.readInt();
+                List<String[]> tRows = new ArrayList<String[]>(tRowCount);
+                for (int j = 0; j < tRowCount; j++) {
+                    String[] tRow = new String[tIn.readInt()];
+                    for (int k = 0; k < tRow.length; k++) {
+                        tRow[k] = readString(tIn);
+                    }
+                    tRows.add(tRow);
+                }
+                mTables.put(tName, tRows);
+            }
+            Document tDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .getDOMImplementation().createDocument(null, null, null);
+            tIn.readByte();
+            Element tRoot = readElement(tIn, tDoc);
+            tDoc.appendChild(tRoot);
+            mConfigurationDocument = tRoot;
+        }
+    }
+
+    /**
+     * Write the snapshot file
+     *
+     * @throws IOException on write errors
+     */
+    private void write() throws IOException {
+        if (mConfigurationDocument == null) {
+            return;
+        }
+        File tTemp = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream tOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tTemp)))) {
+            tOut.writeInt(MAGIC);
+            tOut.writeInt(FORMAT_VERSION);
+            writeString(tOut, mModule);
+            tOut.writeInt(mSources.size());
+            for (Map.Entry<String, byte[]> tEntry : mSources.entrySet()) {
+                writeString(tOut, tEntry.getKey());
+                tOut.writeInt(tEntry.getValue().length);
+                tOut.write(tEntry.getValue());
+            }
+            tOut.writeInt(mTables.size());
+            for (Map.Entry<String, List<String[]>> tEntry : mTables.entrySet()) {
+                writeString(tOut, tEntry.getKey());
+                tOut.writeInt(tEntry.getValue().size());
+                for (String[] tRow : tEntry.getValue()) {
+                    tOut.writeInt(tRow.length);
+                    for (String tValue : tRow) {
+                        writeString(tOut, tValue);
+                    }
+                }
+            }
+            writeNode(tOut, mConfigurationDocument);
+        }
+        if (mFile.exists() && !mFile.delete() || !tTemp.renameTo(mFile)) {
+            throw new IOException("Could not replace " + mFile);
+        }
+    }
+
+    /**
+     * Write a DOM node and its children, ignoring node types not used by the configuration
+     *
+     * @param pOut the output stream
+     * @param pNode the node
+     * @throws IOException on write errors
+     */
+    private static void writeNode(DataOutputStream pOut, Node pNode) throws IOException {
+        switch (pNode.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                pOut.writeByte(NODE_ELEMENT);
+                writeString(pOut, pNode.getNodeName());
+                NamedNodeMap tAttributes = pNode.getAttributes();
+                pOut.writeInt(tAttributes.getLength());
+                for (int i = 0; i < tAttributes.getLength(); i++) {
+                    writeString(pOut, tAttributes.item(i).getNodeName());
+                    writeString(pOut, tAttributes.item(i).getNodeValue());
+                }
+                NodeList tChildren = pNode.getChildNodes();
+                int tCount = 0;
+                for (int i = 0; i < tChildren.getLength(); i++) {
+                    tCount += isStored(tChildren.item(i)) ? 1 : 0;
+                }
+                pOut.writeInt(tCount);
+                for (int i = 0; i < tChildren.getLength(); i++) {
+                    if (isStored(tChildren.item(i))) {
+                        writeNode(pOut, tChildren.item(i));
+                    }
+                }
+                break;
+            case Node.CDATA_SECTION_NODE:
+                pOut.writeByte(NODE_CDATA);
+                writeString(pOut, pNode.getNodeValue());
+                break;
+            default:
+                pOut.writeByte(NODE_TEXT);
+                writeString(pOut, pNode.getNodeValue());
+                break;
+        }
+    }
+
+    /**
+     * @param pNode a DOM node
+     * @return true if the node type is kept in the snapshot
+     */
+    private static boolean isStored(Node pNode) {
+        short tType = pNode.getNodeType();
+        return tType == Node.ELEMENT_NODE || tType == Node.TEXT_NODE || tType == Node.CDATA_SECTION_NODE;
+    }
+
+    /**
+     * Read an element and its children, the node type byte is already consumed
+     *
+     * @param pIn the input stream
+     * @param pDoc the owner document
+     * @return the element
+     * @throws IOException on read errors
+     */
+    private static Element readElement(DataInputStream pIn, Document pDoc) throws IOException {
+        Element tElement = pDoc.createElement(readString(pIn));
+        int tAttributeCount = pIn.readInt();
+        for (int i = 0; i < tAttributeCount; i++) {
+            tElement.setAttribute(readString(pIn), readString(pIn));
+        }
+        int tChildCount = pIn.readInt();
+        for (int i = 0; i < tChildCount; i++) {
+            byte tType = pIn.readByte();
+            if (tType == NODE_ELEMENT) {
+                tElement.appendChild(readElement(pIn, pDoc));
+            }
+            else if (tType == NODE_CDATA) {
+                tElement.appendChild(pDoc.createCDATASection(readString(pIn)));
+            }
+            else {
+                tElement.appendChild(pDoc.createTextNode(readString(pIn)));
+            }
+        }
+        return tElement;
+    }
+
+    /**
+     * Write a string as length-prefixed UTF-8, unlike writeUTF this has no 64k limit
+     *
+     * @param pOut the output stream
+     * @param pValue the string, may be null
+     * @throws IOException on write errors
+     */
+    private static void writeString(DataOutputStream pOut, String pValue) throws IOException {
+        if (pValue == null) {
+            pOut.writeInt(-1);
+            return;
+        }
+        byte[] tBytes = pValue.getBytes(StandardCharsets.UTF_8);
+        pOut.writeInt(tBytes.length);
+        pOut.write(tBytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}
+     *
+     * @param pIn the input stream
+     * @return the string, may be null
+     * @throws IOException on read errors
+     */
+    private static String readString(DataInputStream pIn) throws IOException {
+        int tLength = pIn.readInt();
+        if (tLength < 0) {
+            return null;
+        }
+        byte[] tBytes = new byte[tLength];
+        pIn.readFully(tBytes);
+        return new String(tBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Calculate the digest of a resource
+     *
+     * @param pResource the resource URL
+     * @return the digest, or an empty array if the resource could not be read
+     */
+    private static byte[] digest(URL pResource) {
+        try (InputStream tStream = pResource.openStream()) {
+            MessageDigest tDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            byte[] tBuffer = new byte[8192];
+            int tCount;
+            while ((tCount = tStream.read(tBuffer)) > 0) {
+                tDigest.update(tBuffer, 0, tCount);
+            }
+            return tDigest.digest();
+        }
+        catch (IOException | NoSuchAlgorithmException e) {
+            return new byte[0];
+        }
+    }
+
+}
@@ -623,13 +623,27 @@ public class AsConfigXmlParser extends AsComponent implements AsConfigXmlParserI
             throw new AsInitializationException("No configuration module configured, aborting startup");
         }
 
-        try {
-            // AsLoggerIf.Singleton.get().log("Loading configuration from module '"
-            // + mLoadModule + "'");
-            mConfigurationDocument = AsXmlTool.loadCwfModule(mLoadModule).getDocumentElement();
+        AsConfigSnapshot tSnapshot = AsConfigSnapshot.open(mLoadModule);
+        if (tSnapshot != null && tSnapshot.isValid()) {
+            // Resolved configuration is unchanged since the snapshot was taken
+            mConfigurationDocument = tSnapshot.getConfigurationDocument();
         }
-        catch (Exception e) {
-            throw new AsInitializationException("Exception when loading module " + mLoadModule, e);
+        else {
+            try {
+                // AsLoggerIf.Singleton.get().log("Loading configuration from module '"
+                // + mLoadModule + "'");
+                AsXmlTool.InheritanceMap tModules = new AsXmlTool.InheritanceMap(mLoadModule);
+                mConfigurationDocument = tModules.assembleModule().getDocumentElement();
+                if (tSnapshot != null) {
+                    for (String tModule : tModules.getModuleLoadOrder()) {
+                        tSnapshot.addSource(AsXmlTool.getCwfModuleResource(tModule));
+                    }
+                    tSnapshot.setConfigurationDocument(mConfigurationDocument);
+                }
+            }
+            catch (Exception e) {
+                throw new AsInitializationException("Exception when loading module " + mLoadModule, e);
+            }
         }
 
         // Go ahead with the load process
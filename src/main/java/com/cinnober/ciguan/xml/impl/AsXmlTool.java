@@ -23,7 +23,9 @@
  */
 package com.cinnober.ciguan.xml.impl;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -59,19 +61,7 @@ public class AsXmlTool {
      */
     public static Document loadXmlResource(String pResource) throws Exception {
 
-        String tResource = (pResource.startsWith("/") ? pResource.substring(1) : pResource);
-        InputStream tStream = null;
-
-        /**
-         * Try own class loader first, then the system class loader
-         */
-        tStream = AsXmlTool.class.getClassLoader().getResourceAsStream(tResource);
-        if (tStream == null) {
-            tStream = ClassLoader.getSystemResourceAsStream(tResource);
-        }
-        if (tStream == null) {
-            tStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(tResource);
-        }        
+        InputStream tStream = openResource(pResource);
         if (tStream == null) {
             throw new RuntimeException("Failed to locate module '" + pResource + "'");
         }
@@ -86,6 +76,54 @@ public class AsXmlTool {
         return tParser.parse(tStream);
     }
     
+    /**
+     * Open a class path resource.
+     *
+     * @param pResource the resource, a leading slash is ignored
+     * @return the resource stream, or null if the resource was not found
+     */
+    public static InputStream openResource(String pResource) {
+        URL tUrl = getResource(pResource);
+        try {
+            return tUrl == null ? null : tUrl.openStream();
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Locate a class path resource.
+     *
+     * @param pResource the resource, a leading slash is ignored
+     * @return the resource URL, or null if the resource was not found
+     */
+    public static URL getResource(String pResource) {
+        String tResource = (pResource.startsWith("/") ? pResource.substring(1) : pResource);
+
+        /**
+         * Try own class loader first, then the system class loader
+         */
+        URL tUrl = AsXmlTool.class.getClassLoader().getResource(tResource);
+        if (tUrl == null) {
+            tUrl = ClassLoader.getSystemResource(tResource);
+        }
+        if (tUrl == null) {
+            tUrl = Thread.currentThread().getContextClassLoader().getResource(tResource);
+        }
+        return tUrl;
+    }
+
+    /**
+     * Gets the resource name of a cwf module.
+     *
+     * @param pModule the module
+     * @return the resource name
+     */
+    public static String getCwfModuleResource(String pModule) {
+        return pModule.replaceAll("\\.", "/") + ".cwf.xml";
+    }
+
     /**
      * Load cwf module document.
      *
@@ -94,7 +132,7 @@ public class AsXmlTool {
      * @throws Exception the exception
      */
     public static Document loadCwfModuleDocument(String pModule) throws Exception {
-        return loadXmlResource(pModule.replaceAll("\\.", "/") + ".cwf.xml");
+        return loadXmlResource(getCwfModuleResource(pModule));
     }
     
     /**
@@ -229,7 +267,7 @@ public class AsXmlTool {
          * @throws DOMException in case of a DOM traversing problem.
          * @throws ParserConfigurationException in case an error occurred during the parsing of the configuration
          */
-        private Document assembleModule() 
+        Document assembleModule() 
             throws TransformerException, DOMException, ParserConfigurationException {
             
             // create empty document
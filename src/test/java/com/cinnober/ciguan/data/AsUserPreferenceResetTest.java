@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.AsFilterIf;
+import com.cinnober.ciguan.datasource.impl.AsEmapiTreeMapList;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the scope of user preference resets
+ */
+public class AsUserPreferenceResetTest {
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Test
+    public void testKeyPrefix() {
+        assertEquals("u+", new AsUserPreferenceReset("u", null, null, null).getKeyPrefix());
+        assertEquals("u+p+", new AsUserPreferenceReset("u", "p", null, null).getKeyPrefix());
+        assertEquals("u+p+s+v+", new AsUserPreferenceReset("u", "p", "s", "v").getKeyPrefix());
+        // A component is only considered if all components before it are set
+        assertEquals("u+", new AsUserPreferenceReset("u", null, "s", "v").getKeyPrefix());
+        assertTrue(AsUserPreference.key("u", "p", "s", "v", "i", "x").startsWith(
+            new AsUserPreferenceReset("u", "p", "s", "v").getKeyPrefix()));
+    }
+
+    @Test
+    public void testMatches() {
+        AsUserPreference tPreference = new AsUserPreference("u", "p", "s", "v", "i", "x", "1");
+        assertTrue(new AsUserPreferenceReset("u", null, null, null).matches(tPreference));
+        assertTrue(new AsUserPreferenceReset("u", "p", null, null).matches(tPreference));
+        assertTrue(new AsUserPreferenceReset("u", "p", "s", "v").matches(tPreference));
+        assertFalse(new AsUserPreferenceReset("u", "p", "s", "w").matches(tPreference));
+        assertFalse(new AsUserPreferenceReset("u", "q", null, null).matches(tPreference));
+        assertFalse(new AsUserPreferenceReset("w", null, null, null).matches(tPreference));
+        assertFalse(new AsUserPreferenceReset(null, null, null, null).matches(tPreference));
+    }
+
+    @Test
+    public void testResetRemovesTheScopeOnly() {
+        AsEmapiTreeMapList<AsUserPreference> tList =
+            new AsEmapiTreeMapList<AsUserPreference>("prefs", AsUserPreference.class, "id");
+        tList.add(new AsUserPreference("u", "p", "s", "v", "i", "x", "1"));
+        tList.add(new AsUserPreference("u", "p", "t", "v", "i", "x", "2"));
+        // Within the key range of perspective p, but not in its scope
+        tList.add(new AsUserPreference("u", "p+q", "s", "v", "i", "x", "3"));
+        tList.add(new AsUserPreference("u", "r", "s", "v", "i", "x", "4"));
+        tList.add(new AsUserPreference("v", "p", "s", "v", "i", "x", "5"));
+
+        final AsUserPreferenceReset tReset = new AsUserPreferenceReset("u", "p", null, null);
+        List<AsUserPreference> tRemoved = tList.removeByKeyPrefix(tReset.getKeyPrefix(),
+            new AsFilterIf<AsUserPreference>() {
+                @Override
+                public boolean include(AsUserPreference pPreference) {
+                    return tReset.matches(pPreference);
+                }
+            });
+        assertEquals(Arrays.asList("1", "2"), values(tRemoved));
+        assertEquals(Arrays.asList("3", "4", "5"), values(tList.values()));
+    }
+
+    /**
+     * Get the values of the given preferences.
+     *
+     * @param pPreferences the preferences
+     * @return the values
+     */
+    private static List<String> values(Iterable<AsUserPreference> pPreferences) {
+        List<String> tValues = new ArrayList<String>();
+        for (AsUserPreference tPreference : pPreferences) {
+            tValues.add(tPreference.getValue());
+        }
+        return tValues;
+    }
+
+}
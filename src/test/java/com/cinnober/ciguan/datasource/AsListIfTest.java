@@ -0,0 +1,326 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.impl.AsEmapiTreeMapList;
+import com.cinnober.ciguan.datasource.impl.AsTreeMapListTest.Item;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the default methods of the list interfaces, as seen by implementations written before they were added
+ */
+public class AsListIfTest {
+
+    /** The list implementing the default methods. */
+    private AsEmapiTreeMapList<Item> mItems;
+
+    /** The list relying on the default methods. */
+    private AsListIf<Item> mList;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mItems = new AsEmapiTreeMapList<Item>("items", Item.class, "id");
+        mItems.add(new Item("a"));
+        mItems.add(new Item("b"));
+        mItems.add(new Item("c"));
+        mList = new LegacyList(mItems);
+    }
+
+    @Test
+    public void testListenerWithoutSnapshotIsSentOne() {
+        final List<AsDataSourceEventIf<Item>> tEvents = new ArrayList<AsDataSourceEventIf<Item>>();
+        mList.addListener(new AsDataSourceListenerIf<Item>() {
+            @Override
+            public void onDataSourceEvent(AsDataSourceEventIf<Item> pEvent) {
+                tEvents.add(pEvent);
+            }
+
+            @Override
+            public AsDataSourceIf<Item> getDataSource() {
+                return mList;
+            }
+        }, false);
+        assertEquals(1, tEvents.size());
+        assertEquals(AsDataSourceEventIf.Type.SNAPSHOT, tEvents.get(0).getType());
+        assertEquals(3, tEvents.get(0).getSnapshot().size());
+    }
+
+    @Test
+    public void testIteratorSkipsAhead() {
+        assertEquals("[a, b, c]", ids(mList.iterator(0)));
+        assertEquals("[b, c]", ids(mList.iterator(1)));
+        assertEquals("[]", ids(mList.iterator(3)));
+        assertEquals("[]", ids(mList.iterator(5)));
+    }
+
+    @Test
+    public void testEventWithoutOldIndex() {
+        AsDataSourceEventIf<Item> tEvent = new AsDataSourceEventIf<Item>() {
+            @Override
+            public Type getType() {
+                return Type.UPDATE;
+            }
+
+            @Override
+            public int getIndex() {
+                return 2;
+            }
+
+            @Override
+            public Item getNewValue() {
+                return null;
+            }
+
+            @Override
+            public Item getOldValue() {
+                return null;
+            }
+
+            @Override
+            public Collection<Item> getSnapshot() {
+                return null;
+            }
+
+            @Override
+            public AsListIf<Item> getSource() {
+                return mList;
+            }
+        };
+        assertEquals(2, tEvent.getOldIndex());
+    }
+
+    /**
+     * Get the ids of the remaining items of an iterator.
+     *
+     * @param pIterator the iterator
+     * @return the ids, as a string
+     */
+    private static String ids(Iterator<Item> pIterator) {
+        List<String> tIds = new ArrayList<String>();
+        while (pIterator.hasNext()) {
+            tIds.add(pIterator.next().getId());
+        }
+        return tIds.toString();
+    }
+
+    /**
+     * List implementing only the methods which are not default methods, by delegation.
+     */
+    private static class LegacyList implements AsListIf<Item> {
+
+        /** The list delegated to. */
+        private final AsListIf<Item> mDelegate;
+
+        /**
+         * Create the list.
+         *
+         * @param pDelegate the list delegated to
+         */
+        LegacyList(AsListIf<Item> pDelegate) {
+            mDelegate = pDelegate;
+        }
+
+        @Override
+        public String getDataSourceId() {
+            return mDelegate.getDataSourceId();
+        }
+
+        @Override
+        public AsDataSourceOwnerIf getOwner() {
+            return mDelegate.getOwner();
+        }
+
+        @Override
+        public void setOwner(AsDataSourceOwnerIf pOwner) {
+            mDelegate.setOwner(pOwner);
+        }
+
+        @Override
+        public void addListener(AsDataSourceListenerIf<Item> pListener) {
+            mDelegate.addListener(pListener);
+        }
+
+        @Override
+        public void removeListener(AsDataSourceListenerIf<Item> pListener) {
+            mDelegate.removeListener(pListener);
+        }
+
+        @Override
+        public AsDataSourceIf<Item> getSource() {
+            return mDelegate.getSource();
+        }
+
+        @Override
+        public AsFilterIf<Item> getFilter() {
+            return mDelegate.getFilter();
+        }
+
+        @Override
+        public AsSortIf<Item> getSort() {
+            return mDelegate.getSort();
+        }
+
+        @Override
+        public AsDataSourceIf<Item> createDataSource(AsFilterIf<Item> pFilter) {
+            return mDelegate.createDataSource(pFilter);
+        }
+
+        @Override
+        public AsDataSourceIf<Item> createDataSource(AsSortIf<Item> pSort) {
+            return mDelegate.createDataSource(pSort);
+        }
+
+        @Override
+        public Class<Item> getItemClass() {
+            return mDelegate.getItemClass();
+        }
+
+        @Override
+        public boolean hasListeners() {
+            return mDelegate.hasListeners();
+        }
+
+        @Override
+        public long getChildlessTime() {
+            return mDelegate.getChildlessTime();
+        }
+
+        @Override
+        public void destroy() {
+            mDelegate.destroy();
+        }
+
+        @Override
+        public void setPermanent() {
+            mDelegate.setPermanent();
+        }
+
+        @Override
+        public boolean isPermanent() {
+            return mDelegate.isPermanent();
+        }
+
+        @Override
+        public void add(Item pItem) {
+            mDelegate.add(pItem);
+        }
+
+        @Override
+        public void update(Item pItem) {
+            mDelegate.update(pItem);
+        }
+
+        @Override
+        public void remove(Item pItem) {
+            mDelegate.remove(pItem);
+        }
+
+        @Override
+        public void snapshot(Collection<Item> pSnapshot) {
+            mDelegate.snapshot(pSnapshot);
+        }
+
+        @Override
+        public Item get(int pIndex) {
+            return mDelegate.get(pIndex);
+        }
+
+        @Override
+        public int indexOf(Item pItem) {
+            return mDelegate.indexOf(pItem);
+        }
+
+        @Override
+        public int indexOf(String pKey) {
+            return mDelegate.indexOf(pKey);
+        }
+
+        @Override
+        public Item get(String pKey) {
+            return mDelegate.get(pKey);
+        }
+
+        @Override
+        public int size() {
+            return mDelegate.size();
+        }
+
+        @Override
+        public Collection<Item> values() {
+            return mDelegate.values();
+        }
+
+        @Override
+        public void clear() {
+            mDelegate.clear();
+        }
+
+        @Override
+        public String getKey(Item pItem) {
+            return mDelegate.getKey(pItem);
+        }
+
+        @Override
+        public String getText(Item pItem, AsDataSourceServiceIf pService) {
+            return mDelegate.getText(pItem, pService);
+        }
+
+        @Override
+        public String getIdAttribute() {
+            return mDelegate.getIdAttribute();
+        }
+
+        @Override
+        public String getTextAttribute() {
+            return mDelegate.getTextAttribute();
+        }
+
+        @Override
+        public void setListMetaData(AsListMetaDataIf pMeta) {
+            mDelegate.setListMetaData(pMeta);
+        }
+
+        @Override
+        public AsListMetaDataIf getListMetaData() {
+            return mDelegate.getListMetaData();
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.AsFilterIf;
+import com.cinnober.ciguan.datasource.impl.AsDataSourceKeyGenerator;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the creation of filters from filter expressions
+ */
+public class AsAttributeValueFilterTest {
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Test
+    public void testCanonicalForm() {
+        assertEquals("kind=x,state=open",
+            AsAttributeValueFilter.canonicalize(Item.class, " state=open,kind=x,,kind=x"));
+        assertEquals("kind=x", AsAttributeValueFilter.canonicalize(Item.class, "kind=x,kind=x"));
+        // Alternatives are only reordered for constants
+        assertEquals("kind=y|x", AsAttributeValueFilter.canonicalize(Item.class, "kind=y|x"));
+    }
+
+    @Test
+    public void testEquivalentExpressionsShareTheDataSourceKey() {
+        AsFilterIf<Item> tFilter = AsAttributeValueFilter.create(Item.class, "kind=x,state=open");
+        AsFilterIf<Item> tPermuted = AsAttributeValueFilter.create(Item.class, "state=open, kind=x");
+        assertEquals(tFilter.toString(), tPermuted.toString());
+        assertEquals(AsDataSourceKeyGenerator.createKey("items", tFilter, null),
+            AsDataSourceKeyGenerator.createKey("items", tPermuted, null));
+
+        Item tMatch = new Item("x", "open");
+        Item tOther = new Item("x", "closed");
+        assertTrue(tFilter.include(tMatch));
+        assertTrue(tPermuted.include(tMatch));
+        assertFalse(tFilter.include(tOther));
+        assertFalse(tPermuted.include(tOther));
+    }
+
+    @Test
+    public void testParsedFiltersAreCached() {
+        AsFilterIf<Item> tFilter = AsFilterCache.getAttributeValueFilter(Item.class, "kind=x");
+        assertSame(tFilter, AsFilterCache.getAttributeValueFilter(Item.class, "kind=x"));
+        assertTrue(tFilter.include(new Item("x", "open")));
+        assertFalse(tFilter.include(new Item("y", "open")));
+    }
+
+    @Test
+    public void testHiddenFiltersAreNotShared() {
+        AsFilterIf<Item> tHidden = AsAttributeValueFilter.createHidden(Item.class, "kind=x");
+        assertEquals("", tHidden.toString());
+        assertEquals("kind=x", AsFilterCache.getAttributeValueFilter(Item.class, "kind=x").toString());
+    }
+
+    @Test
+    public void testNarrowerFilterHoldsTheCriteriaOfTheWiderOne() {
+        AsFilterIf<Item> tWide = AsAttributeValueFilter.create(Item.class, "kind=x");
+        AsFilterIf<Item> tNarrow = AsAttributeValueFilter.create(Item.class, "state=open, kind=x");
+        assertTrue(AsAttributeValueFilter.isNarrowerThan(tNarrow, tWide));
+        assertTrue(AsAttributeValueFilter.isNarrowerThan(tNarrow, tNarrow));
+        assertFalse(AsAttributeValueFilter.isNarrowerThan(tWide, tNarrow));
+
+        // Same attribute and value, with another operator
+        AsFilterIf<Item> tNotOpen = AsAttributeValueFilter.create(Item.class, "state!=open");
+        assertFalse(AsAttributeValueFilter.isNarrowerThan(tNarrow, tNotOpen));
+        assertTrue(AsAttributeValueFilter.isNarrowerThan(
+            AsAttributeValueFilter.create(Item.class, "kind=x,state!=open"), tNotOpen));
+    }
+
+    @Test
+    public void testOtherFiltersAreNeverNarrower() {
+        AsFilterIf<Item> tFilter = AsAttributeValueFilter.create(Item.class, "kind=x,state=open");
+        AsFilterIf<Item> tHidden = AsAttributeValueFilter.createHidden(Item.class, "kind=x");
+        AsFilterIf<Item> tCustom = new AsFilterIf<Item>() {
+            @Override
+            public boolean include(Item pItem) {
+                return true;
+            }
+
+            @Override
+            public String toString() {
+                return "kind=x";
+            }
+        };
+        assertFalse(AsAttributeValueFilter.isNarrowerThan(tFilter, tHidden));
+        assertFalse(AsAttributeValueFilter.isNarrowerThan(tFilter, tCustom));
+        assertFalse(AsAttributeValueFilter.isNarrowerThan(tFilter, null));
+    }
+
+    /**
+     * Item with a kind and a state.
+     */
+    public static class Item {
+
+        /** The kind. */
+        private final String mKind;
+
+        /** The state. */
+        private final String mState;
+
+        /**
+         * Create an item.
+         *
+         * @param pKind the kind
+         * @param pState the state
+         */
+        public Item(String pKind, String pState) {
+            mKind = pKind;
+            mState = pState;
+        }
+
+        public String getKind() {
+            return mKind;
+        }
+
+        public String getState() {
+            return mState;
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.AsGetMethodIf;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the sharing and bounding of the compiled filter building blocks
+ */
+public class AsFilterCacheTest {
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Test
+    public void testLruMapEvictsTheLeastRecentlyUsedEntry() {
+        Map<String, String> tMap = AsFilterCache.createLruMap(2);
+        tMap.put("a", "1");
+        tMap.put("b", "2");
+        tMap.get("a");
+        tMap.put("c", "3");
+        assertEquals(2, tMap.size());
+        assertTrue(tMap.containsKey("a"));
+        assertFalse(tMap.containsKey("b"));
+    }
+
+    @Test
+    public void testGettersAreShared() {
+        AsGetMethodIf<Item> tGetter = AsFilterCache.getGetMethod(Item.class, "name");
+        assertSame(tGetter, AsFilterCache.getGetMethod(Item.class, "name"));
+        assertEquals("n", tGetter.getValue(new Item("n")));
+    }
+
+    @Test
+    public void testConstructorsAreSharedAndUnknownClassesRemembered() {
+        assertSame(AsFilterCache.getConstructor(ItemFilter.class.getName(), Item.class),
+            AsFilterCache.getConstructor(ItemFilter.class.getName(), Item.class));
+        assertNull(AsFilterCache.getConstructor("com.example.NoSuchFilter", Item.class));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testConstructorOfNonFilterIsRejected() {
+        AsFilterCache.getConstructor(Item.class.getName(), Item.class);
+    }
+
+    /**
+     * Item with a name.
+     */
+    public static class Item {
+
+        /** The name. */
+        private final String mName;
+
+        /**
+         * Create an item.
+         *
+         * @param pName the name
+         */
+        public Item(String pName) {
+            mName = pName;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    /**
+     * Filter created from an item.
+     */
+    public static class ItemFilter extends AsFilter<Item> {
+
+        /**
+         * Create the filter.
+         *
+         * @param pItem the item
+         */
+        public ItemFilter(Item pItem) {
+        }
+
+        @Override
+        public boolean include(Item pItem) {
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.tree.AsTreeFilterTool;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the binding of parameterized filter expressions
+ */
+public class AsFilterTemplateTest {
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Test
+    public void testBindParameters() {
+        AsFilterTemplate tTemplate = new AsFilterTemplate(Parent.class, "parentId=../id,kind=x,owner=../owner");
+        assertTrue(tTemplate.isParameterized());
+        assertEquals("parentId=p1,kind=x,owner=alice", tTemplate.bind(new Parent("p1", "alice")));
+        assertEquals("parentId=p2,kind=x,owner=bob", tTemplate.bind(new Parent("p2", "bob")));
+    }
+
+    @Test
+    public void testConstantExpressionIsReturnedAsIs() {
+        String tExpression = "kind=x,state=open";
+        AsFilterTemplate tTemplate = new AsFilterTemplate(Parent.class, tExpression);
+        assertFalse(tTemplate.isParameterized());
+        assertSame(tExpression, tTemplate.bind(new Parent("p1", "alice")));
+    }
+
+    @Test
+    public void testBindingMatchesExpansion() {
+        String tExpression = "parentId=../id,kind=x";
+        Parent tParent = new Parent("p1", "alice");
+        assertEquals(AsTreeFilterTool.expandFilterExpression(tParent, tExpression.split(",")),
+            AsTreeFilterTool.bindFilterExpression(tParent, tExpression));
+        assertSame(AsFilterCache.getFilterTemplate(Parent.class, tExpression),
+            AsFilterCache.getFilterTemplate(Parent.class, tExpression));
+    }
+
+    /**
+     * Item whose attributes are bound.
+     */
+    public static class Parent {
+
+        /** The id. */
+        private final String mId;
+
+        /** The owner. */
+        private final String mOwner;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         * @param pOwner the owner
+         */
+        public Parent(String pId, String pOwner) {
+            mId = pId;
+            mOwner = pOwner;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getOwner() {
+            return mOwner;
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.data.AsContextMenu;
+import com.cinnober.ciguan.data.AsMenuItem;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the context menu lookup table
+ */
+public class AsContextMenuTableTest implements MvcModelAttributesIf {
+
+    /** The context menu list. */
+    private AsEmapiTreeMapList<AsContextMenu> mMenus;
+
+    /** The menu for orders in any perspective and view. */
+    private AsContextMenu mDefault;
+
+    /** The menu for orders in a given perspective and view. */
+    private AsContextMenu mExact;
+
+    /** The menu for orders in a given view. */
+    private AsContextMenu mView;
+
+    /** The table. */
+    private AsContextMenuTable mTable;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mMenus = new AsEmapiTreeMapList<AsContextMenu>("menus", AsContextMenu.class, ATTR_CONTEXT_MENU_KEY, ATTR_ID);
+        mDefault = menu("default", null, null, item("open", null), item("cancel", "trading"));
+        mExact = menu("exact", "trading", "blotter");
+        mView = menu("view", null, "ticket");
+        mMenus.add(mDefault);
+        mMenus.add(mExact);
+        mMenus.add(mView);
+        mTable = new AsContextMenuTable(mMenus);
+    }
+
+    @Test
+    public void testMostSignificantMatch() {
+        assertSame(mExact, mTable.getContextMenu("trading", "blotter", "Order"));
+        assertSame(mView, mTable.getContextMenu("trading", "ticket", "Order"));
+        assertSame(mView, mTable.getContextMenu("other", "ticket", "Order"));
+        assertSame(mDefault, mTable.getContextMenu("trading", "other", "Order"));
+        assertNull(mTable.getContextMenu("trading", "blotter", "Trade"));
+    }
+
+    @Test
+    public void testUnknownIdsDoNotGrowTheTable() {
+        for (int i = 0; i < 100; i++) {
+            assertSame(mDefault, mTable.getContextMenu("perspective" + i, "view" + i, "Order"));
+            assertNull(mTable.getContextMenu("trading", "blotter", "Type" + i));
+        }
+        assertEquals(1, mTable.size());
+    }
+
+    @Test
+    public void testChangedConfigurationIsResolvedAgain() {
+        assertSame(mDefault, mTable.getContextMenu("settlement", "blotter", "Order"));
+        AsContextMenu tSettlement = menu("settlement", "settlement", null);
+        mMenus.add(tSettlement);
+        assertSame(tSettlement, mTable.getContextMenu("settlement", "blotter", "Order"));
+        mMenus.remove(tSettlement);
+        assertSame(mDefault, mTable.getContextMenu("settlement", "blotter", "Order"));
+    }
+
+    @Test
+    public void testLayoutPerPerspective() {
+        AsContextMenuTable.Layout tTrading = mTable.getLayout(mDefault, "trading");
+        assertEquals(Arrays.asList("open", "cancel"), ids(tTrading.getMenuItems()));
+        AsContextMenuTable.Layout tOther = mTable.getLayout(mDefault, "other");
+        assertEquals(Arrays.asList("open"), ids(tOther.getMenuItems()));
+        // Perspectives not mentioned by any menu share one layout
+        assertSame(tOther, mTable.getLayout(mDefault, "another"));
+        assertSame(tTrading, mTable.getLayout(mDefault, "trading"));
+    }
+
+    /**
+     * Get the ids of the given menu items.
+     *
+     * @param pItems the menu items
+     * @return the ids
+     */
+    private static List<String> ids(List<AsMenuItem> pItems) {
+        List<String> tIds = new ArrayList<String>();
+        for (AsMenuItem tItem : pItems) {
+            tIds.add(tItem.getId());
+        }
+        return tIds;
+    }
+
+    /**
+     * Create a context menu for orders.
+     *
+     * @param pId the id
+     * @param pPerspective the perspective, or {@code null}
+     * @param pView the view, or {@code null}
+     * @param pItems the menu items
+     * @return the context menu
+     */
+    private static AsContextMenu menu(String pId, String pPerspective, String pView, CwfDataIf... pItems) {
+        Map<String, String> tMenu = new HashMap<String, String>();
+        tMenu.put(ATTR_TAG_NAME, TAG_CONTEXT_MENU);
+        tMenu.put(ATTR_ID, pId);
+        tMenu.put(ATTR_TYPE, "Order");
+        if (pPerspective != null) {
+            tMenu.put(ATTR_PERSPECTIVE, pPerspective);
+        }
+        if (pView != null) {
+            tMenu.put(ATTR_VIEW, pView);
+        }
+        return new AsContextMenu(AsTestEnvironment.createData(tMenu, Arrays.asList(pItems)));
+    }
+
+    /**
+     * Create a menu item.
+     *
+     * @param pId the id
+     * @param pPerspective the perspective, or {@code null}
+     * @return the menu item data
+     */
+    private static CwfDataIf item(String pId, String pPerspective) {
+        Map<String, String> tItem = new HashMap<String, String>();
+        tItem.put(ATTR_TAG_NAME, TAG_MENUITEM);
+        tItem.put(ATTR_ID, pId);
+        if (pPerspective != null) {
+            tItem.put(ATTR_PERSPECTIVE, pPerspective);
+        }
+        return AsTestEnvironment.createData(tItem, Collections.<CwfDataIf>emptyList());
+    }
+
+}
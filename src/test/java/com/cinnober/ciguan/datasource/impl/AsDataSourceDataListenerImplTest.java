@@ -0,0 +1,197 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.data.CwfMessage;
+import com.cinnober.ciguan.datasource.AsDataSourceServiceIf;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the data updates sent to data subscriptions
+ */
+public class AsDataSourceDataListenerImplTest implements MvcModelAttributesIf {
+
+    /** The attributes subscribed to. */
+    private static final String[] ATTRIBUTES = { "name", "note" };
+
+    /** The list. */
+    private AsEmapiTreeMapList<Item> mList;
+
+    /** The service. */
+    private AsDataSourceServiceIf mService;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mList = new AsEmapiTreeMapList<Item>("items", Item.class, "id");
+        mList.add(new Item("a", "A", "first"));
+        mList.add(new Item("b", "B", "second"));
+        mService = (AsDataSourceServiceIf) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { AsDataSourceServiceIf.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    return null;
+                }
+            });
+    }
+
+    @Test
+    public void testUpdatesCarryAllAttributesByDefault() {
+        AsDataSourceDataListenerImpl<Item> tListener =
+            new AsDataSourceDataListenerImpl<Item>(mList, ATTRIBUTES, 1, mService, null);
+        assertEquals(2, getGridData(tListener).getStringArray(ATTR_KEYS).length);
+
+        mList.update(new Item("a", "A", "changed"));
+        CwfDataIf tGridData = getGridData(tListener);
+        assertArrayEquals(new String[] { "A", "changed" }, tGridData.getStringArrayMap(ATTR_VALUES).get("a"));
+        assertNull(tGridData.getProperty(ATTR_CHANGED));
+    }
+
+    @Test
+    public void testUnchangedUpdatesAreNotSent() {
+        AsDataSourceDataListenerImpl<Item> tListener = new SparseListener(mList, mService);
+        getGridData(tListener);
+        mList.update(new Item("a", "A", "first"));
+        assertNull(tListener.getEvent());
+    }
+
+    @Test
+    public void testSparseUpdatesListTheChangedAttributes() {
+        AsDataSourceDataListenerImpl<Item> tListener = new SparseListener(mList, mService);
+        getGridData(tListener);
+
+        mList.update(new Item("a", "A", null));
+        mList.add(new Item("c", "C", "third"));
+        CwfDataIf tGridData = getGridData(tListener);
+        Map<String, String[]> tValues = tGridData.getStringArrayMap(ATTR_VALUES);
+        Map<String, String[]> tChanged = tGridData.getStringArrayMap(ATTR_CHANGED);
+        // Only the note has changed, to an empty text
+        assertArrayEquals(new String[] { "1" }, tChanged.get("a"));
+        assertArrayEquals(new String[] { "" }, tValues.get("a"));
+        // Added items carry all attributes and are not listed
+        assertNull(tChanged.get("c"));
+        assertArrayEquals(new String[] { "C", "third" }, tValues.get("c"));
+    }
+
+    @Test
+    public void testChangedIndexes() {
+        AsDataSourceDataListenerImpl<Item> tListener = new SparseListener(mList, mService);
+        String[] tIndexes = tListener.getChangedIndexes(new String[] { "x", null, "z" }, new String[] { "x", "y", null });
+        assertArrayEquals(new String[] { "1", "2" }, tIndexes);
+        assertArrayEquals(new String[] { "y", null },
+            tListener.getChangedValues(tIndexes, new String[] { "x", "y", null }));
+    }
+
+    /**
+     * Get the grid data of the next event of the given listener.
+     *
+     * @param pListener the listener
+     * @return the grid data
+     */
+    private static CwfDataIf getGridData(AsDataSourceDataListenerImpl<Item> pListener) {
+        CwfMessage tMessage = pListener.getEvent();
+        return tMessage.getData().getObject(ATTR_GRID_DATA);
+    }
+
+    /**
+     * Listener sending sparse updates.
+     */
+    private static class SparseListener extends AsDataSourceDataListenerImpl<Item> {
+
+        /**
+         * Create the listener.
+         *
+         * @param pList the list
+         * @param pService the service
+         */
+        SparseListener(AsEmapiTreeMapList<Item> pList, AsDataSourceServiceIf pService) {
+            super(pList, ATTRIBUTES, 1, pService, null);
+        }
+
+        @Override
+        protected boolean isSparseUpdates() {
+            return true;
+        }
+    }
+
+    /**
+     * Item with a name and a note.
+     */
+    public static class Item {
+
+        /** The id. */
+        private final String mId;
+
+        /** The name. */
+        private final String mName;
+
+        /** The note. */
+        private final String mNote;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         * @param pName the name
+         * @param pNote the note
+         */
+        public Item(String pId, String pName, String pNote) {
+            mId = pId;
+            mName = pName;
+            mNote = pNote;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public String getNote() {
+            return mNote;
+        }
+    }
+
+}
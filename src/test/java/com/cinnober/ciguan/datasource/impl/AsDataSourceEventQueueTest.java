@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.CwfMessageIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.client.impl.MvcEventEnum;
+import com.cinnober.ciguan.data.AsCwfDataFactoryImpl;
+import com.cinnober.ciguan.data.CwfDataFactory;
+import com.cinnober.ciguan.data.CwfMessage;
+
+/**
+ * Tests coalescing and bounding of the pending data source events
+ */
+public class AsDataSourceEventQueueTest implements MvcModelAttributesIf {
+
+    @BeforeClass
+    public static void before() {
+        CwfDataFactory.set(new AsCwfDataFactoryImpl());
+    }
+
+    @Test
+    public void testUpdatesAreCoalescedPerSubscriptionAndKey() {
+        AsDataSourceEventQueue tQueue = new AsDataSourceEventQueue(100);
+        CwfMessageIf tAdd = event(MvcEventEnum.ListAddEvent, 1, 0, "k1", "added");
+        CwfMessageIf tFirst = event(MvcEventEnum.ListUpdateEvent, 1, 5, "k2", "first");
+        CwfMessageIf tRemove = event(MvcEventEnum.ListRemoveEvent, 1, 0, null, null);
+        CwfMessageIf tOther = event(MvcEventEnum.ListUpdateEvent, 2, 4, "k2", "other subscription");
+        CwfMessageIf tLatest = event(MvcEventEnum.ListUpdateEvent, 1, 4, "k2", "latest");
+        for (CwfMessageIf tMessage : Arrays.asList(tAdd, tFirst, tRemove, tOther, tLatest)) {
+            tQueue.add(tMessage);
+        }
+        // The latest update replaces the first one, after the remove which shifted its index
+        assertEquals(Arrays.asList(tAdd, tRemove, tOther, tLatest), tQueue.drain());
+        assertEquals(0, tQueue.size());
+    }
+
+    @Test
+    public void testOverflowResynchronizesSubscriptions() {
+        AsDataSourceEventQueue tQueue = new AsDataSourceEventQueue(3);
+        CwfMessageIf tResponse = new CwfMessage(MvcEventEnum.ListItemResponse, null, 7);
+        tQueue.add(tResponse);
+        tQueue.add(event(MvcEventEnum.ListAddEvent, 1, 0, "a", "a"));
+        tQueue.add(event(MvcEventEnum.ListAddEvent, 2, 0, "b", "b"));
+        tQueue.add(event(MvcEventEnum.ListAddEvent, 1, 1, "c", "c"));
+        assertTrue(tQueue.takeResync().isEmpty());
+
+        // The fourth list event overflows the queue, responses are kept
+        tQueue.add(event(MvcEventEnum.ListAddEvent, 3, 0, "d", "d"));
+        tQueue.add(event(MvcEventEnum.ListAddEvent, 1, 2, "e", "e"));
+        assertEquals(Collections.singletonList(tResponse), tQueue.drain());
+
+        // Accepted again once the subscriptions have been taken for resynchronization
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), tQueue.takeResync());
+        CwfMessageIf tInit = event(MvcEventEnum.ListInitEvent, 1, 0, null, null);
+        tQueue.add(tInit);
+        List<CwfMessageIf> tEvents = tQueue.drain();
+        assertEquals(Collections.singletonList(tInit), tEvents);
+    }
+
+    private static CwfMessageIf event(MvcEventEnum pEvent, int pHandle, int pIndex, String pKey, String pText) {
+        CwfDataIf tData = CwfDataFactory.create(pEvent);
+        tData.setProperty(ATTR_INDEX, pIndex);
+        if (pKey != null) {
+            tData.setProperty(ATTR_KEY, pKey);
+            tData.setProperty(ATTR_TEXT, pText);
+        }
+        return new CwfMessage(tData, pHandle);
+    }
+
+}
@@ -0,0 +1,285 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.CwfMessageIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.client.impl.MvcEventEnum;
+import com.cinnober.ciguan.data.CwfMessage;
+import com.cinnober.ciguan.datasource.AsDataSourceServiceIf;
+import com.cinnober.ciguan.datasource.RpcHasDataSourceEventIf;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the list events sent to the client, in particular while a large snapshot is streamed
+ */
+public class AsDataSourceListenerImplTest implements MvcModelAttributesIf {
+
+    /** Padding making the item texts long enough to need several snapshot segments. */
+    private static final String PADDING = new String(new char[400]).replace('\0', '.');
+
+    /** The list. */
+    private AsEmapiTreeMapList<Item> mList;
+
+    /** The events queued for the client. */
+    private final List<CwfMessageIf> mEvents = new ArrayList<CwfMessageIf>();
+
+    /** The events producing their message when the client drains its events. */
+    private final List<RpcHasDataSourceEventIf> mHasEvents = new ArrayList<RpcHasDataSourceEventIf>();
+
+    /** The keys and texts of the rows as seen by the client. */
+    private final List<String[]> mRows = new ArrayList<String[]>();
+
+    /** The number of list events received by the client after the snapshot. */
+    private int mChangeEvents;
+
+    /** The service. */
+    private AsDataSourceServiceIf mService;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mList = new AsEmapiTreeMapList<Item>("items", Item.class, "id", "name") {
+            @Override
+            public String getText(Item pItem, AsDataSourceServiceIf pService) {
+                return pItem.getName();
+            }
+        };
+        for (int i = 0; i < 250; i++) {
+            mList.add(new Item(i, 0));
+        }
+        mService = (AsDataSourceServiceIf) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { AsDataSourceServiceIf.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    if (pMethod.getName().equals("addPendingDataSourceEvent")) {
+                        if (pArgs[0] instanceof RpcHasDataSourceEventIf) {
+                            mHasEvents.add((RpcHasDataSourceEventIf) pArgs[0]);
+                        }
+                        else {
+                            mEvents.add((CwfMessageIf) pArgs[0]);
+                        }
+                    }
+                    return null;
+                }
+            });
+    }
+
+    @Test
+    public void testSnapshotCompletesOnABusyList() {
+        new AsDataSourceListenerImpl<Item>(mList, 1, mService);
+        int tDrains = 0;
+        int tNext = 1000;
+        while (drain()) {
+            tDrains++;
+            // More changes per segment than any bound on held back events
+            for (int i = 0; i < 600; i++) {
+                mList.add(new Item(tNext++, 0));
+                mList.remove(new Item(tNext - 300, 0));
+            }
+            for (int i = 0; i < 250; i += 7) {
+                mList.update(new Item(i, tDrains));
+            }
+            assertTrue("The snapshot did not complete", tDrains < 20);
+        }
+        assertTrue("The snapshot was not streamed", tDrains > 1);
+        // The changes are sent after the last segment
+        drain();
+        assertRows();
+        // The changes made while streaming are sent as at most one event per row removed or added
+        assertTrue(mChangeEvents <= 2 * (250 + tNext - 1000));
+
+        // Changes after the snapshot are sent as they happen
+        mChangeEvents = 0;
+        mList.update(new Item(0, 99));
+        mList.remove(new Item(1, 0));
+        drain();
+        assertEquals(2, mChangeEvents);
+        assertRows();
+    }
+
+    @Test
+    public void testReplacementsInPlaceAreSentAsUpdates() {
+        new AsDataSourceListenerImpl<Item>(mList, 1, mService);
+        assertTrue(drain());
+        mList.update(new Item(3, 1));
+        mList.update(new Item(200, 1));
+        while (drain()) {
+            continue;
+        }
+        drain();
+        assertRows();
+        assertEquals(2, mChangeEvents);
+    }
+
+    @Test
+    public void testItemsUpdatedInPlaceWhileStreamingAreSent() {
+        AsDataSourceListenerImpl<Item> tListener = new AsDataSourceListenerImpl<Item>(mList, 1, mService);
+        assertTrue(drain());
+        // The same instances are changed and updated, in a segment already sent and in one not yet sent
+        Item tSent = mList.get("00003");
+        tSent.mVersion = 1;
+        mList.update(tSent);
+        Item tPending = mList.get("00200");
+        tPending.mVersion = 1;
+        mList.update(tPending);
+        while (drain()) {
+            continue;
+        }
+        drain();
+        assertRows();
+        assertEquals(2, mChangeEvents);
+
+        // An item removed and added again as the same instance is removed and added on the client
+        tListener.removeHandler();
+        new AsDataSourceListenerImpl<Item>(mList, 1, mService);
+        assertTrue(drain());
+        mList.remove(tSent);
+        mList.add(tSent);
+        mList.add(new Item(300, 0));
+        while (drain()) {
+            continue;
+        }
+        drain();
+        assertRows();
+        assertEquals(3, mChangeEvents);
+    }
+
+    /**
+     * Let the client drain its events, applying them to its rows.
+     *
+     * @return {@code true} if a snapshot is still being streamed
+     */
+    private boolean drain() {
+        List<CwfMessageIf> tEvents = new ArrayList<CwfMessageIf>(mEvents);
+        mEvents.clear();
+        List<RpcHasDataSourceEventIf> tHasEvents = new ArrayList<RpcHasDataSourceEventIf>(mHasEvents);
+        mHasEvents.clear();
+        for (RpcHasDataSourceEventIf tHasEvent : tHasEvents) {
+            CwfMessageIf tMessage = tHasEvent.getEvent();
+            if (tMessage != null) {
+                tEvents.add(tMessage);
+            }
+        }
+        for (CwfMessageIf tEvent : tEvents) {
+            apply(((CwfMessage) tEvent).getData());
+        }
+        return !mHasEvents.isEmpty();
+    }
+
+    /**
+     * Apply an event to the rows.
+     *
+     * @param pData the event data
+     */
+    private void apply(CwfDataIf pData) {
+        String tName = pData.getProperty(ATTR_MODEL_NAME);
+        if (tName.equals(MvcEventEnum.ListInitEvent.name())) {
+            if (pData.getIntProperty(ATTR_SEGMENT_NO) == 0) {
+                mRows.clear();
+                mChangeEvents = 0;
+            }
+            mRows.addAll(Arrays.asList(pData.getStringDoubleArray(ATTR_VALUES)));
+            return;
+        }
+        mChangeEvents++;
+        int tIndex = pData.getIntProperty(ATTR_INDEX);
+        String[] tRow = new String[] { pData.getProperty(ATTR_KEY), pData.getProperty(ATTR_TEXT) };
+        if (tName.equals(MvcEventEnum.ListAddEvent.name())) {
+            mRows.add(tIndex, tRow);
+        }
+        else if (tName.equals(MvcEventEnum.ListUpdateEvent.name())) {
+            mRows.set(tIndex, tRow);
+        }
+        else if (tName.equals(MvcEventEnum.ListRemoveEvent.name())) {
+            mRows.remove(tIndex);
+        }
+    }
+
+    /**
+     * Assert that the client rows match the list.
+     */
+    private void assertRows() {
+        List<String> tExpected = new ArrayList<String>();
+        for (Item tItem : mList.values()) {
+            tExpected.add(mList.getKey(tItem) + "=" + tItem.getName().replace(PADDING, ""));
+        }
+        List<String> tActual = new ArrayList<String>();
+        for (String[] tRow : mRows) {
+            tActual.add(tRow[0] + "=" + tRow[1].replace(PADDING, ""));
+        }
+        assertEquals(tExpected, tActual);
+    }
+
+    /**
+     * Item with a long name.
+     */
+    public static class Item {
+
+        /** The id. */
+        private final String mId;
+
+        /** The version. */
+        private int mVersion;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         * @param pVersion the version
+         */
+        public Item(int pId, int pVersion) {
+            mId = String.format("%05d", pId);
+            mVersion = pVersion;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getName() {
+            return mId + "/" + mVersion + PADDING;
+        }
+    }
+
+}
@@ -0,0 +1,383 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.AsConnectionIf;
+import com.cinnober.ciguan.AsSessionDataIf;
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.CwfMessageIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.data.AsDataSourceDef;
+import com.cinnober.ciguan.data.CwfDataFactory;
+import com.cinnober.ciguan.datasource.AsDataSourceViewportListenerIf;
+import com.cinnober.ciguan.datasource.AsListIf;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+import com.cinnober.ciguan.request.AsPartialResponseIf;
+import com.cinnober.ciguan.request.AsRequestServiceIf;
+import com.cinnober.ciguan.request.AsResponseCallbackIf;
+
+/**
+ * Tests the population of query data sources
+ */
+public class AsDataSourceServiceImplTest implements MvcModelAttributesIf {
+
+    /** The id of the query data source sharing its results. */
+    private static final String CACHED_QUERY = "cachedQuery";
+
+    /** The service. */
+    private AsDataSourceServiceImpl mService;
+
+    /** The callbacks of the queries sent, in order. */
+    private List<AsResponseCallbackIf<Object>> mQueries;
+
+    /** The response passed at once to the callback of a query, or {@code null} to hold the callback. */
+    private Object mSynchronousResponse;
+
+    /** The connection. */
+    private AsConnectionIf mConnection;
+
+    /** The viewport. */
+    private AsDataSourceViewportListenerIf<Item> mViewport;
+
+    /** The sizes of the data sources the viewport was attached to, at the time of attaching. */
+    private List<String> mAttached;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void before() {
+        mService = service();
+        mQueries = new ArrayList<AsResponseCallbackIf<Object>>();
+        mAttached = new ArrayList<String>();
+        final AsRequestServiceIf tRequestService = (AsRequestServiceIf) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { AsRequestServiceIf.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    if (pMethod.getName().equals("sendLocal") && pArgs.length == 3) {
+                        AsResponseCallbackIf<Object> tCallback = (AsResponseCallbackIf<Object>) pArgs[2];
+                        if (mSynchronousResponse != null) {
+                            tCallback.onResponse(mSynchronousResponse);
+                        }
+                        else {
+                            mQueries.add(tCallback);
+                        }
+                    }
+                    return null;
+                }
+            });
+        mConnection = (AsConnectionIf) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { AsConnectionIf.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    return pMethod.getName().equals("getRequestService") ? tRequestService : null;
+                }
+            });
+        mViewport = (AsDataSourceViewportListenerIf<Item>) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { AsDataSourceViewportListenerIf.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    if (pMethod.getName().equals("setDataSource")) {
+                        AsListIf<?> tList = (AsListIf<?>) pArgs[0];
+                        mAttached.add(tList.getDataSourceId() + ":" + tList.size());
+                    }
+                    if (pMethod.getName().equals("equals")) {
+                        return pProxy == pArgs[0];
+                    }
+                    if (pMethod.getName().equals("hashCode")) {
+                        return System.identityHashCode(pProxy);
+                    }
+                    return null;
+                }
+            });
+    }
+
+    @After
+    public void after() {
+        AsDataSourceDef.remove(CACHED_QUERY);
+        AsQueryResultCache.get().clear();
+    }
+
+    @Test
+    public void testSynchronousResultIsAttachedAsSnapshot() {
+        mSynchronousResponse = new Response(new Item("a"), new Item("b"), new Item("c"));
+        AsEmapiTreeMapList<Item> tList = list("q");
+        mService.populateDataSourceFromQuery(mConnection, mViewport, tList, CwfDataFactory.create(), 1);
+        assertEquals("[q:3]", mAttached.toString());
+        assertEquals("[ViewportQueryInitEvent, ViewportQueryCompleteEvent]", events());
+    }
+
+    @Test
+    public void testViewportIsAttachedAfterTheFirstPart() {
+        AsEmapiTreeMapList<Item> tList = list("q");
+        mService.populateDataSourceFromQuery(mConnection, mViewport, tList, CwfDataFactory.create(), 1);
+        assertTrue(mAttached.isEmpty());
+
+        mQueries.get(0).onResponse(new PartialResponse(false, new Item("a"), new Item("b")));
+        assertEquals("[q:2]", mAttached.toString());
+        mQueries.get(0).onResponse(new PartialResponse(false, new Item("c")));
+        mQueries.get(0).onResponse(new PartialResponse(true, new Item("d")));
+        assertEquals(4, tList.size());
+        assertEquals("[q:2]", mAttached.toString());
+        assertEquals("[ViewportQueryInitEvent, ViewportQueryCompleteEvent]", events());
+    }
+
+    @Test
+    public void testNewQueryCancelsThePrevious() {
+        AsEmapiTreeMapList<Item> tFirst = list("first");
+        AsEmapiTreeMapList<Item> tSecond = list("second");
+        mService.populateDataSourceFromQuery(mConnection, mViewport, tFirst, CwfDataFactory.create(), 1);
+        mService.populateDataSourceFromQuery(mConnection, mViewport, tSecond, CwfDataFactory.create(), 2);
+        events();
+
+        mQueries.get(0).onResponse(new PartialResponse(true, new Item("a")));
+        assertEquals(0, tFirst.size());
+        assertTrue(mAttached.isEmpty());
+        assertEquals("[]", events());
+
+        mQueries.get(1).onResponse(new Response(new Item("b")));
+        assertEquals("[second:1]", mAttached.toString());
+        assertEquals("[ViewportQueryCompleteEvent]", events());
+    }
+
+    @Test
+    public void testResetCancelsRunningQueries() {
+        AsEmapiTreeMapList<Item> tList = list("q");
+        mService.populateDataSourceFromQuery(mConnection, mViewport, tList, CwfDataFactory.create(), 1);
+        mService.resetDataSourceSubscriptions();
+        events();
+
+        mQueries.get(0).onResponse(new Response(new Item("a")));
+        assertEquals(0, tList.size());
+        assertTrue(mAttached.isEmpty());
+        assertEquals("[]", events());
+    }
+
+    @Test
+    public void testMissingResponseCompletesTheSharedResult() {
+        defineCachedQuery();
+        AsDataSourceServiceImpl tWaiting = service();
+        mService.populateDataSourceFromQuery(mConnection, mViewport, list(CACHED_QUERY), CwfDataFactory.create(), 1);
+        tWaiting.populateDataSourceFromQuery(mConnection, list(CACHED_QUERY), CwfDataFactory.create(), 2);
+        assertEquals(1, mQueries.size());
+
+        mQueries.get(0).onResponse(null);
+        assertEquals("[ViewportQueryInitEvent, ViewportQueryCompleteEvent]", events());
+        assertEquals("[ViewportQueryInitEvent, ViewportQueryCompleteEvent]", events(tWaiting));
+        assertEquals(1, AsQueryResultCache.get().size());
+    }
+
+    @Test
+    public void testExceptionFailsTheSharedResult() {
+        defineCachedQuery();
+        mService = new AsDataSourceServiceImpl() {
+            @Override
+            protected List<Object> getQueryResult(Object pResponse, Class<?> pItemClass) {
+                throw new IllegalStateException("broken response");
+            }
+        };
+        mService.setSessionData(AsTestEnvironment.inert(AsSessionDataIf.class));
+        AsDataSourceServiceImpl tWaiting = service();
+        mService.populateDataSourceFromQuery(mConnection, mViewport, list(CACHED_QUERY), CwfDataFactory.create(), 1);
+        tWaiting.populateDataSourceFromQuery(mConnection, list(CACHED_QUERY), CwfDataFactory.create(), 2);
+
+        try {
+            mQueries.get(0).onResponse(new Response(new Item("a")));
+            fail("Exception expected");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("broken response", e.getMessage());
+        }
+        assertEquals("[ViewportQueryInitEvent, ViewportErrorEvent]", events());
+        assertEquals("[ViewportQueryInitEvent, ViewportErrorEvent]", events(tWaiting));
+        assertEquals(0, AsQueryResultCache.get().size());
+
+        // The failed result is not shared, the next query is executed again
+        tWaiting.populateDataSourceFromQuery(mConnection, list(CACHED_QUERY), CwfDataFactory.create(), 3);
+        assertEquals(2, mQueries.size());
+    }
+
+    @Test
+    public void testDifferentQueriesAreNotShared() {
+        defineCachedQuery();
+        AsDataSourceServiceImpl tOther = service();
+        mService.populateDataSourceFromQuery(mConnection, mViewport, list(CACHED_QUERY), query("a"), 1);
+        tOther.populateDataSourceFromQuery(mConnection, list(CACHED_QUERY), query("b"), 2);
+        assertEquals(2, mQueries.size());
+        assertEquals(AsQueryResultCache.getKey(CACHED_QUERY, query("a")),
+            AsQueryResultCache.getKey(CACHED_QUERY, query("a")));
+    }
+
+    /**
+     * Create a query.
+     *
+     * @param pValue the value queried for
+     * @return the query
+     */
+    private static CwfDataIf query(String pValue) {
+        CwfDataIf tQuery = CwfDataFactory.create();
+        tQuery.setProperty("value", pValue);
+        return tQuery;
+    }
+
+    /**
+     * Create a data source service of a session.
+     *
+     * @return the service
+     */
+    private static AsDataSourceServiceImpl service() {
+        AsDataSourceServiceImpl tService = new AsDataSourceServiceImpl();
+        tService.setSessionData(AsTestEnvironment.inert(AsSessionDataIf.class));
+        return tService;
+    }
+
+    /**
+     * Define a query data source sharing its results for a minute.
+     */
+    private static void defineCachedQuery() {
+        Map<String, String> tProperties = new HashMap<String, String>();
+        tProperties.put(ATTR_ID, CACHED_QUERY);
+        tProperties.put(ATTR_QUERY_CACHE_TTL, "60000");
+        new AsDataSourceDef<Item>(null, AsTestEnvironment.createData(tProperties, new ArrayList<CwfDataIf>()));
+    }
+
+    /**
+     * Create an empty query data source.
+     *
+     * @param pId the data source id
+     * @return the list
+     */
+    private static AsEmapiTreeMapList<Item> list(String pId) {
+        return new AsEmapiTreeMapList<Item>(pId, Item.class, "id");
+    }
+
+    /**
+     * Take the names of the pending data source events of the service.
+     *
+     * @return the event names
+     */
+    private String events() {
+        return events(mService);
+    }
+
+    /**
+     * Take the names of the pending data source events of the given service.
+     *
+     * @param pService the service
+     * @return the event names
+     */
+    private static String events(AsDataSourceServiceImpl pService) {
+        List<String> tNames = new ArrayList<String>();
+        for (CwfMessageIf tEvent : pService.mPendingDataSourceEvents.drain()) {
+            tNames.add(tEvent.getName());
+        }
+        return tNames.toString();
+    }
+
+    /**
+     * Item with an id.
+     */
+    public static class Item {
+
+        /** The id. */
+        private final String mId;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         */
+        public Item(String pId) {
+            mId = pId;
+        }
+
+        public String getId() {
+            return mId;
+        }
+    }
+
+    /**
+     * Query response holding items.
+     */
+    public static class Response {
+
+        /** The items. */
+        public final Item[] items;
+
+        /**
+         * Create a response.
+         *
+         * @param pItems the items
+         */
+        public Response(Item... pItems) {
+            items = pItems;
+        }
+    }
+
+    /**
+     * Part of a streamed query response.
+     */
+    public static class PartialResponse extends Response implements AsPartialResponseIf {
+
+        /** The last part flag. */
+        private final boolean mLastPart;
+
+        /**
+         * Create a part of a response.
+         *
+         * @param pLastPart {@code true} if this is the last part
+         * @param pItems the items
+         */
+        public PartialResponse(boolean pLastPart, Item... pItems) {
+            super(pItems);
+            mLastPart = pLastPart;
+        }
+
+        @Override
+        public boolean isLastPart() {
+            return mLastPart;
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.CwfBusinessTypeIf;
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.datasource.AsDataSourceServiceIf;
+import com.cinnober.ciguan.datasource.AsGetMethodIf;
+import com.cinnober.ciguan.datasource.impl.AsTreeMapListTest.Item;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the viewport updates and the selection of a viewport
+ */
+public class AsDataSourceViewportListenerImplTest implements MvcModelAttributesIf {
+
+    /** The list. */
+    private ModifiedWhileReadList mList;
+
+    /** The viewport. */
+    private AsDataSourceViewportListenerImpl<Item> mViewport;
+
+    /** The locale of the session. */
+    private Locale mLocale = Locale.ENGLISH;
+
+    /** The suffix appended by the getter of {@link #setSuffixColumns(boolean...)}. */
+    private String mSuffix = "1";
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mList = new ModifiedWhileReadList();
+        mList.add(new Item("a"));
+        mList.add(new Item("b"));
+        mList.add(new Item("c"));
+        AsDataSourceServiceIf tService = (AsDataSourceServiceIf) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { AsDataSourceServiceIf.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    return pMethod.getName().equals("getLocale") ? mLocale : null;
+                }
+            });
+        mViewport = new AsDataSourceViewportListenerImpl<Item>(mList, new String[] { "id" }, 1, true, tService,
+            null);
+        mViewport.setViewportSize(4);
+    }
+
+    @Test
+    public void testRowsAreReadOneByOneAfterAConcurrentModification() {
+        mList.mFailAfter = 1;
+        CwfDataIf tGridData = mViewport.getEvent().getData().getObject(ATTR_GRID_DATA);
+        // The viewport is larger than the list
+        assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(tGridData.getStringArray(ATTR_KEYS)).subList(0, 3));
+        assertArrayEquals(new String[] { "c" }, tGridData.getStringArrayMap(ATTR_VALUES).get("c"));
+    }
+
+    @Test
+    public void testSelectAllDoesNotSelectRowsAddedLater() {
+        mViewport.selectAll();
+        mList.add(new Item("0"));
+        CwfDataIf tData = mViewport.getEvent().getData();
+        assertEquals(3, tData.getObject(ATTR_SCROLL_DATA).getIntProperty(ATTR_SELECTED_COUNT).intValue());
+        assertArrayEquals(new String[] { "a", "b", "c" },
+            tData.getObject(ATTR_GRID_DATA).getStringArray(ATTR_SELECTED_KEYS));
+    }
+
+    @Test
+    public void testDerivedColumnsAreFormattedForEveryEvent() {
+        mViewport.init(Item.class, new String[] { "id", "id,id" });
+        assertEquals(Arrays.asList(false, true), Arrays.asList(mViewport.mDerivedColumns[0],
+            mViewport.mDerivedColumns[1]));
+
+        setSuffixColumns(true);
+        assertArrayEquals(new String[] { "a1" }, getValues("a"));
+        mSuffix = "2";
+        assertArrayEquals(new String[] { "a2" }, getValues("a"));
+    }
+
+    @Test
+    public void testRowsAreFormattedAgainWhenTheLocaleChanges() {
+        setSuffixColumns(false);
+        assertArrayEquals(new String[] { "a1" }, getValues("a"));
+        mSuffix = "2";
+        // The row is unchanged, its formatted values are reused
+        assertArrayEquals(new String[] { "a1" }, getValues("a"));
+        mLocale = Locale.GERMAN;
+        assertArrayEquals(new String[] { "a2" }, getValues("a"));
+    }
+
+    @Test
+    public void testRowsAreSentAfterAConcurrentModificationOfTheFirstRow() {
+        mList.mFailAfter = 0;
+        CwfDataIf tGridData = mViewport.getEvent().getData().getObject(ATTR_GRID_DATA);
+        assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(tGridData.getStringArray(ATTR_KEYS)).subList(0, 3));
+        assertTrue(tGridData.getStringArrayMap(ATTR_VALUES).containsKey("a"));
+    }
+
+    @Test
+    public void testOnlyColumnsNotDerivedAreFormattedAhead() {
+        for (int i = 0; i < 100; i++) {
+            mList.add(new Item(String.format("%03d", i)));
+        }
+        mViewport.setViewportSize(5);
+        SuffixGetMethod[] tColumns = setSuffixColumns(false, true);
+        int tMargin = AsDataSourceViewportListenerImpl.DEFAULT_VIEWPORT_PREFETCH_MARGIN;
+
+        mViewport.getEvent();
+        assertEquals(5 + tMargin, tColumns[0].mCalls);
+        assertEquals(5, tColumns[1].mCalls);
+
+        // Unchanged rows reuse the plain column, the derived column is formatted for the rows sent
+        mViewport.getEvent();
+        assertEquals(5 + tMargin, tColumns[0].mCalls);
+        assertEquals(10, tColumns[1].mCalls);
+
+        // Rows scrolled into view were formatted ahead, except for the derived column
+        mViewport.setViewportPosition(10, false);
+        String[] tValues = getValues("013");
+        assertArrayEquals(new String[] { "0131", "0131" }, tValues);
+        assertEquals(15 + tMargin, tColumns[0].mCalls);
+        assertEquals(15, tColumns[1].mCalls);
+    }
+
+    /**
+     * Replace the columns of the viewport with columns of the id followed by {@link #mSuffix}.
+     *
+     * @param pDerived per column, {@code true} if the column is derived
+     * @return the getters of the columns
+     */
+    @SuppressWarnings("unchecked")
+    private SuffixGetMethod[] setSuffixColumns(boolean... pDerived) {
+        SuffixGetMethod[] tColumns = new SuffixGetMethod[pDerived.length];
+        for (int i = 0; i < pDerived.length; i++) {
+            tColumns[i] = new SuffixGetMethod();
+        }
+        mViewport.mGetMethods = new AsGetMethodIf[pDerived.length];
+        System.arraycopy(tColumns, 0, mViewport.mGetMethods, 0, pDerived.length);
+        mViewport.mDerivedColumns = pDerived.clone();
+        mViewport.mFormattedRows.clear();
+        return tColumns;
+    }
+
+    /**
+     * Get the formatted values of a row from a new event of the viewport.
+     *
+     * @param pKey the key of the row
+     * @return the values
+     */
+    private String[] getValues(String pKey) {
+        return mViewport.getEvent().getData().getObject(ATTR_GRID_DATA).getStringArrayMap(ATTR_VALUES).get(pKey);
+    }
+
+    /**
+     * Getter of the id followed by {@link #mSuffix}, counting the texts formatted.
+     */
+    private class SuffixGetMethod implements AsGetMethodIf<Item> {
+
+        /** The number of texts formatted. */
+        private int mCalls;
+
+        @Override
+        public Object getObject(Item pItem) {
+            return getValue(pItem);
+        }
+
+        @Override
+        public String getValue(Item pItem) {
+            return pItem.getId() + mSuffix;
+        }
+
+        @Override
+        public String getText(Item pItem, AsDataSourceServiceIf pService) {
+            mCalls++;
+            return getValue(pItem);
+        }
+
+        @Override
+        public String getAttributeName() {
+            return "id";
+        }
+
+        @Override
+        public Class<Item> getItemClass() {
+            return Item.class;
+        }
+
+        @Override
+        public CwfBusinessTypeIf getBusinessType() {
+            return null;
+        }
+
+        @Override
+        public String getBusinessSubtype() {
+            return null;
+        }
+    }
+
+    /**
+     * List whose cursors fail with a concurrent modification after a number of rows.
+     */
+    private static class ModifiedWhileReadList extends AsEmapiTreeMapList<Item> {
+
+        /** The number of rows read before a cursor fails, or a negative value for cursors which never fail. */
+        private int mFailAfter = -1;
+
+        /**
+         * Create the list.
+         */
+        ModifiedWhileReadList() {
+            super("items", Item.class, "id");
+        }
+
+        @Override
+        public Iterator<Item> iterator(int pIndex) {
+            final Iterator<Item> tIterator = super.iterator(pIndex);
+            return new Iterator<Item>() {
+
+                /** The number of rows read. */
+                private int mRead;
+
+                @Override
+                public boolean hasNext() {
+                    return tIterator.hasNext();
+                }
+
+                @Override
+                public Item next() {
+                    if (mRead++ == mFailAfter) {
+                        throw new ConcurrentModificationException();
+                    }
+                    return tIterator.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+}
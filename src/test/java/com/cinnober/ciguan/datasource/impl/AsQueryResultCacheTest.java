@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.data.CwfDataFactory;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the cache keys of queries
+ */
+public class AsQueryResultCacheTest {
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Test
+    public void testKeyIsIndependentOfTheAttributeOrder() {
+        CwfDataIf tQuery = CwfDataFactory.create();
+        tQuery.setProperty("a", "1");
+        tQuery.setProperty("b", 2);
+        tQuery.setProperty("c", new String[] { "x", "y" });
+        CwfDataIf tOther = CwfDataFactory.create();
+        tOther.setProperty("c", new String[] { "x", "y" });
+        tOther.setProperty("b", 2);
+        tOther.setProperty("a", "1");
+        assertEquals(AsQueryResultCache.getKey("ds", tQuery), AsQueryResultCache.getKey("ds", tOther));
+    }
+
+    @Test
+    public void testKeyHoldsAllValues() {
+        CwfDataIf tQuery = CwfDataFactory.create();
+        tQuery.setProperty("count", 2);
+        tQuery.setProperty("active", Boolean.TRUE);
+        CwfDataIf tOther = CwfDataFactory.create();
+        tOther.setProperty("count", 3);
+        tOther.setProperty("active", Boolean.TRUE);
+        assertFalse(AsQueryResultCache.getKey("ds", tQuery).equals(AsQueryResultCache.getKey("ds", tOther)));
+
+        tOther.setProperty("count", 2);
+        tOther.setProperty("active", Boolean.FALSE);
+        assertFalse(AsQueryResultCache.getKey("ds", tQuery).equals(AsQueryResultCache.getKey("ds", tOther)));
+    }
+
+    @Test
+    public void testValuesCannotForgeOtherAttributes() {
+        CwfDataIf tQuery = CwfDataFactory.create();
+        tQuery.setProperty("a", "1;b=2");
+        CwfDataIf tOther = CwfDataFactory.create();
+        tOther.setProperty("a", "1");
+        tOther.setProperty("b", "2");
+        assertFalse(AsQueryResultCache.getKey("ds", tQuery).equals(AsQueryResultCache.getKey("ds", tOther)));
+    }
+
+    @Test
+    public void testKeyHoldsNestedObjects() {
+        CwfDataIf tQuery = CwfDataFactory.create();
+        CwfDataIf tRange = CwfDataFactory.create();
+        tRange.setProperty("from", 1);
+        tQuery.setObject("range", tRange);
+        CwfDataIf tOther = CwfDataFactory.create();
+        CwfDataIf tOtherRange = CwfDataFactory.create();
+        tOtherRange.setProperty("from", 5);
+        tOther.setObject("range", tOtherRange);
+        assertFalse(AsQueryResultCache.getKey("ds", tQuery).equals(AsQueryResultCache.getKey("ds", tOther)));
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.AsDataSourceEventIf;
+import com.cinnober.ciguan.datasource.AsDataSourceEventIf.Type;
+import com.cinnober.ciguan.datasource.AsDataSourceIf;
+import com.cinnober.ciguan.datasource.AsDataSourceListenerIf;
+import com.cinnober.ciguan.datasource.AsFilterIf;
+import com.cinnober.ciguan.datasource.RpcSortCriteriaIf;
+import com.cinnober.ciguan.datasource.RpcSortCriteriaIf.SortOrder;
+import com.cinnober.ciguan.datasource.filter.RpcAttributeSortCriteria;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the tree map list
+ */
+public class AsTreeMapListTest {
+
+    /** The list. */
+    private AsEmapiTreeMapList<Item> mList;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mList = new AsEmapiTreeMapList<Item>("items", Item.class, "id");
+        mList.add(new Item("b"));
+        mList.add(new Item("a"));
+    }
+
+    @Test
+    public void testSnapshotIsSharedUntilTheListChanges() {
+        Collection<Item> tSnapshot = mList.values();
+        long tVersion = mList.getVersion();
+        assertSame(tSnapshot, mList.values());
+        assertEquals(Arrays.asList("a", "b"), ids(tSnapshot));
+
+        mList.add(new Item("c"));
+        assertTrue(mList.getVersion() > tVersion);
+        Collection<Item> tChanged = mList.values();
+        assertNotSame(tSnapshot, tChanged);
+        assertEquals(Arrays.asList("a", "b", "c"), ids(tChanged));
+        // The previous snapshot is left as it was
+        assertEquals(Arrays.asList("a", "b"), ids(tSnapshot));
+
+        tVersion = mList.getVersion();
+        mList.remove(new Item("a"));
+        assertTrue(mList.getVersion() > tVersion);
+        assertEquals(Arrays.asList("b", "c"), ids(mList.values()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsReadOnly() {
+        mList.values().clear();
+    }
+
+    @Test
+    public void testIteratorFromTheEnd() {
+        assertFalse(mList.iterator(2).hasNext());
+        assertFalse(mList.iterator(5).hasNext());
+        assertEquals("b", mList.iterator(1).next().getId());
+        mList.clear();
+        assertFalse(mList.iterator(0).hasNext());
+    }
+
+    @Test
+    public void testRemoveByKeyPrefix() {
+        mList.add(new Item("b+2"));
+        mList.add(new Item("b+1"));
+        mList.add(new Item("b2"));
+        mList.add(new Item("c"));
+        final List<String> tEvents = new ArrayList<String>();
+        mList.addListener(new AsDataSourceListenerIf<Item>() {
+            @Override
+            public void onDataSourceEvent(AsDataSourceEventIf<Item> pEvent) {
+                assertEquals(Type.REMOVE, pEvent.getType());
+                tEvents.add(pEvent.getIndex() + ":" + pEvent.getOldValue().getId());
+            }
+
+            @Override
+            public AsDataSourceIf<Item> getDataSource() {
+                return mList;
+            }
+        }, false);
+
+        long tVersion = mList.getVersion();
+        assertEquals(Arrays.asList("b+1", "b+2"), ids(mList.removeByKeyPrefix("b+", null)));
+        // Removed from the last to the first, at their indexes at the time of removal
+        assertEquals(Arrays.asList("3:b+2", "2:b+1"), tEvents);
+        assertEquals(Arrays.asList("a", "b", "b2", "c"), ids(mList.values()));
+        assertTrue(mList.getVersion() > tVersion);
+
+        assertTrue(mList.removeByKeyPrefix("d", null).isEmpty());
+        assertEquals(2, tEvents.size());
+    }
+
+    @Test
+    public void testRemoveByKeyPrefixKeepsItemsRejectedByTheFilter() {
+        mList.add(new Item("b1"));
+        mList.add(new Item("b2"));
+        mList.add(new Item("b3"));
+        List<Item> tRemoved = mList.removeByKeyPrefix("b", new AsFilterIf<Item>() {
+            @Override
+            public boolean include(Item pItem) {
+                return !pItem.getId().equals("b2");
+            }
+        });
+        assertEquals(Arrays.asList("b", "b1", "b3"), ids(tRemoved));
+        assertEquals(Arrays.asList("a", "b2"), ids(mList.values()));
+    }
+
+    @Test
+    public void testRemoveByKeyPrefixFromASortedList() {
+        mList.add(new Item("b+1"));
+        mList.add(new Item("b+2"));
+        mList.add(new Item("c"));
+        final AsEmapiSortableTreeMapList<Item> tSorted = new AsEmapiSortableTreeMapList<Item>("sorted", mList,
+            null, new AsAttributeValueSort<Item>(Item.class,
+                new RpcSortCriteriaIf[] { new RpcAttributeSortCriteria("id", SortOrder.DESCENDING) }));
+        final List<String> tEvents = new ArrayList<String>();
+        tSorted.addListener(new AsDataSourceListenerIf<Item>() {
+            @Override
+            public void onDataSourceEvent(AsDataSourceEventIf<Item> pEvent) {
+                assertEquals(Type.REMOVE, pEvent.getType());
+                tEvents.add(pEvent.getIndex() + ":" + pEvent.getOldValue().getId());
+            }
+
+            @Override
+            public AsDataSourceIf<Item> getDataSource() {
+                return tSorted;
+            }
+        }, false);
+
+        assertEquals(Arrays.asList("b+1", "b+2"), ids(tSorted.removeByKeyPrefix("b+", null)));
+        // Removed at their indexes in the sort order
+        assertEquals(Arrays.asList("2:b+1", "1:b+2"), tEvents);
+        assertEquals(3, tSorted.size());
+        List<String> tIds = new ArrayList<String>();
+        for (int i = 0; i < tSorted.size(); i++) {
+            tIds.add(tSorted.get(i).getId());
+            assertEquals(i, tSorted.indexOf(tSorted.get(i)));
+        }
+        assertEquals(Arrays.asList("c", "b", "a"), tIds);
+        assertEquals(-1, tSorted.indexOf("b+1"));
+    }
+
+    @Test
+    public void testAddAllToAnEmptyListSendsOneSnapshot() {
+        final AsEmapiTreeMapList<Item> tList = new AsEmapiTreeMapList<Item>("bulk", Item.class, "id");
+        final List<String> tEvents = new ArrayList<String>();
+        tList.addListener(new AsDataSourceListenerIf<Item>() {
+            @Override
+            public void onDataSourceEvent(AsDataSourceEventIf<Item> pEvent) {
+                tEvents.add(pEvent.getType() == Type.SNAPSHOT ? "SNAPSHOT:" + ids(pEvent.getSnapshot())
+                    : pEvent.getType() + ":" + pEvent.getNewValue().getId());
+            }
+
+            @Override
+            public AsDataSourceIf<Item> getDataSource() {
+                return tList;
+            }
+        }, false);
+
+        Item tLastA = new Item("a");
+        tList.addAll(Arrays.asList(new Item("c"), new Item("a"), new Item("b"), tLastA));
+        // Sorted by key, with the last of the items with the same key kept
+        assertEquals(Arrays.asList("a", "b", "c"), ids(tList.values()));
+        assertSame(tLastA, tList.get("a"));
+        assertEquals(2, tList.indexOf("c"));
+        assertEquals(Arrays.asList("SNAPSHOT:[a, b, c]"), tEvents);
+
+        // Items added to a list which is not empty are sent one by one
+        tList.addAll(Arrays.asList(new Item("d"), new Item("b+")));
+        assertEquals(Arrays.asList("a", "b", "b+", "c", "d"), ids(tList.values()));
+        assertEquals(Arrays.asList("SNAPSHOT:[a, b, c]", "ADD:d", "ADD:b+"), tEvents);
+    }
+
+    @Test
+    public void testAddAllToAnEmptySortedList() {
+        AsEmapiTreeMapList<Item> tSource = new AsEmapiTreeMapList<Item>("source", Item.class, "id");
+        AsEmapiSortableTreeMapList<Item> tSorted = new AsEmapiSortableTreeMapList<Item>("sorted", tSource,
+            null, new AsAttributeValueSort<Item>(Item.class,
+                new RpcSortCriteriaIf[] { new RpcAttributeSortCriteria("id", SortOrder.DESCENDING) }));
+
+        Item tLastB = new Item("b");
+        tSorted.addAll(Arrays.asList(new Item("b"), new Item("a"), new Item("c"), tLastB));
+        assertEquals(Arrays.asList("c", "b", "a"), sortedIds(tSorted));
+        assertSame(tLastB, tSorted.get("b"));
+
+        tSorted.addAll(Arrays.asList(new Item("d")));
+        assertEquals(Arrays.asList("d", "c", "b", "a"), sortedIds(tSorted));
+    }
+
+    /**
+     * Get the ids of the items of the given sorted list in sort order, checking that each item is
+     * found at its index.
+     *
+     * @param pList the list
+     * @return the ids
+     */
+    private static List<String> sortedIds(AsEmapiSortableTreeMapList<Item> pList) {
+        List<String> tIds = new ArrayList<String>();
+        for (int i = 0; i < pList.size(); i++) {
+            tIds.add(pList.get(i).getId());
+            assertEquals(i, pList.indexOf(pList.get(i)));
+        }
+        return tIds;
+    }
+
+    /**
+     * Get the ids of the given items.
+     *
+     * @param pItems the items
+     * @return the ids
+     */
+    private static List<String> ids(Collection<Item> pItems) {
+        List<String> tIds = new ArrayList<String>();
+        for (Item tItem : pItems) {
+            tIds.add(tItem.getId());
+        }
+        return tIds;
+    }
+
+    /**
+     * Item with an id.
+     */
+    public static class Item {
+
+        /** The id. */
+        private final String mId;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         */
+        public Item(String pId) {
+            mId = pId;
+        }
+
+        public String getId() {
+            return mId;
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.AsDataSourceEventIf;
+import com.cinnober.ciguan.datasource.AsDataSourceIf;
+import com.cinnober.ciguan.datasource.AsDataSourceListenerIf;
+import com.cinnober.ciguan.datasource.RpcSortCriteriaIf;
+import com.cinnober.ciguan.datasource.RpcSortCriteriaIf.SortOrder;
+import com.cinnober.ciguan.datasource.filter.RpcAttributeSortCriteria;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests that the viewport selection holds the rows selected at the time of selection
+ */
+public class AsViewportSelectionTest {
+
+    /** The source list, in key order. */
+    private AsEmapiTreeMapList<Item> mSource;
+
+    /** The list sorted on rank. */
+    private AsEmapiSortableTreeMapList<Item> mList;
+
+    /** The selection. */
+    private AsViewportSelection<Item> mSelection;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mSource = new AsEmapiTreeMapList<Item>("items", Item.class, "id");
+        String tIds = "abcde";
+        for (int i = 0; i < tIds.length(); i++) {
+            mSource.add(new Item(tIds.substring(i, i + 1), String.valueOf(i + 1)));
+        }
+        mList = new AsEmapiSortableTreeMapList<Item>("sorted", mSource, null, new AsAttributeValueSort<Item>(
+            Item.class, new RpcSortCriteriaIf[] { new RpcAttributeSortCriteria("rank", SortOrder.ASCENDING) }));
+        mSelection = new AsViewportSelection<Item>(mList);
+        mList.addListener(new AsDataSourceListenerIf<Item>() {
+            @Override
+            public void onDataSourceEvent(AsDataSourceEventIf<Item> pEvent) {
+                switch (pEvent.getType()) {
+                case ADD:
+                    assertEquals(pEvent.getIndex(), mList.indexOf(pEvent.getNewValue()));
+                    mSelection.added(pEvent.getNewValue().getId(), pEvent.getIndex());
+                    break;
+                case UPDATE:
+                    assertEquals(pEvent.getIndex(), mList.indexOf(pEvent.getNewValue().getId()));
+                    mSelection.moved(pEvent.getNewValue().getId(), pEvent.getOldIndex(), pEvent.getIndex());
+                    break;
+                case REMOVE:
+                    assertEquals(-1, mList.indexOf(pEvent.getOldValue().getId()));
+                    mSelection.removed(pEvent.getOldValue().getId(), pEvent.getIndex());
+                    break;
+                default:
+                }
+            }
+
+            @Override
+            public AsDataSourceIf<Item> getDataSource() {
+                return mList;
+            }
+        }, false);
+    }
+
+    @Test
+    public void testSelectAllDoesNotSelectRowsAddedLater() {
+        mSelection.selectAll();
+        mSource.add(new Item("f", "0"));
+        mSource.add(new Item("g", "9"));
+        assertFalse(mSelection.contains("f"));
+        assertFalse(mSelection.contains("g"));
+        assertEquals(5, mSelection.size());
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), keys());
+
+        mSelection.add("f");
+        assertTrue(mSelection.contains("f"));
+        assertEquals(Arrays.asList("f", "a", "b", "c", "d", "e"), keys());
+        assertEquals(6, mSelection.size());
+    }
+
+    @Test
+    public void testRangeKeepsItsRowsWhenRowsMove() {
+        mSelection.selectRange("b", "d");
+        // Moved into the range
+        mSource.update(new Item("e", "3"));
+        // Moved out of the range
+        mSource.update(new Item("c", "9"));
+        assertEquals(Arrays.asList("a", "b", "e", "d", "c"), ids(mList));
+        assertFalse(mSelection.contains("e"));
+        assertTrue(mSelection.contains("c"));
+        assertEquals(3, mSelection.size());
+        assertEquals(Arrays.asList("b", "d", "c"), keys());
+
+        // Moved back into the range, as a member
+        mSource.update(new Item("c", "3"));
+        assertEquals(Arrays.asList("b", "c", "d"), keys());
+    }
+
+    @Test
+    public void testMovedBoundaryIsReplacedByItsNeighbour() {
+        mSelection.selectRange("b", "d");
+        mSource.update(new Item("b", "9"));
+        assertEquals(Arrays.asList("a", "c", "d", "e", "b"), ids(mList));
+        assertEquals(Arrays.asList("c", "d", "b"), keys());
+
+        mSource.update(new Item("d", "0"));
+        assertEquals(Arrays.asList("d", "a", "c", "e", "b"), ids(mList));
+        // The range is down to its remaining row, the moved rows follow in the order they left it
+        assertEquals(Arrays.asList("c", "b", "d"), keys());
+        assertFalse(mSelection.contains("a"));
+        assertFalse(mSelection.contains("e"));
+
+        mSource.remove(new Item("c", "3"));
+        assertEquals(Arrays.asList("b", "d"), keys());
+        assertEquals(2, mSelection.size());
+    }
+
+    @Test
+    public void testDeselectedRowIsNotReselectedByAMove() {
+        mSelection.selectAll();
+        mSelection.remove("c");
+        mSource.update(new Item("c", "9"));
+        mSource.update(new Item("c", "0"));
+        assertFalse(mSelection.contains("c"));
+        assertEquals(Arrays.asList("a", "b", "d", "e"), keys());
+    }
+
+    @Test
+    public void testNewListKeepsTheRowsSelectedInThePreviousList() {
+        mSelection.selectAll();
+        mSource.add(new Item("f", "0"));
+        mSelection.setList(mSource);
+        mSource.add(new Item("g", "9"));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), keys());
+    }
+
+    @Test
+    public void testClearDropsTheRanges() {
+        mSelection.selectAll();
+        mSelection.cleared();
+        mSource.add(new Item("f", "0"));
+        assertEquals(0, mSelection.size());
+    }
+
+    /**
+     * Get the selected keys in iteration order.
+     *
+     * @return the keys
+     */
+    private List<String> keys() {
+        return new ArrayList<String>(mSelection.getKeys());
+    }
+
+    /**
+     * Get the ids of the items of the given list, in list order.
+     *
+     * @param pList the list
+     * @return the ids
+     */
+    private static List<String> ids(AsEmapiTreeMapList<Item> pList) {
+        List<String> tIds = new ArrayList<String>();
+        for (int i = 0; i < pList.size(); i++) {
+            tIds.add(pList.get(i).getId());
+        }
+        return tIds;
+    }
+
+    /**
+     * Item with an id and a rank.
+     */
+    public static class Item {
+
+        /** The id. */
+        private final String mId;
+
+        /** The rank. */
+        private final String mRank;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         * @param pRank the rank
+         */
+        public Item(String pId, String pRank) {
+            mId = pId;
+            mRank = pRank;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getRank() {
+            return mRank;
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.owner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.AsDataSourceIf;
+import com.cinnober.ciguan.datasource.AsListIf;
+
+/**
+ * Tests the idle eviction policy of data source owners
+ */
+public class AsDataSourceEvictionPolicyTest {
+
+    @Test
+    public void testIdleTimeIsNotScaledByDefault() {
+        AsDataSourceEvictionPolicy tPolicy = new AsDataSourceEvictionPolicy("defaulttest");
+        Map<String, AsDataSourceIf<?>> tDataSources = new LinkedHashMap<String, AsDataSourceIf<?>>();
+        tDataSources.put("cheap", dataSource(AsDataSourceEvictionPolicy.DEFAULT_MAX_IDLE + 1, 10));
+        tDataSources.put("expensive", dataSource(AsDataSourceEvictionPolicy.DEFAULT_MAX_IDLE + 1, 100000));
+        tDataSources.put("recent", dataSource(AsDataSourceEvictionPolicy.DEFAULT_MAX_IDLE - 1, 10));
+        tDataSources.put("used", dataSource(0, 10));
+        assertEquals(Arrays.asList("cheap", "expensive"), tPolicy.select(tDataSources));
+    }
+
+    @Test
+    public void testIdleTimeIsScaledByAConfiguredCostUnit() {
+        System.setProperty(AsDataSourceEvictionPolicy.CWF_DATA_SOURCE_COST_UNIT_PROPERTY + ".costtest", "10000");
+        try {
+            AsDataSourceEvictionPolicy tPolicy = new AsDataSourceEvictionPolicy("costtest");
+            Map<String, AsDataSourceIf<?>> tDataSources = new LinkedHashMap<String, AsDataSourceIf<?>>();
+            tDataSources.put("cheap", dataSource(AsDataSourceEvictionPolicy.DEFAULT_MAX_IDLE * 2, 10));
+            tDataSources.put("expensive", dataSource(AsDataSourceEvictionPolicy.DEFAULT_MAX_IDLE * 2, 100000));
+            assertEquals(Collections.singletonList("cheap"), tPolicy.select(tDataSources));
+        }
+        finally {
+            System.clearProperty(AsDataSourceEvictionPolicy.CWF_DATA_SOURCE_COST_UNIT_PROPERTY + ".costtest");
+        }
+    }
+
+    @Test
+    public void testUseCountsArePrunedOnRemoval() {
+        AsDataSourceEvictionPolicy tPolicy = new AsDataSourceEvictionPolicy("prunetest");
+        for (int i = 0; i < 100; i++) {
+            tPolicy.onMiss("key" + i);
+            tPolicy.onHit("key" + i);
+        }
+        assertEquals(100, tPolicy.getTrackedKeyCount());
+        for (int i = 0; i < 50; i++) {
+            tPolicy.onEvict("key" + i);
+        }
+        for (int i = 50; i < 100; i++) {
+            tPolicy.onRemove("key" + i);
+        }
+        assertEquals(0, tPolicy.getTrackedKeyCount());
+
+        // A lookup racing the removal does not bring the count back
+        tPolicy.onHit("key0");
+        assertEquals(0, tPolicy.getTrackedKeyCount());
+        assertEquals(101, tPolicy.getHits());
+
+        tPolicy.onMiss("key0");
+        assertEquals(1, tPolicy.getRebuilds());
+        assertEquals(1, tPolicy.getTrackedKeyCount());
+    }
+
+    @Test
+    public void testLfuEvictsTheLeastUsedFirst() {
+        System.setProperty(AsDataSourceEvictionPolicy.CWF_DATA_SOURCE_EVICTION_PROPERTY + ".lfutest", "lfu");
+        System.setProperty(AsDataSourceEvictionPolicy.CWF_DATA_SOURCE_LIMIT_PROPERTY + ".lfutest", "1");
+        try {
+            AsDataSourceEvictionPolicy tPolicy = new AsDataSourceEvictionPolicy("lfutest");
+            tPolicy.onMiss("often");
+            tPolicy.onMiss("seldom");
+            tPolicy.onHit("often");
+            Map<String, AsDataSourceIf<?>> tDataSources = new LinkedHashMap<String, AsDataSourceIf<?>>();
+            tDataSources.put("often", dataSource(AsDataSourceEvictionPolicy.DEFAULT_MIN_RETENTION + 1, 10));
+            tDataSources.put("seldom", dataSource(AsDataSourceEvictionPolicy.DEFAULT_MIN_RETENTION + 1, 10));
+            assertEquals(Collections.singletonList("seldom"), tPolicy.select(tDataSources));
+        }
+        finally {
+            System.clearProperty(AsDataSourceEvictionPolicy.CWF_DATA_SOURCE_EVICTION_PROPERTY + ".lfutest");
+            System.clearProperty(AsDataSourceEvictionPolicy.CWF_DATA_SOURCE_LIMIT_PROPERTY + ".lfutest");
+        }
+    }
+
+    /**
+     * Create a list which has been without listeners for the given time, built from a source list of
+     * the given size.
+     *
+     * @param pIdle the idle time, 0 if in use
+     * @param pSourceSize the size of the source list
+     * @return the list
+     */
+    private static AsDataSourceIf<?> dataSource(long pIdle, int pSourceSize) {
+        return list(pIdle, 1, list(0, pSourceSize, null));
+    }
+
+    /**
+     * Create a list.
+     *
+     * @param pIdle the idle time, 0 if in use
+     * @param pSize the size
+     * @param pSource the source, or {@code null}
+     * @return the list
+     */
+    private static AsListIf<?> list(final long pIdle, final int pSize, final AsListIf<?> pSource) {
+        return (AsListIf<?>) Proxy.newProxyInstance(AsDataSourceEvictionPolicyTest.class.getClassLoader(),
+            new Class<?>[] { AsListIf.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    if (pMethod.getName().equals("getChildlessTime")) {
+                        return pIdle;
+                    }
+                    if (pMethod.getName().equals("size")) {
+                        return pSize;
+                    }
+                    if (pMethod.getName().equals("getSource")) {
+                        return pSource;
+                    }
+                    if (pMethod.getName().equals("isPermanent")) {
+                        return false;
+                    }
+                    throw new UnsupportedOperationException(pMethod.getName());
+                }
+            });
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.owner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.AsDataSourceIf;
+import com.cinnober.ciguan.datasource.AsFilterIf;
+import com.cinnober.ciguan.datasource.AsListIf;
+import com.cinnober.ciguan.datasource.AsSortIf;
+import com.cinnober.ciguan.datasource.RpcSortCriteriaIf;
+import com.cinnober.ciguan.datasource.RpcSortCriteriaIf.SortOrder;
+import com.cinnober.ciguan.datasource.filter.AsAttributeValueFilter;
+import com.cinnober.ciguan.datasource.filter.RpcAttributeSortCriteria;
+import com.cinnober.ciguan.datasource.impl.AsAttributeValueSort;
+import com.cinnober.ciguan.datasource.impl.AsDataSourceKeyGenerator;
+import com.cinnober.ciguan.datasource.impl.AsEmapiTreeMapList;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the concurrent creation and eviction of derived data sources
+ */
+public class AsDataSourcesTest {
+
+    /** Latch which blocks reading item names while set. */
+    private static final AtomicReference<CountDownLatch> cNameGate = new AtomicReference<CountDownLatch>();
+
+    /** Signalled when an item name is read while the gate is set. */
+    private static volatile CountDownLatch cNameRead;
+
+    /** The owner. */
+    private TestDataSources mOwner;
+
+    /** The filter of the derived data sources. */
+    private AsFilterIf<Item> mFilter;
+
+    /** The sort of the derived data sources. */
+    private AsSortIf<Item> mSort;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mOwner = new TestDataSources();
+        AsEmapiTreeMapList<Item> tItems = new AsEmapiTreeMapList<Item>("items", Item.class, "id");
+        for (int i = 0; i < 10; i++) {
+            tItems.add(new Item("item" + i, i % 2 == 0 ? "even" : "odd"));
+        }
+        tItems.setPermanent();
+        mOwner.putDataSource(tItems);
+        mFilter = AsAttributeValueFilter.create(Item.class, "kind=even");
+        mSort = new AsAttributeValueSort<Item>(Item.class,
+            new RpcSortCriteriaIf[] { new RpcAttributeSortCriteria("name", SortOrder.ASCENDING) });
+    }
+
+    @After
+    public void after() {
+        CountDownLatch tGate = cNameGate.getAndSet(null);
+        if (tGate != null) {
+            tGate.countDown();
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneBuild() throws Exception {
+        final CountDownLatch tGate = new CountDownLatch(1);
+        cNameRead = new CountDownLatch(1);
+        cNameGate.set(tGate);
+        final List<AsDataSourceIf<Item>> tResults = new ArrayList<AsDataSourceIf<Item>>();
+        List<Thread> tThreads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread tThread = new Thread() {
+                @Override
+                public void run() {
+                    AsDataSourceIf<Item> tResult = mOwner.getDataSource("items", mFilter, mSort);
+                    synchronized (tResults) {
+                        tResults.add(tResult);
+                    }
+                }
+            };
+            tThread.setDaemon(true);
+            tThreads.add(tThread);
+            tThread.start();
+        }
+        assertTrue(cNameRead.await(5, TimeUnit.SECONDS));
+        // Lookups of other keys are not blocked by the build
+        assertSame(mOwner.getDataSources().get("items"), mOwner.getDataSource("items", null, null));
+        cNameGate.set(null);
+        tGate.countDown();
+        for (Thread tThread : tThreads) {
+            tThread.join(5000);
+            assertFalse(tThread.isAlive());
+        }
+        assertEquals(4, tResults.size());
+        for (AsDataSourceIf<Item> tResult : tResults) {
+            assertSame(tResults.get(0), tResult);
+        }
+        // The filtered and the sorted data sources are built once each
+        assertEquals(2, mOwner.getEvictionPolicy().getMisses());
+    }
+
+    @Test
+    public void testSourceIsNotEvictedWhileBuiltFrom() throws Exception {
+        final AsDataSourceIf<Item> tFiltered = mOwner.getDataSource("items", mFilter, null);
+        String tFilteredKey = AsDataSourceKeyGenerator.createKey("items", mFilter, null);
+        assertSame(tFiltered, mOwner.getDataSources().get(tFilteredKey));
+
+        // Block the sorted build from the filtered data source
+        CountDownLatch tGate = new CountDownLatch(1);
+        cNameRead = new CountDownLatch(1);
+        cNameGate.set(tGate);
+        final AtomicReference<AsDataSourceIf<Item>> tSorted = new AtomicReference<AsDataSourceIf<Item>>();
+        Thread tBuilder = new Thread() {
+            @Override
+            public void run() {
+                tSorted.set(mOwner.getDataSource("items", mFilter, mSort));
+            }
+        };
+        tBuilder.setDaemon(true);
+        tBuilder.start();
+        assertTrue(cNameRead.await(5, TimeUnit.SECONDS));
+        Thread.sleep(5);
+
+        // The idle filtered data source is selected, but kept since it is being built from
+        mOwner.clean(false);
+        assertSame(tFiltered, mOwner.getDataSources().get(tFilteredKey));
+        assertEquals(0, mOwner.getEvictionPolicy().getEvictions());
+
+        cNameGate.set(null);
+        tGate.countDown();
+        tBuilder.join(5000);
+        assertFalse(tBuilder.isAlive());
+        assertSame(tFiltered, tSorted.get().getSource());
+
+        // Listened to by the sorted data source, only the sorted one is evicted
+        Thread.sleep(5);
+        mOwner.clean(false);
+        assertSame(tFiltered, mOwner.getDataSources().get(tFilteredKey));
+        assertNull(mOwner.getDataSources().get(AsDataSourceKeyGenerator.createKey("items", mFilter, mSort)));
+        assertEquals(1, mOwner.getEvictionPolicy().getEvictions());
+    }
+
+    @Test
+    public void testIdleDataSourceIsEvictedAndRebuilt() throws Exception {
+        AsDataSourceIf<Item> tFiltered = mOwner.getDataSource("items", mFilter, null);
+        Thread.sleep(5);
+        mOwner.clean(false);
+        Map<String, AsDataSourceIf<?>> tDataSources = mOwner.getDataSources();
+        assertNull(tDataSources.get(AsDataSourceKeyGenerator.createKey("items", mFilter, null)));
+        assertEquals(1, tDataSources.size());
+        AsDataSourceIf<Item> tRebuilt = mOwner.getDataSource("items", mFilter, null);
+        assertFalse(tFiltered == tRebuilt);
+        assertEquals(1, mOwner.getEvictionPolicy().getRebuilds());
+    }
+
+    @Test
+    public void testNarrowerFilterIsSeededFromARegisteredWiderOne() throws Exception {
+        AsEmapiTreeMapList<Item> tWide = (AsEmapiTreeMapList<Item>) mOwner.getDataSource("items", mFilter, null);
+        // Only in the parent from now on, so that a list built from the parent can be told apart
+        tWide.remove(new Item("item0", "even"));
+        AsFilterIf<Item> tNarrowFilter = AsAttributeValueFilter.create(Item.class, "kind=even,id=item0");
+        assertEquals(0, ((AsListIf<Item>) mOwner.getDataSource("items", tNarrowFilter, null)).size());
+
+        // Once evicted, the wider list is no longer used as a seed
+        Thread.sleep(5);
+        mOwner.clean(false);
+        assertEquals(1, mOwner.getDataSources().size());
+        assertEquals(1, ((AsListIf<Item>) mOwner.getDataSource("items", tNarrowFilter, null)).size());
+    }
+
+    /**
+     * Owner whose eviction policy selects every idle data source which is not permanent.
+     */
+    private static class TestDataSources extends AsDataSources {
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        protected AsDataSourceEvictionPolicy createEvictionPolicy() {
+            return new AsDataSourceEvictionPolicy("test") {
+                @Override
+                public List<String> select(Map<String, AsDataSourceIf<?>> pDataSources) {
+                    List<String> tKeys = new ArrayList<String>();
+                    for (Map.Entry<String, AsDataSourceIf<?>> tEntry : pDataSources.entrySet()) {
+                        if (!tEntry.getValue().isPermanent() && tEntry.getValue().getChildlessTime() > 0) {
+                            tKeys.add(tEntry.getKey());
+                        }
+                    }
+                    return tKeys;
+                }
+            };
+        }
+    }
+
+    /**
+     * Item whose name can be blocked from being read.
+     */
+    public static class Item {
+
+        /** The id. */
+        private final String mId;
+
+        /** The kind. */
+        private final String mKind;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         * @param pKind the kind
+         */
+        public Item(String pId, String pKind) {
+            mId = pId;
+            mKind = pKind;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getKind() {
+            return mKind;
+        }
+
+        public String getName() {
+            CountDownLatch tGate = cNameGate.get();
+            if (tGate != null) {
+                cNameRead.countDown();
+                try {
+                    tGate.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return "Item " + mId;
+        }
+    }
+
+}
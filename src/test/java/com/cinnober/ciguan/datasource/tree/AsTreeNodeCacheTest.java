@@ -0,0 +1,420 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.datasource.AsFilterIf;
+import com.cinnober.ciguan.datasource.AsListIf;
+import com.cinnober.ciguan.datasource.impl.AsEmapiTreeMapList;
+import com.cinnober.ciguan.impl.As;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the sharing of tree nodes between the trees created from the same definition
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class AsTreeNodeCacheTest implements MvcModelAttributesIf {
+
+    /** The tree definition. */
+    private AsTreeData mTreeData;
+
+    /** The items shown in the folders. */
+    private AsEmapiTreeMapList<Item> mItems;
+
+    /** The children of the items. */
+    private AsEmapiTreeMapList<Item> mChildren;
+
+    /** The objects linked by the items. */
+    private AsEmapiTreeMapList<Target> mTargets;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mTreeData = createTreeData();
+        mItems = new AsEmapiTreeMapList<Item>("items", Item.class, "id", "id");
+        mItems.add(new Item("a"));
+        mItems.add(new Item("b"));
+        mChildren = new AsEmapiTreeMapList<Item>("children", Item.class, "id", "id");
+        mChildren.add(new Item("c"));
+        mTargets = new AsEmapiTreeMapList<Target>("targets", Target.class, "id", "name");
+        mTargets.add(new Target("t", "first"));
+    }
+
+    @Test
+    public void testNodesAreSharedBetweenTrees() {
+        TestTree tFirst = new TestTree(mItems);
+        TestTree tSecond = new TestTree(mItems);
+        tFirst.mFolder.setExpanded(true);
+        assertEquals(2, mTreeData.getNodeCache().size());
+        tSecond.mFolder.setExpanded(true);
+        assertEquals(2, mTreeData.getNodeCache().size());
+
+        AsTreeNode tNode = tFirst.node("a");
+        assertNotSame(tNode, tSecond.node("a"));
+        assertSame(tNode.getId(), tSecond.node("a").getId());
+
+        Item tUpdated = new Item("a");
+        mItems.update(tUpdated);
+        assertSame(tUpdated, tFirst.node("a").getItem());
+        assertSame(tUpdated, tSecond.node("a").getItem());
+
+        tFirst.mFolder.setExpanded(false);
+        assertEquals(2, mTreeData.getNodeCache().size());
+        tSecond.mFolder.setExpanded(false);
+        assertEquals(0, mTreeData.getNodeCache().size());
+    }
+
+    @Test
+    public void testExpansionIsKeptPerTree() {
+        TestTree tFirst = new TestTree(mItems);
+        TestTree tSecond = new TestTree(mItems);
+        tFirst.mFolder.setExpanded(true);
+        tSecond.mFolder.setExpanded(true);
+
+        tFirst.node("a").setExpanded(true);
+        assertEquals(Boolean.TRUE, tFirst.node("a").getExpanded());
+        assertEquals(Boolean.FALSE, tSecond.node("a").getExpanded());
+        assertEquals(Arrays.asList("a", "c", "b"), tFirst.ids());
+        assertEquals(Arrays.asList("a", "b"), tSecond.ids());
+
+        tSecond.node("a").setExpanded(true);
+        tFirst.node("a").setExpanded(false);
+        assertEquals(Arrays.asList("a", "b"), tFirst.ids());
+        assertEquals(Arrays.asList("a", "c", "b"), tSecond.ids());
+    }
+
+    @Test
+    public void testLinkUpdatesReachAllTrees() {
+        AsEmapiTreeMapList<Item> tLinks = new AsEmapiTreeMapList<Item>("links", Item.class, "id", "id");
+        tLinks.add(new LinkItem("l", "t"));
+        TestTree tFirst = new TestTree(tLinks);
+        TestTree tSecond = new TestTree(tLinks);
+        tFirst.mFolder.setExpanded(true);
+        tSecond.mFolder.setExpanded(true);
+        assertEquals("first", ((Target) tFirst.node("t").getItem()).getName());
+        assertEquals("Target", tFirst.node("t").getType());
+        assertTrue(mTargets.hasListeners());
+
+        tFirst.mUpdates = 0;
+        tSecond.mUpdates = 0;
+        mTargets.update(new Target("t", "second"));
+        assertEquals("second", ((Target) tFirst.node("t").getItem()).getName());
+        assertEquals("second", ((Target) tSecond.node("t").getItem()).getName());
+        assertEquals(1, tFirst.mUpdates);
+        assertEquals(1, tSecond.mUpdates);
+
+        tFirst.mFolder.setExpanded(false);
+        assertTrue(mTargets.hasListeners());
+        tSecond.mFolder.setExpanded(false);
+        assertFalse(mTargets.hasListeners());
+        assertEquals(0, mTreeData.getNodeCache().size());
+    }
+
+    @Test
+    public void testLinksResolvedDifferentlyAreNotShared() {
+        AsEmapiTreeMapList<Item> tLinks = new AsEmapiTreeMapList<Item>("links", Item.class, "id", "id");
+        tLinks.add(new LinkItem("l", "t"));
+        AsEmapiTreeMapList<Target> tOtherTargets =
+            new AsEmapiTreeMapList<Target>("targets", Target.class, "id", "name");
+        tOtherTargets.add(new Target("t", "other"));
+        TestTree tFirst = new TestTree(tLinks);
+        TestTree tSecond = new TestTree(tLinks);
+        tSecond.mTargetSource = tOtherTargets;
+        tFirst.mFolder.setExpanded(true);
+        tSecond.mFolder.setExpanded(true);
+        assertEquals("first", ((Target) tFirst.node("t").getItem()).getName());
+        assertEquals("other", ((Target) tSecond.node("t").getItem()).getName());
+
+        tOtherTargets.update(new Target("t", "updated"));
+        assertEquals("first", ((Target) tFirst.node("t").getItem()).getName());
+        assertEquals("updated", ((Target) tSecond.node("t").getItem()).getName());
+
+        tSecond.mFolder.setExpanded(false);
+        assertFalse(tOtherTargets.hasListeners());
+        assertTrue(mTargets.hasListeners());
+        tFirst.mFolder.setExpanded(false);
+        assertFalse(mTargets.hasListeners());
+    }
+
+    /**
+     * Create a tree definition in which items have the children list as children, and items with a target
+     * are links to the targets list.
+     *
+     * @return the tree data
+     */
+    private static AsTreeData createTreeData() {
+        Map<String, String> tChild = new HashMap<String, String>();
+        tChild.put(ATTR_SOURCE, "children");
+        Map<String, String> tNode = new HashMap<String, String>();
+        tNode.put(ATTR_TAG_NAME, TAG_NODE);
+        tNode.put(ATTR_TYPE, As.getTypeName(Item.class));
+        Map<String, String> tLinkChild = new HashMap<String, String>();
+        tLinkChild.put(ATTR_SOURCE, "targets");
+        Map<String, String> tLink = new HashMap<String, String>();
+        tLink.put(ATTR_TAG_NAME, TAG_LINK);
+        tLink.put(ATTR_TYPE, As.getTypeName(LinkItem.class));
+        tLink.put(ATTR_KEY, "target");
+        Map<String, String> tRoot = new HashMap<String, String>();
+        tRoot.put(ATTR_TAG_NAME, TAG_ROOT);
+        Map<String, String> tTree = new HashMap<String, String>();
+        tTree.put(ATTR_ID, "tree");
+        return new AsTreeData(AsTestEnvironment.createData(tTree, Arrays.asList(
+            AsTestEnvironment.createData(tRoot, Collections.<CwfDataIf>emptyList()),
+            AsTestEnvironment.createData(tNode, Collections.singletonList(
+                AsTestEnvironment.createData(tChild, Collections.<CwfDataIf>emptyList()))),
+            AsTestEnvironment.createData(tLink, Collections.singletonList(
+                AsTestEnvironment.createData(tLinkChild, Collections.<CwfDataIf>emptyList()))))));
+    }
+
+    /**
+     * Item of the source lists.
+     */
+    public static class Item {
+
+        /** The id. */
+        private final String mId;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         */
+        public Item(String pId) {
+            mId = pId;
+        }
+
+        public String getId() {
+            return mId;
+        }
+    }
+
+    /**
+     * Item linking to a target.
+     */
+    public static class LinkItem extends Item {
+
+        /** The target. */
+        private final String mTarget;
+
+        /**
+         * Create a link item.
+         *
+         * @param pId the id
+         * @param pTarget the key of the target
+         */
+        public LinkItem(String pId, String pTarget) {
+            super(pId);
+            mTarget = pTarget;
+        }
+
+        public String getTarget() {
+            return mTarget;
+        }
+    }
+
+    /**
+     * Linked object.
+     */
+    public static class Target {
+
+        /** The id. */
+        private final String mId;
+
+        /** The name. */
+        private final String mName;
+
+        /**
+         * Create a target.
+         *
+         * @param pId the id
+         * @param pName the name
+         */
+        public Target(String pId, String pName) {
+            mId = pId;
+            mName = pName;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    /**
+     * Tree of one session, with a folder over a list and the data sources resolved by the test.
+     */
+    private class TestTree extends AsTreeList {
+
+        /** The folder. */
+        private final TestFolder mFolder;
+
+        /** The targets resolved by this tree. */
+        private AsListIf mTargetSource = mTargets;
+
+        /** The number of updates of nodes with objects. */
+        private int mUpdates;
+
+        /**
+         * Create the tree.
+         *
+         * @param pList the list shown in the folder
+         */
+        TestTree(AsListIf pList) {
+            super(null, mTreeData);
+            mFolder = new TestFolder(this, pList);
+            add(mFolder);
+        }
+
+        @Override
+        public AsListIf getDataSource(String pDataSourceId, String pFilterExpression) {
+            return mChildren;
+        }
+
+        @Override
+        public AsListIf getDataSource(String pDataSourceId, AsFilterIf pFilter) {
+            return mTargetSource;
+        }
+
+        @Override
+        public void update(AsTreeNode pNode) {
+            if (pNode instanceof AsTreeNodeWithObject) {
+                mUpdates++;
+            }
+            super.update(pNode);
+        }
+
+        /**
+         * Get the node of an item or a linked target.
+         *
+         * @param pId the id
+         * @return the node
+         */
+        AsTreeNode node(String pId) {
+            for (AsTreeNode tNode : values()) {
+                if (pId.equals(id(tNode))) {
+                    return tNode;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get the ids of the items of the nodes, in tree order.
+         *
+         * @return the ids
+         */
+        List<String> ids() {
+            List<String> tIds = new ArrayList<String>();
+            for (AsTreeNode tNode : values()) {
+                if (id(tNode) != null) {
+                    tIds.add(id(tNode));
+                }
+            }
+            return tIds;
+        }
+
+        /**
+         * Get the id of the item of a node.
+         *
+         * @param pNode the node
+         * @return the id, or {@code null} if the node is not a node with an object
+         */
+        private String id(AsTreeNode pNode) {
+            if (pNode.getItem() instanceof Item) {
+                return ((Item) pNode.getItem()).getId();
+            }
+            if (pNode.getItem() instanceof Target) {
+                return ((Target) pNode.getItem()).getId();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Folder showing all items of a list, created collapsed.
+     */
+    private static class TestFolder extends AsTreeNode<String> {
+
+        /** The child node source. */
+        private final AsTreeNodeSource mSource;
+
+        /**
+         * Create the folder.
+         *
+         * @param pRoot the root
+         * @param pList the list
+         */
+        TestFolder(AsTreeList pRoot, AsListIf pList) {
+            super(pRoot, "", "0000:items", "folder", "items");
+            setExpandable(true);
+            mSource = new AsTreeNodeSource(pRoot, mId, pList, 0, this);
+        }
+
+        @Override
+        public String getLabel() {
+            return getItem();
+        }
+
+        @Override
+        protected void expandNode() {
+            mSource.expand();
+        }
+
+        @Override
+        protected void collapseNode() {
+            mSource.collapse();
+        }
+
+        @Override
+        public void onRemove() {
+            mSource.stop();
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.AsTreeNodeIf;
+
+/**
+ * Tests the compact tree node identities
+ */
+public class AsTreeNodeIdTest {
+
+    /** The separator as a string. */
+    private static final String SEP = String.valueOf(AsTreeNodeIf.PATH_SEPARATOR);
+
+    @Test
+    public void testPathsAreRenderedAndParsed() {
+        AsTreeNodeId tParent = new AsTreeNodeId(AsTreeNodeId.ROOT, AsTreeNodeId.prefix(0), "a");
+        AsTreeNodeId tChild = new AsTreeNodeId(tParent, AsTreeNodeId.prefix(12), "b:c");
+        assertEquals(SEP + "0:a", tParent.getPath());
+        assertEquals(SEP + "0:a" + SEP + "12:b:c", tChild.getPath());
+        assertEquals("", AsTreeNodeId.ROOT.getPath());
+        assertSame(AsTreeNodeId.ROOT, AsTreeNodeId.parse(""));
+
+        AsTreeNodeId tParsed = AsTreeNodeId.parse(tChild.getPath());
+        assertEquals(tChild, tParsed);
+        assertEquals(tChild.hashCode(), tParsed.hashCode());
+        assertEquals(0, tChild.compareTo(tParsed));
+        assertEquals(tParent, tParsed.getParent());
+        assertEquals(AsTreeNodeId.child(tParent, "12:b:c"), tChild);
+        assertFalse(AsTreeNodeId.child(tParent, "12:b").equals(tChild));
+    }
+
+    @Test
+    public void testPrefixesAndLevelsAreShared() {
+        assertSame(AsTreeNodeId.prefix(3), AsTreeNodeId.prefix(3));
+        assertSame(AsTreeNodeId.prefix(42), AsTreeNodeId.prefix(42));
+        assertEquals("42:", AsTreeNodeId.prefix(42));
+        AsTreeNodeId tId = AsTreeNodeId.parse(SEP + "0:a" + SEP + "0:b" + SEP + "0:c");
+        assertEquals(3, tId.getDepth());
+        assertEquals("..", tId.getLevel());
+        assertEquals("........", AsTreeNodeId.level(8));
+        assertSame(AsTreeNodeId.level(8), AsTreeNodeId.level(8));
+    }
+
+    @Test
+    public void testDescendants() {
+        AsTreeNodeId tA = AsTreeNodeId.parse(SEP + "0:a");
+        AsTreeNodeId tAChild = AsTreeNodeId.parse(SEP + "0:a" + SEP + "1:x" + SEP + "0:y");
+        AsTreeNodeId tAb = AsTreeNodeId.parse(SEP + "0:ab" + SEP + "0:y");
+        assertTrue(tAChild.isDescendantOf(tA));
+        assertTrue(tAChild.isDescendantOf(AsTreeNodeId.ROOT));
+        assertFalse(tA.isDescendantOf(tA));
+        assertFalse(tA.isDescendantOf(tAChild));
+        assertFalse(tAb.isDescendantOf(tA));
+    }
+
+    @Test
+    public void testIdentitiesSortAsTheirPaths() {
+        List<String> tPaths = Arrays.asList(
+            SEP + "0:a",
+            SEP + "0:a" + SEP + "0:z",
+            SEP + "0:a" + SEP + "0:\uffff",
+            SEP + "0:a" + SEP + "10:b",
+            SEP + "0:a" + SEP + "2:b",
+            SEP + "0:a b",
+            SEP + "0:ab",
+            SEP + "0:b",
+            SEP + "0003:folder",
+            SEP + "0003:folder" + SEP + "0:x",
+            SEP + "1:a",
+            SEP + "1:a:b",
+            SEP + "1:ab",
+            SEP + "10:a",
+            SEP + "1a");
+        List<String> tSorted = new ArrayList<String>(tPaths);
+        Collections.shuffle(tSorted);
+        Collections.sort(tSorted);
+
+        List<AsTreeNodeId> tIds = new ArrayList<AsTreeNodeId>();
+        for (String tPath : tPaths) {
+            tIds.add(AsTreeNodeId.parse(tPath));
+        }
+        Collections.shuffle(tIds);
+        Collections.sort(tIds);
+        List<String> tRendered = new ArrayList<String>();
+        for (AsTreeNodeId tId : tIds) {
+            tRendered.add(tId.getPath());
+        }
+        assertEquals(tSorted, tRendered);
+    }
+
+}
@@ -0,0 +1,433 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.datasource.AsDataSourceEventIf;
+import com.cinnober.ciguan.datasource.AsDataSourceIf;
+import com.cinnober.ciguan.datasource.AsDataSourceListenerIf;
+import com.cinnober.ciguan.datasource.RpcSortCriteriaIf;
+import com.cinnober.ciguan.datasource.RpcSortCriteriaIf.SortOrder;
+import com.cinnober.ciguan.datasource.filter.RpcAttributeSortCriteria;
+import com.cinnober.ciguan.datasource.impl.AsAttributeValueSort;
+import com.cinnober.ciguan.datasource.impl.AsEmapiSortableTreeMapList;
+import com.cinnober.ciguan.datasource.impl.AsEmapiTreeMapList;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the materialization of tree child nodes against a live source list
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class AsTreeNodeSourceTest implements MvcModelAttributesIf {
+
+    /** The source list. */
+    private AsEmapiTreeMapList<Item> mList;
+
+    /** The tree. */
+    private TestTree mTree;
+
+    /** The folder holding the items of the source list. */
+    private TestFolder mFolder;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mList = new AsEmapiTreeMapList<Item>("items", Item.class, "id", "name");
+        mList.add(new Item("a"));
+        mList.add(new Item("b"));
+        mList.add(new Item("c"));
+        mTree = new TestTree();
+        mFolder = new TestFolder(mTree, mList);
+        mTree.add(mFolder);
+    }
+
+    @Test
+    public void testExpandCollapseAndRemove() {
+        assertEquals(Collections.emptyList(), children());
+
+        mFolder.setExpanded(true);
+        assertEquals(list("a", "b", "c"), children());
+
+        mList.remove(new Item("b"));
+        assertEquals(list("a", "c"), children());
+        mList.add(new Item("d"));
+        assertEquals(list("a", "c", "d"), children());
+
+        mFolder.setExpanded(false);
+        assertEquals(Collections.emptyList(), children());
+        assertEquals(1, mTree.size());
+
+        // Changes while collapsed are picked up by the next expand
+        mList.remove(new Item("a"));
+        mList.add(new Item("e"));
+        assertEquals(Collections.emptyList(), children());
+        mFolder.setExpanded(true);
+        assertEquals(list("c", "d", "e"), children());
+    }
+
+    @Test
+    public void testNodesAreFoundByTheirRenderedPath() {
+        mFolder.setExpanded(true);
+        int tIndex = 0;
+        for (AsTreeNode tNode : mTree.values()) {
+            assertSame(tNode, mTree.get(tNode.getPath()));
+            assertSame(tNode, mTree.get(tNode.getId()));
+            assertEquals(tIndex++, mTree.indexOf(tNode.getPath()));
+            assertEquals(tNode.getPath(), mTree.getKey(tNode));
+        }
+        assertEquals(4, tIndex);
+    }
+
+    @Test
+    public void testCollapsedFolderIsOnlyRefreshedWhenTheCountChanges() {
+        mTree.mFolderUpdates = 0;
+        mList.update(new Item("a"));
+        assertEquals(0, mTree.mFolderUpdates);
+        mList.add(new Item("d"));
+        assertEquals(1, mTree.mFolderUpdates);
+        mList.remove(new Item("d"));
+        assertEquals(2, mTree.mFolderUpdates);
+        mList.remove(new Item("d"));
+        assertEquals(2, mTree.mFolderUpdates);
+    }
+
+    @Test
+    public void testStopWhileAnEventIsDelivered() throws Exception {
+        mFolder.setExpanded(true);
+        final CountDownLatch tDelivering = new CountDownLatch(1);
+        final CountDownLatch tRelease = new CountDownLatch(1);
+        // Stop the delivery of the next event before it reaches the tree, with the listeners locked
+        mList.removeListener(mFolder.mSource);
+        mList.addListener(new AsDataSourceListenerIf<Item>() {
+            @Override
+            public AsDataSourceIf<Item> getDataSource() {
+                return mList;
+            }
+
+            @Override
+            public void onDataSourceEvent(AsDataSourceEventIf<Item> pEvent) {
+                if (pEvent.getType() == AsDataSourceEventIf.Type.ADD) {
+                    tDelivering.countDown();
+                    await(tRelease);
+                }
+            }
+        }, false);
+        mList.addListener(mFolder.mSource, false);
+
+        Thread tAdder = new Thread() {
+            @Override
+            public void run() {
+                mList.add(new Item("d"));
+            }
+        };
+        tAdder.setDaemon(true);
+        tAdder.start();
+        assertTrue(tDelivering.await(5, TimeUnit.SECONDS));
+        Thread tStopper = new Thread() {
+            @Override
+            public void run() {
+                mFolder.mSource.stop();
+            }
+        };
+        tStopper.setDaemon(true);
+        tStopper.start();
+        long tTimeout = System.currentTimeMillis() + 5000;
+        while (tStopper.getState() != Thread.State.BLOCKED && System.currentTimeMillis() < tTimeout) {
+            Thread.sleep(1);
+        }
+        tRelease.countDown();
+        tAdder.join(5000);
+        tStopper.join(5000);
+        assertFalse("The event delivery deadlocked with the stop", tAdder.isAlive() || tStopper.isAlive());
+        assertEquals(Collections.emptyList(), children());
+    }
+
+    @Test
+    public void testItemMovedBeyondTheMaterializedPage() {
+        AsEmapiTreeMapList<Item> tSorted = createPagedFolder();
+        tSorted.update(new Item("k000", "999"));
+        assertFalse(children().contains("k000"));
+        assertEquals(AsTreeNodeSource.DEFAULT_PAGE_SIZE - 1, children().size());
+        assertEquals(251 - AsTreeNodeSource.DEFAULT_PAGE_SIZE, moreCount());
+        expandAll();
+        assertEquals(250, children().size());
+        assertEquals(250, new HashSet<String>(children()).size());
+    }
+
+    @Test
+    public void testItemMovedIntoTheMaterializedPage() {
+        AsEmapiTreeMapList<Item> tSorted = createPagedFolder();
+        tSorted.update(new Item("k240", "000a"));
+        assertTrue(children().contains("k240"));
+        assertEquals(AsTreeNodeSource.DEFAULT_PAGE_SIZE + 1, children().size());
+        assertEquals(249 - AsTreeNodeSource.DEFAULT_PAGE_SIZE, moreCount());
+        expandAll();
+        assertEquals(250, children().size());
+        assertEquals(250, new HashSet<String>(children()).size());
+    }
+
+    /**
+     * Replace the folder with an expanded folder over 250 items sorted on rank, of which the first page
+     * is materialized.
+     *
+     * @return the source list of the sorted list, in key order
+     */
+    private AsEmapiTreeMapList<Item> createPagedFolder() {
+        AsEmapiTreeMapList<Item> tSource = new AsEmapiTreeMapList<Item>("paged", Item.class, "id", "name");
+        for (int i = 0; i < 250; i++) {
+            String tId = String.format("%03d", Integer.valueOf(i));
+            tSource.add(new Item("k" + tId, tId));
+        }
+        AsEmapiTreeMapList<Item> tSorted = new AsEmapiSortableTreeMapList<Item>("sorted", tSource, null,
+            new AsAttributeValueSort<Item>(Item.class,
+                new RpcSortCriteriaIf[] { new RpcAttributeSortCriteria("rank", SortOrder.ASCENDING) }));
+        mTree.remove(mFolder);
+        mFolder = new TestFolder(mTree, tSorted);
+        mTree.add(mFolder);
+        mFolder.setExpanded(true);
+        assertEquals(AsTreeNodeSource.DEFAULT_PAGE_SIZE, children().size());
+        return tSource;
+    }
+
+    /**
+     * Expand the continuation nodes of the folder until all children are materialized.
+     */
+    private void expandAll() {
+        for (int i = 0; i < 10 && moreNode() != null; i++) {
+            mFolder.mSource.expandMore(moreNode());
+        }
+        assertEquals(null, moreNode());
+    }
+
+    /**
+     * Get the continuation node of the folder.
+     *
+     * @return the continuation node, or {@code null} if all children are materialized
+     */
+    private AsTreeNodeMore moreNode() {
+        for (AsTreeNode tNode : mTree.values()) {
+            if (tNode instanceof AsTreeNodeMore) {
+                return (AsTreeNodeMore) tNode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of children shown by the continuation node of the folder.
+     *
+     * @return the number of children which are not materialized
+     */
+    private int moreCount() {
+        return moreNode() == null ? 0 : moreNode().getItem().intValue();
+    }
+
+    /**
+     * Await a latch, bounded in case of failure.
+     *
+     * @param pLatch the latch
+     */
+    private static void await(CountDownLatch pLatch) {
+        try {
+            pLatch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the ids of the items of all materialized child nodes, in tree order.
+     *
+     * @return the ids
+     */
+    private List<String> children() {
+        List<String> tIds = new ArrayList<String>();
+        for (AsTreeNode tNode : mTree.values()) {
+            if (tNode.getItem() instanceof Item) {
+                tIds.add(((Item) tNode.getItem()).getId());
+            }
+        }
+        return tIds;
+    }
+
+    /**
+     * Create a list of ids.
+     *
+     * @param pIds the ids
+     * @return the list
+     */
+    private static List<String> list(String... pIds) {
+        List<String> tIds = new ArrayList<String>();
+        Collections.addAll(tIds, pIds);
+        return tIds;
+    }
+
+    /**
+     * Create tree data with an empty root.
+     *
+     * @return the tree data
+     */
+    private static AsTreeData createTreeData() {
+        Map<String, String> tRoot = new HashMap<String, String>();
+        tRoot.put(ATTR_TAG_NAME, TAG_ROOT);
+        Map<String, String> tTree = new HashMap<String, String>();
+        tTree.put(ATTR_ID, "tree");
+        return new AsTreeData(AsTestEnvironment.createData(tTree, Collections.singletonList(AsTestEnvironment.createData(tRoot,
+            Collections.<CwfDataIf>emptyList()))));
+    }
+
+    /**
+     * Item of the source list.
+     */
+    public static class Item {
+
+        /** The id. */
+        private final String mId;
+
+        /** The rank. */
+        private final String mRank;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         */
+        public Item(String pId) {
+            this(pId, pId);
+        }
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         * @param pRank the rank
+         */
+        public Item(String pId, String pRank) {
+            mId = pId;
+            mRank = pRank;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getRank() {
+            return mRank;
+        }
+
+        public String getName() {
+            return "Item " + mId;
+        }
+    }
+
+    /**
+     * Tree counting the updates of folder nodes.
+     */
+    private static class TestTree extends AsTreeList {
+
+        /** The number of folder updates. */
+        private int mFolderUpdates;
+
+        /**
+         * Create the tree.
+         */
+        TestTree() {
+            super(null, createTreeData());
+        }
+
+        @Override
+        public void update(AsTreeNode pNode) {
+            if (pNode instanceof TestFolder) {
+                mFolderUpdates++;
+            }
+            super.update(pNode);
+        }
+    }
+
+    /**
+     * Folder showing all items of a list, created collapsed.
+     */
+    private static class TestFolder extends AsTreeNode<String> {
+
+        /** The child node source. */
+        private final AsTreeNodeSource<Item> mSource;
+
+        /**
+         * Create the folder.
+         *
+         * @param pRoot the root
+         * @param pList the list
+         */
+        TestFolder(AsTreeList pRoot, AsEmapiTreeMapList<Item> pList) {
+            super(pRoot, "", "0000:items", "folder", "items");
+            setExpandable(true);
+            mSource = new AsTreeNodeSource<Item>(pRoot, mId, pList, 0, this);
+        }
+
+        @Override
+        public String getLabel() {
+            return getItem();
+        }
+
+        @Override
+        protected void expandNode() {
+            mSource.expand();
+        }
+
+        @Override
+        protected void collapseNode() {
+            mSource.collapse();
+        }
+
+        @Override
+        public void onRemove() {
+            mSource.stop();
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.datasource.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.datasource.tree.AsTreeData.Child;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the sharing of node structure through the node templates of a tree definition
+ */
+public class AsTreeNodeTemplateTest implements MvcModelAttributesIf {
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Test
+    public void testTemplatesAreSharedPerType() {
+        AsTreeData tTreeData = createTreeData();
+        AsTreeNodeTemplate tTemplate = tTreeData.getNodeTemplate(new Item("a", "x"));
+        assertSame(tTemplate, tTreeData.getNodeTemplate(new Item("b", "y")));
+        assertEquals("Item", tTemplate.getType());
+    }
+
+    @Test
+    public void testChildListsAreSharedPerConditionOutcome() {
+        AsTreeNodeTemplate tTemplate = createTreeData().getNodeTemplate(new Item("a", "x"));
+        List<Child> tFirstX = tTemplate.getChildren(new Item("a", "x"));
+        List<Child> tSecondX = tTemplate.getChildren(new Item("b", "x"));
+        List<Child> tY = tTemplate.getChildren(new Item("c", "y"));
+
+        assertEquals(Arrays.asList("always", "onlyX"), sources(tFirstX));
+        assertEquals(Arrays.asList("always", "onlyY"), sources(tY));
+        assertSame(tFirstX, tSecondX);
+        assertNotSame(tFirstX, tY);
+        assertSame(tY, tTemplate.getChildren(new Item("d", "y")));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSharedChildListsCannotBeModified() {
+        AsTreeNodeTemplate tTemplate = createTreeData().getNodeTemplate(new Item("a", "x"));
+        tTemplate.getChildren(new Item("a", "x")).clear();
+    }
+
+    /**
+     * Get the sources of the given children.
+     *
+     * @param pChildren the children
+     * @return the sources
+     */
+    private static List<String> sources(List<Child> pChildren) {
+        List<String> tSources = new ArrayList<String>();
+        for (Child tChild : pChildren) {
+            tSources.add(tChild.getSource());
+        }
+        return tSources;
+    }
+
+    /**
+     * Create a tree definition with one unconditional and two conditional children for items.
+     *
+     * @return the tree data
+     */
+    private static AsTreeData createTreeData() {
+        List<CwfDataIf> tChildren = Arrays.asList(
+            child("always", null), child("onlyX", "kind=x"), child("onlyY", "kind=y"));
+        Map<String, String> tNode = new HashMap<String, String>();
+        tNode.put(ATTR_TAG_NAME, TAG_NODE);
+        tNode.put(ATTR_TYPE, "Item");
+        Map<String, String> tRoot = new HashMap<String, String>();
+        tRoot.put(ATTR_TAG_NAME, TAG_ROOT);
+        Map<String, String> tTree = new HashMap<String, String>();
+        tTree.put(ATTR_ID, "tree");
+        return new AsTreeData(AsTestEnvironment.createData(tTree, Arrays.asList(
+            AsTestEnvironment.createData(tRoot, Collections.<CwfDataIf>emptyList()),
+            AsTestEnvironment.createData(tNode, tChildren))));
+    }
+
+    /**
+     * Create the definition of a child list.
+     *
+     * @param pSource the source
+     * @param pCondition the condition, or {@code null}
+     * @return the child definition
+     */
+    private static CwfDataIf child(String pSource, String pCondition) {
+        Map<String, String> tChild = new HashMap<String, String>();
+        tChild.put(ATTR_SOURCE, pSource);
+        if (pCondition != null) {
+            tChild.put(ATTR_CONDITION, pCondition);
+        }
+        return AsTestEnvironment.createData(tChild, Collections.<CwfDataIf>emptyList());
+    }
+
+    /**
+     * Item with a kind deciding which children apply.
+     */
+    public static class Item {
+
+        /** The id. */
+        private final String mId;
+
+        /** The kind. */
+        private final String mKind;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         * @param pKind the kind
+         */
+        public Item(String pId, String pKind) {
+            mId = pId;
+            mKind = pKind;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getKind() {
+            return mKind;
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cinnober.ciguan.AsAuthorizationHandlerIf;
+
+/**
+ * Tests the registration of access rights in the authorization handler
+ */
+public class AsAuthorizationHandlerTest {
+
+    @Test
+    public void testGrantRevokeAndSet() {
+        RecordingHandler tHandler = new RecordingHandler();
+        tHandler.grantAccess("user", Arrays.asList("a", "b"));
+        assertTrue(tHandler.checkAccess("user", "a"));
+        assertFalse(tHandler.checkAccess("other", "a"));
+
+        tHandler.revokeAccess("user", Arrays.asList("a"));
+        assertFalse(tHandler.checkAccess("user", "a"));
+        assertEquals(new HashSet<Object>(Arrays.asList("b")), tHandler.getAccess("user"));
+
+        tHandler.setAccess("user", Arrays.asList("c"));
+        assertEquals(new HashSet<Object>(Arrays.asList("c")), tHandler.getAccess("user"));
+        tHandler.setAccess("user", Collections.emptyList());
+        assertTrue(tHandler.getAccess("user").isEmpty());
+    }
+
+    @Test
+    public void testOnlyEffectiveChangesAreAnnounced() {
+        RecordingHandler tHandler = new RecordingHandler();
+        tHandler.addAccess("user", "a");
+        assertTrue(tHandler.mChanges.isEmpty());
+
+        tHandler.setInitialized();
+        tHandler.addAccess("user", "a");
+        tHandler.revokeAccess("user", Arrays.asList("b"));
+        tHandler.setAccess("user", Arrays.asList("a"));
+        assertTrue(tHandler.mChanges.isEmpty());
+
+        tHandler.grantAccess("user", Arrays.asList("b"));
+        tHandler.revokeAccess("user", Arrays.asList("a"));
+        assertEquals(Arrays.asList("user", "user"), tHandler.mChanges);
+    }
+
+    @Test
+    public void testNullUserId() {
+        AsAuthorizationHandler tHandler = new AsAuthorizationHandler();
+        assertFalse(tHandler.checkAccess(null, "a"));
+        assertTrue(tHandler.getAccess(null).isEmpty());
+        try {
+            tHandler.grantAccess(null, Arrays.asList("a"));
+            fail("Expected a null user id to be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            tHandler.addAccess(null, "a");
+            fail("Expected a null user id to be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            tHandler.setAccess(null, Arrays.asList("a"));
+            fail("Expected a null user id to be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Handler recording the announced permission changes instead of broadcasting them
+     */
+    private static class RecordingHandler extends AsAuthorizationHandler {
+
+        private final List<String> mChanges = new ArrayList<String>();
+
+        @Override
+        protected void notifyPermissionChange(String pUserId) {
+            if (isInitialized()) {
+                mChanges.add(pUserId);
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultGrantAddsOneByOne() {
+        final List<Object> tAdded = new ArrayList<Object>();
+        AsAuthorizationHandlerIf tHandler = new AsAuthorizationHandlerIf() {
+            @Override
+            public boolean checkAccess(String pUserId, Object pServiceRef) {
+                return tAdded.contains(pServiceRef);
+            }
+
+            @Override
+            public void addAccess(String pUserId, Object pServiceRef) {
+                tAdded.add(pServiceRef);
+            }
+
+            @Override
+            public boolean isInitialized() {
+                return true;
+            }
+
+            @Override
+            public void setInitialized() {
+                // Always initialized
+            }
+        };
+        tHandler.grantAccess("user", Arrays.asList("a", "b"));
+        assertEquals(Arrays.asList("a", "b"), tAdded);
+        try {
+            tHandler.grantAccess(null, Arrays.asList("c"));
+            fail("A null user id was accepted");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals(2, tAdded.size());
+        }
+        try {
+            tHandler.revokeAccess("user", Arrays.asList("a"));
+            fail("Revoking access is not supported by default");
+        }
+        catch (UnsupportedOperationException e) {
+            assertTrue(tHandler.checkAccess("user", "a"));
+        }
+    }
+
+}
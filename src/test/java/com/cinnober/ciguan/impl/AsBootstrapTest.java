@@ -0,0 +1,160 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.cinnober.ciguan.AsInitializationException;
+
+/**
+ * Tests the dependency ordered component startup of the bootstrap
+ */
+public class AsBootstrapTest {
+
+    @Test
+    public void testIndependentComponentsStartInParallel() throws Exception {
+        System.setProperty(AsBootstrap.CWF_STARTUP_THREADS_PROPERTY, "2");
+        try {
+            // Each component waits for the other one to start, which only completes when run in parallel
+            CountDownLatch tLatch = new CountDownLatch(2);
+            List<String> tStarted = Collections.synchronizedList(new ArrayList<String>());
+            TestComponent tFirst = new TestComponent("first", tStarted, tLatch, Collections.<Class<?>>emptyList());
+            TestComponent tSecond = new TestComponent("second", tStarted, tLatch, Collections.<Class<?>>emptyList());
+            new AsBootstrap().startComponents(Arrays.<AsComponent>asList(tFirst, tSecond));
+            assertEquals(2, tStarted.size());
+        }
+        finally {
+            System.clearProperty(AsBootstrap.CWF_STARTUP_THREADS_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testDependenciesStartFirst() throws Exception {
+        System.setProperty(AsBootstrap.CWF_STARTUP_THREADS_PROPERTY, "4");
+        try {
+            List<String> tStarted = Collections.synchronizedList(new ArrayList<String>());
+            TestComponent tFirst = new SlowComponent("first", tStarted);
+            TestComponent tDependent = new TestComponent("dependent", tStarted, null,
+                Arrays.<Class<?>>asList(SlowComponent.class));
+            // Declares no dependencies and waits for all components created before it
+            TestComponent tLast = new TestComponent("last", tStarted, null, null);
+            new AsBootstrap().startComponents(Arrays.<AsComponent>asList(tFirst, tDependent, tLast));
+            assertEquals(Arrays.asList("first", "dependent", "last"), tStarted);
+        }
+        finally {
+            System.clearProperty(AsBootstrap.CWF_STARTUP_THREADS_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testFailurePropagates() throws Exception {
+        final AsInitializationException tFailure = new AsInitializationException("failed");
+        AsComponent tFailing = new AsComponent() {
+            @Override
+            public void startComponent() throws AsInitializationException {
+                throw tFailure;
+            }
+        };
+        try {
+            new AsBootstrap().startComponents(Arrays.<AsComponent>asList(tFailing));
+            fail("Expected the start failure to propagate");
+        }
+        catch (AsInitializationException e) {
+            assertSame(tFailure, e);
+        }
+    }
+
+    /**
+     * Component recording its start, optionally waiting for a latch shared with other components
+     */
+    private static class TestComponent extends AsComponent {
+
+        private final String mName;
+        private final List<String> mStarted;
+        private final CountDownLatch mLatch;
+        private final Collection<Class<?>> mDependencies;
+
+        TestComponent(String pName, List<String> pStarted, CountDownLatch pLatch,
+            Collection<Class<?>> pDependencies) {
+            mName = pName;
+            mStarted = pStarted;
+            mLatch = pLatch;
+            mDependencies = pDependencies;
+        }
+
+        @Override
+        public Collection<Class<?>> getStartDependencies() {
+            return mDependencies;
+        }
+
+        @Override
+        public void startComponent() throws AsInitializationException {
+            if (mLatch != null) {
+                mLatch.countDown();
+                try {
+                    assertTrue("Components were not started in parallel", mLatch.await(10, TimeUnit.SECONDS));
+                }
+                catch (InterruptedException e) {
+                    throw new AsInitializationException("Interrupted", e);
+                }
+            }
+            mStarted.add(mName);
+        }
+    }
+
+    /**
+     * Component without dependencies which takes a while to start, to expose a missing dependency
+     */
+    private static class SlowComponent extends TestComponent {
+
+        SlowComponent(String pName, List<String> pStarted) {
+            super(pName, pStarted, null, Collections.<Class<?>>emptyList());
+        }
+
+        @Override
+        public void startComponent() throws AsInitializationException {
+            try {
+                Thread.sleep(100);
+            }
+            catch (InterruptedException e) {
+                throw new AsInitializationException("Interrupted", e);
+            }
+            super.startComponent();
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.datasource.AsDataSourceEventIf;
+import com.cinnober.ciguan.datasource.AsDataSourceIf;
+import com.cinnober.ciguan.datasource.AsDataSourceListenerIf;
+import com.cinnober.ciguan.datasource.filter.AsFilterCache;
+import com.cinnober.ciguan.datasource.impl.AsEmapiTreeMapList;
+
+/**
+ * Tests the reference index of the cache
+ */
+public class AsCacheReferenceTest {
+
+    /** The list of referencing objects. */
+    private AsEmapiTreeMapList<Item> mList;
+
+    /** The reference. */
+    private AsCacheReference<Item, Object> mReference;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mList = new AsEmapiTreeMapList<Item>("items", Item.class, "id");
+        mList.add(new Item("a", "x"));
+        mList.add(new Item("b", "x"));
+        mList.add(new Item("c", "y"));
+        mReference = new AsCacheReference<Item, Object>(
+            "Item.ref", AsFilterCache.getGetMethod(Item.class, "ref"), mList);
+    }
+
+    @Test
+    public void testMappingFollowsTheList() {
+        assertEquals(Collections.singletonList("c"), ids(mReference.getMapping("y")));
+        assertEquals(list("a", "b"), ids(mReference.getMapping("x")));
+        mList.update(new Item("c", "x"));
+        assertEquals(list("a", "b", "c"), ids(mReference.getMapping("x")));
+        assertTrue(mReference.getMapping("y").isEmpty());
+    }
+
+    @Test
+    public void testViewSurvivesTheKeyBeingDropped() {
+        Collection<Item> tView = mReference.getMapping("y");
+        Collection<Item> tUnknown = mReference.getMapping("z");
+        mList.remove(new Item("c", "y"));
+        assertTrue(tView.isEmpty());
+        // The key is referenced again through a new set
+        mList.add(new Item("d", "y"));
+        mList.add(new Item("e", "z"));
+        assertEquals(Collections.singletonList("d"), ids(tView));
+        assertEquals(Collections.singletonList("e"), ids(tUnknown));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testViewIsReadOnly() {
+        mReference.getMapping("x").iterator().remove();
+    }
+
+    @Test
+    public void testDestroyWhileAnEventIsDelivered() throws Exception {
+        final CountDownLatch tDelivering = new CountDownLatch(1);
+        final CountDownLatch tRelease = new CountDownLatch(1);
+        // Hold the delivery of the next event before it reaches the reference, with the listeners locked
+        mList.removeListener(mReference);
+        mList.addListener(new AsDataSourceListenerIf<Item>() {
+            @Override
+            public AsDataSourceIf<Item> getDataSource() {
+                return mList;
+            }
+
+            @Override
+            public void onDataSourceEvent(AsDataSourceEventIf<Item> pEvent) {
+                if (pEvent.getType() == AsDataSourceEventIf.Type.ADD) {
+                    tDelivering.countDown();
+                    await(tRelease);
+                }
+            }
+        }, false);
+        mList.addListener(mReference, false);
+        Thread tAdder = new Thread() {
+            @Override
+            public void run() {
+                mList.add(new Item("d", "x"));
+            }
+        };
+        tAdder.setDaemon(true);
+        tAdder.start();
+        assertTrue(tDelivering.await(5, TimeUnit.SECONDS));
+        Thread tDestroyer = new Thread() {
+            @Override
+            public void run() {
+                mReference.destroy();
+            }
+        };
+        tDestroyer.setDaemon(true);
+        tDestroyer.start();
+        long tTimeout = System.currentTimeMillis() + 5000;
+        while (tDestroyer.getState() != Thread.State.BLOCKED && tDestroyer.isAlive()
+            && System.currentTimeMillis() < tTimeout) {
+            Thread.sleep(1);
+        }
+        tRelease.countDown();
+        tAdder.join(5000);
+        tDestroyer.join(5000);
+        assertFalse("The event delivery deadlocked with the destroy", tAdder.isAlive() || tDestroyer.isAlive());
+        assertTrue(mReference.getMapping("x").isEmpty());
+    }
+
+    /**
+     * Await a latch, bounded in case of failure.
+     *
+     * @param pLatch the latch
+     */
+    private static void await(CountDownLatch pLatch) {
+        try {
+            pLatch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the sorted ids of the given items.
+     *
+     * @param pItems the items
+     * @return the ids
+     */
+    private static List<String> ids(Collection<Item> pItems) {
+        List<String> tIds = new ArrayList<String>();
+        for (Item tItem : pItems) {
+            tIds.add(tItem.getId());
+        }
+        Collections.sort(tIds);
+        return tIds;
+    }
+
+    /**
+     * Create a list of ids.
+     *
+     * @param pIds the ids
+     * @return the list
+     */
+    private static List<String> list(String... pIds) {
+        List<String> tIds = new ArrayList<String>();
+        Collections.addAll(tIds, pIds);
+        return tIds;
+    }
+
+    /**
+     * Item referencing another object.
+     */
+    public static class Item {
+
+        /** The id. */
+        private final String mId;
+
+        /** The referenced key. */
+        private final String mRef;
+
+        /**
+         * Create an item.
+         *
+         * @param pId the id
+         * @param pRef the referenced key
+         */
+        public Item(String pId, String pRef) {
+            mId = pId;
+            mRef = pRef;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getRef() {
+            return mRef;
+        }
+
+        @Override
+        public boolean equals(Object pObject) {
+            return pObject instanceof Item && ((Item) pObject).mId.equals(mId);
+        }
+
+        @Override
+        public int hashCode() {
+            return mId.hashCode();
+        }
+    }
+
+}
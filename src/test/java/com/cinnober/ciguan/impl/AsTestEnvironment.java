@@ -0,0 +1,247 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cinnober.ciguan.AsBdxHandlerIf;
+import com.cinnober.ciguan.AsBeanFactoryIf;
+import com.cinnober.ciguan.AsConfigXmlParserIf;
+import com.cinnober.ciguan.AsFormatIf;
+import com.cinnober.ciguan.AsLoggerIf;
+import com.cinnober.ciguan.AsMetaDataHandlerIf;
+import com.cinnober.ciguan.AsRootIf;
+import com.cinnober.ciguan.AsTransportConfigurationIf;
+import com.cinnober.ciguan.CwfBusinessTypeIf;
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.data.AsCwfDataFactoryImpl;
+import com.cinnober.ciguan.data.CwfDataFactory;
+import com.cinnober.ciguan.meta.AsMetaDataHandler;
+import com.cinnober.ciguan.scheduler.AsSchedulerIf;
+import com.cinnober.ciguan.transport.impl.AsRequestTransformerConfiguration;
+
+/**
+ * Minimal server environment for tests of data sources and the classes built on them. The meta data
+ * handler is the real one and the formatter formats values as their string form, while the remaining
+ * singletons are inert: their methods do nothing and return {@code null}, zero or {@code false}. Tests
+ * may register their own implementation of an interface, which is then created by the bean factory.
+ */
+public final class AsTestEnvironment {
+
+    /** The started flag. */
+    private static boolean cStarted;
+
+    /** The implementations registered by tests, keyed by interface. */
+    private static final Map<Class<?>, Object> cImplementations = new ConcurrentHashMap<Class<?>, Object>();
+
+    /**
+     * Hidden constructor.
+     */
+    private AsTestEnvironment() {
+    }
+
+    /**
+     * Set up the singletons, once per JVM.
+     */
+    public static synchronized void start() {
+        if (cStarted) {
+            return;
+        }
+        cStarted = true;
+        CwfDataFactory.set(new AsCwfDataFactoryImpl());
+        AsBeanFactoryIf.Singleton.set(new AsBeanFactoryIf() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public <T> T create(Class<T> pInterfaceClass, String... pParameters) {
+                Object tImplementation = cImplementations.get(pInterfaceClass);
+                if (tImplementation != null) {
+                    return pInterfaceClass.cast(tImplementation);
+                }
+                if (pInterfaceClass == AsMetaDataHandlerIf.class) {
+                    return (T) new AsMetaDataHandler();
+                }
+                if (pInterfaceClass == AsFormatIf.class) {
+                    return (T) new AsFormatIf() {
+                        @Override
+                        public String format(Object pValue, CwfBusinessTypeIf pBusinessType, Locale pLocale) {
+                            return String.valueOf(pValue);
+                        }
+
+                        @Override
+                        public int getDivisor(CwfBusinessTypeIf pBusinessType) {
+                            return 1;
+                        }
+                    };
+                }
+                return inert(pInterfaceClass);
+            }
+        });
+        AsLoggerIf.Singleton.create();
+        AsMetaDataHandlerIf.SINGLETON.create();
+        AsTransportConfigurationIf.SINGLETON.create();
+        AsRootIf.Singleton.create();
+        AsSchedulerIf.Singleton.create();
+        AsFormatIf.Singleton.create();
+        AsBdxHandlerIf.Singleton.create();
+        AsConfigXmlParserIf.SINGLETON.set(inert(AsConfigXmlParserIf.class));
+    }
+
+    /**
+     * Register the implementation of an interface to be created by the bean factory, replacing the
+     * inert one. The singleton of the interface must be created again for the change to take effect.
+     *
+     * @param <T> the interface type
+     * @param pInterfaceClass the interface class
+     * @param pImplementation the implementation, or {@code null} to go back to the inert one
+     */
+    public static <T> void register(Class<T> pInterfaceClass, T pImplementation) {
+        if (pImplementation == null) {
+            cImplementations.remove(pInterfaceClass);
+        }
+        else {
+            cImplementations.put(pInterfaceClass, pImplementation);
+        }
+    }
+
+    /**
+     * Create configuration data holding the given properties and child nodes, as read from XML. Child
+     * nodes are also returned as the object list of their tag name, and string properties can be set.
+     *
+     * @param pProperties the properties
+     * @param pChildNodes the child nodes
+     * @return the data
+     */
+    public static CwfDataIf createData(Map<String, String> pProperties, final List<CwfDataIf> pChildNodes) {
+        final Map<String, String> tProperties = new HashMap<String, String>(pProperties);
+        return (CwfDataIf) Proxy.newProxyInstance(CwfDataIf.class.getClassLoader(), new Class<?>[] {CwfDataIf.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    String tName = pMethod.getName();
+                    if (tName.equals("getProperty") && pArgs.length == 1) {
+                        return tProperties.get(pArgs[0]);
+                    }
+                    if (tName.equals("setProperty") && pMethod.getParameterTypes()[1] == String.class) {
+                        tProperties.put((String) pArgs[0], (String) pArgs[1]);
+                        return null;
+                    }
+                    if (tName.equals("getAllChildNodes")) {
+                        return pChildNodes;
+                    }
+                    if (tName.equals("getObjectList")) {
+                        List<CwfDataIf> tObjects = new ArrayList<CwfDataIf>();
+                        for (CwfDataIf tChild : pChildNodes) {
+                            if (pArgs[0].equals(tChild.getProperty(MvcModelAttributesIf.ATTR_TAG_NAME))) {
+                                tObjects.add(tChild);
+                            }
+                        }
+                        return tObjects;
+                    }
+                    if (tName.equals("toString")) {
+                        return tProperties.toString();
+                    }
+                    return defaultValue(pMethod.getReturnType());
+                }
+            });
+    }
+
+    /**
+     * Create an inert implementation of an interface. The transport configuration returns an empty
+     * request transformer configuration, which is read when getters are created, and maps such as the
+     * view definitions of the configuration parser are empty.
+     *
+     * @param <T> the interface type
+     * @param pInterfaceClass the interface class
+     * @return the implementation
+     */
+    public static <T> T inert(final Class<T> pInterfaceClass) {
+        return pInterfaceClass.cast(Proxy.newProxyInstance(pInterfaceClass.getClassLoader(),
+            new Class<?>[] {pInterfaceClass}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    if (pMethod.getName().equals("equals")) {
+                        return pProxy == pArgs[0];
+                    }
+                    if (pMethod.getName().equals("hashCode")) {
+                        return System.identityHashCode(pProxy);
+                    }
+                    if (pMethod.getName().equals("toString")) {
+                        return pInterfaceClass.getSimpleName();
+                    }
+                    if (pMethod.getReturnType() == AsRequestTransformerConfiguration.class) {
+                        return new AsRequestTransformerConfiguration();
+                    }
+                    if (pMethod.getReturnType() == Map.class) {
+                        return Collections.emptyMap();
+                    }
+                    return defaultValue(pMethod.getReturnType());
+                }
+            }));
+    }
+
+    /**
+     * Get the default value of a type.
+     *
+     * @param pType the type
+     * @return the default value
+     */
+    private static Object defaultValue(Class<?> pType) {
+        if (pType == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (pType == int.class) {
+            return 0;
+        }
+        if (pType == long.class) {
+            return 0L;
+        }
+        if (pType == double.class) {
+            return 0d;
+        }
+        if (pType == float.class) {
+            return 0f;
+        }
+        if (pType == short.class) {
+            return (short) 0;
+        }
+        if (pType == byte.class) {
+            return (byte) 0;
+        }
+        if (pType == char.class) {
+            return (char) 0;
+        }
+        return null;
+    }
+
+}
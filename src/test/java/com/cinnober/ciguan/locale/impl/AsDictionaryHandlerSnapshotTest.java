@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.locale.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Locale;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.cinnober.ciguan.xml.impl.AsConfigSnapshot;
+
+/**
+ * Tests that the configuration snapshot tracks the dictionary files it was built from
+ */
+public class AsDictionaryHandlerSnapshotTest {
+
+    private static final String MODULE = "com.cinnober.ciguan.test.Module";
+    private static final String DICTIONARY = "snapshot-test-dictionary.txt";
+
+    private File mDirectory;
+    private ClassLoader mContextClassLoader;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("cwf-snapshot").toFile();
+        mContextClassLoader = Thread.currentThread().getContextClassLoader();
+        // A relative dictionary path which is only found through the context class loader
+        Thread.currentThread().setContextClassLoader(
+            new URLClassLoader(new URL[] {mDirectory.toURI().toURL()}, mContextClassLoader));
+        System.setProperty(AsConfigSnapshot.CWF_CONFIG_SNAPSHOT_PROPERTY,
+            new File(mDirectory, "snapshot.bin").getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(AsConfigSnapshot.CWF_CONFIG_SNAPSHOT_PROPERTY);
+        Thread.currentThread().setContextClassLoader(mContextClassLoader);
+        for (File tFile : mDirectory.listFiles()) {
+            tFile.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void testChangedDictionaryInvalidatesSnapshot() throws Exception {
+        writeDictionary("Hello");
+        assertEquals("Hello", startup().getTranslation("view.label.HELLO", Locale.UK));
+        assertTrue(new File(mDirectory, "snapshot.bin").isFile());
+
+        // Unchanged dictionary, the words are read from the snapshot
+        AsConfigSnapshot tSnapshot = AsConfigSnapshot.open(MODULE);
+        assertTrue(tSnapshot.isValid());
+        AsConfigSnapshot.close();
+
+        writeDictionary("Goodbye");
+        tSnapshot = AsConfigSnapshot.open(MODULE);
+        assertFalse(tSnapshot.isValid());
+        AsConfigSnapshot.close();
+        assertEquals("Goodbye", startup().getTranslation("view.label.HELLO", Locale.UK));
+    }
+
+    private AsDictionaryHandler startup() throws Exception {
+        AsConfigSnapshot tSnapshot = AsConfigSnapshot.open(MODULE);
+        Document tDocument = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        tDocument.appendChild(tDocument.createElement("Configuration"));
+        tSnapshot.setConfigurationDocument(tDocument.getDocumentElement());
+        AsDictionaryHandler tHandler = new AsDictionaryHandler();
+        tHandler.parse(DICTIONARY);
+        AsConfigSnapshot.close();
+        return tHandler;
+    }
+
+    private void writeDictionary(String pText) throws IOException {
+        try (Writer tWriter = new OutputStreamWriter(
+            new FileOutputStream(new File(mDirectory, DICTIONARY)), "UTF-8")) {
+            tWriter.write("key;en_GB\nview.label.HELLO;" + pText + "\n");
+        }
+    }
+
+}
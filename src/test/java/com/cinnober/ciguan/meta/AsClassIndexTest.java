@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests listing the classes of a package, and the null guards of the meta data caches
+ */
+public class AsClassIndexTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("cwf-classindex").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDirectory);
+    }
+
+    @Test
+    public void testDirectory() throws IOException {
+        File tPackage = new File(mDirectory, "test/pkg");
+        tPackage.mkdirs();
+        new File(tPackage, "First.class").createNewFile();
+        new File(tPackage, "First$Inner.class").createNewFile();
+        new File(tPackage, "readme.txt").createNewFile();
+        URLClassLoader tLoader = new URLClassLoader(new URL[] {mDirectory.toURI().toURL()}, null);
+        assertEquals(new HashSet<String>(Arrays.asList("First")), AsClassIndex.getClassNames("test.pkg", tLoader));
+
+        // The index is built from the class path each time, an added class is listed
+        new File(tPackage, "Second.class").createNewFile();
+        assertEquals(new HashSet<String>(Arrays.asList("First", "Second")),
+            AsClassIndex.getClassNames("test.pkg", tLoader));
+        assertNull(AsClassIndex.getClassNames("test.other", tLoader));
+        tLoader.close();
+    }
+
+    @Test
+    public void testJar() throws IOException {
+        File tJar = new File(mDirectory, "test.jar");
+        try (JarOutputStream tOut = new JarOutputStream(new FileOutputStream(tJar))) {
+            tOut.putNextEntry(new JarEntry("test/pkg/"));
+            tOut.putNextEntry(new JarEntry("test/pkg/Jarred.class"));
+            tOut.putNextEntry(new JarEntry("test/pkg/sub/Nested.class"));
+        }
+        URLClassLoader tLoader = new URLClassLoader(new URL[] {tJar.toURI().toURL()}, null);
+        assertEquals(new HashSet<String>(Arrays.asList("Jarred")), AsClassIndex.getClassNames("test.pkg", tLoader));
+        tLoader.close();
+    }
+
+    @Test
+    public void testNullClass() {
+        AsMetaDataHandler tHandler = new AsMetaDataHandler();
+        assertNull(tHandler.getTypeName(null));
+        assertNull(tHandler.getMetaData((Class<?>) null));
+    }
+
+    @Test
+    public void testClassMissingFromTheIndexIsLoaded() {
+        // A jar without directory entries leaves its classes out of the index of a package
+        AsMetaDataHandler tHandler = new AsMetaDataHandler();
+        tHandler.mClassIndex = Collections.<String, Set<String>>singletonMap("com.cinnober.ciguan.meta",
+            new HashSet<String>(Arrays.asList("AsMetaDataHandler")));
+        assertSame(AsMetaDataHandler.class, tHandler.findClass("com.cinnober.ciguan.meta", "AsMetaDataHandler"));
+        assertSame(AsClassIndex.class, tHandler.findClass("com.cinnober.ciguan.meta", "AsClassIndex"));
+        assertSame(AsClassIndex.class, tHandler.mUnindexedClasses.get("com.cinnober.ciguan.meta.AsClassIndex"));
+        assertNull(tHandler.findClass("com.cinnober.ciguan.meta", "Missing"));
+        assertTrue(tHandler.mMissingClasses.contains("com.cinnober.ciguan.meta.Missing"));
+    }
+
+    private static void delete(File pFile) {
+        File[] tFiles = pFile.listFiles();
+        if (tFiles != null) {
+            for (File tFile : tFiles) {
+                delete(tFile);
+            }
+        }
+        pFile.delete();
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.AsConnectionIf;
+import com.cinnober.ciguan.AsInitializationException;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+import com.cinnober.ciguan.request.AsPartialResponseIf;
+import com.cinnober.ciguan.request.AsResponseCallbackIf;
+import com.cinnober.ciguan.request.impl.AsRequestService;
+import com.cinnober.ciguan.service.AsServiceHandlerIf;
+
+/**
+ * Tests the execution of plain and streaming services by the service handler
+ */
+public class AsServiceHandlerTest {
+
+    /** The service handler. */
+    private AsServiceHandler mHandler;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() throws AsInitializationException {
+        mHandler = new AsServiceHandler();
+        mHandler.createAndRegisterService(Request.class.getName(), PlainService.class.getName());
+        mHandler.createAndRegisterService(StreamingRequest.class.getName(), StreamingService.class.getName());
+    }
+
+    @Test
+    public void testPlainService() throws Exception {
+        assertEquals("plain", mHandler.service(null, new Request()));
+        Recorder tRecorder = new Recorder(1);
+        assertTrue(mHandler.service(null, new Request(), tRecorder));
+        assertEquals(Arrays.asList("plain"), tRecorder.mResponses);
+        assertFalse(mHandler.service(null, "no service", tRecorder));
+        assertEquals(1, tRecorder.mResponses.size());
+    }
+
+    @Test
+    public void testStreamingServicePassesPartsAsTheyArrive() throws Exception {
+        StreamingRequest tRequest = new StreamingRequest();
+        Recorder tRecorder = new Recorder(2);
+        assertTrue(mHandler.service(null, tRequest, tRecorder));
+        // The first part is passed before the service has produced the rest
+        assertEquals(Arrays.asList("1"), tRecorder.parts());
+        tRequest.mRelease.countDown();
+        assertTrue(tRecorder.mDone.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("1", "2 last"), tRecorder.parts());
+    }
+
+    @Test
+    public void testStreamingServiceMustBeExecutedWithACallback() {
+        try {
+            mHandler.service(null, new StreamingRequest());
+            fail("A streaming service has no single response to return");
+        }
+        catch (AsServiceInvocationException e) {
+            assertTrue(e.getMessage().contains(StreamingService.class.getName()));
+        }
+    }
+
+    @Test
+    public void testRequestServicePassesPartsAsTheyArrive() throws Exception {
+        AsTestEnvironment.register(AsServiceHandlerIf.class, mHandler);
+        AsServiceHandlerIf.Singleton.create();
+        try {
+            StreamingRequest tRequest = new StreamingRequest();
+            Recorder tRecorder = new Recorder(2);
+            new AsRequestService().sendLocal(null, 1, tRequest, tRecorder);
+            assertEquals(Arrays.asList("1"), tRecorder.parts());
+            tRequest.mRelease.countDown();
+            assertTrue(tRecorder.mDone.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("1", "2 last"), tRecorder.parts());
+
+            // A request without a service is answered with null
+            tRecorder = new Recorder(1);
+            new AsRequestService().sendLocal(null, 1, "no service", tRecorder);
+            assertEquals(Arrays.asList((Object) null), tRecorder.mResponses);
+        }
+        finally {
+            AsTestEnvironment.register(AsServiceHandlerIf.class, null);
+            AsServiceHandlerIf.Singleton.create();
+        }
+    }
+
+    /**
+     * Callback recording the responses passed to it.
+     */
+    private static class Recorder implements AsResponseCallbackIf<Object> {
+
+        /** The responses. */
+        private final List<Object> mResponses = new ArrayList<Object>();
+
+        /** Counted down for each response. */
+        private final CountDownLatch mDone;
+
+        /**
+         * Create a recorder.
+         *
+         * @param pCount the number of responses expected
+         */
+        Recorder(int pCount) {
+            mDone = new CountDownLatch(pCount);
+        }
+
+        @Override
+        public void onResponse(Object pResponse) {
+            synchronized (mResponses) {
+                mResponses.add(pResponse);
+            }
+            mDone.countDown();
+        }
+
+        /**
+         * Get the parts received so far.
+         *
+         * @return the parts as strings
+         */
+        List<String> parts() {
+            synchronized (mResponses) {
+                List<String> tParts = new ArrayList<String>();
+                for (Object tResponse : mResponses) {
+                    tParts.add(tResponse.toString());
+                }
+                return tParts;
+            }
+        }
+    }
+
+    /**
+     * Request served by the plain service.
+     */
+    public static class Request {
+    }
+
+    /**
+     * Request served by the streaming service, which holds back the last part until released.
+     */
+    public static class StreamingRequest {
+
+        /** Released to let the service pass the last part. */
+        private final CountDownLatch mRelease = new CountDownLatch(1);
+    }
+
+    /**
+     * Part of a streamed response.
+     */
+    public static class Part implements AsPartialResponseIf {
+
+        /** The part number. */
+        private final int mNumber;
+
+        /** The last part flag. */
+        private final boolean mLastPart;
+
+        /**
+         * Create a part.
+         *
+         * @param pNumber the part number
+         * @param pLastPart the last part flag
+         */
+        public Part(int pNumber, boolean pLastPart) {
+            mNumber = pNumber;
+            mLastPart = pLastPart;
+        }
+
+        @Override
+        public boolean isLastPart() {
+            return mLastPart;
+        }
+
+        @Override
+        public String toString() {
+            return mLastPart ? mNumber + " last" : String.valueOf(mNumber);
+        }
+    }
+
+    /**
+     * Service returning its response.
+     */
+    public static class PlainService extends AsService {
+
+        /**
+         * Serve the request.
+         *
+         * @param pConnection the connection
+         * @param pRequest the request
+         * @return the response
+         */
+        public Object service(AsConnectionIf pConnection, Request pRequest) {
+            return "plain";
+        }
+    }
+
+    /**
+     * Service passing the first part of its response at once, and the last part from another thread
+     * when the request is released.
+     */
+    public static class StreamingService extends AsService {
+
+        /**
+         * Serve the request.
+         *
+         * @param pConnection the connection
+         * @param pRequest the request
+         * @param pCallback the callback receiving the parts
+         */
+        public void service(AsConnectionIf pConnection, final StreamingRequest pRequest,
+            final AsResponseCallbackIf<Object> pCallback) {
+            pCallback.onResponse(new Part(1, false));
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        pRequest.mRelease.await();
+                        pCallback.onResponse(new Part(2, true));
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }).start();
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.transport.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.CwfMessageIf;
+import com.cinnober.ciguan.client.impl.MvcEventEnum;
+import com.cinnober.ciguan.data.CwfDataFactory;
+import com.cinnober.ciguan.data.CwfMessage;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the outbound client messages of the transport service
+ */
+public class AsTransportServiceTest {
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Test
+    public void testQueuedMessagesAreKeptWhenTheConnectionIsSet() {
+        AsTransportService tService = new AsTransportService();
+        CwfMessageIf tFirst = message();
+        tService.addClientMessage(tFirst);
+        tService.setConnection(null);
+        CwfMessageIf tSecond = message();
+        tService.addClientMessage(tSecond);
+        assertEquals(Arrays.asList(tFirst, tSecond), tService.getPendingClientMessages());
+    }
+
+    @Test
+    public void testMessagesAddedToAReplacedQueueAreForwarded() {
+        AsTransportService tService = new AsTransportService();
+        AsClientMessageQueue tReplaced = tService.getClientMessageQueue();
+        tService.setConnection(null);
+        CwfMessageIf tMessage = message();
+        // A producer which read the queue before the connection was set
+        tReplaced.add(tMessage);
+        List<CwfMessageIf> tMessages = tService.getPendingClientMessages();
+        assertEquals(Arrays.asList(tMessage), tMessages);
+        assertEquals(0, tReplaced.size());
+    }
+
+    /**
+     * Create a message which is not coalesced.
+     *
+     * @return the message
+     */
+    private static CwfMessageIf message() {
+        return new CwfMessage(CwfDataFactory.create(MvcEventEnum.DataClearEvent), 0);
+    }
+
+}
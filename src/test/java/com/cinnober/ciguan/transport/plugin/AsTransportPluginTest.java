@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.transport.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.AsConnectionIf;
+import com.cinnober.ciguan.CwfDataIf;
+import com.cinnober.ciguan.CwfMessageIf;
+import com.cinnober.ciguan.client.MvcModelAttributesIf;
+import com.cinnober.ciguan.client.impl.MvcRequestEnum;
+import com.cinnober.ciguan.data.CwfDataFactory;
+import com.cinnober.ciguan.data.CwfMessage;
+import com.cinnober.ciguan.datasource.AsDataSourceServiceIf;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+
+/**
+ * Tests the dispatch of messages through the handler table of transport plugins
+ */
+public class AsTransportPluginTest implements MvcModelAttributesIf {
+
+    /** The handlers called, in order. */
+    private List<String> mCalls;
+
+    /** The plugin. */
+    private TestPlugin mPlugin;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mCalls = new ArrayList<String>();
+        mPlugin = new TestPlugin();
+    }
+
+    @Test
+    public void testDispatchOnName() {
+        assertTrue(mPlugin.dispatch(null, message("Plain", null)));
+        assertEquals("[plain]", mCalls.toString());
+    }
+
+    @Test
+    public void testDispatchOnNameAndType() {
+        assertTrue(mPlugin.dispatch(null, message("Typed", "First")));
+        assertTrue(mPlugin.dispatch(null, message("Typed", "Second")));
+        assertEquals("[first, second]", mCalls.toString());
+    }
+
+    @Test
+    public void testTypedMessageFallsBackToName() {
+        assertTrue(mPlugin.dispatch(null, message("Typed", "Other")));
+        assertTrue(mPlugin.dispatch(null, message("Typed", null)));
+        assertEquals("[typed, typed]", mCalls.toString());
+    }
+
+    @Test
+    public void testUnknownMessageIsNotDispatched() {
+        assertFalse(mPlugin.dispatch(null, message("Unknown", "First")));
+        assertFalse(mPlugin.dispatch(null, message("Plain2", null)));
+        assertEquals("[]", mCalls.toString());
+    }
+
+    @Test
+    public void testDataSourcePluginForwardsRequests() {
+        AsConnectionIf tConnection = connection(service());
+        AsDataSourcePlugin tPlugin = new AsDataSourcePlugin();
+        tPlugin.onMessage(tConnection, message(MvcRequestEnum.ViewportSortRequest.name(), null));
+        tPlugin.onMessage(tConnection, message(MvcRequestEnum.MenuRequest.name(), null));
+        tPlugin.onMessage(tConnection, message(MvcRequestEnum.SessionModel.name(), null));
+        tPlugin.onMessage(tConnection, message("NotADataSourceRequest", null));
+        assertEquals("[request, getMenu, resetDataSourceSubscriptions]", mCalls.toString());
+    }
+
+    @Test
+    public void testSessionPluginSubclassRegistersHandlersWhenConstructed() {
+        CustomSessionPlugin tPlugin = new CustomSessionPlugin("CustomRequest");
+        assertTrue(tPlugin.dispatch(null, message("CustomRequest", null)));
+        assertFalse(tPlugin.dispatch(null, message("Unknown", null)));
+        assertEquals("[custom]", mCalls.toString());
+    }
+
+    /**
+     * Create a message.
+     *
+     * @param pName the message name
+     * @param pObjectType the object type, or {@code null} for none
+     * @return the message
+     */
+    private static CwfMessageIf message(String pName, String pObjectType) {
+        CwfDataIf tData = CwfDataFactory.create();
+        tData.setProperty(ATTR_MODEL_NAME, pName);
+        if (pObjectType != null) {
+            tData.setProperty(ATTR_OBJECT_NAME, pObjectType);
+        }
+        return new CwfMessage(tData, 0);
+    }
+
+    /**
+     * Create a data source service recording the names of the methods called.
+     *
+     * @return the service
+     */
+    private AsDataSourceServiceIf service() {
+        return (AsDataSourceServiceIf) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { AsDataSourceServiceIf.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    mCalls.add(pMethod.getName());
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * Create a connection holding the given data source service.
+     *
+     * @param pService the service
+     * @return the connection
+     */
+    private AsConnectionIf connection(final AsDataSourceServiceIf pService) {
+        return (AsConnectionIf) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { AsConnectionIf.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    return pMethod.getName().equals("getDataSourceService") ? pService : null;
+                }
+            });
+    }
+
+    /**
+     * Plugin registering a handler per name and per name and type, recording the handlers called.
+     */
+    private class TestPlugin extends AsTransportPlugin {
+
+        /**
+         * Instantiates a new test plugin.
+         */
+        TestPlugin() {
+            addHandler("Plain", handler("plain"));
+            addHandler("Typed", handler("typed"));
+            addHandler("Typed", "First", handler("first"));
+            addHandler("Typed", "Second", handler("second"));
+        }
+
+        /**
+         * Create a handler recording the given name when called.
+         *
+         * @param pName the name
+         * @return the handler
+         */
+        private MessageHandler handler(final String pName) {
+            return new MessageHandler() {
+                @Override
+                public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+                    mCalls.add(pName);
+                }
+            };
+        }
+
+        @Override
+        public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+            dispatch(pConnection, pMessage);
+        }
+
+    }
+
+    /**
+     * Session plugin adding a handler for a request named when the plugin is created.
+     */
+    private class CustomSessionPlugin extends AsSessionPlugin {
+
+        /** The name of the application specific request. */
+        private final String mRequestName;
+
+        /**
+         * Instantiates a new custom session plugin.
+         *
+         * @param pRequestName the name of the application specific request
+         */
+        CustomSessionPlugin(String pRequestName) {
+            mRequestName = pRequestName;
+        }
+
+        @Override
+        protected void registerHandlers() {
+            super.registerHandlers();
+            addHandler(mRequestName, new MessageHandler() {
+                @Override
+                public void onMessage(AsConnectionIf pConnection, CwfMessageIf pMessage) {
+                    mCalls.add("custom");
+                }
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cinnober Financial Technology AB (cinnober.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cinnober.ciguan.transport.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cinnober.ciguan.AsBdxHandlerIf;
+import com.cinnober.ciguan.data.AsUserPreference;
+import com.cinnober.ciguan.data.AsUserPreferenceReset;
+import com.cinnober.ciguan.impl.AsTestEnvironment;
+import com.cinnober.ciguan.scheduler.AsScheduledTaskHandleIf;
+import com.cinnober.ciguan.scheduler.AsScheduledTaskIf;
+import com.cinnober.ciguan.scheduler.AsSchedulerIf;
+
+/**
+ * Tests the debouncing of user preference writes
+ */
+public class AsUserPreferenceWriterTest {
+
+    /** The quiet period used by the tests. */
+    private static final int DELAY = 50;
+
+    /** The messages broadcast. */
+    private List<Object> mBroadcasts;
+
+    /** The tasks scheduled and not yet run. */
+    private List<AsScheduledTaskIf> mTasks;
+
+    @BeforeClass
+    public static void beforeClass() {
+        AsTestEnvironment.start();
+    }
+
+    @Before
+    public void before() {
+        mBroadcasts = new ArrayList<Object>();
+        mTasks = new ArrayList<AsScheduledTaskIf>();
+        AsTestEnvironment.register(AsBdxHandlerIf.class, (AsBdxHandlerIf) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { AsBdxHandlerIf.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+                    if (pMethod.getName().equals("broadcast")) {
+                        mBroadcasts.add(pArgs[0]);
+                    }
+                    return null;
+                }
+            }));
+        AsTestEnvironment.register(AsSchedulerIf.class, new AsSchedulerIf() {
+            @Override
+            public AsScheduledTaskHandleIf schedule(AsScheduledTaskIf pTask) {
+                mTasks.add(pTask);
+                return null;
+            }
+        });
+        AsBdxHandlerIf.Singleton.create();
+        AsSchedulerIf.Singleton.create();
+    }
+
+    @After
+    public void after() {
+        AsTestEnvironment.register(AsBdxHandlerIf.class, null);
+        AsTestEnvironment.register(AsSchedulerIf.class, null);
+        AsBdxHandlerIf.Singleton.create();
+        AsSchedulerIf.Singleton.create();
+    }
+
+    @Test
+    public void testWritesAreBroadcastImmediatelyWithoutDelay() {
+        AsUserPreferenceWriter tWriter = new AsUserPreferenceWriter(0);
+        AsUserPreference tPreference = preference("x", "1");
+        tWriter.write(tPreference);
+        assertEquals(1, mBroadcasts.size());
+        assertSame(tPreference, mBroadcasts.get(0));
+        assertTrue(mTasks.isEmpty());
+    }
+
+    @Test
+    public void testLastValueIsBroadcastAfterTheQuietPeriod() throws Exception {
+        AsUserPreferenceWriter tWriter = new AsUserPreferenceWriter(DELAY);
+        tWriter.write(preference("x", "1"));
+        tWriter.write(preference("x", "2"));
+        tWriter.write(preference("y", "3"));
+        tWriter.write(preference("x", "4"));
+        assertTrue(mBroadcasts.isEmpty());
+        assertEquals(1, mTasks.size());
+        assertEquals(DELAY, mTasks.get(0).getDelayMs());
+        assertEquals(0, mTasks.get(0).getIntervalMs());
+
+        Thread.sleep(DELAY * 2);
+        runTasks();
+        assertEquals("[3, 4]", values());
+        // Nothing is pending, so no task is left scheduled
+        assertTrue(mTasks.isEmpty());
+    }
+
+    @Test
+    public void testTaskIsRescheduledWhileWritesArePending() {
+        AsUserPreferenceWriter tWriter = new AsUserPreferenceWriter(60000);
+        tWriter.write(preference("x", "1"));
+        runTasks();
+        assertTrue(mBroadcasts.isEmpty());
+        assertEquals(1, mTasks.size());
+        assertTrue(mTasks.get(0).getDelayMs() <= 60000);
+    }
+
+    @Test
+    public void testResetDiscardsPendingWritesInItsScope() throws Exception {
+        AsUserPreferenceWriter tWriter = new AsUserPreferenceWriter(DELAY);
+        tWriter.write(new AsUserPreference("u", "p", "s", "v", "i", "x", "1"));
+        tWriter.write(new AsUserPreference("u", "q", "s", "v", "i", "x", "2"));
+        tWriter.write(new AsUserPreference("w", "p", "s", "v", "i", "x", "3"));
+        AsUserPreferenceReset tReset = new AsUserPreferenceReset("u", "p", null, null);
+        tWriter.reset(tReset);
+        assertEquals(1, mBroadcasts.size());
+        assertSame(tReset, mBroadcasts.remove(0));
+
+        Thread.sleep(DELAY * 2);
+        runTasks();
+        assertEquals("[2, 3]", values());
+    }
+
+    /**
+     * Run the tasks scheduled so far, tasks scheduled while running them are kept for later.
+     */
+    private void runTasks() {
+        List<AsScheduledTaskIf> tTasks = new ArrayList<AsScheduledTaskIf>(mTasks);
+        mTasks.clear();
+        for (AsScheduledTaskIf tTask : tTasks) {
+            tTask.run();
+        }
+    }
+
+    /**
+     * Get the sorted values of the preferences broadcast.
+     *
+     * @return the values
+     */
+    private String values() {
+        List<String> tValues = new ArrayList<String>();
+        for (Object tMessage : mBroadcasts) {
+            tValues.add(((AsUserPreference) tMessage).getValue());
+        }
+        Collections.sort(tValues);
+        return tValues.toString();
+    }
+
+    /**
+     * Create a preference of user u.
+     *
+     * @param pPreference the preference name
+     * @param pValue the value
+     * @return the preference
+     */
+    private static AsUserPreference preference(String pPreference, String pValue) {
+        return new AsUserPreference("u", pPreference, pValue);
+    }
+
+}